@@ -0,0 +1,89 @@
+/*§
+  ===========================================================================
+  MacVerifier
+  ===========================================================================
+  Copyright (C) 2015 Gianluca Costa
+  ===========================================================================
+  Permission is hereby granted, free of charge, to any person obtaining a copy
+  of this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+  THE SOFTWARE.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.macverifier.benchmarks;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Random;
+
+/**
+ * Creates and deletes the temporary files employed by the benchmarks.
+ */
+final class BenchmarkFiles {
+
+    private static final long RANDOM_SEED = 90;
+
+    private BenchmarkFiles() {
+    }
+
+    static File createTempDirectory() throws IOException {
+        return Files.createTempDirectory("macverifier-jmh").toFile();
+    }
+
+    /**
+     * Writes a file of the given size, filled with pseudo-random - but reproducible - bytes.
+     */
+    static File createRandomFile(File directory, String name, long size) throws IOException {
+        File file = new File(directory, name);
+        Random random = new Random(RANDOM_SEED + size);
+        byte[] block = new byte[64 * 1024];
+
+        try (OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(file))) {
+            long remainingBytes = size;
+
+            while (remainingBytes > 0) {
+                random.nextBytes(block);
+
+                int blockSize = (int) Math.min(block.length, remainingBytes);
+                outputStream.write(block, 0, blockSize);
+                remainingBytes -= blockSize;
+            }
+        }
+
+        return file;
+    }
+
+    static void deleteTree(File directory) {
+        File[] children = directory.listFiles();
+
+        if (children != null) {
+            for (File child : children) {
+                if (child.isDirectory()) {
+                    deleteTree(child);
+                } else {
+                    child.delete();
+                }
+            }
+        }
+
+        directory.delete();
+    }
+}
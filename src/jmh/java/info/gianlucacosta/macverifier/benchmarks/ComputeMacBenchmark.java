@@ -0,0 +1,114 @@
+/*§
+  ===========================================================================
+  MacVerifier
+  ===========================================================================
+  Copyright (C) 2015 Gianluca Costa
+  ===========================================================================
+  Permission is hereby granted, free of charge, to any person obtaining a copy
+  of this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+  THE SOFTWARE.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.macverifier.benchmarks;
+
+import info.gianlucacosta.macverifier.mac.AbstractMacService;
+import info.gianlucacosta.macverifier.mac.MacResult;
+import info.gianlucacosta.macverifier.mac.MacServiceRegistry;
+import info.gianlucacosta.macverifier.mac.ReadSettings;
+import info.gianlucacosta.macverifier.mac.RegistryMacServiceFactory;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.Key;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the MAC computation on files, across algorithms, file sizes, read buffer sizes
+ * and read strategies; the key is derived once, during setup, so that only I/O
+ * and hashing are measured.
+ * <p>
+ * Files are read back from the page cache after the first iteration:
+ * the results therefore measure the CPU side of the pipeline.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class ComputeMacBenchmark {
+
+    @Param({"hmac-sha256", "hmac-sha512"})
+    public String algorithmId;
+
+    @Param({"65536", "16777216", "268435456"})
+    public long fileSize;
+
+    @Param({"8192", "65536", "1048576"})
+    public int bufferSize;
+
+    @Param({"direct", "mapped", "pipelined"})
+    public String readStrategy;
+
+    private File tempDirectory;
+    private File mainFile;
+
+    private AbstractMacService macService;
+    private Key macKey;
+    private byte[] macSalt;
+
+    @Setup
+    public void setUp() throws IOException {
+        tempDirectory = BenchmarkFiles.createTempDirectory();
+        mainFile = BenchmarkFiles.createRandomFile(tempDirectory, "main", fileSize);
+
+        macService = (AbstractMacService) new RegistryMacServiceFactory(new MacServiceRegistry(), algorithmId)
+                .createMacService();
+        macService.setReadSettings(createReadSettings());
+
+        macSalt = macService.createSalt();
+        macKey = macService.createMacKey("benchmark", macSalt);
+    }
+
+    private ReadSettings createReadSettings() {
+        switch (readStrategy) {
+            case "direct":
+                return new ReadSettings(bufferSize, 0, ReadSettings.DEFAULT.getMappingSize(), 0);
+
+            case "mapped":
+                return new ReadSettings(bufferSize, 1, ReadSettings.DEFAULT.getMappingSize(), 0);
+
+            case "pipelined":
+                return new ReadSettings(bufferSize, 1, ReadSettings.DEFAULT.getMappingSize(), 4);
+
+            default:
+                throw new IllegalArgumentException("Unknown read strategy: " + readStrategy);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        BenchmarkFiles.deleteTree(tempDirectory);
+    }
+
+    @Benchmark
+    public MacResult computeMac() throws IOException {
+        return macService.computeMac(macKey, macSalt, mainFile);
+    }
+}
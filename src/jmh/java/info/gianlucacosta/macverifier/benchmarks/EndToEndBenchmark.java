@@ -0,0 +1,157 @@
+/*§
+  ===========================================================================
+  MacVerifier
+  ===========================================================================
+  Copyright (C) 2015 Gianluca Costa
+  ===========================================================================
+  Permission is hereby granted, free of charge, to any person obtaining a copy
+  of this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+  THE SOFTWARE.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.macverifier.benchmarks;
+
+import info.gianlucacosta.macverifier.batch.BatchRunner;
+import info.gianlucacosta.macverifier.batch.BatchSummary;
+import info.gianlucacosta.macverifier.batch.MainFileCollector;
+import info.gianlucacosta.macverifier.batch.OrderedWorkerPool;
+import info.gianlucacosta.macverifier.engine.FileOutcome;
+import info.gianlucacosta.macverifier.engine.IncrementalMode;
+import info.gianlucacosta.macverifier.engine.MacFileEngine;
+import info.gianlucacosta.macverifier.engine.MacFileEngineFactory;
+import info.gianlucacosta.macverifier.mac.CachingMacServiceFactory;
+import info.gianlucacosta.macverifier.mac.DerivedKeyCache;
+import info.gianlucacosta.macverifier.mac.HMacSha256Service;
+import info.gianlucacosta.macverifier.mac.MacServiceFactory;
+import info.gianlucacosta.macverifier.mac.ReflectiveMacServiceFactory;
+import info.gianlucacosta.macverifier.storage.DefaultMacStorageService;
+import info.gianlucacosta.macverifier.storage.MacStorageService;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end verification, including key derivation and MAC file reading:
+ * a single file - as in the interactive mode - and a whole directory tree, as in batch mode.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class EndToEndBenchmark {
+
+    private static final String PASSWORD = "benchmark";
+
+    @Param({"1048576"})
+    public long singleFileSize;
+
+    @Param({"200"})
+    public int batchFileCount;
+
+    @Param({"16384"})
+    public long batchFileSize;
+
+    @Param({"1", "4"})
+    public int threadCount;
+
+    @Param({"false", "true"})
+    public boolean sharedSalt;
+
+    /**
+     * With virtual threads, threadCount is the maximum number of open files
+     */
+    @Param({"false", "true"})
+    public boolean virtualThreads;
+
+    private File tempDirectory;
+    private File singleMainFile;
+    private File batchDirectory;
+    private List<File> batchMainFiles;
+
+    private MacStorageService macStorageService;
+    private MacServiceFactory macServiceFactory;
+
+    @Setup
+    public void setUp() throws IOException {
+        tempDirectory = BenchmarkFiles.createTempDirectory();
+        macStorageService = new DefaultMacStorageService();
+        macServiceFactory = new ReflectiveMacServiceFactory(HMacSha256Service.class);
+
+        singleMainFile = BenchmarkFiles.createRandomFile(tempDirectory, "single", singleFileSize);
+
+        batchDirectory = new File(tempDirectory, "batch");
+        if (!batchDirectory.mkdir()) {
+            throw new IOException("Cannot create the batch directory");
+        }
+
+        for (int i = 0; i < batchFileCount; i++) {
+            BenchmarkFiles.createRandomFile(batchDirectory, String.format("file%05d", i), batchFileSize);
+        }
+
+        batchMainFiles = new MainFileCollector(macStorageService).collectFromDirectory(batchDirectory);
+
+        MacFileEngine macFileEngine = new MacFileEngine(macServiceFactory.createMacService(), macStorageService);
+        macFileEngine.createMacFile(singleMainFile, macStorageService.getMacFile(singleMainFile), PASSWORD);
+
+        BatchSummary creationSummary = createBatchRunner(new DerivedKeyCache(1), false).run(batchMainFiles, PASSWORD);
+        if (creationSummary.getCount(FileOutcome.CREATED) != batchFileCount) {
+            throw new IllegalStateException("Cannot create the MAC files: " + creationSummary);
+        }
+    }
+
+    private BatchRunner createBatchRunner(DerivedKeyCache derivedKeyCache, boolean verifyOnly) {
+        MacFileEngineFactory macFileEngineFactory = new MacFileEngineFactory(
+                new CachingMacServiceFactory(macServiceFactory, derivedKeyCache),
+                macStorageService,
+                sharedSalt ? macServiceFactory.createMacService().createSalt() : null,
+                IncrementalMode.DISABLED
+        );
+
+        OrderedWorkerPool workerPool = virtualThreads ?
+                OrderedWorkerPool.createVirtual(macFileEngineFactory, threadCount)
+                :
+                new OrderedWorkerPool(macFileEngineFactory, threadCount);
+
+        return new BatchRunner(new SilentUserInterface(), macFileEngineFactory, verifyOnly, workerPool);
+    }
+
+    @TearDown
+    public void tearDown() {
+        BenchmarkFiles.deleteTree(tempDirectory);
+    }
+
+    @Benchmark
+    public FileOutcome verifySingleFile() throws IOException {
+        MacFileEngine macFileEngine = new MacFileEngine(macServiceFactory.createMacService(), macStorageService);
+
+        return macFileEngine.verifyMainFile(singleMainFile, macStorageService.getMacFile(singleMainFile), PASSWORD);
+    }
+
+    /**
+     * Every invocation starts with an empty key cache, like a new run of the application.
+     */
+    @Benchmark
+    public BatchSummary verifyBatch() {
+        return createBatchRunner(new DerivedKeyCache(1024), true).run(batchMainFiles, PASSWORD);
+    }
+}
@@ -0,0 +1,73 @@
+/*§
+  ===========================================================================
+  MacVerifier
+  ===========================================================================
+  Copyright (C) 2015 Gianluca Costa
+  ===========================================================================
+  Permission is hereby granted, free of charge, to any person obtaining a copy
+  of this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+  THE SOFTWARE.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.macverifier.benchmarks;
+
+import info.gianlucacosta.macverifier.mac.HMacSha256Service;
+import info.gianlucacosta.macverifier.mac.KdfParameters;
+import org.openjdk.jmh.annotations.*;
+
+import java.security.Key;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of password-based key derivation across algorithms and iteration counts.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class KeyDerivationBenchmark {
+
+    private static final String PASSWORD = "benchmark";
+
+    @Param({"PBKDF2WithHmacSHA1", "PBKDF2WithHmacSHA256", "PBKDF2WithHmacSHA512"})
+    public String kdfAlgorithm;
+
+    @Param({"1000", "10000", "65536", "200000"})
+    public int iterationCount;
+
+    private HMacSha256Service macService;
+    private byte[] macSalt;
+    private KdfParameters kdfParameters;
+
+    @Setup
+    public void setUp() {
+        macService = new HMacSha256Service();
+        macSalt = macService.createSalt();
+
+        kdfParameters = macService.getDefaultKdfParameters()
+                .withAlgorithm(kdfAlgorithm)
+                .withIterationCount(iterationCount);
+    }
+
+    @Benchmark
+    public Key createMacKey() {
+        return macService.createMacKey(PASSWORD, macSalt, kdfParameters);
+    }
+}
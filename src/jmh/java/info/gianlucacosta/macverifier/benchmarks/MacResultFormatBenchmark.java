@@ -0,0 +1,103 @@
+/*§
+  ===========================================================================
+  MacVerifier
+  ===========================================================================
+  Copyright (C) 2015 Gianluca Costa
+  ===========================================================================
+  Permission is hereby granted, free of charge, to any person obtaining a copy
+  of this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+  THE SOFTWARE.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.macverifier.benchmarks;
+
+import info.gianlucacosta.macverifier.mac.MacResult;
+import info.gianlucacosta.macverifier.mac.tree.TreeMacResult;
+import info.gianlucacosta.macverifier.storage.BinaryMacResultFormat;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.*;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of encoding and decoding MAC files, in the binary format and in the legacy
+ * serialized one - in memory, so that only the formats are measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class MacResultFormatBenchmark {
+
+    @Param({"linear", "tree"})
+    public String macVariant;
+
+    private MacResult macResult;
+    private byte[] binaryBytes;
+    private byte[] serializedBytes;
+
+    @Setup
+    public void setUp() throws IOException {
+        Random random = new Random(90);
+
+        byte[] salt = new byte[16];
+        random.nextBytes(salt);
+
+        byte[] mac = new byte[32];
+        random.nextBytes(mac);
+
+        macResult = "tree".equals(macVariant) ?
+                new TreeMacResult(salt, mac, 4 * 1024 * 1024)
+                :
+                new MacResult(salt, mac);
+
+        binaryBytes = BinaryMacResultFormat.encode(macResult);
+        serializedBytes = serialize();
+    }
+
+    @Benchmark
+    public byte[] encodeBinary() throws IOException {
+        return BinaryMacResultFormat.encode(macResult);
+    }
+
+    @Benchmark
+    public MacResult decodeBinary() throws IOException {
+        return BinaryMacResultFormat.decode(binaryBytes);
+    }
+
+    @Benchmark
+    public byte[] serialize() throws IOException {
+        ByteArrayOutputStream byteOutputStream = new ByteArrayOutputStream();
+
+        try (ObjectOutputStream objectOutputStream = new ObjectOutputStream(byteOutputStream)) {
+            objectOutputStream.writeObject(macResult);
+        }
+
+        return byteOutputStream.toByteArray();
+    }
+
+    @Benchmark
+    public Object deserialize() throws IOException, ClassNotFoundException {
+        try (ObjectInputStream objectInputStream = new ObjectInputStream(new ByteArrayInputStream(serializedBytes))) {
+            return objectInputStream.readObject();
+        }
+    }
+}
@@ -0,0 +1,62 @@
+/*§
+  ===========================================================================
+  MacVerifier
+  ===========================================================================
+  Copyright (C) 2015 Gianluca Costa
+  ===========================================================================
+  Permission is hereby granted, free of charge, to any person obtaining a copy
+  of this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+  THE SOFTWARE.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.macverifier.benchmarks;
+
+import info.gianlucacosta.macverifier.ui.UserInterface;
+
+/**
+ * UserInterface discarding all the messages, so that console output does not affect measurements.
+ */
+class SilentUserInterface implements UserInterface {
+
+    @Override
+    public String askForPassword() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void print(String message) {
+    }
+
+    @Override
+    public void println(String line) {
+    }
+
+    @Override
+    public void printlnErr(String line) {
+    }
+
+    @Override
+    public void printFatal(String line) {
+        throw new IllegalStateException(line);
+    }
+
+    @Override
+    public void printFatal(Exception exception) {
+        throw new IllegalStateException(exception);
+    }
+}
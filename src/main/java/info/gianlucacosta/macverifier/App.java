@@ -26,63 +26,711 @@
 
 package info.gianlucacosta.macverifier;
 
-import info.gianlucacosta.macverifier.mac.HMacSha256Service;
-import info.gianlucacosta.macverifier.mac.MacResult;
+import info.gianlucacosta.macverifier.batch.BatchJournal;
+import info.gianlucacosta.macverifier.batch.BatchRunner;
+import info.gianlucacosta.macverifier.batch.BatchScheduler;
+import info.gianlucacosta.macverifier.batch.BatchSummary;
+import info.gianlucacosta.macverifier.batch.MainFileCollector;
+import info.gianlucacosta.macverifier.batch.OrderedWorkerPool;
+import info.gianlucacosta.macverifier.cache.VerificationCache;
+import info.gianlucacosta.macverifier.daemon.DaemonEndpoint;
+import info.gianlucacosta.macverifier.daemon.MacDaemon;
+import info.gianlucacosta.macverifier.daemon.MacDaemonClient;
+import info.gianlucacosta.macverifier.engine.FileOutcome;
+import info.gianlucacosta.macverifier.engine.IncrementalMode;
+import info.gianlucacosta.macverifier.engine.MacFileEngine;
+import info.gianlucacosta.macverifier.engine.MacFileEngineFactory;
+import info.gianlucacosta.macverifier.io.ReadThrottle;
+import info.gianlucacosta.macverifier.mac.CachingMacServiceFactory;
+import info.gianlucacosta.macverifier.mac.ConfiguringMacServiceFactory;
+import info.gianlucacosta.macverifier.mac.DerivedKeyCache;
+import info.gianlucacosta.macverifier.mac.KdfCalibrator;
+import info.gianlucacosta.macverifier.mac.KdfParameters;
+import info.gianlucacosta.macverifier.mac.KeyedMacService;
 import info.gianlucacosta.macverifier.mac.MacService;
+import info.gianlucacosta.macverifier.mac.MacServiceFactory;
+import info.gianlucacosta.macverifier.mac.MacServiceRegistry;
+import info.gianlucacosta.macverifier.mac.MultiMacResult;
+import info.gianlucacosta.macverifier.mac.MultiMacService;
+import info.gianlucacosta.macverifier.mac.ReadSettings;
+import info.gianlucacosta.macverifier.mac.RegistryMacServiceFactory;
+import info.gianlucacosta.macverifier.mac.tree.ChunkIndex;
+import info.gianlucacosta.macverifier.mac.tree.TreeMacResult;
+import info.gianlucacosta.macverifier.manifest.ManifestRunner;
+import info.gianlucacosta.macverifier.metrics.MeteringMacServiceFactory;
+import info.gianlucacosta.macverifier.metrics.MeteringMacStorageService;
+import info.gianlucacosta.macverifier.metrics.MeteringPasswordRequestService;
+import info.gianlucacosta.macverifier.metrics.RunMetrics;
 import info.gianlucacosta.macverifier.password.request.DefaultPasswordRequestService;
 import info.gianlucacosta.macverifier.password.request.PasswordRequestService;
+import info.gianlucacosta.macverifier.password.request.SourcePasswordRequestService;
+import info.gianlucacosta.macverifier.password.source.EnvironmentPasswordSource;
+import info.gianlucacosta.macverifier.password.source.FileDescriptorPasswordSource;
+import info.gianlucacosta.macverifier.password.source.KeyFilePasswordSource;
+import info.gianlucacosta.macverifier.password.source.PasswordSource;
 import info.gianlucacosta.macverifier.password.validation.DefaultPasswordValidationService;
+import info.gianlucacosta.macverifier.storage.DefaultMacStorageService;
+import info.gianlucacosta.macverifier.storage.MacStorageService;
 import info.gianlucacosta.macverifier.ui.ConsoleUserInterface;
 import info.gianlucacosta.macverifier.ui.SystemUserInterface;
 import info.gianlucacosta.macverifier.ui.UserInterface;
 
+import javax.management.ObjectName;
 import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 /**
  * The application's starting point.
  */
 public class App {
+    private static final String DEFAULT_ALGORITHM_ID = "hmac-sha256";
+
+    private static final String USAGE =
+            "Usage:\n" +
+                    "\t<main file path> [<MAC service>]\n" +
+                    "\t--batch <directory | - for paths from stdin> [--verify-only] [--threads <count>] [--shared-salt] [--key-cache-size <entries>] [--service <MAC service>]\n" +
+                    "\t--manifest <manifest file> <create | verify | update> <directory> [--threads <count>] [--shared-salt] [--key-cache-size <entries>] [--service <MAC service>]\n" +
+                    "\t--stdin <MAC file> [--service <MAC service>], to create or verify the MAC of data piped to stdin\n" +
+                    "\t--daemon [--port <port, 0 for any>] [--endpoint-file <file>] [--threads <count>] [--key-cache-size <entries>] [--service <MAC service>]\n" +
+                    "\t--client <ping | verify | sign | status | throttle | shutdown> [<main file path>] [--endpoint-file <file>]\n" +
+                    "\t--list-services\n" +
+                    "\t--calibrate <target key derivation time in ms> [--kdf <algorithm>] [--service <MAC service>]\n" +
+                    "\n" +
+                    "Key derivation, for new MAC files: [--kdf <JCA algorithm, such as PBKDF2WithHmacSHA256>] [--iterations <count>]\n" +
+                    "MAC services: the id of a registered service (default: " + DEFAULT_ALGORITHM_ID + ") or the FQN of a MacService class\n" +
+                    "Single-pass signing, when creating a MAC file: [--also-sign <MAC service>[,<MAC service>...], each written to <main file>.<id>.mac] [--digest <JCA algorithm, such as SHA-256>]\n" +
+                    "Batch scheduling - by default, input order: [--schedule, largest files first] [--priority <glob of the paths to process first>]\n" +
+                    "Resumable batches: [--journal <file>] [--resume, skipping the files already journaled]\n" +
+                    "Concurrency, for batches and manifests: [--threads <count>] or [--virtual-threads, one per file] [--max-open-files <count, with virtual threads>]\n" +
+                    "Unattended password, instead of the prompt: [--password-env <variable>] or [--password-fd <descriptor>] or [--password-file <key file>]\n" +
+                    "Verification cache, off by default - every file being verified in full: [--cache] or [--cache-file <file>] [--cache-size <entries>] [--cache-trust <hours>]\n" +
+                    "Throttling, adjustable via --client throttle in daemon mode: [--read-rate <KiB/s, 0 for unlimited>] [--max-hashing <files hashed at once, 0 for unlimited>]\n" +
+                    "Metrics: [--metrics-json <file written at exit>] [--progress <seconds between progress lines>]\n" +
+                    "Chunk indexes, for tree MACs: [--incremental] [--append, also extending the MAC of grown files]\n" +
+                    "Read tuning, in bytes: [--buffer-size <size>] [--mapping-threshold <size, 0 to disable mapping>] [--mapping-size <size>] [--pipeline-depth <buffers, replacing mapping>]";
+
+    private static final int DEFAULT_KEY_CACHE_SIZE = 1024;
+    private static final int DEFAULT_MAX_OPEN_FILES = 256;
+
     private final UserInterface userInterface;
-    private final MacService macService;
+    private final MacServiceFactory macServiceFactory;
+    private final MacStorageService macStorageService;
+    private final IncrementalMode incrementalMode;
+    private final RunMetrics metrics;
+    private final PasswordSource passwordSource;
+    private final VerificationCache verificationCache;
+    private final MacFileEngine macFileEngine;
 
 
-    public App(UserInterface userInterface, MacService macService) {
+    public App(UserInterface userInterface, MacServiceFactory macServiceFactory, IncrementalMode incrementalMode) {
+        this(userInterface, macServiceFactory, incrementalMode, RunMetrics.DISABLED);
+    }
+
+    /**
+     * The metrics also record the password prompts and the MAC file reads and writes;
+     * key derivation and hashing are recorded by the services of the factory, if metered.
+     */
+    public App(UserInterface userInterface, MacServiceFactory macServiceFactory, IncrementalMode incrementalMode, RunMetrics metrics) {
+        this(userInterface, macServiceFactory, incrementalMode, metrics, null);
+    }
+
+    /**
+     * When a password source is passed, the password is never prompted - which also enables
+     * reading paths or data from stdin without a console.
+     */
+    public App(UserInterface userInterface, MacServiceFactory macServiceFactory, IncrementalMode incrementalMode, RunMetrics metrics, PasswordSource passwordSource) {
+        this(userInterface, macServiceFactory, incrementalMode, metrics, passwordSource, null);
+    }
+
+    /**
+     * The verification cache, if not null, lets unchanged files that recently passed verification
+     * pass again without being read; it is not employed by the stream mode.
+     */
+    public App(UserInterface userInterface, MacServiceFactory macServiceFactory, IncrementalMode incrementalMode, RunMetrics metrics, PasswordSource passwordSource, VerificationCache verificationCache) {
         this.userInterface = userInterface;
-        this.macService = macService;
+        this.macServiceFactory = macServiceFactory;
+        this.incrementalMode = incrementalMode;
+        this.metrics = metrics;
+        this.passwordSource = passwordSource;
+        this.verificationCache = verificationCache;
+        this.macStorageService = new MeteringMacStorageService(new DefaultMacStorageService(), metrics);
+        this.macFileEngine = new MacFileEngineFactory(macServiceFactory, macStorageService, null, incrementalMode, verificationCache)
+                .createMacFileEngine();
     }
 
 
     public void run(File mainFile) {
+        run(mainFile, Collections.<String>emptyList(), null);
+    }
+
+    /**
+     * When the MAC file is created, the MAC files of the additional services - and the digest, if requested -
+     * are computed in the same read pass.
+     *
+     * @param digestAlgorithm the JCA name of the digest to print, or null
+     */
+    public void run(File mainFile, List<String> additionalAlgorithmIds, String digestAlgorithm) {
         try {
             if (!mainFile.isFile()) {
                 userInterface.printFatal("Inexisting main file");
             }
 
-            File macFile = new File(mainFile.getPath() + ".mac");
+            File macFile = macStorageService.getMacFile(mainFile);
 
             boolean macFileExists = macFile.isFile();
 
-            PasswordRequestService passwordRequestService = new DefaultPasswordRequestService(
-                    userInterface,
-                    new DefaultPasswordValidationService(),
-                    !macFileExists
-            );
+            PasswordRequestService passwordRequestService = createPasswordRequestService(!macFileExists);
 
 
-            if (macFileExists) {
+            if (macFileExists && macFileEngine.isExtensible(mainFile)) {
+                userInterface.println("The main file has grown since it was indexed; proceeding to MAC extension");
+                extendMacFile(passwordRequestService, mainFile, macFile);
+            } else if (macFileExists) {
                 userInterface.println("The related MAC file exists; proceeding to verification");
                 verifyMainFile(passwordRequestService, mainFile, macFile);
             } else {
                 userInterface.println(
                         String.format("A MAC file named '%s' will be created", macFile.getName())
                 );
-                createMacFile(passwordRequestService, mainFile, macFile);
+                if (additionalAlgorithmIds.isEmpty() && digestAlgorithm == null) {
+                    createMacFile(passwordRequestService, mainFile, macFile);
+                } else {
+                    createMacFiles(passwordRequestService, mainFile, additionalAlgorithmIds, digestAlgorithm);
+                }
+            }
+        } catch (Exception ex) {
+            userInterface.printFatal(ex);
+        }
+    }
+
+    /**
+     * Creates or verifies the MAC files of all the main files in a directory tree
+     * - or listed on stdin, one per line, when the source is "-" - asking for the password just once.
+     *
+     * Files are processed by threadCount workers - or, with virtualThreads, by one virtual thread per file,
+     * with at most threadCount files open at once; with sharedSalt, all the new MAC files share the same salt.
+     *
+     * @return the exit code matching the batch summary
+     */
+    public int runBatch(String source, boolean verifyOnly, int threadCount, boolean virtualThreads, boolean sharedSalt) {
+        return runBatch(source, verifyOnly, threadCount, virtualThreads, sharedSalt, null, false, null);
+    }
+
+    /**
+     * When journalFile is not null, the outcomes are recorded into a BatchJournal; with resume, the files
+     * already journaled by a previous run are not processed again.
+     * <p>
+     * When batchScheduler is not null, it reorders the files - and therefore the reported outcomes -
+     * otherwise they are processed in input order.
+     *
+     * @return the exit code matching the batch summary - including the journaled outcomes
+     */
+    public int runBatch(String source, boolean verifyOnly, int threadCount, boolean virtualThreads, boolean sharedSalt, File journalFile, boolean resume, BatchScheduler batchScheduler) {
+        BatchJournal journal = null;
+
+        try {
+            MainFileCollector mainFileCollector = new MainFileCollector(macStorageService);
+            List<File> mainFiles;
+
+            if ("-".equals(source)) {
+                if (passwordSource == null && System.console() == null) {
+                    userInterface.printFatal("Reading paths from stdin requires a console for the password");
+                }
+
+                mainFiles = mainFileCollector.collectFromReader(
+                        new BufferedReader(new InputStreamReader(System.in))
+                );
+            } else {
+                File rootDirectory = new File(source);
+
+                if (!rootDirectory.isDirectory()) {
+                    userInterface.printFatal("Inexisting batch directory");
+                }
+
+                mainFiles = mainFileCollector.collectFromDirectory(rootDirectory);
+            }
+
+            userInterface.println(String.format("%d files to process", mainFiles.size()));
+
+            if (batchScheduler != null) {
+                mainFiles = batchScheduler.schedule(mainFiles);
+            }
+
+            if (journalFile != null) {
+                journal = openJournal(journalFile, resume);
+            }
+
+            MacFileEngineFactory macFileEngineFactory = new MacFileEngineFactory(
+                    macServiceFactory,
+                    macStorageService,
+                    sharedSalt ? macServiceFactory.createMacService().createSalt() : null,
+                    incrementalMode,
+                    verificationCache
+            );
+
+            BatchRunner batchRunner = new BatchRunner(
+                    userInterface,
+                    macFileEngineFactory,
+                    verifyOnly,
+                    createWorkerPool(macFileEngineFactory, threadCount, virtualThreads),
+                    journal
+            );
+
+            PasswordRequestService passwordRequestService = createPasswordRequestService(batchRunner.requiresMacCreation(mainFiles));
+
+            String macPassword = passwordRequestService.requestPassword("Password: ");
+
+            if (macPassword == null) {
+                System.exit(1);
+            }
+
+            BatchSummary summary = batchRunner.run(mainFiles, macPassword);
+
+            userInterface.println(summary.toString());
+            printCacheHits();
+
+            return summary.getExitCode();
+        } catch (Exception ex) {
+            userInterface.printFatal(ex);
+            return BatchSummary.EXIT_CODE_FAILED;
+        } finally {
+            if (journal != null) {
+                try {
+                    journal.close();
+                } catch (IOException ex) {
+                    userInterface.printlnErr(
+                            String.format("Cannot close the journal: %s", ex.getMessage())
+                    );
+                }
+            }
+        }
+    }
+
+    /**
+     * The journal is also flushed if the JVM is terminated - for example, via Ctrl+C.
+     */
+    private BatchJournal openJournal(File journalFile, boolean resume) throws IOException {
+        final BatchJournal journal = BatchJournal.open(journalFile, resume);
+
+        if (journal.getResumedCount() > 0) {
+            userInterface.println(
+                    String.format("Resuming: %d files already journaled", journal.getResumedCount())
+            );
+        }
+
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            @Override
+            public void run() {
+                try {
+                    journal.flush();
+                } catch (IOException ex) {
+                    //The journal has already been closed
+                }
+            }
+        });
+
+        return journal;
+    }
+
+    /**
+     * Creates, verifies or updates the manifest of a directory tree, asking for the password just once.
+     *
+     * @return the exit code matching the batch summary
+     */
+    public int runManifest(File manifestFile, String command, File rootDirectory, int threadCount, boolean virtualThreads, boolean sharedSalt) {
+        try {
+            if (!rootDirectory.isDirectory()) {
+                userInterface.printFatal("Inexisting manifest directory");
+            }
+
+            boolean verifying = "verify".equals(command);
+
+            switch (command) {
+                case "create":
+                    if (manifestFile.exists()) {
+                        userInterface.printFatal("The manifest file already exists - use the update command");
+                    }
+                    break;
+
+                case "verify":
+                case "update":
+                    if (!manifestFile.isFile()) {
+                        userInterface.printFatal("Inexisting manifest file");
+                    }
+                    break;
+
+                default:
+                    userInterface.printFatal(String.format("Unknown manifest command: '%s'\n%s", command, USAGE));
+            }
+
+            MacFileEngineFactory macFileEngineFactory = new MacFileEngineFactory(
+                    macServiceFactory,
+                    macStorageService,
+                    sharedSalt ? macServiceFactory.createMacService().createSalt() : null,
+                    IncrementalMode.DISABLED,
+                    verificationCache
+            );
+
+            ManifestRunner manifestRunner = new ManifestRunner(
+                    userInterface,
+                    macFileEngineFactory,
+                    createWorkerPool(macFileEngineFactory, threadCount, virtualThreads)
+            );
+
+            PasswordRequestService passwordRequestService = createPasswordRequestService(!verifying);
+
+            String macPassword = passwordRequestService.requestPassword("Password: ");
+
+            if (macPassword == null) {
+                System.exit(1);
+            }
+
+            BatchSummary summary;
+            switch (command) {
+                case "create":
+                    summary = manifestRunner.create(rootDirectory, manifestFile, macPassword);
+                    break;
+
+                case "update":
+                    summary = manifestRunner.update(rootDirectory, manifestFile, macPassword);
+                    break;
+
+                default:
+                    summary = manifestRunner.verify(rootDirectory, manifestFile, macPassword);
+                    break;
+            }
+
+            userInterface.println(summary.toString());
+            printCacheHits();
+
+            return summary.getExitCode();
+        } catch (Exception ex) {
+            userInterface.printFatal(ex);
+            return BatchSummary.EXIT_CODE_FAILED;
+        }
+    }
+
+    /**
+     * Verifies the data piped to stdin against the given MAC file - or creates the MAC file, if missing -
+     * reading the data just once and never storing it; the password is read from the console.
+     *
+     * @return 0 if the MAC file was created or the data is authentic, 1 otherwise
+     */
+    public int runStream(File macFile) {
+        try {
+            if (passwordSource == null && System.console() == null) {
+                userInterface.printFatal("Reading data from stdin requires a console for the password");
+            }
+
+            boolean macFileExists = macFile.isFile();
+
+            PasswordRequestService passwordRequestService = createPasswordRequestService(!macFileExists);
+
+            String macPassword = passwordRequestService.requestPassword("Password: ");
+
+            if (macPassword == null) {
+                System.exit(1);
+            }
+
+            InputStream sourceStream = new BufferedInputStream(System.in);
+
+            if (macFileExists) {
+                FileOutcome outcome = macFileEngine.verifyStream(sourceStream, macFile, macPassword);
+
+                if (outcome != FileOutcome.PASSED) {
+                    userInterface.printlnErr("The data (or its MAC file) has been tampered with! Or did you type the wrong password?");
+                    return BatchSummary.EXIT_CODE_FAILED;
+                }
+
+                userInterface.println("OK - The data is authentic and integrity checked");
+            } else {
+                macFileEngine.createMacFileFromStream(sourceStream, macFile, macPassword);
+
+                userInterface.println(
+                        String.format("OK - MAC file '%s' created", macFile.getName())
+                );
+            }
+
+            return BatchSummary.EXIT_CODE_SUCCESS;
+        } catch (Exception ex) {
+            userInterface.printFatal(ex);
+            return BatchSummary.EXIT_CODE_FAILED;
+        }
+    }
+
+    /**
+     * Runs a resident daemon serving verify/sign requests on the loopback interface, until a shutdown request;
+     * the daemon's port and access token are published in the given endpoint file.
+     */
+    public void runDaemon(int port, File endpointFile, int threadCount) {
+        runDaemon(port, endpointFile, threadCount, null);
+    }
+
+    /**
+     * @param readThrottle the throttle shared by the MAC services, adjustable by the clients; can be null
+     */
+    public void runDaemon(int port, File endpointFile, int threadCount, ReadThrottle readThrottle) {
+        try {
+            MacFileEngineFactory macFileEngineFactory = new MacFileEngineFactory(
+                    macServiceFactory,
+                    macStorageService,
+                    null,
+                    incrementalMode,
+                    verificationCache
+            );
+
+            //Monitoring tools such as JConsole can follow the daemon via JMX
+            ManagementFactory.getPlatformMBeanServer().registerMBean(
+                    metrics,
+                    new ObjectName("info.gianlucacosta.macverifier:type=RunMetrics")
+            );
+
+            String accessToken = DaemonEndpoint.createAccessToken();
+            MacDaemon daemon = new MacDaemon(userInterface, macFileEngineFactory, threadCount, accessToken, readThrottle, metrics);
+
+            DaemonEndpoint endpoint = new DaemonEndpoint(daemon.bind(port), accessToken);
+
+            try {
+                endpoint.write(endpointFile);
+
+                userInterface.println(
+                        String.format("Daemon listening on localhost:%d - endpoint file: '%s'", endpoint.getPort(), endpointFile)
+                );
+
+                daemon.serve();
+            } finally {
+                daemon.stop();
+                endpointFile.delete();
             }
+
+            userInterface.println("Daemon stopped");
         } catch (Exception ex) {
             userInterface.printFatal(ex);
         }
     }
 
+    /**
+     * Sends a request to a running daemon; the password is only requested by verify and sign.
+     *
+     * @return the exit code matching the outcome
+     */
+    public int runClient(String command, File mainFile, File endpointFile) {
+        return runClient(command, mainFile, endpointFile, -1, -1);
+    }
+
+    /**
+     * @param bytesPerSecond the read rate requested by throttle, or a negative value to keep the current one
+     * @param maxHashedFiles the maximum number of files hashed at once requested by throttle,
+     *                       or a negative value to keep the current one
+     */
+    public int runClient(String command, File mainFile, File endpointFile, long bytesPerSecond, int maxHashedFiles) {
+        try {
+            if (!endpointFile.isFile()) {
+                userInterface.printFatal("Inexisting endpoint file - is the daemon running?");
+            }
+
+            DaemonEndpoint endpoint = DaemonEndpoint.read(endpointFile);
+
+            try (MacDaemonClient client = new MacDaemonClient(endpoint)) {
+                switch (command) {
+                    case "ping":
+                        client.ping();
+                        userInterface.println("OK - The daemon is running");
+                        return BatchSummary.EXIT_CODE_SUCCESS;
+
+                    case "shutdown":
+                        client.shutdown();
+                        userInterface.println("OK - The daemon is stopping");
+                        return BatchSummary.EXIT_CODE_SUCCESS;
+
+                    case "status":
+                        userInterface.println(client.status());
+                        return BatchSummary.EXIT_CODE_SUCCESS;
+
+                    case "throttle":
+                        userInterface.println(
+                                String.format("OK - %s", client.throttle(bytesPerSecond, maxHashedFiles))
+                        );
+                        return BatchSummary.EXIT_CODE_SUCCESS;
+
+                    case "verify":
+                    case "sign":
+                        break;
+
+                    default:
+                        userInterface.printFatal(String.format("Unknown client command: '%s'\n%s", command, USAGE));
+                }
+
+                if (mainFile == null) {
+                    userInterface.printFatal(USAGE);
+                }
+
+                boolean signing = "sign".equals(command);
+
+                PasswordRequestService passwordRequestService = createPasswordRequestService(signing);
+
+                String macPassword = passwordRequestService.requestPassword("Password: ");
+
+                if (macPassword == null) {
+                    System.exit(1);
+                }
+
+                File absoluteMainFile = mainFile.getAbsoluteFile();
+
+                FileOutcome outcome = signing ?
+                        client.sign(absoluteMainFile, macPassword)
+                        :
+                        client.verify(absoluteMainFile, macPassword);
+
+                userInterface.println(outcome.name());
+
+                BatchSummary summary = new BatchSummary();
+                summary.register(outcome);
+
+                return summary.getExitCode();
+            }
+        } catch (Exception ex) {
+            userInterface.printFatal(ex);
+            return BatchSummary.EXIT_CODE_FAILED;
+        }
+    }
+
+    /**
+     * With a password source, confirmation is replaced by validation.
+     */
+    private PasswordRequestService createPasswordRequestService(boolean requestConfirmation) {
+        PasswordRequestService passwordRequestService;
+
+        if (passwordSource != null) {
+            passwordRequestService = new SourcePasswordRequestService(
+                    userInterface,
+                    passwordSource,
+                    new DefaultPasswordValidationService(),
+                    requestConfirmation
+            );
+        } else {
+            passwordRequestService = new DefaultPasswordRequestService(
+                    userInterface,
+                    new DefaultPasswordValidationService(),
+                    requestConfirmation
+            );
+        }
+
+        return new MeteringPasswordRequestService(passwordRequestService, metrics);
+    }
+
+    private void printCacheHits() {
+        if (verificationCache != null && verificationCache.getHitCount() > 0) {
+            userInterface.println(
+                    String.format("Passed via the verification cache: %d", verificationCache.getHitCount())
+            );
+        }
+    }
+
+    /**
+     * Returns null - disabling the cache - unless --cache or --cache-file is passed, or if the cache file
+     * cannot be read. The cache is saved when the JVM exits.
+     */
+    private static VerificationCache loadVerificationCache(final UserInterface userInterface, CommandLineOptions options) {
+        if (!options.hasFlag("cache") && !options.hasOption("cache-file")) {
+            return null;
+        }
+
+        File cacheFile = options.hasOption("cache-file") ?
+                new File(options.getOption("cache-file"))
+                :
+                VerificationCache.getDefaultCacheFile();
+
+        final VerificationCache verificationCache;
+        try {
+            verificationCache = VerificationCache.load(
+                    cacheFile,
+                    options.getIntOption("cache-size", VerificationCache.DEFAULT_CAPACITY),
+                    TimeUnit.HOURS.toMillis(options.getLongOption("cache-trust", TimeUnit.MILLISECONDS.toHours(VerificationCache.DEFAULT_TRUST_WINDOW_MILLIS)))
+            );
+        } catch (IOException ex) {
+            userInterface.printlnErr(
+                    String.format("Cannot read the verification cache - it will not be employed: %s", ex.getMessage())
+            );
+            return null;
+        }
+
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            @Override
+            public void run() {
+                try {
+                    verificationCache.save();
+                } catch (IOException ex) {
+                    userInterface.printlnErr(
+                            String.format("Cannot save the verification cache: %s", ex.getMessage())
+                    );
+                }
+            }
+        });
+
+        return verificationCache;
+    }
+
+    /**
+     * Returns null - keeping the input order - unless --schedule or --priority is passed.
+     */
+    private static BatchScheduler createBatchScheduler(CommandLineOptions options) {
+        if (!options.hasFlag("schedule") && !options.hasOption("priority")) {
+            return null;
+        }
+
+        return new BatchScheduler(options.getOption("priority"), options.hasFlag("schedule"));
+    }
+
+    private static PasswordSource createPasswordSource(CommandLineOptions options) {
+        List<PasswordSource> passwordSources = new ArrayList<>();
+
+        if (options.hasOption("password-env")) {
+            passwordSources.add(new EnvironmentPasswordSource(options.getOption("password-env")));
+        }
+
+        if (options.hasOption("password-fd")) {
+            passwordSources.add(new FileDescriptorPasswordSource(options.getIntOption("password-fd", 0)));
+        }
+
+        if (options.hasOption("password-file")) {
+            passwordSources.add(new KeyFilePasswordSource(new File(options.getOption("password-file"))));
+        }
+
+        if (passwordSources.size() > 1) {
+            throw new IllegalArgumentException("Only one password source can be specified");
+        }
+
+        return passwordSources.isEmpty() ? null : passwordSources.get(0);
+    }
+
+    private OrderedWorkerPool createWorkerPool(MacFileEngineFactory macFileEngineFactory, int threadCount, boolean virtualThreads) {
+        if (!virtualThreads) {
+            return new OrderedWorkerPool(macFileEngineFactory, threadCount);
+        }
+
+        OrderedWorkerPool workerPool = OrderedWorkerPool.createVirtual(macFileEngineFactory, threadCount);
+
+        if (!workerPool.isUsingVirtualThreads()) {
+            userInterface.printlnErr(
+                    String.format("Virtual threads are not supported by this Java runtime - using %d platform threads", threadCount)
+            );
+        }
+
+        return workerPool;
+    }
+
     private void createMacFile(PasswordRequestService passwordRequestService, File mainFile, File macFile) throws IOException {
         String macPassword = passwordRequestService.requestPassword("Password: ");
 
@@ -90,16 +738,80 @@ public class App {
             System.exit(1);
         }
 
-        try (BufferedInputStream mainInputStream = new BufferedInputStream(new FileInputStream(mainFile))) {
-            byte[] macSalt = macService.createSalt();
+        macFileEngine.createMacFile(mainFile, macFile, macPassword);
+
+        userInterface.println("OK - MAC file created. You should transmit it along with the main file");
+    }
+
+    private void createMacFiles(PasswordRequestService passwordRequestService, File mainFile, List<String> additionalAlgorithmIds, String digestAlgorithm) throws IOException {
+        List<KeyedMacService> macServices = new ArrayList<>();
+        macServices.add(toKeyedMacService(macServiceFactory.createMacService()));
+
+        for (String algorithmId : additionalAlgorithmIds) {
+            macServices.add(toKeyedMacService(macServiceFactory.createMacService(algorithmId)));
+        }
 
-            MacResult mainMacResult = macService.computeMac(macPassword, macSalt, mainInputStream);
+        MultiMacService multiMacService = new MultiMacService(macServices, digestAlgorithm);
 
-            try (ObjectOutputStream macOutputStream = new ObjectOutputStream(new FileOutputStream(macFile))) {
-                macOutputStream.writeObject(mainMacResult);
+        String macPassword = passwordRequestService.requestPassword("Password: ");
+
+        if (macPassword == null) {
+            System.exit(1);
+        }
+
+        MultiMacResult multiMacResult = macFileEngine.createMacFiles(mainFile, multiMacService, macPassword);
+
+        for (String algorithmId : additionalAlgorithmIds) {
+            userInterface.println(
+                    String.format("MAC file '%s' created", macStorageService.getMacFile(mainFile, algorithmId).getName())
+            );
+        }
+
+        if (digestAlgorithm != null) {
+            StringBuilder digestBuilder = new StringBuilder();
+
+            for (byte digestByte : multiMacResult.getDigest()) {
+                digestBuilder.append(String.format("%02x", digestByte & 0xFF));
             }
 
-            userInterface.println("OK - MAC file created. You should transmit it along with the main file");
+            userInterface.println(
+                    String.format("%s: %s", digestAlgorithm, digestBuilder)
+            );
+        }
+
+        userInterface.println("OK - MAC files created. You should transmit them along with the main file");
+    }
+
+    private static KeyedMacService toKeyedMacService(MacService macService) {
+        if (!(macService instanceof KeyedMacService)) {
+            throw new IllegalArgumentException(
+                    String.format("The MAC service '%s' does not support single-pass signing", macService.getAlgorithmId())
+            );
+        }
+
+        return (KeyedMacService) macService;
+    }
+
+    private void extendMacFile(PasswordRequestService passwordRequestService, File mainFile, File macFile) throws IOException {
+        String macPassword = passwordRequestService.requestPassword("Password: ");
+
+        if (macPassword == null) {
+            System.exit(1);
+        }
+
+        FileOutcome outcome = macFileEngine.extendMacFile(mainFile, macFile, macPassword);
+
+        if (outcome == FileOutcome.UPDATED) {
+            ChunkIndex chunkIndex = ChunkIndex.read(
+                    macStorageService.getChunkIndexFile(mainFile),
+                    (TreeMacResult) macStorageService.readMacResult(macFile)
+            );
+
+            userInterface.println(
+                    String.format("OK - MAC file extended; rehashed chunk ranges: %s", chunkIndex.getRehashedRanges())
+            );
+        } else {
+            userInterface.printFatal("The chunk index does not match the MAC file, or the main file has shrunk! Or did you type the wrong password?");
         }
     }
 
@@ -110,32 +822,96 @@ public class App {
             System.exit(1);
         }
 
-        try (BufferedInputStream mainInputStream = new BufferedInputStream(new FileInputStream(mainFile));
-             ObjectInputStream macInputStream = new ObjectInputStream(new FileInputStream(macFile))) {
+        FileOutcome outcome = macFileEngine.verifyMainFile(mainFile, macFile, macPassword);
 
-            try {
-                MacResult storedMacResult;
+        if (outcome == FileOutcome.PASSED) {
+            userInterface.println("OK - The main file is authentic and integrity checked");
+        } else {
+            userInterface.printFatal("The main file (or its MAC file) has been tampered with! Or did you type the wrong password?");
+        }
+    }
+
+    private static void calibrate(UserInterface userInterface, MacService macService, long targetMillis) {
+        if (!(macService instanceof KeyedMacService)) {
+            userInterface.printFatal("The MAC service does not support calibration");
+            return;
+        }
+
+        userInterface.println("Measuring key derivation on this host...");
+
+        KdfCalibrator kdfCalibrator = new KdfCalibrator((KeyedMacService) macService);
+        KdfParameters kdfParameters = kdfCalibrator.calibrate(targetMillis);
+        long derivationNanos = kdfCalibrator.measureDerivationNanos(kdfParameters);
+
+        userInterface.println(
+                String.format("%s: %d ms per derivation", kdfParameters, derivationNanos / 1000000)
+        );
 
+        userInterface.println(
+                String.format("Pass --iterations %d when creating MAC files", kdfParameters.getIterationCount())
+        );
+    }
+
+    /**
+     * Writes the JSON summary of the metrics when the JVM exits - whatever the outcome of the run.
+     */
+    private static void writeMetricsAtExit(final UserInterface userInterface, final RunMetrics metrics, final File metricsFile) {
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            @Override
+            public void run() {
                 try {
-                    storedMacResult = (MacResult) macInputStream.readObject();
-                } catch (EOFException ex) {
-                    throw new IOException("Invalid MAC file");
+                    Files.write(metricsFile.toPath(), metrics.getJsonSummary().getBytes(StandardCharsets.UTF_8));
+                } catch (IOException ex) {
+                    userInterface.printlnErr(
+                            String.format("Cannot write the metrics: %s", ex.getMessage())
+                    );
                 }
+            }
+        });
+    }
 
+    /**
+     * When reads are throttled, progress lines also show the read rate of the last period,
+     * which includes the files still being hashed.
+     */
+    private static void startProgressReports(final UserInterface userInterface, final RunMetrics metrics, final ReadThrottle readThrottle, final int periodSeconds) {
+        if (periodSeconds < 1) {
+            throw new IllegalArgumentException("The progress period must be at least 1 second");
+        }
 
-                byte[] macSalt = storedMacResult.getSalt();
+        ScheduledExecutorService progressScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "progress-reporter");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
 
-                MacResult mainMacResult = macService.computeMac(macPassword, macSalt, mainInputStream);
+        progressScheduler.scheduleAtFixedRate(new Runnable() {
+            private long lastBytesRead;
 
-                if (mainMacResult.equals(storedMacResult)) {
-                    userInterface.println("OK - The main file is authentic and integrity checked");
-                } else {
-                    userInterface.printFatal("The main file (or its MAC file) has been tampered with! Or did you type the wrong password?");
+            @Override
+            public void run() {
+                if (readThrottle == null) {
+                    userInterface.printlnErr(metrics.formatProgress());
+                    return;
                 }
-            } catch (ClassNotFoundException ex) {
-                throw new RuntimeException(ex);
+
+                long bytesRead = readThrottle.getBytesRead();
+
+                userInterface.printlnErr(
+                        String.format(
+                                "%s - recently read %.1f MiB/s - %s",
+                                metrics.formatProgress(),
+                                (bytesRead - lastBytesRead) / (1024.0 * 1024) / periodSeconds,
+                                readThrottle
+                        )
+                );
+
+                lastBytesRead = bytesRead;
             }
-        }
+        }, periodSeconds, periodSeconds, TimeUnit.SECONDS);
     }
 
     public static void main(String[] args) {
@@ -148,26 +924,200 @@ public class App {
             userInterface = new SystemUserInterface();
         }
 
-        if (args.length < 1) {
-            userInterface.printFatal("Usage: <main file path> [<MAC service FQN>]");
+        CommandLineOptions options;
+        try {
+            options = new CommandLineOptions(
+                    args,
+                    new HashSet<>(Arrays.asList("verify-only", "shared-salt", "incremental", "append", "list-services", "daemon", "virtual-threads", "cache", "resume", "schedule"))
+            );
+        } catch (IllegalArgumentException ex) {
+            userInterface.printFatal(ex.getMessage() + "\n" + USAGE);
+            return;
+        }
+
+        MacServiceRegistry macServiceRegistry = new MacServiceRegistry();
+
+        if (options.hasFlag("list-services")) {
+            for (String algorithmId : macServiceRegistry.getAlgorithmIds()) {
+                userInterface.println(algorithmId);
+            }
+
+            return;
         }
 
-        File mainFile = new File(args[0]);
+        List<String> positionalArguments = options.getPositionalArguments();
+        boolean batchMode = options.hasOption("batch");
+        boolean manifestMode = options.hasOption("manifest");
+        boolean calibrationMode = options.hasOption("calibrate");
+        boolean streamMode = options.hasOption("stdin");
+        boolean daemonMode = options.hasFlag("daemon");
+        boolean clientMode = options.hasOption("client");
 
-        String macServiceClassName;
-        if (args.length >= 2) {
-            macServiceClassName = args[1];
+        if (manifestMode && positionalArguments.size() != 2) {
+            userInterface.printFatal(USAGE);
+        }
+
+        if (!batchMode && !calibrationMode && !streamMode && !daemonMode && !clientMode && positionalArguments.isEmpty()) {
+            userInterface.printFatal(USAGE);
+        }
+
+        String algorithmId;
+        if (options.hasOption("service")) {
+            algorithmId = options.getOption("service");
+        } else if (!batchMode && !manifestMode && !streamMode && !clientMode && positionalArguments.size() >= 2) {
+            algorithmId = positionalArguments.get(1);
         } else {
-            macServiceClassName = HMacSha256Service.class.getName();
+            algorithmId = DEFAULT_ALGORITHM_ID;
         }
 
         try {
-            Class<? extends MacService> macServiceClass = (Class<? extends MacService>) Class.forName(macServiceClassName);
-            MacService macService = macServiceClass.newInstance();
+            ReadSettings readSettings = new ReadSettings(
+                    options.getIntOption("buffer-size", ReadSettings.DEFAULT.getDirectBufferSize()),
+                    options.getLongOption("mapping-threshold", ReadSettings.DEFAULT.getMappingThreshold()),
+                    options.getIntOption("mapping-size", ReadSettings.DEFAULT.getMappingSize()),
+                    options.getIntOption("pipeline-depth", ReadSettings.DEFAULT.getPipelineDepth())
+            );
+
+            RunMetrics metrics = new RunMetrics();
+
+            //The daemon always has a throttle - by default without limits - so that clients can slow it down later
+            boolean throttled = !clientMode
+                    && (daemonMode || options.hasOption("read-rate") || options.hasOption("max-hashing"));
+
+            ReadThrottle readThrottle = throttled ?
+                    new ReadThrottle(
+                            options.getLongOption("read-rate", 0) * 1024,
+                            options.getIntOption("max-hashing", 0)
+                    )
+                    :
+                    null;
+
+            MacServiceFactory macServiceFactory = new ConfiguringMacServiceFactory(
+                    new RegistryMacServiceFactory(macServiceRegistry, algorithmId),
+                    readSettings,
+                    options.getOption("kdf"),
+                    options.getIntOption("iterations", 0),
+                    metrics,
+                    readThrottle
+            );
+
+            File endpointFile = options.hasOption("endpoint-file") ?
+                    new File(options.getOption("endpoint-file"))
+                    :
+                    DaemonEndpoint.getDefaultEndpointFile();
+
+            //Calibration must not employ the key cache
+            if (calibrationMode) {
+                calibrate(userInterface, macServiceFactory.createMacService(), options.getLongOption("calibrate", 0));
+                return;
+            }
+
+            //Below the key cache, so that only actual derivations are recorded
+            macServiceFactory = new MeteringMacServiceFactory(macServiceFactory, metrics);
+
+            if (options.hasOption("metrics-json")) {
+                writeMetricsAtExit(userInterface, metrics, new File(options.getOption("metrics-json")));
+            }
+
+            if (options.hasOption("progress")) {
+                startProgressReports(userInterface, metrics, readThrottle, options.getIntOption("progress", 0));
+            }
+
+            int keyCacheSize = options.getIntOption("key-cache-size", DEFAULT_KEY_CACHE_SIZE);
+            if (keyCacheSize > 0) {
+                macServiceFactory = new CachingMacServiceFactory(macServiceFactory, new DerivedKeyCache(keyCacheSize));
+            }
+
+            IncrementalMode incrementalMode;
+            if (options.hasFlag("append")) {
+                incrementalMode = IncrementalMode.APPEND;
+            } else if (options.hasFlag("incremental")) {
+                incrementalMode = IncrementalMode.INDEXED;
+            } else {
+                incrementalMode = IncrementalMode.DISABLED;
+            }
+
+            //Only the modes verifying files on disk employ the verification cache
+            VerificationCache verificationCache = (streamMode || clientMode) ?
+                    null
+                    :
+                    loadVerificationCache(userInterface, options);
+
+            App app = new App(
+                    userInterface,
+                    macServiceFactory,
+                    incrementalMode,
+                    metrics,
+                    createPasswordSource(options),
+                    verificationCache
+            );
+
+            boolean virtualThreads = options.hasFlag("virtual-threads");
+            int threadCount = virtualThreads ?
+                    options.getIntOption("max-open-files", DEFAULT_MAX_OPEN_FILES)
+                    :
+                    options.getIntOption("threads", Runtime.getRuntime().availableProcessors());
+
+            if (options.hasFlag("resume") && !options.hasOption("journal")) {
+                userInterface.printFatal("--resume requires --journal");
+            }
+
+            if (batchMode) {
+                int exitCode = app.runBatch(
+                        options.getOption("batch"),
+                        options.hasFlag("verify-only"),
+                        threadCount,
+                        virtualThreads,
+                        options.hasFlag("shared-salt"),
+                        options.hasOption("journal") ? new File(options.getOption("journal")) : null,
+                        options.hasFlag("resume"),
+                        createBatchScheduler(options)
+                );
+
+                System.exit(exitCode);
+            } else if (manifestMode) {
+                int exitCode = app.runManifest(
+                        new File(options.getOption("manifest")),
+                        positionalArguments.get(0),
+                        new File(positionalArguments.get(1)),
+                        threadCount,
+                        virtualThreads,
+                        options.hasFlag("shared-salt")
+                );
+
+                System.exit(exitCode);
+            } else if (clientMode) {
+                int exitCode = app.runClient(
+                        options.getOption("client"),
+                        positionalArguments.isEmpty() ? null : new File(positionalArguments.get(0)),
+                        endpointFile,
+                        options.hasOption("read-rate") ? options.getLongOption("read-rate", 0) * 1024 : -1,
+                        options.getIntOption("max-hashing", -1)
+                );
 
-            App app = new App(userInterface, macService);
-            app.run(mainFile);
-        } catch (ClassNotFoundException | IllegalAccessException | InstantiationException ex) {
+                System.exit(exitCode);
+            } else if (daemonMode) {
+                app.runDaemon(
+                        options.getIntOption("port", 0),
+                        endpointFile,
+                        options.getIntOption("threads", Runtime.getRuntime().availableProcessors()),
+                        readThrottle
+                );
+            } else if (streamMode) {
+                System.exit(app.runStream(new File(options.getOption("stdin"))));
+            } else {
+                File mainFile = new File(positionalArguments.get(0));
+
+                app.run(
+                        mainFile,
+                        options.hasOption("also-sign") ?
+                                Arrays.asList(options.getOption("also-sign").split(","))
+                                :
+                                Collections.<String>emptyList(),
+                        options.getOption("digest")
+                );
+            }
+        } catch (RuntimeException ex) {
             userInterface.printFatal(ex);
         }
     }
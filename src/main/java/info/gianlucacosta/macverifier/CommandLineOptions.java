@@ -0,0 +1,121 @@
+/*§
+  ===========================================================================
+  MacVerifier
+  ===========================================================================
+  Copyright (C) 2015 Gianluca Costa
+  ===========================================================================
+  Permission is hereby granted, free of charge, to any person obtaining a copy
+  of this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+  THE SOFTWARE.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.macverifier;
+
+import java.util.*;
+
+/**
+ * Minimal command-line parser: every argument starting with "--" is an option, followed by its value
+ * unless it is a declared flag; all the other arguments are positional.
+ */
+public class CommandLineOptions {
+
+    private final List<String> positionalArguments = new ArrayList<>();
+    private final Map<String, String> optionValues = new HashMap<>();
+    private final Set<String> flags = new HashSet<>();
+
+    public CommandLineOptions(String[] args, Set<String> flagNames) {
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+
+            if (!arg.startsWith("--")) {
+                positionalArguments.add(arg);
+                continue;
+            }
+
+            String optionName = arg.substring(2);
+
+            if (flagNames.contains(optionName)) {
+                flags.add(optionName);
+                continue;
+            }
+
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException(
+                        String.format("Missing value for option '%s'", arg)
+                );
+            }
+
+            i++;
+            optionValues.put(optionName, args[i]);
+        }
+    }
+
+    public List<String> getPositionalArguments() {
+        return Collections.unmodifiableList(positionalArguments);
+    }
+
+    public boolean hasFlag(String flagName) {
+        return flags.contains(flagName);
+    }
+
+    public boolean hasOption(String optionName) {
+        return optionValues.containsKey(optionName);
+    }
+
+    public String getOption(String optionName) {
+        return optionValues.get(optionName);
+    }
+
+    public String getOption(String optionName, String defaultValue) {
+        String value = optionValues.get(optionName);
+
+        return (value != null) ? value : defaultValue;
+    }
+
+    public int getIntOption(String optionName, int defaultValue) {
+        String value = optionValues.get(optionName);
+
+        if (value == null) {
+            return defaultValue;
+        }
+
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException(
+                    String.format("Option '--%s' requires an integer value", optionName)
+            );
+        }
+    }
+
+    public long getLongOption(String optionName, long defaultValue) {
+        String value = optionValues.get(optionName);
+
+        if (value == null) {
+            return defaultValue;
+        }
+
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException(
+                    String.format("Option '--%s' requires an integer value", optionName)
+            );
+        }
+    }
+}
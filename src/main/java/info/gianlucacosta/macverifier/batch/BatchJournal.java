@@ -0,0 +1,400 @@
+/*§
+  ===========================================================================
+  MacVerifier
+  ===========================================================================
+  Copyright (C) 2015 Gianluca Costa
+  ===========================================================================
+  Permission is hereby granted, free of charge, to any person obtaining a copy
+  of this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+  THE SOFTWARE.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.macverifier.batch;
+
+import info.gianlucacosta.macverifier.cache.FileIdentity;
+import info.gianlucacosta.macverifier.cache.TagKeyDeriver;
+import info.gianlucacosta.macverifier.engine.FileOutcome;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.Key;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+/**
+ * Append-only journal of the main files completed by a batch run, with their outcomes,
+ * so that an interrupted run can be resumed without processing them again.
+ * <p>
+ * The journal starts with a magic number, a format version and a salt; every record contains the outcome code
+ * (1 byte), the FileIdentity of the main file read before processing it (40 bytes), the length of the UTF-8
+ * absolute path (2 bytes, big-endian), the path and a tag (32 bytes). A journaled file is skipped only if
+ * its identity is unchanged and its tag - keyed, as in VerificationCache, by the password - is valid,
+ * so that writing the journal is not enough to make files pass. Records are buffered
+ * and flushed every FLUSH_INTERVAL records - never synced to disk - so a crash loses at most the last records,
+ * whose files are just processed again; a truncated or zero-filled tail is discarded when the journal is resumed.
+ * <p>
+ * Resumed records are loaded into a compact, read-only table - a pool of path bytes plus an open-addressing index -
+ * so lookups are lock-free and millions of entries take little memory; recording, on the other hand,
+ * must happen on a single thread at a time.
+ */
+public class BatchJournal implements Closeable {
+
+    public static final int FLUSH_INTERVAL = 1024;
+
+    private static final int MAGIC_NUMBER = 0x4D56424A;
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_SIZE = 8 + TagKeyDeriver.SALT_SIZE;
+    private static final int IDENTITY_SIZE = 5 * 8;
+
+    private static final int MAX_PATH_LENGTH = 0xFFFF;
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private TagKeyDeriver tagKeyDeriver;
+
+    private DataOutputStream output;
+    private int unflushedRecordCount;
+
+    private int[] pathOffsets = new int[17];
+    private byte[] pathPool = new byte[256];
+    private int pathPoolSize;
+    private byte[] outcomeCodes = new byte[16];
+    private byte[] identityPool = new byte[16 * IDENTITY_SIZE];
+    private byte[] tagPool = new byte[16 * TagKeyDeriver.TAG_SIZE];
+    private int entryCount;
+
+    /**
+     * Open-addressing index, with linear probing: every slot contains an entry index plus 1, or 0 if empty.
+     */
+    private int[] slots = new int[32];
+
+    private BatchJournal() {
+    }
+
+    /**
+     * Creates a new journal - replacing any existing file - or, when resume is true and the file exists,
+     * loads its records and keeps appending to it.
+     */
+    public static BatchJournal open(File journalFile, boolean resume) throws IOException {
+        BatchJournal journal = new BatchJournal();
+
+        if (resume && journalFile.isFile()) {
+            long validLength = journal.load(journalFile);
+
+            //Drops a record truncated by a crash, before appending
+            try (RandomAccessFile journalAccess = new RandomAccessFile(journalFile, "rw");
+                 FileChannel journalChannel = journalAccess.getChannel()) {
+                journalChannel.truncate(validLength);
+            }
+
+            journal.output = createOutput(journalFile, true);
+        } else {
+            journal.tagKeyDeriver = new TagKeyDeriver(TagKeyDeriver.createSalt());
+            journal.output = createOutput(journalFile, false);
+
+            journal.output.writeInt(MAGIC_NUMBER);
+            journal.output.writeInt(FORMAT_VERSION);
+            journal.output.write(journal.tagKeyDeriver.getSalt());
+            journal.output.flush();
+        }
+
+        return journal;
+    }
+
+    private static DataOutputStream createOutput(File journalFile, boolean append) throws IOException {
+        return new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(journalFile, append), 64 * 1024)
+        );
+    }
+
+    /**
+     * Returns the length of the valid part of the journal.
+     */
+    private long load(File journalFile) throws IOException {
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(journalFile), 64 * 1024))) {
+            try {
+                if (input.readInt() != MAGIC_NUMBER) {
+                    throw new IOException("Invalid journal file");
+                }
+
+                int formatVersion = input.readInt();
+                if (formatVersion != FORMAT_VERSION) {
+                    throw new IOException(String.format("Unsupported journal format version: %d", formatVersion));
+                }
+
+                byte[] salt = new byte[TagKeyDeriver.SALT_SIZE];
+                input.readFully(salt);
+                tagKeyDeriver = new TagKeyDeriver(salt);
+            } catch (EOFException ex) {
+                throw new IOException("Invalid journal file", ex);
+            }
+
+            long validLength = HEADER_SIZE;
+            byte[] identityBytes = new byte[IDENTITY_SIZE];
+            byte[] pathBytes = new byte[MAX_PATH_LENGTH];
+            byte[] tag = new byte[TagKeyDeriver.TAG_SIZE];
+
+            while (true) {
+                int outcomeCode = input.read();
+
+                if (outcomeCode == -1) {
+                    return validLength;
+                }
+
+                int pathLength;
+                try {
+                    input.readFully(identityBytes);
+                    pathLength = input.readUnsignedShort();
+                    input.readFully(pathBytes, 0, pathLength);
+                    input.readFully(tag);
+                } catch (EOFException ex) {
+                    return validLength;
+                }
+
+                //Records are never empty: a zero-filled tail is left by some file systems after a crash
+                if (pathLength == 0) {
+                    return validLength;
+                }
+
+                FileOutcome outcome;
+                try {
+                    outcome = FileOutcome.fromCode(outcomeCode);
+                } catch (IllegalArgumentException ex) {
+                    throw new IOException("Invalid journal record", ex);
+                }
+
+                add(pathBytes, pathLength, (byte) outcome.getCode(), identityBytes, tag);
+                validLength += 1 + IDENTITY_SIZE + 2 + pathLength + TagKeyDeriver.TAG_SIZE;
+            }
+        }
+    }
+
+    private void add(byte[] pathBytes, int pathLength, byte outcomeCode, byte[] identityBytes, byte[] tag) {
+        if (entryCount == outcomeCodes.length) {
+            outcomeCodes = Arrays.copyOf(outcomeCodes, entryCount * 2);
+            identityPool = Arrays.copyOf(identityPool, entryCount * 2 * IDENTITY_SIZE);
+            tagPool = Arrays.copyOf(tagPool, entryCount * 2 * TagKeyDeriver.TAG_SIZE);
+            pathOffsets = Arrays.copyOf(pathOffsets, entryCount * 2 + 1);
+        }
+
+        if (pathPoolSize + pathLength > pathPool.length) {
+            pathPool = Arrays.copyOf(pathPool, Math.max(pathPool.length * 2, pathPoolSize + pathLength));
+        }
+
+        int existingEntryIndex = findEntry(pathBytes, pathLength);
+
+        //A path journaled twice keeps its latest record
+        if (existingEntryIndex != -1) {
+            setRecord(existingEntryIndex, outcomeCode, identityBytes, tag);
+            return;
+        }
+
+        System.arraycopy(pathBytes, 0, pathPool, pathPoolSize, pathLength);
+        pathPoolSize += pathLength;
+
+        pathOffsets[entryCount + 1] = pathPoolSize;
+        setRecord(entryCount, outcomeCode, identityBytes, tag);
+        entryCount++;
+
+        //The index is kept at most half full
+        if (entryCount * 2 > slots.length) {
+            slots = new int[slots.length * 2];
+
+            for (int entryIndex = 0; entryIndex < entryCount; entryIndex++) {
+                insertSlot(entryIndex);
+            }
+        } else {
+            insertSlot(entryCount - 1);
+        }
+    }
+
+    private void setRecord(int entryIndex, byte outcomeCode, byte[] identityBytes, byte[] tag) {
+        outcomeCodes[entryIndex] = outcomeCode;
+        System.arraycopy(identityBytes, 0, identityPool, entryIndex * IDENTITY_SIZE, IDENTITY_SIZE);
+        System.arraycopy(tag, 0, tagPool, entryIndex * TagKeyDeriver.TAG_SIZE, TagKeyDeriver.TAG_SIZE);
+    }
+
+    private void insertSlot(int entryIndex) {
+        int pathOffset = pathOffsets[entryIndex];
+        int slot = getFirstSlot(pathPool, pathOffset, pathOffsets[entryIndex + 1] - pathOffset);
+
+        while (slots[slot] != 0) {
+            slot = (slot + 1) & (slots.length - 1);
+        }
+
+        slots[slot] = entryIndex + 1;
+    }
+
+    private int findEntry(byte[] pathBytes, int pathLength) {
+        int slot = getFirstSlot(pathBytes, 0, pathLength);
+
+        while (slots[slot] != 0) {
+            int entryIndex = slots[slot] - 1;
+
+            if (hasPath(entryIndex, pathBytes, pathLength)) {
+                return entryIndex;
+            }
+
+            slot = (slot + 1) & (slots.length - 1);
+        }
+
+        return -1;
+    }
+
+    private int getFirstSlot(byte[] bytes, int offset, int length) {
+        long hash = FNV_OFFSET_BASIS;
+
+        for (int i = offset; i < offset + length; i++) {
+            hash ^= (bytes[i] & 0xFF);
+            hash *= FNV_PRIME;
+        }
+
+        return (int) (hash & (slots.length - 1));
+    }
+
+    private boolean hasPath(int entryIndex, byte[] pathBytes, int pathLength) {
+        int pathOffset = pathOffsets[entryIndex];
+
+        if (pathOffsets[entryIndex + 1] - pathOffset != pathLength) {
+            return false;
+        }
+
+        for (int i = 0; i < pathLength; i++) {
+            if (pathPool[pathOffset + i] != pathBytes[i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static byte[] getPathBytes(File mainFile) {
+        return mainFile.getAbsolutePath().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] getIdentityBytes(FileIdentity identity) {
+        ByteArrayOutputStream identityBytes = new ByteArrayOutputStream(IDENTITY_SIZE);
+
+        try {
+            identity.write(new DataOutputStream(identityBytes));
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+
+        return identityBytes.toByteArray();
+    }
+
+    /**
+     * The tag covers the whole record but itself.
+     */
+    private static byte[] computeTag(Key tagKey, byte outcomeCode, byte[] identityBytes, byte[] pathBytes, int pathLength) {
+        byte[] tagInput = new byte[1 + IDENTITY_SIZE + pathLength];
+
+        tagInput[0] = outcomeCode;
+        System.arraycopy(identityBytes, 0, tagInput, 1, IDENTITY_SIZE);
+        System.arraycopy(pathBytes, 0, tagInput, 1 + IDENTITY_SIZE, pathLength);
+
+        return TagKeyDeriver.computeTag(tagKey, tagInput);
+    }
+
+    /**
+     * Returns the number of records loaded from a resumed journal; each of them is trusted only
+     * if its main file is unchanged and its tag matches the password.
+     */
+    public int getResumedCount() {
+        return entryCount;
+    }
+
+    /**
+     * Returns the outcome of the main file if it was loaded from a resumed journal, the main file
+     * still has the journaled identity and the record tag matches the password - null otherwise;
+     * it can be called by any thread.
+     */
+    public FileOutcome getResumedOutcome(File mainFile, FileIdentity mainIdentity, String password) {
+        byte[] pathBytes = getPathBytes(mainFile);
+        int entryIndex = findEntry(pathBytes, pathBytes.length);
+
+        if (entryIndex == -1) {
+            return null;
+        }
+
+        byte[] identityBytes = getIdentityBytes(mainIdentity);
+        int identityOffset = entryIndex * IDENTITY_SIZE;
+
+        if (!Arrays.equals(identityBytes, Arrays.copyOfRange(identityPool, identityOffset, identityOffset + IDENTITY_SIZE))) {
+            return null;
+        }
+
+        byte outcomeCode = outcomeCodes[entryIndex];
+        byte[] expectedTag = computeTag(tagKeyDeriver.getTagKey(password), outcomeCode, identityBytes, pathBytes, pathBytes.length);
+        int tagOffset = entryIndex * TagKeyDeriver.TAG_SIZE;
+
+        if (!MessageDigest.isEqual(expectedTag, Arrays.copyOfRange(tagPool, tagOffset, tagOffset + TagKeyDeriver.TAG_SIZE))) {
+            return null;
+        }
+
+        return FileOutcome.fromCode(outcomeCode);
+    }
+
+    /**
+     * Appends a record - unless the outcome is FAILED, so that resumed runs process the main file again,
+     * as the failure may be transient; the resumed table is not affected.
+     * <p>
+     * The identity of the main file should be read before processing it, so that changes occurring
+     * in the meantime invalidate the record.
+     */
+    public synchronized void record(File mainFile, FileIdentity mainIdentity, FileOutcome outcome, String password) throws IOException {
+        if (outcome == FileOutcome.FAILED) {
+            return;
+        }
+
+        byte[] pathBytes = getPathBytes(mainFile);
+
+        //Paths too long to be journaled are just processed again when resuming
+        if (pathBytes.length > MAX_PATH_LENGTH) {
+            return;
+        }
+
+        byte outcomeCode = (byte) outcome.getCode();
+        byte[] identityBytes = getIdentityBytes(mainIdentity);
+
+        output.writeByte(outcomeCode);
+        output.write(identityBytes);
+        output.writeShort(pathBytes.length);
+        output.write(pathBytes);
+        output.write(computeTag(tagKeyDeriver.getTagKey(password), outcomeCode, identityBytes, pathBytes, pathBytes.length));
+
+        unflushedRecordCount++;
+
+        if (unflushedRecordCount >= FLUSH_INTERVAL) {
+            flush();
+        }
+    }
+
+    public synchronized void flush() throws IOException {
+        output.flush();
+        unflushedRecordCount = 0;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        output.close();
+    }
+}
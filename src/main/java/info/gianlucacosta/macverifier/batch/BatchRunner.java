@@ -0,0 +1,143 @@
+/*§
+  ===========================================================================
+  MacVerifier
+  ===========================================================================
+  Copyright (C) 2015 Gianluca Costa
+  ===========================================================================
+  Permission is hereby granted, free of charge, to any person obtaining a copy
+  of this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+  THE SOFTWARE.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.macverifier.batch;
+
+import info.gianlucacosta.macverifier.cache.FileIdentity;
+import info.gianlucacosta.macverifier.engine.FileOutcome;
+import info.gianlucacosta.macverifier.engine.MacFileEngine;
+import info.gianlucacosta.macverifier.engine.MacFileEngineFactory;
+import info.gianlucacosta.macverifier.ui.UserInterface;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Creates or verifies the MAC files of several main files, using the same password.
+ * <p>
+ * Files are processed by an OrderedWorkerPool, so outcomes are reported and counted
+ * in the order of the input list.
+ */
+public class BatchRunner {
+
+    private final UserInterface userInterface;
+    private final MacFileEngineFactory macFileEngineFactory;
+    private final boolean verifyOnly;
+    private final OrderedWorkerPool workerPool;
+    private final BatchJournal journal;
+
+    public BatchRunner(UserInterface userInterface, MacFileEngineFactory macFileEngineFactory, boolean verifyOnly, int threadCount) {
+        this(userInterface, macFileEngineFactory, verifyOnly, new OrderedWorkerPool(macFileEngineFactory, threadCount));
+    }
+
+    public BatchRunner(UserInterface userInterface, MacFileEngineFactory macFileEngineFactory, boolean verifyOnly, OrderedWorkerPool workerPool) {
+        this(userInterface, macFileEngineFactory, verifyOnly, workerPool, null);
+    }
+
+    /**
+     * When journal is not null, every outcome but FAILED is recorded into it, along with the identity
+     * of the main file, while the main files it has resumed are not processed again - their journaled outcomes
+     * being reported instead - as long as they are unchanged; failed main files, whether mismatching or unreadable,
+     * are therefore retried.
+     */
+    public BatchRunner(UserInterface userInterface, MacFileEngineFactory macFileEngineFactory, boolean verifyOnly, OrderedWorkerPool workerPool, BatchJournal journal) {
+        this.userInterface = userInterface;
+        this.macFileEngineFactory = macFileEngineFactory;
+        this.verifyOnly = verifyOnly;
+        this.workerPool = workerPool;
+        this.journal = journal;
+    }
+
+    /**
+     * Returns true if at least one of the main files would get a new MAC file,
+     * in which case the password should be confirmed; as journaled records can only be trusted
+     * once the password is known, resumed main files are considered as well.
+     */
+    public boolean requiresMacCreation(List<File> mainFiles) {
+        if (verifyOnly) {
+            return false;
+        }
+
+        for (File mainFile : mainFiles) {
+            if (!macFileEngineFactory.getMacStorageService().getMacFile(mainFile).isFile()) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    public BatchSummary run(List<File> mainFiles, final String password) {
+        BatchSummary summary = new BatchSummary();
+
+        workerPool.run(
+                mainFiles.iterator(),
+                new OrderedWorkerPool.ItemProcessor<File, FileOutcome>() {
+                    @Override
+                    public FileOutcome process(MacFileEngine macFileEngine, File mainFile) throws Exception {
+                        if (journal == null) {
+                            return macFileEngine.process(mainFile, password, verifyOnly);
+                        }
+
+                        //Main files whose identity cannot be read - for example, missing ones - are never journaled
+                        FileIdentity mainIdentity = readIdentity(mainFile);
+
+                        if (mainIdentity == null) {
+                            return macFileEngine.process(mainFile, password, verifyOnly);
+                        }
+
+                        FileOutcome resumedOutcome = journal.getResumedOutcome(mainFile, mainIdentity, password);
+
+                        if (resumedOutcome != null) {
+                            return resumedOutcome;
+                        }
+
+                        FileOutcome outcome = macFileEngine.process(mainFile, password, verifyOnly);
+                        journal.record(mainFile, mainIdentity, outcome, password);
+
+                        return outcome;
+                    }
+                },
+                new SummaryResultHandler<File>(userInterface, summary) {
+                    @Override
+                    protected String getPath(File mainFile) {
+                        return mainFile.getPath();
+                    }
+                }
+        );
+
+        return summary;
+    }
+
+    private static FileIdentity readIdentity(File mainFile) {
+        try {
+            return FileIdentity.read(mainFile);
+        } catch (IOException ex) {
+            return null;
+        }
+    }
+}
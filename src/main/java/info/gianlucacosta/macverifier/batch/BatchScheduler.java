@@ -0,0 +1,116 @@
+/*§
+  ===========================================================================
+  MacVerifier
+  ===========================================================================
+  Copyright (C) 2015 Gianluca Costa
+  ===========================================================================
+  Permission is hereby granted, free of charge, to any person obtaining a copy
+  of this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+  THE SOFTWARE.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.macverifier.batch;
+
+import java.io.File;
+import java.nio.file.FileSystems;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Orders the main files of a batch to minimize its makespan: files matching the priority pattern come first,
+ * then - within each group - larger files precede smaller ones, so that no huge file is picked up last,
+ * while all the other workers are idle; files having the same size keep their input order.
+ * <p>
+ * Ordering by size requires reading the length of every file before the batch starts, so it can be disabled:
+ * files matching the priority pattern then just precede the others.
+ * <p>
+ * Tree MACs need no special placement, as their chunk ranges are shared by the workers anyway.
+ */
+public class BatchScheduler {
+
+    private final PathMatcher priorityMatcher;
+    private final boolean largestFirst;
+
+    public BatchScheduler() {
+        this(null);
+    }
+
+    public BatchScheduler(String priorityPattern) {
+        this(priorityPattern, true);
+    }
+
+    /**
+     * @param priorityPattern a glob - such as <code>**&#47;critical&#47;**</code> - matched against the paths
+     *                        of the main files, or null if no file has priority
+     * @param largestFirst    true to order the files of each group by decreasing size
+     */
+    public BatchScheduler(String priorityPattern, boolean largestFirst) {
+        this.priorityMatcher = (priorityPattern != null) ?
+                FileSystems.getDefault().getPathMatcher("glob:" + priorityPattern)
+                :
+                null;
+        this.largestFirst = largestFirst;
+    }
+
+    public boolean hasPriority(File mainFile) {
+        return priorityMatcher != null && priorityMatcher.matches(mainFile.toPath());
+    }
+
+    public List<File> schedule(List<File> mainFiles) {
+        final int fileCount = mainFiles.size();
+
+        final boolean[] priorities = new boolean[fileCount];
+        final long[] sizes = new long[fileCount];
+        Integer[] order = new Integer[fileCount];
+
+        for (int i = 0; i < fileCount; i++) {
+            File mainFile = mainFiles.get(i);
+
+            priorities[i] = hasPriority(mainFile);
+            sizes[i] = largestFirst ? mainFile.length() : 0;
+            order[i] = i;
+        }
+
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer left, Integer right) {
+                if (priorities[left] != priorities[right]) {
+                    return priorities[left] ? -1 : 1;
+                }
+
+                int sizeComparison = Long.compare(sizes[right], sizes[left]);
+
+                return (sizeComparison != 0) ?
+                        sizeComparison
+                        :
+                        Integer.compare(left, right);
+            }
+        });
+
+        List<File> result = new ArrayList<>(fileCount);
+
+        for (int fileIndex : order) {
+            result.add(mainFiles.get(fileIndex));
+        }
+
+        return result;
+    }
+}
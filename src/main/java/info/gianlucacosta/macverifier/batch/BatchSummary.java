@@ -0,0 +1,107 @@
+/*§
+  ===========================================================================
+  MacVerifier
+  ===========================================================================
+  Copyright (C) 2015 Gianluca Costa
+  ===========================================================================
+  Permission is hereby granted, free of charge, to any person obtaining a copy
+  of this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+  THE SOFTWARE.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.macverifier.batch;
+
+import info.gianlucacosta.macverifier.engine.FileOutcome;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Counts the outcomes of a batch run.
+ */
+public class BatchSummary {
+
+    public static final int EXIT_CODE_SUCCESS = 0;
+    public static final int EXIT_CODE_FAILED = 1;
+    public static final int EXIT_CODE_MISSING = 2;
+
+    private final Map<FileOutcome, Integer> outcomeCounts = new EnumMap<>(FileOutcome.class);
+
+    public BatchSummary() {
+        for (FileOutcome outcome : FileOutcome.values()) {
+            outcomeCounts.put(outcome, 0);
+        }
+    }
+
+    public void register(FileOutcome outcome) {
+        outcomeCounts.put(outcome, outcomeCounts.get(outcome) + 1);
+    }
+
+    public int getCount(FileOutcome outcome) {
+        return outcomeCounts.get(outcome);
+    }
+
+    public int getTotalCount() {
+        int result = 0;
+
+        for (int count : outcomeCounts.values()) {
+            result += count;
+        }
+
+        return result;
+    }
+
+    /**
+     * Failures take precedence over missing files when computing the exit code.
+     */
+    public int getExitCode() {
+        if (getCount(FileOutcome.FAILED) > 0) {
+            return EXIT_CODE_FAILED;
+        }
+
+        if (getCount(FileOutcome.MISSING) > 0) {
+            return EXIT_CODE_MISSING;
+        }
+
+        return EXIT_CODE_SUCCESS;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder result = new StringBuilder();
+
+        result.append(String.format("Files: %d -", getTotalCount()));
+
+        boolean firstOutcome = true;
+
+        for (FileOutcome outcome : new FileOutcome[]{FileOutcome.PASSED, FileOutcome.CREATED, FileOutcome.UPDATED, FileOutcome.UNCHANGED, FileOutcome.FAILED, FileOutcome.MISSING}) {
+            int count = getCount(outcome);
+
+            //Outcomes peculiar to some modes are shown only when they occur
+            if (count == 0 && (outcome == FileOutcome.UPDATED || outcome == FileOutcome.UNCHANGED)) {
+                continue;
+            }
+
+            result.append(firstOutcome ? " " : ", ");
+            result.append(String.format("%s: %d", outcome.name().toLowerCase(), count));
+            firstOutcome = false;
+        }
+
+        return result.toString();
+    }
+}
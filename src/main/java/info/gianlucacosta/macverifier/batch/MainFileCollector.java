@@ -0,0 +1,100 @@
+/*§
+  ===========================================================================
+  MacVerifier
+  ===========================================================================
+  Copyright (C) 2015 Gianluca Costa
+  ===========================================================================
+  Permission is hereby granted, free of charge, to any person obtaining a copy
+  of this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+  THE SOFTWARE.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.macverifier.batch;
+
+import info.gianlucacosta.macverifier.storage.MacStorageService;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Collects the main files of a batch run - from a directory tree or from a list of paths.
+ */
+public class MainFileCollector {
+
+    private final MacStorageService macStorageService;
+
+    public MainFileCollector(MacStorageService macStorageService) {
+        this.macStorageService = macStorageService;
+    }
+
+    /**
+     * Returns every regular file in the tree, sorted by path and excluding MAC files.
+     */
+    public List<File> collectFromDirectory(File rootDirectory) throws IOException {
+        final List<File> mainFiles = new ArrayList<>();
+
+        Files.walkFileTree(rootDirectory.toPath(), new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path path, BasicFileAttributes attributes) {
+                File file = path.toFile();
+
+                if (attributes.isRegularFile() && !macStorageService.isMacFile(file)) {
+                    mainFiles.add(file);
+                }
+
+                return FileVisitResult.CONTINUE;
+            }
+        });
+
+        Collections.sort(mainFiles);
+
+        return mainFiles;
+    }
+
+    /**
+     * Returns one file per non-blank line, in the original order.
+     */
+    public List<File> collectFromReader(BufferedReader pathReader) throws IOException {
+        List<File> mainFiles = new ArrayList<>();
+
+        while (true) {
+            String line = pathReader.readLine();
+
+            if (line == null) {
+                break;
+            }
+
+            String path = line.trim();
+
+            if (!path.isEmpty()) {
+                mainFiles.add(new File(path));
+            }
+        }
+
+        return mainFiles;
+    }
+}
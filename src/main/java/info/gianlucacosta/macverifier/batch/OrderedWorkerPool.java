@@ -0,0 +1,210 @@
+/*§
+  ===========================================================================
+  MacVerifier
+  ===========================================================================
+  Copyright (C) 2015 Gianluca Costa
+  ===========================================================================
+  Permission is hereby granted, free of charge, to any person obtaining a copy
+  of this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+  THE SOFTWARE.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.macverifier.batch;
+
+import info.gianlucacosta.macverifier.engine.MacFileEngine;
+import info.gianlucacosta.macverifier.engine.MacFileEngineFactory;
+import info.gianlucacosta.macverifier.engine.MacFileEnginePool;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.concurrent.*;
+
+/**
+ * Processes work items concurrently, each running item borrowing a MacFileEngine
+ * - hence a MacService - from a MacFileEnginePool, so that it is kept for later items.
+ * <p>
+ * Results are handed back on the calling thread in the order of the items, regardless of the order
+ * in which they complete; a sliding window of pending items keeps memory bounded
+ * even for huge item sequences.
+ * <p>
+ * Items are usually run by a fixed pool of platform threads; alternatively, on runtimes supporting them,
+ * each item can get its own virtual thread - hiding the open/read latency of many small files - while
+ * a semaphore bounds how many items, and therefore files, are processed at once.
+ */
+public class OrderedWorkerPool {
+
+    private static final int PENDING_ITEMS_PER_THREAD = 4;
+
+    /**
+     * Creates a pool running one virtual thread per item, with at most maxOpenFiles items being processed
+     * at once; when the runtime does not support virtual threads, falls back to maxOpenFiles platform threads.
+     */
+    public static OrderedWorkerPool createVirtual(MacFileEngineFactory macFileEngineFactory, int maxOpenFiles) {
+        return new OrderedWorkerPool(macFileEngineFactory, maxOpenFiles, true);
+    }
+
+    /**
+     * Returns true if the runtime supports virtual threads.
+     */
+    public static boolean isVirtualThreadSupported() {
+        try {
+            Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return true;
+        } catch (NoSuchMethodException ex) {
+            return false;
+        }
+    }
+
+    private final MacFileEngineFactory macFileEngineFactory;
+    private final int threadCount;
+    private final boolean virtualThreads;
+
+    public OrderedWorkerPool(MacFileEngineFactory macFileEngineFactory, int threadCount) {
+        this(macFileEngineFactory, threadCount, false);
+    }
+
+    private OrderedWorkerPool(MacFileEngineFactory macFileEngineFactory, int threadCount, boolean virtualThreads) {
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("The thread count must be at least 1");
+        }
+
+        this.macFileEngineFactory = macFileEngineFactory;
+        this.threadCount = threadCount;
+        this.virtualThreads = virtualThreads && isVirtualThreadSupported();
+    }
+
+    /**
+     * Returns the maximum number of items processed at once.
+     */
+    public int getThreadCount() {
+        return threadCount;
+    }
+
+    public boolean isUsingVirtualThreads() {
+        return virtualThreads;
+    }
+
+    public <I, R> void run(Iterator<I> items, final ItemProcessor<I, R> itemProcessor, ResultHandler<I, R> resultHandler) {
+        final Semaphore processingPermits = new Semaphore(threadCount);
+        final MacFileEnginePool enginePool = new MacFileEnginePool(macFileEngineFactory);
+
+        ExecutorService workerPool = createExecutor();
+
+        try {
+            int maxPendingItems = threadCount * PENDING_ITEMS_PER_THREAD;
+            Deque<PendingItem<I, R>> pendingItems = new ArrayDeque<>();
+
+            while (items.hasNext()) {
+                final I item = items.next();
+
+                if (pendingItems.size() >= maxPendingItems) {
+                    completePendingItem(pendingItems.removeFirst(), resultHandler);
+                }
+
+                Future<R> resultFuture = workerPool.submit(new Callable<R>() {
+                    @Override
+                    public R call() throws Exception {
+                        processingPermits.acquire();
+
+                        try {
+                            //At most threadCount engines are ever created, as they are borrowed under a permit
+                            MacFileEngine macFileEngine = enginePool.borrow();
+
+                            try {
+                                return itemProcessor.process(macFileEngine, item);
+                            } finally {
+                                enginePool.release(macFileEngine);
+                            }
+                        } finally {
+                            processingPermits.release();
+                        }
+                    }
+                });
+
+                pendingItems.addLast(new PendingItem<>(item, resultFuture));
+            }
+
+            while (!pendingItems.isEmpty()) {
+                completePendingItem(pendingItems.removeFirst(), resultHandler);
+            }
+        } finally {
+            workerPool.shutdownNow();
+        }
+    }
+
+    private ExecutorService createExecutor() {
+        if (virtualThreads) {
+            //Reflection keeps the source compatible with Java 8
+            try {
+                return (ExecutorService) Executors.class
+                        .getMethod("newVirtualThreadPerTaskExecutor")
+                        .invoke(null);
+            } catch (ReflectiveOperationException ex) {
+                throw new IllegalStateException("Cannot create virtual threads", ex);
+            }
+        }
+
+        return Executors.newFixedThreadPool(threadCount);
+    }
+
+    private static <I, R> void completePendingItem(PendingItem<I, R> pendingItem, ResultHandler<I, R> resultHandler) {
+        R result;
+
+        try {
+            result = pendingItem.resultFuture.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(ex);
+        } catch (ExecutionException ex) {
+            resultHandler.handleFailure(pendingItem.item, ex.getCause());
+            return;
+        }
+
+        resultHandler.handleResult(pendingItem.item, result);
+    }
+
+
+    /**
+     * Processes an item on a worker thread.
+     */
+    public interface ItemProcessor<I, R> {
+        R process(MacFileEngine macFileEngine, I item) throws Exception;
+    }
+
+
+    /**
+     * Receives the results on the calling thread, in the order of the items.
+     */
+    public interface ResultHandler<I, R> {
+        void handleResult(I item, R result);
+
+        void handleFailure(I item, Throwable failure);
+    }
+
+
+    private static class PendingItem<I, R> {
+        final I item;
+        final Future<R> resultFuture;
+
+        PendingItem(I item, Future<R> resultFuture) {
+            this.item = item;
+            this.resultFuture = resultFuture;
+        }
+    }
+}
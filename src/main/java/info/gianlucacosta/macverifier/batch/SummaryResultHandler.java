@@ -0,0 +1,71 @@
+/*§
+  ===========================================================================
+  MacVerifier
+  ===========================================================================
+  Copyright (C) 2015 Gianluca Costa
+  ===========================================================================
+  Permission is hereby granted, free of charge, to any person obtaining a copy
+  of this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+  THE SOFTWARE.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.macverifier.batch;
+
+import info.gianlucacosta.macverifier.engine.FileOutcome;
+import info.gianlucacosta.macverifier.ui.UserInterface;
+
+/**
+ * ResultHandler registering every outcome into a BatchSummary and reporting
+ * failed and missing files; failures count as FAILED.
+ */
+public abstract class SummaryResultHandler<I> implements OrderedWorkerPool.ResultHandler<I, FileOutcome> {
+
+    private final UserInterface userInterface;
+    private final BatchSummary summary;
+
+    public SummaryResultHandler(UserInterface userInterface, BatchSummary summary) {
+        this.userInterface = userInterface;
+        this.summary = summary;
+    }
+
+    protected abstract String getPath(I item);
+
+    @Override
+    public void handleResult(I item, FileOutcome outcome) {
+        switch (outcome) {
+            case FAILED:
+            case MISSING:
+                userInterface.printlnErr(String.format("%s: %s", outcome, getPath(item)));
+                break;
+
+            default:
+                break;
+        }
+
+        summary.register(outcome);
+    }
+
+    @Override
+    public void handleFailure(I item, Throwable failure) {
+        userInterface.printlnErr(
+                String.format("Error while processing '%s': %s", getPath(item), failure.getMessage())
+        );
+
+        handleResult(item, FileOutcome.FAILED);
+    }
+}
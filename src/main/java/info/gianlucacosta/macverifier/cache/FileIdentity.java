@@ -0,0 +1,178 @@
+/*§
+  ===========================================================================
+  MacVerifier
+  ===========================================================================
+  Copyright (C) 2015 Gianluca Costa
+  ===========================================================================
+  Permission is hereby granted, free of charge, to any person obtaining a copy
+  of this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+  THE SOFTWARE.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.macverifier.cache;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Identity and state of a file as seen by the file system: device, inode, size,
+ * modification time and status change time.
+ * <p>
+ * The status change time cannot be set by ordinary users, so it reveals a modification even when
+ * the modification time has been restored. Where the <i>unix</i> attribute view is not available,
+ * the canonical path replaces device and inode, while the creation time replaces the change time.
+ */
+public final class FileIdentity {
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final long device;
+    private final long inode;
+    private final long size;
+    private final long modifiedTime;
+    private final long changeTime;
+
+    public FileIdentity(long device, long inode, long size, long modifiedTime, long changeTime) {
+        this.device = device;
+        this.inode = inode;
+        this.size = size;
+        this.modifiedTime = modifiedTime;
+        this.changeTime = changeTime;
+    }
+
+    public static FileIdentity read(File file) throws IOException {
+        Path path = file.toPath();
+
+        try {
+            Map<String, Object> attributes = Files.readAttributes(path, "unix:dev,ino,size,lastModifiedTime,ctime");
+
+            return new FileIdentity(
+                    (Long) attributes.get("dev"),
+                    (Long) attributes.get("ino"),
+                    (Long) attributes.get("size"),
+                    toNanos((FileTime) attributes.get("lastModifiedTime")),
+                    toNanos((FileTime) attributes.get("ctime"))
+            );
+        } catch (UnsupportedOperationException | IllegalArgumentException ex) {
+            BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+
+            return new FileIdentity(
+                    0,
+                    hashPath(file.getCanonicalPath()),
+                    attributes.size(),
+                    toNanos(attributes.lastModifiedTime()),
+                    toNanos(attributes.creationTime())
+            );
+        }
+    }
+
+    /**
+     * Reads an identity written by write().
+     */
+    public static FileIdentity read(DataInput input) throws IOException {
+        return new FileIdentity(
+                input.readLong(),
+                input.readLong(),
+                input.readLong(),
+                input.readLong(),
+                input.readLong()
+        );
+    }
+
+    /**
+     * Writes the identity as 5 longs - 40 bytes.
+     */
+    public void write(DataOutput output) throws IOException {
+        output.writeLong(device);
+        output.writeLong(inode);
+        output.writeLong(size);
+        output.writeLong(modifiedTime);
+        output.writeLong(changeTime);
+    }
+
+    private static long toNanos(FileTime fileTime) {
+        return fileTime.to(TimeUnit.NANOSECONDS);
+    }
+
+    private static long hashPath(String path) {
+        long hash = FNV_OFFSET_BASIS;
+
+        for (byte pathByte : path.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= (pathByte & 0xFF);
+            hash *= FNV_PRIME;
+        }
+
+        return hash;
+    }
+
+    public long getDevice() {
+        return device;
+    }
+
+    public long getInode() {
+        return inode;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public long getModifiedTime() {
+        return modifiedTime;
+    }
+
+    public long getChangeTime() {
+        return changeTime;
+    }
+
+    /**
+     * Returns true if the other identity refers to the same file - same device and inode.
+     */
+    public boolean isSameFile(FileIdentity other) {
+        return device == other.device && inode == other.inode;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof FileIdentity)) {
+            return false;
+        }
+
+        FileIdentity other = (FileIdentity) obj;
+
+        return isSameFile(other)
+                && size == other.size
+                && modifiedTime == other.modifiedTime
+                && changeTime == other.changeTime;
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (device * 31 + inode);
+    }
+}
@@ -0,0 +1,132 @@
+/*§
+  ===========================================================================
+  MacVerifier
+  ===========================================================================
+  Copyright (C) 2015 Gianluca Costa
+  ===========================================================================
+  Permission is hereby granted, free of charge, to any person obtaining a copy
+  of this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+  THE SOFTWARE.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.macverifier.cache;
+
+import javax.crypto.Mac;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+/**
+ * Derives from the password, along with a salt stored in the file, the HMAC-SHA256 key tagging the records
+ * of a persistent file - so that writing the file is not enough to forge them.
+ * <p>
+ * The key is derived once per password: only a digest of the last password is kept, to recognize it.
+ * Instances are thread-safe.
+ */
+public class TagKeyDeriver {
+
+    public static final int SALT_SIZE = 16;
+    public static final int TAG_SIZE = 32;
+
+    private static final String TAG_KDF_ALGORITHM = "PBKDF2WithHmacSHA256";
+    private static final int TAG_KDF_ITERATION_COUNT = 65536;
+    private static final String TAG_ALGORITHM = "HmacSHA256";
+
+    private final byte[] salt;
+
+    private byte[] tagPasswordDigest;
+    private Key tagKey;
+
+    public TagKeyDeriver(byte[] salt) {
+        this.salt = salt;
+    }
+
+    public static byte[] createSalt() {
+        byte[] salt = new byte[SALT_SIZE];
+        new SecureRandom().nextBytes(salt);
+
+        return salt;
+    }
+
+    public byte[] getSalt() {
+        return salt;
+    }
+
+    public synchronized Key getTagKey(String password) {
+        byte[] passwordDigest = sha256(password.getBytes(StandardCharsets.UTF_8));
+
+        if (tagKey != null && MessageDigest.isEqual(tagPasswordDigest, passwordDigest)) {
+            return tagKey;
+        }
+
+        char[] passwordChars = password.toCharArray();
+        PBEKeySpec keySpec = new PBEKeySpec(passwordChars, salt, TAG_KDF_ITERATION_COUNT, TAG_SIZE * 8);
+
+        try {
+            byte[] keyBytes = SecretKeyFactory.getInstance(TAG_KDF_ALGORITHM).generateSecret(keySpec).getEncoded();
+
+            tagKey = new SecretKeySpec(keyBytes, TAG_ALGORITHM);
+            tagPasswordDigest = passwordDigest;
+
+            Arrays.fill(keyBytes, (byte) 0);
+
+            return tagKey;
+        } catch (GeneralSecurityException ex) {
+            throw new RuntimeException(ex);
+        } finally {
+            keySpec.clearPassword();
+            Arrays.fill(passwordChars, '\0');
+        }
+    }
+
+    /**
+     * Returns the TAG_SIZE-byte tag of the given input.
+     */
+    public static byte[] computeTag(Key tagKey, byte[] tagInput) {
+        return createTagMac(tagKey).doFinal(tagInput);
+    }
+
+    /**
+     * Returns a Mac initialized with the given tag key, for tagging input that arrives in parts.
+     */
+    public static Mac createTagMac(Key tagKey) {
+        try {
+            Mac mac = Mac.getInstance(TAG_ALGORITHM);
+            mac.init(tagKey);
+
+            return mac;
+        } catch (GeneralSecurityException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    static byte[] sha256(byte[] bytes) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(bytes);
+        } catch (NoSuchAlgorithmException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+}
@@ -0,0 +1,345 @@
+/*§
+  ===========================================================================
+  MacVerifier
+  ===========================================================================
+  Copyright (C) 2015 Gianluca Costa
+  ===========================================================================
+  Permission is hereby granted, free of charge, to any person obtaining a copy
+  of this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+  THE SOFTWARE.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.macverifier.cache;
+
+import info.gianlucacosta.macverifier.mac.MacResult;
+import info.gianlucacosta.macverifier.storage.BinaryMacResultFormat;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.Key;
+import java.security.MessageDigest;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Persistent, bounded, least-recently-used cache of successful verifications, so that re-runs
+ * over mostly unchanged trees skip the files already verified.
+ * <p>
+ * Each entry is keyed by the device and inode of a main file, and records its size, modification and
+ * status change times, the SHA-256 of its stored MacResult and the verification time: a later verification
+ * is trusted only if all of them still match and the verification is within the trust window.
+ * <p>
+ * Entries are tagged via HMAC-SHA256 with a key derived from the password, so that writing the cache file
+ * is not enough to make a file pass; failures are never cached.
+ * <p>
+ * Instances are thread-safe.
+ */
+public class VerificationCache {
+
+    public static final int DEFAULT_CAPACITY = 100000;
+    public static final long DEFAULT_TRUST_WINDOW_MILLIS = 24L * 60 * 60 * 1000;
+
+    private static final int MAGIC_NUMBER = 0x4D564343;
+    private static final int FORMAT_VERSION = 1;
+
+    private static final int DIGEST_SIZE = 32;
+
+    private final File cacheFile;
+    private final long trustWindowMillis;
+    private final TagKeyDeriver tagKeyDeriver;
+    private final LinkedHashMap<FileKey, CacheEntry> entries;
+
+    private boolean modified;
+    private int hitCount;
+
+    private VerificationCache(File cacheFile, final int capacity, long trustWindowMillis, byte[] salt) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("The cache capacity must be at least 1");
+        }
+
+        if (trustWindowMillis < 0) {
+            throw new IllegalArgumentException("The trust window cannot be negative");
+        }
+
+        this.cacheFile = cacheFile;
+        this.trustWindowMillis = trustWindowMillis;
+        this.tagKeyDeriver = new TagKeyDeriver(salt);
+
+        this.entries = new LinkedHashMap<FileKey, CacheEntry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<FileKey, CacheEntry> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    public static File getDefaultCacheFile() {
+        return new File(System.getProperty("user.home"), ".macverifier-cache");
+    }
+
+    /**
+     * Loads the cache from the given file; a missing or invalid file results in an empty cache,
+     * replacing the file when saved.
+     */
+    public static VerificationCache load(File cacheFile, int capacity, long trustWindowMillis) throws IOException {
+        if (!cacheFile.isFile()) {
+            return createEmpty(cacheFile, capacity, trustWindowMillis);
+        }
+
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(cacheFile)))) {
+            if (input.readInt() != MAGIC_NUMBER || input.readInt() != FORMAT_VERSION) {
+                return createEmpty(cacheFile, capacity, trustWindowMillis);
+            }
+
+            byte[] salt = new byte[TagKeyDeriver.SALT_SIZE];
+            input.readFully(salt);
+
+            VerificationCache cache = new VerificationCache(cacheFile, capacity, trustWindowMillis, salt);
+
+            int entryCount = input.readInt();
+
+            //Entries are stored from the least to the most recently used
+            for (int i = 0; i < entryCount; i++) {
+                CacheEntry entry = CacheEntry.read(input);
+                cache.entries.put(new FileKey(entry.identity), entry);
+            }
+
+            return cache;
+        } catch (EOFException ex) {
+            return createEmpty(cacheFile, capacity, trustWindowMillis);
+        }
+    }
+
+    private static VerificationCache createEmpty(File cacheFile, int capacity, long trustWindowMillis) {
+        VerificationCache cache = new VerificationCache(cacheFile, capacity, trustWindowMillis, TagKeyDeriver.createSalt());
+        cache.modified = true;
+
+        return cache;
+    }
+
+    /**
+     * Returns true if the main file - having the given identity and stored result - has passed verification
+     * with the same password within the trust window.
+     */
+    public boolean isTrusted(FileIdentity identity, MacResult storedMacResult, String password) {
+        Key currentTagKey = tagKeyDeriver.getTagKey(password);
+        byte[] macResultDigest = digestMacResult(storedMacResult);
+
+        CacheEntry entry;
+        synchronized (this) {
+            entry = entries.get(new FileKey(identity));
+        }
+
+        if (entry == null || !entry.identity.equals(identity)) {
+            return false;
+        }
+
+        long elapsedMillis = System.currentTimeMillis() - entry.verificationTime;
+        if (elapsedMillis < 0 || elapsedMillis > trustWindowMillis) {
+            return false;
+        }
+
+        boolean trusted = MessageDigest.isEqual(entry.macResultDigest, macResultDigest)
+                && MessageDigest.isEqual(entry.tag, computeTag(currentTagKey, identity, macResultDigest, entry.verificationTime));
+
+        if (trusted) {
+            synchronized (this) {
+                hitCount++;
+            }
+        }
+
+        return trusted;
+    }
+
+    /**
+     * Records a successful verification; the identity should be read before the verification starts,
+     * so that changes occurring in the meantime invalidate the entry.
+     */
+    public void recordPassed(FileIdentity identity, MacResult storedMacResult, String password) {
+        Key currentTagKey = tagKeyDeriver.getTagKey(password);
+        byte[] macResultDigest = digestMacResult(storedMacResult);
+        long verificationTime = System.currentTimeMillis();
+
+        CacheEntry entry = new CacheEntry(
+                identity,
+                macResultDigest,
+                verificationTime,
+                computeTag(currentTagKey, identity, macResultDigest, verificationTime)
+        );
+
+        synchronized (this) {
+            entries.put(new FileKey(identity), entry);
+            modified = true;
+        }
+    }
+
+    public synchronized int getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Writes the cache - if modified - to a temporary file readable by its owner only, then replaces the cache file;
+     * entries beyond the trust window are dropped.
+     */
+    public synchronized void save() throws IOException {
+        if (!modified) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        Iterator<CacheEntry> entryIterator = entries.values().iterator();
+
+        while (entryIterator.hasNext()) {
+            long elapsedMillis = now - entryIterator.next().verificationTime;
+
+            if (elapsedMillis < 0 || elapsedMillis > trustWindowMillis) {
+                entryIterator.remove();
+            }
+        }
+
+        Path cachePath = cacheFile.getAbsoluteFile().toPath();
+        Path temporaryPath = createOwnerOnlyFile(cachePath);
+
+        try {
+            try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporaryPath)))) {
+                output.writeInt(MAGIC_NUMBER);
+                output.writeInt(FORMAT_VERSION);
+                output.write(tagKeyDeriver.getSalt());
+                output.writeInt(entries.size());
+
+                for (CacheEntry entry : entries.values()) {
+                    entry.write(output);
+                }
+            }
+
+            Files.move(temporaryPath, cachePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporaryPath);
+        }
+
+        modified = false;
+    }
+
+    private static Path createOwnerOnlyFile(Path cachePath) throws IOException {
+        Path parentPath = cachePath.getParent();
+        String prefix = cachePath.getFileName().toString();
+
+        try {
+            Set<PosixFilePermission> ownerOnly = EnumSet.of(PosixFilePermission.OWNER_READ, PosixFilePermission.OWNER_WRITE);
+            return Files.createTempFile(parentPath, prefix, ".tmp", PosixFilePermissions.asFileAttribute(ownerOnly));
+        } catch (UnsupportedOperationException ex) {
+            return Files.createTempFile(parentPath, prefix, ".tmp");
+        }
+    }
+
+    private static byte[] computeTag(Key tagKey, FileIdentity identity, byte[] macResultDigest, long verificationTime) {
+        try {
+            ByteArrayOutputStream tagInputBytes = new ByteArrayOutputStream();
+            DataOutputStream tagInput = new DataOutputStream(tagInputBytes);
+
+            identity.write(tagInput);
+            tagInput.write(macResultDigest);
+            tagInput.writeLong(verificationTime);
+
+            return TagKeyDeriver.computeTag(tagKey, tagInputBytes.toByteArray());
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private static byte[] digestMacResult(MacResult macResult) {
+        return TagKeyDeriver.sha256(BinaryMacResultFormat.encode(macResult));
+    }
+
+
+    private static class FileKey {
+        private final long device;
+        private final long inode;
+
+        FileKey(FileIdentity identity) {
+            this.device = identity.getDevice();
+            this.inode = identity.getInode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof FileKey)) {
+                return false;
+            }
+
+            FileKey other = (FileKey) obj;
+
+            return device == other.device && inode == other.inode;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(device * 31 + inode);
+        }
+    }
+
+
+    /**
+     * Stored as 5 longs of identity, the result digest, the verification time and the tag - 112 bytes.
+     */
+    private static class CacheEntry {
+        private final FileIdentity identity;
+        private final byte[] macResultDigest;
+        private final long verificationTime;
+        private final byte[] tag;
+
+        CacheEntry(FileIdentity identity, byte[] macResultDigest, long verificationTime, byte[] tag) {
+            this.identity = identity;
+            this.macResultDigest = macResultDigest;
+            this.verificationTime = verificationTime;
+            this.tag = tag;
+        }
+
+        static CacheEntry read(DataInput input) throws IOException {
+            FileIdentity identity = FileIdentity.read(input);
+
+            byte[] macResultDigest = new byte[DIGEST_SIZE];
+            input.readFully(macResultDigest);
+
+            long verificationTime = input.readLong();
+
+            byte[] tag = new byte[TagKeyDeriver.TAG_SIZE];
+            input.readFully(tag);
+
+            return new CacheEntry(identity, macResultDigest, verificationTime, tag);
+        }
+
+        void write(DataOutput output) throws IOException {
+            identity.write(output);
+            output.write(macResultDigest);
+            output.writeLong(verificationTime);
+            output.write(tag);
+        }
+    }
+}
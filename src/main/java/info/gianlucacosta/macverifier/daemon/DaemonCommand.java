@@ -0,0 +1,84 @@
+/*§
+  ===========================================================================
+  MacVerifier
+  ===========================================================================
+  Copyright (C) 2015 Gianluca Costa
+  ===========================================================================
+  Permission is hereby granted, free of charge, to any person obtaining a copy
+  of this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+  THE SOFTWARE.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.macverifier.daemon;
+
+/**
+ * Commands understood by MacDaemon; their codes are part of the protocol.
+ */
+public enum DaemonCommand {
+    /**
+     * Checks that the daemon is alive
+     */
+    PING(0),
+
+    /**
+     * Verifies a main file against its MAC file
+     */
+    VERIFY(1),
+
+    /**
+     * Creates the MAC file of a main file - or verifies the main file, if its MAC file exists
+     */
+    SIGN(2),
+
+    /**
+     * Stops the daemon
+     */
+    SHUTDOWN(3),
+
+    /**
+     * Changes the read rate and the maximum number of files hashed at once
+     */
+    THROTTLE(4),
+
+    /**
+     * Describes the throttling settings and the throughput of the daemon
+     */
+    STATUS(5);
+
+    private final int code;
+
+    DaemonCommand(int code) {
+        this.code = code;
+    }
+
+    public int getCode() {
+        return code;
+    }
+
+    public static DaemonCommand fromCode(int code) {
+        for (DaemonCommand command : values()) {
+            if (command.code == code) {
+                return command;
+            }
+        }
+
+        throw new IllegalArgumentException(
+                String.format("Unknown daemon command: %d", code)
+        );
+    }
+}
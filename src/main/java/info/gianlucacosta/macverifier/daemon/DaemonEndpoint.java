@@ -0,0 +1,117 @@
+/*§
+  ===========================================================================
+  MacVerifier
+  ===========================================================================
+  Copyright (C) 2015 Gianluca Costa
+  ===========================================================================
+  Permission is hereby granted, free of charge, to any person obtaining a copy
+  of this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+  THE SOFTWARE.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.macverifier.daemon;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.SecureRandom;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Port and access token of a running MacDaemon, published in an <i>endpoint file</i>
+ * that - on POSIX file systems - only its owner can read: as a consequence, only the user
+ * running the daemon can send it requests, despite the TCP port being reachable by all the local users.
+ */
+public class DaemonEndpoint {
+
+    private static final int TOKEN_SIZE = 32;
+
+    private final int port;
+    private final String accessToken;
+
+    public DaemonEndpoint(int port, String accessToken) {
+        this.port = port;
+        this.accessToken = accessToken;
+    }
+
+    public static File getDefaultEndpointFile() {
+        return new File(System.getProperty("user.home"), ".macverifier-daemon");
+    }
+
+    public static String createAccessToken() {
+        byte[] tokenBytes = new byte[TOKEN_SIZE];
+        new SecureRandom().nextBytes(tokenBytes);
+
+        StringBuilder result = new StringBuilder();
+        for (byte tokenByte : tokenBytes) {
+            result.append(String.format("%02x", tokenByte & 0xFF));
+        }
+
+        return result.toString();
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public String getAccessToken() {
+        return accessToken;
+    }
+
+    /**
+     * Writes the endpoint file, replacing any previous one; its permissions are restricted
+     * before the token is written.
+     */
+    public void write(File endpointFile) throws IOException {
+        Path endpointPath = endpointFile.toPath();
+
+        Files.deleteIfExists(endpointPath);
+
+        try {
+            Set<PosixFilePermission> ownerOnly = EnumSet.of(PosixFilePermission.OWNER_READ, PosixFilePermission.OWNER_WRITE);
+            Files.createFile(endpointPath, PosixFilePermissions.asFileAttribute(ownerOnly));
+        } catch (UnsupportedOperationException ex) {
+            Files.createFile(endpointPath);
+        } catch (FileAlreadyExistsException ex) {
+            throw new IOException("The endpoint file has been created by someone else in the meantime", ex);
+        }
+
+        String content = String.format("%d%n%s%n", port, accessToken);
+        Files.write(endpointPath, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static DaemonEndpoint read(File endpointFile) throws IOException {
+        List<String> lines = Files.readAllLines(endpointFile.toPath(), StandardCharsets.UTF_8);
+
+        if (lines.size() < 2) {
+            throw new IOException("Invalid endpoint file");
+        }
+
+        try {
+            return new DaemonEndpoint(Integer.parseInt(lines.get(0).trim()), lines.get(1).trim());
+        } catch (NumberFormatException ex) {
+            throw new IOException("Invalid endpoint file", ex);
+        }
+    }
+}
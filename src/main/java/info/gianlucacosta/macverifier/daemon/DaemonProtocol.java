@@ -0,0 +1,101 @@
+/*§
+  ===========================================================================
+  MacVerifier
+  ===========================================================================
+  Copyright (C) 2015 Gianluca Costa
+  ===========================================================================
+  Permission is hereby granted, free of charge, to any person obtaining a copy
+  of this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+  THE SOFTWARE.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.macverifier.daemon;
+
+import java.io.*;
+
+/**
+ * Wire protocol between MacDaemon and its clients, over a localhost TCP connection.
+ * <p>
+ * Every message is a <i>frame</i>: a 4-byte big-endian length, followed by that many bytes.
+ * A connection starts with an authentication frame, then can carry any number of request/response pairs.
+ * <p>
+ * Authentication frame, in DataOutput encoding - answered by a response frame; the daemon closes the connection
+ * if it fails, or if it does not arrive within a few seconds:
+ * <ol>
+ * <li>protocol version - 1 byte</li>
+ * <li>access token - modified UTF-8 string, as found in the endpoint file</li>
+ * </ol>
+ * Request frame:
+ * <ol>
+ * <li>command code - 1 byte, see DaemonCommand</li>
+ * <li>for VERIFY and SIGN: password and absolute path of the main file - modified UTF-8 strings</li>
+ * <li>for THROTTLE: read rate in bytes per second - 8 bytes - and maximum number of files hashed at once - 4 bytes;
+ * 0 means unlimited, while negative values leave the current setting unchanged</li>
+ * </ol>
+ * Response frame:
+ * <ol>
+ * <li>status - 1 byte: 0 if the request succeeded, 1 otherwise</li>
+ * <li>message - modified UTF-8 string: the FileOutcome name for VERIFY and SIGN, the resulting settings for THROTTLE,
+ * a summary for STATUS, the error description on failure</li>
+ * </ol>
+ */
+public final class DaemonProtocol {
+
+    public static final int VERSION = 1;
+
+    public static final int STATUS_OK = 0;
+    public static final int STATUS_ERROR = 1;
+
+    /**
+     * Larger frames are rejected, so that a client cannot exhaust the memory of the daemon
+     */
+    public static final int MAX_FRAME_LENGTH = 64 * 1024;
+
+    private DaemonProtocol() {
+    }
+
+    /**
+     * Returns the payload of the next frame, or null if the stream ended cleanly before it.
+     */
+    public static byte[] readFrame(DataInputStream inputStream) throws IOException {
+        int frameLength;
+
+        try {
+            frameLength = inputStream.readInt();
+        } catch (EOFException ex) {
+            return null;
+        }
+
+        if (frameLength < 0 || frameLength > MAX_FRAME_LENGTH) {
+            throw new IOException(
+                    String.format("Invalid frame length: %d", frameLength)
+            );
+        }
+
+        byte[] payload = new byte[frameLength];
+        inputStream.readFully(payload);
+
+        return payload;
+    }
+
+    public static void writeFrame(DataOutputStream outputStream, byte[] payload) throws IOException {
+        outputStream.writeInt(payload.length);
+        outputStream.write(payload);
+        outputStream.flush();
+    }
+}
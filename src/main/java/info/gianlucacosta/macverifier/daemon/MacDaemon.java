@@ -0,0 +1,373 @@
+/*§
+  ===========================================================================
+  MacVerifier
+  ===========================================================================
+  Copyright (C) 2015 Gianluca Costa
+  ===========================================================================
+  Permission is hereby granted, free of charge, to any person obtaining a copy
+  of this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+  THE SOFTWARE.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.macverifier.daemon;
+
+import info.gianlucacosta.macverifier.engine.FileOutcome;
+import info.gianlucacosta.macverifier.engine.MacFileEngine;
+import info.gianlucacosta.macverifier.engine.MacFileEngineFactory;
+import info.gianlucacosta.macverifier.engine.MacFileEnginePool;
+import info.gianlucacosta.macverifier.io.ReadThrottle;
+import info.gianlucacosta.macverifier.metrics.RunMetrics;
+import info.gianlucacosta.macverifier.ui.UserInterface;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.*;
+
+/**
+ * Resident server verifying and signing files on request, so that clients pay neither JVM startup
+ * nor the initialization of the cryptographic services: MacService instances - and their Mac objects -
+ * stay warm in a MacFileEnginePool, while derived keys are kept by the key cache of the MacServiceFactory.
+ * <p>
+ * The daemon listens on the loopback interface only, speaking DaemonProtocol. Every connection is served
+ * by a connection thread, which closes it unless it is authenticated within AUTH_TIMEOUT_MILLIS;
+ * VERIFY and SIGN requests are then handed to a fixed pool of hashing threads, so that idle connections
+ * never hold them.
+ * <p>
+ * Background scans can be slowed down at any time via THROTTLE, adjusting the ReadThrottle
+ * shared by the MAC services, and followed via STATUS.
+ */
+public class MacDaemon {
+
+    private static final int AUTH_TIMEOUT_MILLIS = 5 * 1000;
+    private static final int IDLE_CONNECTION_TIMEOUT_MILLIS = 60 * 1000;
+    private static final int MAX_CONNECTIONS = 64;
+
+    private final UserInterface userInterface;
+    private final int threadCount;
+    private final String accessToken;
+    private final ReadThrottle readThrottle;
+    private final RunMetrics metrics;
+    private final MacFileEnginePool enginePool;
+
+    private final Set<Socket> openConnections = Collections.newSetFromMap(new ConcurrentHashMap<Socket, Boolean>());
+
+    private long lastStatusNanos = System.nanoTime();
+    private long lastStatusBytesRead;
+
+    private volatile ServerSocket serverSocket;
+
+    public MacDaemon(UserInterface userInterface, MacFileEngineFactory macFileEngineFactory, int threadCount, String accessToken) {
+        this(userInterface, macFileEngineFactory, threadCount, accessToken, null, RunMetrics.DISABLED);
+    }
+
+    /**
+     * @param readThrottle the throttle shared by the MAC services of the engines, adjusted by THROTTLE; can be null
+     * @param metrics      the metrics of the MAC services, reported by STATUS
+     */
+    public MacDaemon(UserInterface userInterface, MacFileEngineFactory macFileEngineFactory, int threadCount, String accessToken, ReadThrottle readThrottle, RunMetrics metrics) {
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("The thread count must be at least 1");
+        }
+
+        this.userInterface = userInterface;
+        this.threadCount = threadCount;
+        this.accessToken = accessToken;
+        this.readThrottle = readThrottle;
+        this.metrics = metrics;
+        this.enginePool = new MacFileEnginePool(macFileEngineFactory);
+    }
+
+    /**
+     * Binds the server socket; port 0 selects any free port.
+     *
+     * @return the actual port
+     */
+    public int bind(int port) throws IOException {
+        serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Serves connections until a SHUTDOWN request arrives, or stop() is called; connections
+     * beyond MAX_CONNECTIONS are closed right away.
+     */
+    public void serve() throws IOException {
+        if (serverSocket == null) {
+            throw new IllegalStateException("The daemon must be bound first");
+        }
+
+        final ExecutorService hashingPool = Executors.newFixedThreadPool(threadCount);
+        ExecutorService connectionPool = Executors.newCachedThreadPool();
+        final Semaphore connectionPermits = new Semaphore(MAX_CONNECTIONS);
+
+        try {
+            while (true) {
+                final Socket socket;
+
+                try {
+                    socket = serverSocket.accept();
+                } catch (SocketException ex) {
+                    if (serverSocket.isClosed()) {
+                        break;
+                    }
+
+                    throw ex;
+                }
+
+                if (!connectionPermits.tryAcquire()) {
+                    closeQuietly(socket);
+                    continue;
+                }
+
+                connectionPool.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            serveConnection(socket, hashingPool);
+                        } finally {
+                            connectionPermits.release();
+                        }
+                    }
+                });
+            }
+        } finally {
+            connectionPool.shutdown();
+            hashingPool.shutdown();
+
+            //Pending requests complete, and their clients get a little time to disconnect
+            try {
+                hashingPool.awaitTermination(IDLE_CONNECTION_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+                connectionPool.awaitTermination(AUTH_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+
+            for (Socket openConnection : openConnections) {
+                closeQuietly(openConnection);
+            }
+        }
+    }
+
+    public void stop() {
+        closeQuietly(serverSocket);
+    }
+
+    private void serveConnection(Socket socket, ExecutorService hashingPool) {
+        openConnections.add(socket);
+
+        try (Socket connection = socket) {
+            connection.setSoTimeout(AUTH_TIMEOUT_MILLIS);
+
+            DataInputStream inputStream = new DataInputStream(new BufferedInputStream(connection.getInputStream()));
+            DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(connection.getOutputStream()));
+
+            if (!authenticate(inputStream, outputStream)) {
+                return;
+            }
+
+            connection.setSoTimeout(IDLE_CONNECTION_TIMEOUT_MILLIS);
+
+            while (true) {
+                byte[] requestPayload = DaemonProtocol.readFrame(inputStream);
+
+                if (requestPayload == null) {
+                    break;
+                }
+
+                ByteArrayOutputStream responseBytes = new ByteArrayOutputStream();
+                DataOutputStream responseOutput = new DataOutputStream(responseBytes);
+
+                try {
+                    String outcome = handleRequest(new DataInputStream(new ByteArrayInputStream(requestPayload)), hashingPool);
+
+                    responseOutput.writeByte(DaemonProtocol.STATUS_OK);
+                    responseOutput.writeUTF(outcome);
+                } catch (Exception ex) {
+                    responseOutput.writeByte(DaemonProtocol.STATUS_ERROR);
+                    responseOutput.writeUTF(String.valueOf(ex.getMessage()));
+                }
+
+                DaemonProtocol.writeFrame(outputStream, responseBytes.toByteArray());
+            }
+        } catch (SocketTimeoutException ex) {
+            //Idle - or never authenticated - connections are just closed
+        } catch (IOException ex) {
+            //Connections still open when the daemon stops are just closed
+            if (!serverSocket.isClosed()) {
+                userInterface.printlnErr(
+                        String.format("Connection error: %s", ex.getMessage())
+                );
+            }
+        } finally {
+            openConnections.remove(socket);
+        }
+    }
+
+    /**
+     * Reads the authentication frame, answering it.
+     *
+     * @return true if the connection is authenticated, false if it must be closed
+     */
+    private boolean authenticate(DataInputStream inputStream, DataOutputStream outputStream) throws IOException {
+        byte[] authPayload = DaemonProtocol.readFrame(inputStream);
+
+        if (authPayload == null) {
+            return false;
+        }
+
+        DataInputStream authInput = new DataInputStream(new ByteArrayInputStream(authPayload));
+        String failure = null;
+
+        try {
+            int protocolVersion = authInput.readUnsignedByte();
+
+            if (protocolVersion != DaemonProtocol.VERSION) {
+                failure = String.format("Unsupported protocol version: %d", protocolVersion);
+            } else if (!MessageDigest.isEqual(authInput.readUTF().getBytes(StandardCharsets.UTF_8), accessToken.getBytes(StandardCharsets.UTF_8))) {
+                failure = "Invalid access token";
+            }
+        } catch (EOFException | UTFDataFormatException ex) {
+            failure = "Invalid authentication frame";
+        }
+
+        ByteArrayOutputStream responseBytes = new ByteArrayOutputStream();
+        DataOutputStream responseOutput = new DataOutputStream(responseBytes);
+
+        responseOutput.writeByte((failure == null) ? DaemonProtocol.STATUS_OK : DaemonProtocol.STATUS_ERROR);
+        responseOutput.writeUTF((failure == null) ? "AUTHENTICATED" : failure);
+
+        DaemonProtocol.writeFrame(outputStream, responseBytes.toByteArray());
+
+        return failure == null;
+    }
+
+    private String handleRequest(DataInputStream requestInput, ExecutorService hashingPool) throws IOException {
+        DaemonCommand command = DaemonCommand.fromCode(requestInput.readUnsignedByte());
+
+        switch (command) {
+            case PING:
+                return "PONG";
+
+            case SHUTDOWN:
+                stop();
+                return "STOPPING";
+
+            case THROTTLE:
+                return throttle(requestInput.readLong(), requestInput.readInt());
+
+            case STATUS:
+                return describeStatus();
+
+            default:
+                final String password = requestInput.readUTF();
+                final File mainFile = new File(requestInput.readUTF());
+                final boolean verifyOnly = (command == DaemonCommand.VERIFY);
+
+                if (!mainFile.isAbsolute()) {
+                    throw new IOException("The path of the main file must be absolute");
+                }
+
+                FileOutcome outcome = awaitHashing(hashingPool.submit(new Callable<FileOutcome>() {
+                    @Override
+                    public FileOutcome call() throws Exception {
+                        MacFileEngine macFileEngine = enginePool.borrow();
+
+                        try {
+                            return macFileEngine.process(mainFile, password, verifyOnly);
+                        } finally {
+                            enginePool.release(macFileEngine);
+                        }
+                    }
+                }));
+
+                return outcome.name();
+        }
+    }
+
+    private static FileOutcome awaitHashing(Future<FileOutcome> outcomeFuture) throws IOException {
+        try {
+            return outcomeFuture.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the request");
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+
+            throw new IOException(cause.getMessage(), cause);
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException ex) {
+            //Just ignore
+        }
+    }
+
+    private String throttle(long bytesPerSecond, int maxHashedFiles) throws IOException {
+        if (readThrottle == null) {
+            throw new IOException("Throttling is not enabled");
+        }
+
+        if (bytesPerSecond >= 0) {
+            readThrottle.setBytesPerSecond(bytesPerSecond);
+        }
+
+        if (maxHashedFiles >= 0) {
+            readThrottle.setMaxHashedFiles(maxHashedFiles);
+        }
+
+        return readThrottle.toString();
+    }
+
+    /**
+     * The recent read rate refers to the time elapsed since the previous STATUS request;
+     * without a ReadThrottle, only the files already hashed are taken into account.
+     */
+    private synchronized String describeStatus() {
+        long now = System.nanoTime();
+        long bytesRead = (readThrottle != null) ? readThrottle.getBytesRead() : metrics.getBytesHashed();
+
+        double elapsedSeconds = Math.max(now - lastStatusNanos, 1) / 1e9;
+        double recentMebibytesPerSecond = (bytesRead - lastStatusBytesRead) / (1024.0 * 1024) / elapsedSeconds;
+
+        lastStatusNanos = now;
+        lastStatusBytesRead = bytesRead;
+
+        return String.format(
+                "%s - recently read %.1f MiB/s - %s",
+                metrics.formatProgress(),
+                recentMebibytesPerSecond,
+                (readThrottle != null) ? readThrottle.toString() : "not throttled"
+        );
+    }
+}
@@ -0,0 +1,153 @@
+/*§
+  ===========================================================================
+  MacVerifier
+  ===========================================================================
+  Copyright (C) 2015 Gianluca Costa
+  ===========================================================================
+  Permission is hereby granted, free of charge, to any person obtaining a copy
+  of this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+  THE SOFTWARE.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.macverifier.daemon;
+
+import info.gianlucacosta.macverifier.engine.FileOutcome;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.Socket;
+
+/**
+ * Client of MacDaemon; the connection is authenticated when the client is created,
+ * then it can carry any number of requests.
+ * <p>
+ * Instances are not thread-safe.
+ */
+public class MacDaemonClient implements Closeable {
+
+    private final Socket socket;
+    private final DataInputStream inputStream;
+    private final DataOutputStream outputStream;
+
+    public MacDaemonClient(DaemonEndpoint endpoint) throws IOException {
+        this.socket = new Socket(InetAddress.getLoopbackAddress(), endpoint.getPort());
+
+        try {
+            this.inputStream = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            this.outputStream = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+            authenticate(endpoint.getAccessToken());
+        } catch (IOException ex) {
+            socket.close();
+            throw ex;
+        }
+    }
+
+    private void authenticate(String accessToken) throws IOException {
+        ByteArrayOutputStream authBytes = new ByteArrayOutputStream();
+        DataOutputStream authOutput = new DataOutputStream(authBytes);
+
+        authOutput.writeByte(DaemonProtocol.VERSION);
+        authOutput.writeUTF(accessToken);
+
+        exchange(authBytes.toByteArray());
+    }
+
+    public void ping() throws IOException {
+        sendRequest(DaemonCommand.PING, null, null);
+    }
+
+    public void shutdown() throws IOException {
+        sendRequest(DaemonCommand.SHUTDOWN, null, null);
+    }
+
+    /**
+     * Negative arguments leave the related setting unchanged.
+     *
+     * @return the resulting settings, as described by the daemon
+     */
+    public String throttle(long bytesPerSecond, int maxHashedFiles) throws IOException {
+        return sendRequest(DaemonCommand.THROTTLE, null, null, bytesPerSecond, maxHashedFiles);
+    }
+
+    public String status() throws IOException {
+        return sendRequest(DaemonCommand.STATUS, null, null);
+    }
+
+    public FileOutcome verify(File mainFile, String password) throws IOException {
+        return FileOutcome.valueOf(sendRequest(DaemonCommand.VERIFY, mainFile, password));
+    }
+
+    public FileOutcome sign(File mainFile, String password) throws IOException {
+        return FileOutcome.valueOf(sendRequest(DaemonCommand.SIGN, mainFile, password));
+    }
+
+    private String sendRequest(DaemonCommand command, File mainFile, String password) throws IOException {
+        return sendRequest(command, mainFile, password, -1, -1);
+    }
+
+    private String sendRequest(DaemonCommand command, File mainFile, String password, long bytesPerSecond, int maxHashedFiles) throws IOException {
+        ByteArrayOutputStream requestBytes = new ByteArrayOutputStream();
+        DataOutputStream requestOutput = new DataOutputStream(requestBytes);
+
+        requestOutput.writeByte(command.getCode());
+
+        if (mainFile != null) {
+            requestOutput.writeUTF(password);
+            requestOutput.writeUTF(mainFile.getAbsolutePath());
+        }
+
+        if (command == DaemonCommand.THROTTLE) {
+            requestOutput.writeLong(bytesPerSecond);
+            requestOutput.writeInt(maxHashedFiles);
+        }
+
+        return exchange(requestBytes.toByteArray());
+    }
+
+    /**
+     * Sends a frame and returns the message of the response.
+     */
+    private String exchange(byte[] payload) throws IOException {
+        DaemonProtocol.writeFrame(outputStream, payload);
+
+        byte[] responsePayload = DaemonProtocol.readFrame(inputStream);
+
+        if (responsePayload == null) {
+            throw new EOFException("The daemon closed the connection");
+        }
+
+        DataInputStream responseInput = new DataInputStream(new ByteArrayInputStream(responsePayload));
+
+        int status = responseInput.readUnsignedByte();
+        String message = responseInput.readUTF();
+
+        if (status != DaemonProtocol.STATUS_OK) {
+            throw new IOException(
+                    String.format("The daemon could not process the request: %s", message)
+            );
+        }
+
+        return message;
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+}
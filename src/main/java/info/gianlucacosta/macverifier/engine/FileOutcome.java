@@ -0,0 +1,84 @@
+/*§
+  ===========================================================================
+  MacVerifier
+  ===========================================================================
+  Copyright (C) 2015 Gianluca Costa
+  ===========================================================================
+  Permission is hereby granted, free of charge, to any person obtaining a copy
+  of this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+  THE SOFTWARE.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.macverifier.engine;
+
+/**
+ * Outcome of processing a single main file; the codes are recorded by batch journals.
+ */
+public enum FileOutcome {
+    /**
+     * A new MAC file has been created
+     */
+    CREATED(0),
+
+    /**
+     * The MAC file of a grown main file has been extended
+     */
+    UPDATED(1),
+
+    /**
+     * The main file was not processed, being unchanged since it was last signed
+     */
+    UNCHANGED(2),
+
+    /**
+     * The main file matches its MAC file
+     */
+    PASSED(3),
+
+    /**
+     * The main file does not match its MAC file, or could not be processed
+     */
+    FAILED(4),
+
+    /**
+     * The main file - or, when only verification is requested, its MAC file or manifest entry - does not exist
+     */
+    MISSING(5);
+
+    private final int code;
+
+    FileOutcome(int code) {
+        this.code = code;
+    }
+
+    public int getCode() {
+        return code;
+    }
+
+    public static FileOutcome fromCode(int code) {
+        for (FileOutcome outcome : values()) {
+            if (outcome.code == code) {
+                return outcome;
+            }
+        }
+
+        throw new IllegalArgumentException(
+                String.format("Unknown file outcome: %d", code)
+        );
+    }
+}
@@ -0,0 +1,528 @@
+/*§
+  ===========================================================================
+  MacVerifier
+  ===========================================================================
+  Copyright (C) 2015 Gianluca Costa
+  ===========================================================================
+  Permission is hereby granted, free of charge, to any person obtaining a copy
+  of this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+  THE SOFTWARE.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.macverifier.engine;
+
+import info.gianlucacosta.macverifier.cache.FileIdentity;
+import info.gianlucacosta.macverifier.cache.VerificationCache;
+import info.gianlucacosta.macverifier.io.MacVerificationException;
+import info.gianlucacosta.macverifier.io.MacVerifyingInputStream;
+import info.gianlucacosta.macverifier.mac.KdfParameters;
+import info.gianlucacosta.macverifier.mac.KeyedMacService;
+import info.gianlucacosta.macverifier.mac.MacCheckpoint;
+import info.gianlucacosta.macverifier.mac.MacResult;
+import info.gianlucacosta.macverifier.mac.MacService;
+import info.gianlucacosta.macverifier.mac.MacServiceFactory;
+import info.gianlucacosta.macverifier.mac.MultiMacResult;
+import info.gianlucacosta.macverifier.mac.MultiMacService;
+import info.gianlucacosta.macverifier.mac.tree.ChunkIndex;
+import info.gianlucacosta.macverifier.mac.tree.IncrementalTreeMacComputer;
+import info.gianlucacosta.macverifier.mac.tree.TreeMacResult;
+import info.gianlucacosta.macverifier.storage.MacStorageService;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.Key;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Creates and verifies the MAC file of a main file, without any user interaction.
+ * <p>
+ * Instances are not thread-safe, as they cache the services verifying each algorithm.
+ */
+public class MacFileEngine {
+
+    private static final int STREAM_BUFFER_SIZE = 64 * 1024;
+
+    private final MacService macService;
+    private final MacServiceFactory macServiceFactory;
+    private final MacStorageService macStorageService;
+    private final byte[] sharedSalt;
+    private final IncrementalMode incrementalMode;
+    private final VerificationCache verificationCache;
+
+    private final Map<String, MacService> verifyingMacServices = new HashMap<>();
+
+    public MacFileEngine(MacService macService, MacStorageService macStorageService) {
+        this(macService, macStorageService, null, IncrementalMode.DISABLED);
+    }
+
+    /**
+     * When sharedSalt is not null, every new MAC file employs it instead of a fresh salt:
+     * together with a key cache, this makes key derivation run just once for all the files.
+     * <p>
+     * Chunk indexes are employed according to incrementalMode, as long as the MacService
+     * is a KeyedMacService supporting tree MACs.
+     */
+    public MacFileEngine(MacService macService, MacStorageService macStorageService, byte[] sharedSalt, IncrementalMode incrementalMode) {
+        this(macService, null, macStorageService, sharedSalt, incrementalMode);
+    }
+
+    /**
+     * New MAC files are created by the default service of the factory, while MAC files created
+     * by other services are verified by the service matching their algorithm id.
+     */
+    public MacFileEngine(MacServiceFactory macServiceFactory, MacStorageService macStorageService, byte[] sharedSalt, IncrementalMode incrementalMode) {
+        this(macServiceFactory, macStorageService, sharedSalt, incrementalMode, null);
+    }
+
+    /**
+     * When verificationCache is not null, main files that recently passed verification - and are unchanged
+     * since then - pass without being read; the cache can be shared by several engines.
+     */
+    public MacFileEngine(MacServiceFactory macServiceFactory, MacStorageService macStorageService, byte[] sharedSalt, IncrementalMode incrementalMode, VerificationCache verificationCache) {
+        this(macServiceFactory.createMacService(), macServiceFactory, macStorageService, sharedSalt, incrementalMode, verificationCache);
+    }
+
+    private MacFileEngine(MacService macService, MacServiceFactory macServiceFactory, MacStorageService macStorageService, byte[] sharedSalt, IncrementalMode incrementalMode) {
+        this(macService, macServiceFactory, macStorageService, sharedSalt, incrementalMode, null);
+    }
+
+    private MacFileEngine(MacService macService, MacServiceFactory macServiceFactory, MacStorageService macStorageService, byte[] sharedSalt, IncrementalMode incrementalMode, VerificationCache verificationCache) {
+        this.macService = macService;
+        this.macServiceFactory = macServiceFactory;
+        this.macStorageService = macStorageService;
+        this.sharedSalt = sharedSalt;
+        this.incrementalMode = incrementalMode;
+        this.verificationCache = verificationCache;
+    }
+
+    public MacStorageService getMacStorageService() {
+        return macStorageService;
+    }
+
+    /**
+     * Verifies the main file if its MAC file exists, otherwise creates the MAC file
+     * - unless verifyOnly is true.
+     */
+    public FileOutcome process(File mainFile, String password, boolean verifyOnly) throws IOException {
+        if (!mainFile.isFile()) {
+            return FileOutcome.MISSING;
+        }
+
+        File macFile = macStorageService.getMacFile(mainFile);
+
+        if (macFile.isFile()) {
+            if (!verifyOnly && isExtensible(mainFile)) {
+                return extendMacFile(mainFile, macFile, password);
+            }
+
+            return verifyMainFile(mainFile, macFile, password);
+        }
+
+        if (verifyOnly) {
+            return FileOutcome.MISSING;
+        }
+
+        return createMacFile(mainFile, macFile, password);
+    }
+
+    public FileOutcome createMacFile(File mainFile, File macFile, String password) throws IOException {
+        byte[] macSalt = (sharedSalt != null) ? sharedSalt : macService.createSalt();
+
+        KeyedMacService indexingMacService = getIndexingMacService(macService);
+
+        if (indexingMacService != null && indexingMacService.getTreeChunkSize() > 0) {
+            Key macKey = indexingMacService.createMacKey(password, macSalt);
+
+            IncrementalTreeMacComputer.Result incrementalResult = getIncrementalComputer(indexingMacService).computeMac(
+                    macKey,
+                    macSalt,
+                    mainFile,
+                    indexingMacService.getTreeChunkSize(),
+                    indexingMacService.createCheckpointMac(macKey, MacCheckpoint.DEFAULT_PREFIX_LENGTH),
+                    MacCheckpoint.DEFAULT_PREFIX_LENGTH
+            );
+
+            macStorageService.writeMacResult(macFile, describe(macService, incrementalResult.getMacResult()));
+            incrementalResult.getChunkIndex().write(macStorageService.getChunkIndexFile(mainFile));
+        } else {
+            macStorageService.writeMacResult(macFile, computeMacResult(mainFile, macSalt, password));
+        }
+
+        return FileOutcome.CREATED;
+    }
+
+    /**
+     * Creates the MAC files of all the services of the MultiMacService, reading the main file once:
+     * the result of the primary service goes to the main MAC file, each of the others to the MAC file
+     * named after its algorithm id.
+     *
+     * @return the results computed by the pass, including the optional digest
+     */
+    public MultiMacResult createMacFiles(File mainFile, MultiMacService multiMacService, String password) throws IOException {
+        MultiMacResult multiMacResult = multiMacService.computeMacs(password, mainFile);
+        List<MacResult> macResults = multiMacResult.getMacResults();
+
+        macStorageService.writeMacResult(macStorageService.getMacFile(mainFile), macResults.get(0));
+
+        for (MacResult macResult : macResults.subList(1, macResults.size())) {
+            macStorageService.writeMacResult(
+                    macStorageService.getMacFile(mainFile, macResult.getAlgorithmId()),
+                    macResult
+            );
+        }
+
+        return multiMacResult;
+    }
+
+    public FileOutcome verifyMainFile(File mainFile, File macFile, String password) throws IOException {
+        MacResult storedMacResult = macStorageService.readMacResult(macFile);
+        FileIdentity mainIdentity = readIdentity(mainFile);
+
+        if (isTrusted(mainIdentity, storedMacResult, password)) {
+            return FileOutcome.PASSED;
+        }
+
+        FileOutcome outcome = verifyViaChunkIndex(mainFile, storedMacResult, password) ?
+                FileOutcome.PASSED
+                :
+                computeVerification(mainFile, storedMacResult, password);
+
+        return cacheOutcome(mainIdentity, storedMacResult, password, outcome);
+    }
+
+    /**
+     * Computes the MAC of the main file - with a new salt, unless a shared salt is set -
+     * without writing any file.
+     */
+    public MacResult computeMacResult(File mainFile, String password) throws IOException {
+        byte[] macSalt = (sharedSalt != null) ? sharedSalt : macService.createSalt();
+
+        return computeMacResult(mainFile, macSalt, password);
+    }
+
+    /**
+     * Keyed services also get a checkpoint, computed along with the MAC.
+     */
+    private MacResult computeMacResult(File mainFile, byte[] macSalt, String password) throws IOException {
+        if (!(macService instanceof KeyedMacService)) {
+            return describe(macService, macService.computeMac(password, macSalt, mainFile));
+        }
+
+        KeyedMacService keyedMacService = (KeyedMacService) macService;
+        Key macKey = keyedMacService.createMacKey(password, macSalt);
+
+        return describe(
+                macService,
+                keyedMacService.computeMacWithCheckpoint(macKey, macSalt, mainFile, MacCheckpoint.DEFAULT_PREFIX_LENGTH)
+        );
+    }
+
+    /**
+     * Verifies the main file against a MacResult stored elsewhere - for example, in a manifest.
+     * <p>
+     * When the result has a checkpoint, a main file having a different length fails without being read
+     * - nor deriving the key - and one having a different prefix fails before being read in full.
+     */
+    public FileOutcome verifyMacResult(File mainFile, MacResult storedMacResult, String password) throws IOException {
+        FileIdentity mainIdentity = readIdentity(mainFile);
+
+        if (isTrusted(mainIdentity, storedMacResult, password)) {
+            return FileOutcome.PASSED;
+        }
+
+        return cacheOutcome(
+                mainIdentity,
+                storedMacResult,
+                password,
+                computeVerification(mainFile, storedMacResult, password)
+        );
+    }
+
+    /**
+     * Returns the identity of the main file - or null, without verification cache - read before verifying it,
+     * so that changes occurring during the verification invalidate the cache entry.
+     */
+    private FileIdentity readIdentity(File mainFile) throws IOException {
+        return (verificationCache != null) ?
+                FileIdentity.read(mainFile)
+                :
+                null;
+    }
+
+    private boolean isTrusted(FileIdentity mainIdentity, MacResult storedMacResult, String password) {
+        return mainIdentity != null && verificationCache.isTrusted(mainIdentity, storedMacResult, password);
+    }
+
+    private FileOutcome cacheOutcome(FileIdentity mainIdentity, MacResult storedMacResult, String password, FileOutcome outcome) {
+        //Failures are not recorded: entries are bound to the password and to the stored result anyway
+        if (mainIdentity != null && outcome == FileOutcome.PASSED) {
+            verificationCache.recordPassed(mainIdentity, storedMacResult, password);
+        }
+
+        return outcome;
+    }
+
+    private FileOutcome computeVerification(File mainFile, MacResult storedMacResult, String password) throws IOException {
+        MacCheckpoint storedCheckpoint = storedMacResult.getCheckpoint();
+
+        if (storedCheckpoint != null && mainFile.length() != storedCheckpoint.getTotalLength()) {
+            return FileOutcome.FAILED;
+        }
+
+        MacService verifyingMacService = getVerifyingMacService(storedMacResult);
+        MacResult mainMacResult;
+
+        if (storedCheckpoint != null && storedCheckpoint.hasPrefixTag() && verifyingMacService instanceof KeyedMacService) {
+            KeyedMacService keyedMacService = (KeyedMacService) verifyingMacService;
+            Key macKey = keyedMacService.createMatchingMacKey(password, storedMacResult);
+
+            mainMacResult = keyedMacService.computeCheckedMatchingMac(macKey, storedMacResult, mainFile);
+
+            if (mainMacResult == null) {
+                return FileOutcome.FAILED;
+            }
+        } else {
+            mainMacResult = verifyingMacService.computeMatchingMac(password, storedMacResult, mainFile);
+        }
+
+        return mainMacResult.equals(storedMacResult) ?
+                FileOutcome.PASSED
+                :
+                FileOutcome.FAILED;
+    }
+
+    /**
+     * Creates the MAC file of data read from a stream - for example, a pipe - up to its end.
+     */
+    public FileOutcome createMacFileFromStream(InputStream sourceStream, File macFile, String password) throws IOException {
+        byte[] macSalt = (sharedSalt != null) ? sharedSalt : macService.createSalt();
+
+        MacResult sourceMacResult = describe(macService, macService.computeMac(password, macSalt, sourceStream));
+
+        macStorageService.writeMacResult(macFile, sourceMacResult);
+
+        return FileOutcome.CREATED;
+    }
+
+    /**
+     * Verifies data read from a stream - for example, a pipe - up to its end, in a single pass.
+     */
+    public FileOutcome verifyStream(InputStream sourceStream, File macFile, String password) throws IOException {
+        MacResult storedMacResult = macStorageService.readMacResult(macFile);
+        MacService verifyingMacService = getVerifyingMacService(storedMacResult);
+
+        if (!(verifyingMacService instanceof KeyedMacService)) {
+            MacResult sourceMacResult = verifyingMacService.computeMac(password, storedMacResult.getSalt(), sourceStream);
+
+            return sourceMacResult.equals(storedMacResult) ?
+                    FileOutcome.PASSED
+                    :
+                    FileOutcome.FAILED;
+        }
+
+        KeyedMacService keyedMacService = (KeyedMacService) verifyingMacService;
+        Key macKey = keyedMacService.createMatchingMacKey(password, storedMacResult);
+
+        byte[] buffer = new byte[STREAM_BUFFER_SIZE];
+
+        try (MacVerifyingInputStream verifyingStream = new MacVerifyingInputStream(
+                sourceStream,
+                keyedMacService.createMatchingStreamingMac(macKey, storedMacResult),
+                storedMacResult
+        )) {
+            while (verifyingStream.read(buffer) != -1) {
+                //Just consume the data
+            }
+        } catch (MacVerificationException ex) {
+            return FileOutcome.FAILED;
+        }
+
+        return FileOutcome.PASSED;
+    }
+
+    /**
+     * Extends the tree MAC of a main file that has grown since it was indexed,
+     * rehashing only its new part; the rehashed chunk ranges are recorded in the new index.
+     */
+    public FileOutcome extendMacFile(File mainFile, File macFile, String password) throws IOException {
+        MacResult storedMacResult = macStorageService.readMacResult(macFile);
+        MacService verifyingMacService = getVerifyingMacService(storedMacResult);
+        KeyedMacService indexingMacService = getIndexingMacService(verifyingMacService);
+
+        if (indexingMacService == null || !(storedMacResult instanceof TreeMacResult)) {
+            throw new IOException("Only indexed tree MACs can be extended");
+        }
+
+        Key macKey = indexingMacService.createMatchingMacKey(password, storedMacResult);
+
+        IncrementalTreeMacComputer.Result incrementalResult;
+        try {
+            ChunkIndex chunkIndex = ChunkIndex.read(macStorageService.getChunkIndexFile(mainFile), (TreeMacResult) storedMacResult);
+
+            incrementalResult = getIncrementalComputer(indexingMacService).extendMac(
+                    macKey,
+                    (TreeMacResult) storedMacResult,
+                    chunkIndex,
+                    mainFile
+            );
+        } catch (IOException ex) {
+            return FileOutcome.FAILED;
+        }
+
+        //The extended MAC keeps the key derivation parameters of the stored one
+        KdfParameters kdfParameters = (storedMacResult.getKdfParameters() != null) ?
+                storedMacResult.getKdfParameters()
+                :
+                indexingMacService.getDefaultKdfParameters();
+
+        macStorageService.writeMacResult(
+                macFile,
+                addCheckpoint(
+                        indexingMacService,
+                        macKey,
+                        mainFile,
+                        incrementalResult.getMacResult().withAlgorithm(verifyingMacService.getAlgorithmId(), kdfParameters)
+                )
+        );
+        incrementalResult.getChunkIndex().write(macStorageService.getChunkIndexFile(mainFile));
+
+        return FileOutcome.UPDATED;
+    }
+
+    /**
+     * Returns true only if the main file has the identity recorded in the index and the index
+     * is authentic; in all the other cases - including an unusable index - the caller performs a full verification.
+     */
+    private boolean verifyViaChunkIndex(File mainFile, MacResult storedMacResult, String password) throws IOException {
+        KeyedMacService indexingMacService = getIndexingMacService(getVerifyingMacService(storedMacResult));
+
+        if (indexingMacService == null || !(storedMacResult instanceof TreeMacResult)) {
+            return false;
+        }
+
+        File chunkIndexFile = macStorageService.getChunkIndexFile(mainFile);
+        if (!chunkIndexFile.isFile()) {
+            return false;
+        }
+
+        ChunkIndex chunkIndex;
+        try {
+            chunkIndex = ChunkIndex.read(chunkIndexFile, (TreeMacResult) storedMacResult);
+        } catch (IOException ex) {
+            return false;
+        }
+
+        if (!chunkIndex.matches(FileIdentity.read(mainFile))) {
+            return false;
+        }
+
+        Key macKey = indexingMacService.createMatchingMacKey(password, storedMacResult);
+
+        return getIncrementalComputer(indexingMacService).isAuthentic(
+                macKey,
+                (TreeMacResult) storedMacResult,
+                chunkIndex
+        );
+    }
+
+    /**
+     * Returns true if the APPEND mode is active and the main file has grown since it was indexed.
+     */
+    public boolean isExtensible(File mainFile) throws IOException {
+        if (incrementalMode != IncrementalMode.APPEND) {
+            return false;
+        }
+
+        File chunkIndexFile = macStorageService.getChunkIndexFile(mainFile);
+
+        if (!chunkIndexFile.isFile()) {
+            return false;
+        }
+
+        try {
+            return mainFile.length() > ChunkIndex.readTotalLength(chunkIndexFile);
+        } catch (IOException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * Returns the service matching the algorithm id of the given result: legacy results, without id,
+     * as well as engines not having a MacServiceFactory, employ the default service.
+     */
+    private MacService getVerifyingMacService(MacResult storedMacResult) {
+        String algorithmId = storedMacResult.getAlgorithmId();
+
+        if (algorithmId == null || macServiceFactory == null || algorithmId.equals(macService.getAlgorithmId())) {
+            return macService;
+        }
+
+        MacService verifyingMacService = verifyingMacServices.get(algorithmId);
+
+        if (verifyingMacService == null) {
+            verifyingMacService = macServiceFactory.createMacService(algorithmId);
+            verifyingMacServices.put(algorithmId, verifyingMacService);
+        }
+
+        return verifyingMacService;
+    }
+
+    /**
+     * Records in the result the algorithm id and the key derivation parameters of the service that computed it.
+     */
+    private static MacResult describe(MacService macService, MacResult macResult) {
+        return macResult.withAlgorithm(macService.getAlgorithmId(), macService.getKdfParameters());
+    }
+
+    /**
+     * Main files not longer than the prefix only get their length, without being opened again.
+     */
+    private static MacResult addCheckpoint(KeyedMacService keyedMacService, Key macKey, File mainFile, MacResult macResult) throws IOException {
+        long mainLength = mainFile.length();
+
+        MacCheckpoint checkpoint = (mainLength <= MacCheckpoint.DEFAULT_PREFIX_LENGTH) ?
+                new MacCheckpoint(mainLength)
+                :
+                keyedMacService.computeCheckpoint(macKey, mainFile, MacCheckpoint.DEFAULT_PREFIX_LENGTH);
+
+        return (checkpoint != null) ?
+                macResult.withCheckpoint(checkpoint)
+                :
+                macResult;
+    }
+
+    private KeyedMacService getIndexingMacService(MacService macService) {
+        if (incrementalMode == IncrementalMode.DISABLED || !(macService instanceof KeyedMacService)) {
+            return null;
+        }
+
+        KeyedMacService keyedMacService = (KeyedMacService) macService;
+
+        return (keyedMacService.getTreeMacComputer() != null) ?
+                keyedMacService
+                :
+                null;
+    }
+
+    private static IncrementalTreeMacComputer getIncrementalComputer(KeyedMacService keyedMacService) {
+        return new IncrementalTreeMacComputer(keyedMacService.getTreeMacComputer());
+    }
+}
@@ -0,0 +1,72 @@
+/*§
+  ===========================================================================
+  MacVerifier
+  ===========================================================================
+  Copyright (C) 2015 Gianluca Costa
+  ===========================================================================
+  Permission is hereby granted, free of charge, to any person obtaining a copy
+  of this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+  THE SOFTWARE.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.macverifier.engine;
+
+import info.gianlucacosta.macverifier.cache.VerificationCache;
+import info.gianlucacosta.macverifier.mac.MacServiceFactory;
+import info.gianlucacosta.macverifier.storage.MacStorageService;
+
+/**
+ * Creates MacFileEngine instances sharing the same settings - each one with its own MacService.
+ */
+public class MacFileEngineFactory {
+
+    private final MacServiceFactory macServiceFactory;
+    private final MacStorageService macStorageService;
+    private final byte[] sharedSalt;
+    private final IncrementalMode incrementalMode;
+    private final VerificationCache verificationCache;
+
+    public MacFileEngineFactory(MacServiceFactory macServiceFactory, MacStorageService macStorageService, byte[] sharedSalt, IncrementalMode incrementalMode) {
+        this(macServiceFactory, macStorageService, sharedSalt, incrementalMode, null);
+    }
+
+    /**
+     * The verification cache, if not null, is shared by all the engines.
+     */
+    public MacFileEngineFactory(MacServiceFactory macServiceFactory, MacStorageService macStorageService, byte[] sharedSalt, IncrementalMode incrementalMode, VerificationCache verificationCache) {
+        this.macServiceFactory = macServiceFactory;
+        this.macStorageService = macStorageService;
+        this.sharedSalt = sharedSalt;
+        this.incrementalMode = incrementalMode;
+        this.verificationCache = verificationCache;
+    }
+
+    public MacStorageService getMacStorageService() {
+        return macStorageService;
+    }
+
+    public MacFileEngine createMacFileEngine() {
+        return new MacFileEngine(
+                macServiceFactory,
+                macStorageService,
+                sharedSalt,
+                incrementalMode,
+                verificationCache
+        );
+    }
+}
@@ -0,0 +1,61 @@
+/*§
+  ===========================================================================
+  MacVerifier
+  ===========================================================================
+  Copyright (C) 2015 Gianluca Costa
+  ===========================================================================
+  Permission is hereby granted, free of charge, to any person obtaining a copy
+  of this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+  THE SOFTWARE.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.macverifier.engine;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Pool of the MacFileEngine instances - hence of the MacService instances - employed by worker threads:
+ * an engine is created only when all the existing ones are busy, and kept warm for later borrowers,
+ * so that engines outlive the threads using them.
+ * <p>
+ * As a consequence, the pool never holds more engines than the threads borrowing at once.
+ * Instances are thread-safe.
+ */
+public class MacFileEnginePool {
+
+    private final MacFileEngineFactory macFileEngineFactory;
+    private final Queue<MacFileEngine> idleEngines = new ConcurrentLinkedQueue<>();
+
+    public MacFileEnginePool(MacFileEngineFactory macFileEngineFactory) {
+        this.macFileEngineFactory = macFileEngineFactory;
+    }
+
+    public MacFileEngine borrow() {
+        MacFileEngine macFileEngine = idleEngines.poll();
+
+        return (macFileEngine != null) ? macFileEngine : macFileEngineFactory.createMacFileEngine();
+    }
+
+    /**
+     * Must be called once the engine is no longer employed - even if its processing failed.
+     */
+    public void release(MacFileEngine macFileEngine) {
+        idleEngines.offer(macFileEngine);
+    }
+}
@@ -0,0 +1,89 @@
+/*§
+  ===========================================================================
+  MacVerifier
+  ===========================================================================
+  Copyright (C) 2015 Gianluca Costa
+  ===========================================================================
+  Permission is hereby granted, free of charge, to any person obtaining a copy
+  of this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+  THE SOFTWARE.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.macverifier.io;
+
+import info.gianlucacosta.macverifier.mac.MacResult;
+import info.gianlucacosta.macverifier.mac.StreamingMac;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Output stream computing the MAC of the bytes as they are written to the underlying stream:
+ * the MacResult is available once the stream is closed.
+ */
+public class MacComputingOutputStream extends FilterOutputStream {
+
+    private final StreamingMac streamingMac;
+
+    private MacResult macResult;
+
+    public MacComputingOutputStream(OutputStream outputStream, StreamingMac streamingMac) {
+        super(outputStream);
+
+        this.streamingMac = streamingMac;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        out.write(b);
+        streamingMac.update(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        out.write(bytes, offset, length);
+        streamingMac.update(bytes, offset, length);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (macResult != null) {
+            return;
+        }
+
+        try {
+            super.close();
+        } finally {
+            macResult = streamingMac.finish();
+        }
+    }
+
+    /**
+     * Returns the MAC of all the written bytes.
+     *
+     * @throws IllegalStateException if the stream has not been closed yet
+     */
+    public MacResult getMacResult() {
+        if (macResult == null) {
+            throw new IllegalStateException("The stream must be closed first");
+        }
+
+        return macResult;
+    }
+}
@@ -0,0 +1,153 @@
+/*§
+  ===========================================================================
+  MacVerifier
+  ===========================================================================
+  Copyright (C) 2015 Gianluca Costa
+  ===========================================================================
+  Permission is hereby granted, free of charge, to any person obtaining a copy
+  of this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+  THE SOFTWARE.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.macverifier.io;
+
+import info.gianlucacosta.macverifier.mac.MacResult;
+import info.gianlucacosta.macverifier.mac.StreamingMac;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Input stream verifying the data against a reference MAC while it is being read - so that
+ * verification requires no additional pass over the data.
+ * <p>
+ * The verdict is available once the end of the stream is reached: unauthentic data makes
+ * the end-of-stream read - and close() - throw MacVerificationException, so that consumers never
+ * see a clean end. Closing the stream before its end throws as well. Data returned before the end
+ * is, of course, not yet verified.
+ */
+public class MacVerifyingInputStream extends FilterInputStream {
+
+    private static final int SKIP_BUFFER_SIZE = 8192;
+
+    private final StreamingMac streamingMac;
+    private final MacResult referenceResult;
+
+    private boolean endReached;
+    private boolean verified;
+
+    public MacVerifyingInputStream(InputStream inputStream, StreamingMac streamingMac, MacResult referenceResult) {
+        super(inputStream);
+
+        this.streamingMac = streamingMac;
+        this.referenceResult = referenceResult;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = in.read();
+
+        if (b == -1) {
+            reachEnd();
+        } else {
+            streamingMac.update(new byte[]{(byte) b}, 0, 1);
+        }
+
+        return b;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+        int readBytesCount = in.read(bytes, offset, length);
+
+        if (readBytesCount == -1) {
+            reachEnd();
+        } else {
+            streamingMac.update(bytes, offset, readBytesCount);
+        }
+
+        return readBytesCount;
+    }
+
+    /**
+     * Skipped bytes are read anyway, as they must be MAC-ed.
+     */
+    @Override
+    public long skip(long n) throws IOException {
+        byte[] skipBuffer = new byte[(int) Math.min(SKIP_BUFFER_SIZE, Math.max(n, 0))];
+        long skippedBytesCount = 0;
+
+        while (skippedBytesCount < n) {
+            int readBytesCount = read(skipBuffer, 0, (int) Math.min(skipBuffer.length, n - skippedBytesCount));
+
+            if (readBytesCount == -1) {
+                break;
+            }
+
+            skippedBytesCount += readBytesCount;
+        }
+
+        return skippedBytesCount;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public synchronized void mark(int readLimit) {
+    }
+
+    @Override
+    public synchronized void reset() throws IOException {
+        throw new IOException("mark/reset not supported");
+    }
+
+    private void reachEnd() throws MacVerificationException {
+        if (!endReached) {
+            endReached = true;
+            verified = streamingMac.finish().equals(referenceResult);
+        }
+
+        if (!verified) {
+            throw new MacVerificationException("The data does not match its MAC");
+        }
+    }
+
+    /**
+     * Returns true if the end of the stream has been reached and the data matches the reference MAC.
+     */
+    public boolean isVerified() {
+        return verified;
+    }
+
+    @Override
+    public void close() throws IOException {
+        super.close();
+
+        if (!endReached) {
+            throw new MacVerificationException("The stream was closed before its end, so its MAC could not be verified");
+        }
+
+        if (!verified) {
+            throw new MacVerificationException("The data does not match its MAC");
+        }
+    }
+}
@@ -0,0 +1,175 @@
+/*§
+  ===========================================================================
+  MacVerifier
+  ===========================================================================
+  Copyright (C) 2015 Gianluca Costa
+  ===========================================================================
+  Permission is hereby granted, free of charge, to any person obtaining a copy
+  of this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+  THE SOFTWARE.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.macverifier.io;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+
+/**
+ * Reads a channel on a background thread, filling a ring of direct buffers
+ * while the calling thread consumes the buffers already filled: I/O and processing therefore overlap.
+ * <p>
+ * Instances reuse their ring and are not thread-safe.
+ */
+public class PipelinedChannelReader {
+
+    private static final ByteBuffer END_OF_STREAM = ByteBuffer.allocate(0);
+
+    private static final ExecutorService readerExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "MacVerifier pipelined reader");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final int ringDepth;
+    private final int bufferSize;
+
+    private ByteBuffer[] ring;
+
+    public PipelinedChannelReader(int ringDepth, int bufferSize) {
+        if (ringDepth < 2) {
+            throw new IllegalArgumentException("The ring must contain at least 2 buffers");
+        }
+
+        if (bufferSize < 1) {
+            throw new IllegalArgumentException("The buffer size must be positive");
+        }
+
+        this.ringDepth = ringDepth;
+        this.bufferSize = bufferSize;
+    }
+
+    public int getRingDepth() {
+        return ringDepth;
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    private ByteBuffer[] getRing() {
+        if (ring == null) {
+            ring = new ByteBuffer[ringDepth];
+
+            for (int i = 0; i < ringDepth; i++) {
+                ring[i] = ByteBuffer.allocateDirect(bufferSize);
+            }
+        }
+
+        return ring;
+    }
+
+    /**
+     * Passes the whole content of the channel - from its current position - to the consumer,
+     * in order and on the calling thread.
+     */
+    public void read(final FileChannel sourceChannel, Consumer<ByteBuffer> bufferConsumer) throws IOException {
+        final BlockingQueue<ByteBuffer> freeBuffers = new ArrayBlockingQueue<>(ringDepth);
+        final BlockingQueue<ByteBuffer> filledBuffers = new ArrayBlockingQueue<>(ringDepth + 1);
+
+        for (ByteBuffer buffer : getRing()) {
+            buffer.clear();
+            freeBuffers.add(buffer);
+        }
+
+        Future<?> readerFuture = readerExecutor.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws IOException, InterruptedException {
+                try {
+                    while (true) {
+                        ByteBuffer buffer = freeBuffers.take();
+
+                        boolean endOfStream = fill(sourceChannel, buffer);
+
+                        buffer.flip();
+                        if (buffer.hasRemaining()) {
+                            filledBuffers.put(buffer);
+                        }
+
+                        if (endOfStream) {
+                            return null;
+                        }
+                    }
+                } finally {
+                    filledBuffers.put(END_OF_STREAM);
+                }
+            }
+        });
+
+        boolean completed = false;
+
+        try {
+            while (true) {
+                ByteBuffer buffer = filledBuffers.take();
+
+                if (buffer == END_OF_STREAM) {
+                    break;
+                }
+
+                bufferConsumer.accept(buffer);
+
+                buffer.clear();
+                freeBuffers.put(buffer);
+            }
+
+            readerFuture.get();
+            completed = true;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+
+            throw new IOException(cause);
+        } finally {
+            if (!completed) {
+                readerFuture.cancel(true);
+            }
+        }
+    }
+
+    private static boolean fill(FileChannel sourceChannel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (sourceChannel.read(buffer) == -1) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+}
@@ -0,0 +1,223 @@
+/*§
+  ===========================================================================
+  MacVerifier
+  ===========================================================================
+  Copyright (C) 2015 Gianluca Costa
+  ===========================================================================
+  Permission is hereby granted, free of charge, to any person obtaining a copy
+  of this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+  THE SOFTWARE.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.macverifier.io;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Limits the reads of the MAC services, so that background scans do not disturb the other workloads of a host:
+ * <ul>
+ * <li>a token bucket bounds the bytes read per second, allowing bursts of at most one second of reads</li>
+ * <li>a cap bounds how many files are hashed at once, while the chunks of tree MACs are hashed
+ * by a pool having the cap as its parallelism - so that the cap also bounds the hashing threads</li>
+ * </ul>
+ * Both limits - where 0 means unlimited - can be changed at any time, affecting the reads in progress as well:
+ * readers waiting for the rate re-check it at least every 100 ms, and at once after a change.
+ * <p>
+ * Instances are thread-safe.
+ */
+public class ReadThrottle {
+
+    private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+    private static final long MAX_WAIT_SLICE_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final LongAdder bytesRead = new LongAdder();
+
+    private long bytesPerSecond;
+    private double availableBytes;
+    private long lastRefillNanos;
+
+    private int maxHashedFiles;
+    private int hashedFiles;
+
+    private ForkJoinPool chunkPool;
+
+    public ReadThrottle(long bytesPerSecond, int maxHashedFiles) {
+        setBytesPerSecond(bytesPerSecond);
+        setMaxHashedFiles(maxHashedFiles);
+    }
+
+    public synchronized long getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    /**
+     * Tokens accumulated at the previous rate are kept, within the burst allowed by the new one.
+     */
+    public synchronized void setBytesPerSecond(long bytesPerSecond) {
+        if (bytesPerSecond < 0) {
+            throw new IllegalArgumentException("The read rate cannot be negative");
+        }
+
+        long now = System.nanoTime();
+
+        if (this.bytesPerSecond > 0) {
+            refill(now);
+            availableBytes = Math.min(availableBytes, bytesPerSecond);
+        } else {
+            availableBytes = bytesPerSecond;
+            lastRefillNanos = now;
+        }
+
+        this.bytesPerSecond = bytesPerSecond;
+        notifyAll();
+    }
+
+    public synchronized int getMaxHashedFiles() {
+        return maxHashedFiles;
+    }
+
+    public synchronized void setMaxHashedFiles(int maxHashedFiles) {
+        if (maxHashedFiles < 0) {
+            throw new IllegalArgumentException("The maximum number of hashed files cannot be negative");
+        }
+
+        this.maxHashedFiles = maxHashedFiles;
+        notifyAll();
+    }
+
+    /**
+     * Returns the pool where tree MACs must hash their chunks while the number of hashed files is limited
+     * - its parallelism being the limit - or null if it is unlimited.
+     * <p>
+     * When the limit changes, a new pool is created, while the previous one winds down once idle.
+     */
+    public synchronized ForkJoinPool getChunkPool() {
+        if (maxHashedFiles == 0) {
+            return null;
+        }
+
+        if (chunkPool == null || chunkPool.getParallelism() != maxHashedFiles) {
+            chunkPool = new ForkJoinPool(maxHashedFiles);
+        }
+
+        return chunkPool;
+    }
+
+    /**
+     * Returns the bytes read via throttled channels so far - unlike the hashed bytes,
+     * also including the files still being hashed.
+     */
+    public long getBytesRead() {
+        return bytesRead.sum();
+    }
+
+    /**
+     * Returns a channel reading from the given one within the limits, waiting until one more file can be hashed;
+     * closing the returned channel closes the given one.
+     */
+    public FileChannel throttle(FileChannel sourceChannel) throws IOException {
+        try {
+            acquireFile();
+        } catch (InterruptedIOException ex) {
+            sourceChannel.close();
+            throw ex;
+        }
+
+        return new ThrottledFileChannel(sourceChannel, this);
+    }
+
+    private synchronized void acquireFile() throws InterruptedIOException {
+        try {
+            while (maxHashedFiles > 0 && hashedFiles >= maxHashedFiles) {
+                wait();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to hash the file");
+        }
+
+        hashedFiles++;
+    }
+
+    synchronized void releaseFile() {
+        hashedFiles--;
+        notifyAll();
+    }
+
+    /**
+     * Takes the given bytes from the bucket - possibly going into debt - then waits for the debt to be repaid;
+     * concurrent readers therefore share the rate.
+     * <p>
+     * The wait - releasing the monitor - is split into slices, after each of which the debt is reduced
+     * according to the current rate.
+     */
+    synchronized void acquireBytes(long byteCount) throws InterruptedIOException {
+        if (byteCount <= 0) {
+            return;
+        }
+
+        bytesRead.add(byteCount);
+
+        if (bytesPerSecond == 0) {
+            return;
+        }
+
+        long sliceStartNanos = System.nanoTime();
+
+        refill(sliceStartNanos);
+        availableBytes -= byteCount;
+
+        double debtBytes = -availableBytes;
+
+        try {
+            while (debtBytes > 0 && bytesPerSecond > 0) {
+                long debtNanos = (long) Math.ceil(debtBytes * NANOS_PER_SECOND / bytesPerSecond);
+
+                TimeUnit.NANOSECONDS.timedWait(this, Math.min(debtNanos, MAX_WAIT_SLICE_NANOS));
+
+                long sliceEndNanos = System.nanoTime();
+                debtBytes -= (double) (sliceEndNanos - sliceStartNanos) * bytesPerSecond / NANOS_PER_SECOND;
+                sliceStartNanos = sliceEndNanos;
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while throttling the read");
+        }
+    }
+
+    private void refill(long now) {
+        double refilledBytes = (double) (now - lastRefillNanos) * bytesPerSecond / NANOS_PER_SECOND;
+
+        availableBytes = Math.min(bytesPerSecond, availableBytes + refilledBytes);
+        lastRefillNanos = now;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(
+                "read rate: %s, hashed files: %s",
+                (bytesPerSecond > 0) ? String.format("%d KiB/s", bytesPerSecond / 1024) : "unlimited",
+                (maxHashedFiles > 0) ? String.format("at most %d at once", maxHashedFiles) : "unlimited"
+        );
+    }
+}
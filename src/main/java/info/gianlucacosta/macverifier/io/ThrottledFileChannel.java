@@ -0,0 +1,162 @@
+/*§
+  ===========================================================================
+  MacVerifier
+  ===========================================================================
+  Copyright (C) 2015 Gianluca Costa
+  ===========================================================================
+  Permission is hereby granted, free of charge, to any person obtaining a copy
+  of this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+  THE SOFTWARE.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.macverifier.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * FileChannel delegating to another one, subject to a ReadThrottle: bytes are charged after each read,
+ * while mapped regions are charged in full before being mapped, as they are read when hashed - which is why
+ * the MAC services do not map files while the read rate is limited.
+ * <p>
+ * Closing the channel lets the ReadThrottle admit another file.
+ */
+class ThrottledFileChannel extends FileChannel {
+
+    private final FileChannel sourceChannel;
+    private final ReadThrottle readThrottle;
+
+    ThrottledFileChannel(FileChannel sourceChannel, ReadThrottle readThrottle) {
+        this.sourceChannel = sourceChannel;
+        this.readThrottle = readThrottle;
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        int readBytesCount = sourceChannel.read(dst);
+
+        readThrottle.acquireBytes(readBytesCount);
+
+        return readBytesCount;
+    }
+
+    @Override
+    public long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
+        long readBytesCount = sourceChannel.read(dsts, offset, length);
+
+        readThrottle.acquireBytes(readBytesCount);
+
+        return readBytesCount;
+    }
+
+    @Override
+    public int read(ByteBuffer dst, long position) throws IOException {
+        int readBytesCount = sourceChannel.read(dst, position);
+
+        readThrottle.acquireBytes(readBytesCount);
+
+        return readBytesCount;
+    }
+
+    @Override
+    public MappedByteBuffer map(MapMode mode, long position, long size) throws IOException {
+        readThrottle.acquireBytes(size);
+
+        return sourceChannel.map(mode, position, size);
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        return sourceChannel.write(src);
+    }
+
+    @Override
+    public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+        return sourceChannel.write(srcs, offset, length);
+    }
+
+    @Override
+    public int write(ByteBuffer src, long position) throws IOException {
+        return sourceChannel.write(src, position);
+    }
+
+    @Override
+    public long position() throws IOException {
+        return sourceChannel.position();
+    }
+
+    @Override
+    public FileChannel position(long newPosition) throws IOException {
+        sourceChannel.position(newPosition);
+        return this;
+    }
+
+    @Override
+    public long size() throws IOException {
+        return sourceChannel.size();
+    }
+
+    @Override
+    public FileChannel truncate(long size) throws IOException {
+        sourceChannel.truncate(size);
+        return this;
+    }
+
+    @Override
+    public void force(boolean metaData) throws IOException {
+        sourceChannel.force(metaData);
+    }
+
+    @Override
+    public long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+        long transferredBytesCount = sourceChannel.transferTo(position, count, target);
+
+        readThrottle.acquireBytes(transferredBytesCount);
+
+        return transferredBytesCount;
+    }
+
+    @Override
+    public long transferFrom(ReadableByteChannel src, long position, long count) throws IOException {
+        return sourceChannel.transferFrom(src, position, count);
+    }
+
+    @Override
+    public FileLock lock(long position, long size, boolean shared) throws IOException {
+        return sourceChannel.lock(position, size, shared);
+    }
+
+    @Override
+    public FileLock tryLock(long position, long size, boolean shared) throws IOException {
+        return sourceChannel.tryLock(position, size, shared);
+    }
+
+    @Override
+    protected void implCloseChannel() throws IOException {
+        try {
+            sourceChannel.close();
+        } finally {
+            readThrottle.releaseFile();
+        }
+    }
+}
@@ -26,62 +26,180 @@
 
 package info.gianlucacosta.macverifier.mac;
 
+import info.gianlucacosta.macverifier.io.PipelinedChannelReader;
+import info.gianlucacosta.macverifier.io.ReadThrottle;
+import info.gianlucacosta.macverifier.mac.tree.TreeMacComputer;
+import info.gianlucacosta.macverifier.mac.tree.TreeMacResult;
+import info.gianlucacosta.macverifier.metrics.RunMetrics;
+
 import javax.crypto.Mac;
 import javax.crypto.SecretKeyFactory;
 import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.EOFException;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.security.InvalidKeyException;
 import java.security.Key;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.security.spec.InvalidKeySpecException;
-import java.security.spec.KeySpec;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
 
 /**
  * Basic implementation of MacService, providing a ready-made infrastructure.
+ * <p>
+ * Instances are thread-safe, so a single one can be shared by concurrent callers: every computation
+ * borrows a Mac object and read buffers from a ResourcePool - whatever its thread, virtual threads included -
+ * so that, once warm, computing the MAC of a file allocates little more than the MacResult.
  *
  * @see info.gianlucacosta.macverifier.mac.HMacSha256Service
  */
-public abstract class AbstractMacService implements MacService {
+public abstract class AbstractMacService implements KeyedMacService {
+
+    private static final byte[] CHECKPOINT_KEY_LABEL = "MacVerifier checkpoint".getBytes(StandardCharsets.US_ASCII);
 
     private final int bufferSize;
 
-    private SecureRandom secureRandom;
+    private volatile ReadSettings readSettings = ReadSettings.DEFAULT;
+
+    private volatile ResourcePool<ComputationResources> resourcePool = createResourcePool(ReadSettings.DEFAULT);
+
+    private volatile TreeMacComputer treeMacComputer;
+
+    private volatile KdfParameters kdfParameters;
+
+    private volatile RunMetrics metrics = RunMetrics.DISABLED;
+
+    private volatile ReadThrottle readThrottle;
 
     public AbstractMacService(int bufferSize) {
         this.bufferSize = bufferSize;
     }
 
-    private SecureRandom getSecureRandom() {
-        if (secureRandom == null) {
-            try {
-                secureRandom = SecureRandom.getInstance("SHA1PRNG");
-            } catch (NoSuchAlgorithmException ex) {
-                throw new RuntimeException(ex);
+    public ReadSettings getReadSettings() {
+        return readSettings;
+    }
+
+    /**
+     * Should be called before sharing the instance: computations in progress keep their current settings,
+     * and their resources are then dropped.
+     */
+    public void setReadSettings(ReadSettings readSettings) {
+        this.readSettings = readSettings;
+        this.resourcePool = createResourcePool(readSettings);
+        this.treeMacComputer = null;
+    }
+
+    /**
+     * Sets the metrics recording the opening of source files.
+     */
+    public void setMetrics(RunMetrics metrics) {
+        this.metrics = metrics;
+        this.treeMacComputer = null;
+    }
+
+    /**
+     * Sets the throttle limiting the reads of source files; null disables throttling.
+     */
+    public void setReadThrottle(ReadThrottle readThrottle) {
+        this.readThrottle = readThrottle;
+        this.treeMacComputer = null;
+    }
+
+    private FileChannel openChannel(File sourceFile) throws IOException {
+        FileChannel sourceChannel = metrics.openChannel(sourceFile);
+        ReadThrottle currentReadThrottle = readThrottle;
+
+        return (currentReadThrottle != null) ? currentReadThrottle.throttle(sourceChannel) : sourceChannel;
+    }
+
+    private ResourcePool<ComputationResources> createResourcePool(final ReadSettings readSettings) {
+        return new ResourcePool<ComputationResources>() {
+            @Override
+            protected ComputationResources createResource() {
+                return new ComputationResources(readSettings);
             }
+        };
+    }
+
+    /**
+     * TreeMacComputer is thread-safe, so a single instance is shared by all the threads.
+     */
+    @Override
+    public TreeMacComputer getTreeMacComputer() {
+        TreeMacComputer result = treeMacComputer;
+
+        if (result == null) {
+            result = new TreeMacComputer(getMacAlgorithm(), readSettings.getDirectBufferSize(), ForkJoinPool.commonPool(), metrics, readThrottle);
+            treeMacComputer = result;
         }
 
-        return secureRandom;
+        return result;
     }
 
     protected byte[] createSalt(int size) {
         byte[] salt = new byte[size];
 
-        getSecureRandom().nextBytes(salt);
+        SecureRandomHolder.SECURE_RANDOM.nextBytes(salt);
 
         return salt;
     }
 
-    protected Key createMacKey(String password, byte[] salt) {
-        try {
-            int macKeySizeInBits = getKeySizeInBits();
-            KeySpec keySpec = new PBEKeySpec(password.toCharArray(), salt, 65536, macKeySizeInBits);
+    /**
+     * PBKDF2 with HMAC-SHA1, 65536 iterations and the key size of the service - the parameters
+     * employed by all the previous versions.
+     */
+    @Override
+    public KdfParameters getDefaultKdfParameters() {
+        return new KdfParameters(
+                KdfParameters.DEFAULT_ALGORITHM,
+                KdfParameters.DEFAULT_ITERATION_COUNT,
+                getKeySizeInBits()
+        );
+    }
+
+    @Override
+    public KdfParameters getKdfParameters() {
+        return (kdfParameters != null) ?
+                kdfParameters
+                :
+                getDefaultKdfParameters();
+    }
+
+    /**
+     * Sets the key derivation parameters of the new results; null restores the default ones.
+     */
+    public void setKdfParameters(KdfParameters kdfParameters) {
+        this.kdfParameters = kdfParameters;
+    }
 
-            SecretKeyFactory secretKeyFactory = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA1");
+    @Override
+    public Key createMacKey(String password, byte[] salt, KdfParameters kdfParameters) {
+        char[] passwordChars = password.toCharArray();
+
+        //PBEKeySpec keeps its own copy of the password, to be wiped as well
+        PBEKeySpec keySpec = new PBEKeySpec(
+                passwordChars,
+                salt,
+                kdfParameters.getIterationCount(),
+                kdfParameters.getKeySizeInBits()
+        );
+
+        try {
+            SecretKeyFactory secretKeyFactory = SecretKeyFactory.getInstance(kdfParameters.getAlgorithm());
             return secretKeyFactory.generateSecret(keySpec);
         } catch (NoSuchAlgorithmException | InvalidKeySpecException ex) {
             throw new RuntimeException(ex);
+        } finally {
+            keySpec.clearPassword();
+            Arrays.fill(passwordChars, '\0');
         }
     }
 
@@ -96,34 +214,475 @@ public abstract class AbstractMacService implements MacService {
         }
     }
 
+    private static void initMac(Mac mac, Key macKey) {
+        try {
+            mac.init(macKey);
+        } catch (InvalidKeyException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
     protected abstract String getMacAlgorithm();
 
 
     @Override
     public MacResult computeMac(String password, byte[] salt, InputStream sourceStream) throws IOException {
-        Mac mac = createMac();
+        Key macKey = createMacKey(password, salt);
+
+        return computeMac(macKey, salt, sourceStream);
+    }
+
+    @Override
+    public MacResult computeMac(Key macKey, byte[] salt, InputStream sourceStream) throws IOException {
+        ResourcePool<ComputationResources> currentResourcePool = resourcePool;
+        ComputationResources resources = currentResourcePool.borrow();
+
+        try {
+            Mac mac = resources.getInitializedMac(macKey);
+            byte[] buffer = resources.getStreamBuffer();
+
+            while (true) {
+                int readBytesCount = sourceStream.read(buffer);
 
+                if (readBytesCount == -1) {
+                    break;
+                }
+
+                mac.update(buffer, 0, readBytesCount);
+            }
+
+            byte[] macValue = mac.doFinal();
+
+            return new MacResult(salt, macValue);
+        } finally {
+            currentResourcePool.release(resources);
+        }
+    }
+
+    @Override
+    public MacResult computeMac(String password, byte[] salt, File sourceFile) throws IOException {
         Key macKey = createMacKey(password, salt);
+
+        return computeMac(macKey, salt, sourceFile);
+    }
+
+    /**
+     * Reads the file via FileChannel - through memory-mapped regions, a pipeline of direct buffers
+     * or a reusable direct buffer, according to the ReadSettings - passing the data to the Mac
+     * without intermediate byte arrays.
+     */
+    @Override
+    public MacResult computeMac(Key macKey, byte[] salt, File sourceFile) throws IOException {
+        return computeLinearMac(macKey, salt, sourceFile, 0, null);
+    }
+
+    @Override
+    public MacResult computeMatchingMac(String password, MacResult referenceResult, File mainFile) throws IOException {
+        Key macKey = createMatchingMacKey(password, referenceResult);
+
+        return computeMatchingMac(macKey, referenceResult, mainFile);
+    }
+
+    /**
+     * Supports both linear and tree results, whatever the format produced by this service.
+     */
+    @Override
+    public MacResult computeMatchingMac(Key macKey, MacResult referenceResult, File sourceFile) throws IOException {
+        if (referenceResult instanceof TreeMacResult) {
+            TreeMacResult treeReferenceResult = checkFormatVersion((TreeMacResult) referenceResult);
+
+            return getTreeMacComputer().computeMac(
+                    macKey,
+                    referenceResult.getSalt(),
+                    sourceFile,
+                    treeReferenceResult.getChunkSize()
+            );
+        }
+
+        return computeLinearMac(macKey, referenceResult.getSalt(), sourceFile, 0, null);
+    }
+
+    /**
+     * The prefix tag is computed with a checkpoint key - the MAC of a fixed label under the MAC key -
+     * over the prefix length and the prefix bytes.
+     */
+    @Override
+    public MacCheckpoint computeCheckpoint(Key macKey, File sourceFile, long prefixLength) throws IOException {
+        try (FileChannel sourceChannel = openChannel(sourceFile)) {
+            return computeCheckpoint(macKey, sourceChannel, prefixLength);
+        }
+    }
+
+    @Override
+    public Mac createCheckpointMac(Key macKey, long prefixLength) {
+        Mac checkpointMac = createMac();
+
+        initCheckpointMac(checkpointMac, macKey, prefixLength);
+
+        return checkpointMac;
+    }
+
+    /**
+     * Linear MACs are computed in a single pass, the prefix being passed to both Mac objects;
+     * tree MACs read the prefix again, but via the same channel.
+     * Sources not longer than the prefix are never read for the checkpoint.
+     */
+    @Override
+    public MacResult computeMacWithCheckpoint(Key macKey, byte[] salt, File sourceFile, long prefixLength) throws IOException {
+        if (getTreeChunkSize() > 0) {
+            return computeTreeMac(macKey, salt, sourceFile, getTreeChunkSize(), prefixLength, null);
+        }
+
+        return computeLinearMac(macKey, salt, sourceFile, prefixLength, null);
+    }
+
+    /**
+     * Like computeMacWithCheckpoint(), reads the prefix once for linear MACs.
+     */
+    @Override
+    public MacResult computeCheckedMatchingMac(Key macKey, MacResult referenceResult, File sourceFile) throws IOException {
+        MacCheckpoint referenceCheckpoint = referenceResult.getCheckpoint();
+
+        if (referenceCheckpoint == null || !referenceCheckpoint.hasPrefixTag()) {
+            return computeMatchingMac(macKey, referenceResult, sourceFile);
+        }
+
+        if (referenceResult instanceof TreeMacResult) {
+            TreeMacResult treeReferenceResult = checkFormatVersion((TreeMacResult) referenceResult);
+
+            return computeTreeMac(
+                    macKey,
+                    referenceResult.getSalt(),
+                    sourceFile,
+                    treeReferenceResult.getChunkSize(),
+                    referenceCheckpoint.getPrefixLength(),
+                    referenceCheckpoint
+            );
+        }
+
+        return computeLinearMac(
+                macKey,
+                referenceResult.getSalt(),
+                sourceFile,
+                referenceCheckpoint.getPrefixLength(),
+                referenceCheckpoint
+        );
+    }
+
+    /**
+     * Reads the prefix from the current position of the channel.
+     */
+    private MacCheckpoint computeCheckpoint(Key macKey, FileChannel sourceChannel, long prefixLength) throws IOException {
+        long fileSize = sourceChannel.size();
+
+        if (fileSize <= prefixLength) {
+            return new MacCheckpoint(fileSize);
+        }
+
+        ResourcePool<ComputationResources> currentResourcePool = resourcePool;
+        ComputationResources resources = currentResourcePool.borrow();
+
         try {
-            mac.init(macKey);
-        } catch (InvalidKeyException ex) {
-            throw new RuntimeException(ex);
+            Mac checkpointMac = resources.getInitializedCheckpointMac(macKey, prefixLength);
+
+            updateWithPrefix(null, checkpointMac, sourceChannel, prefixLength, resources.getDirectBuffer());
+
+            return new MacCheckpoint(fileSize, prefixLength, checkpointMac.doFinal());
+        } finally {
+            currentResourcePool.release(resources);
+        }
+    }
+
+    /**
+     * @param expectedCheckpoint if not null, the result is null as soon as the prefix does not match it
+     */
+    private MacResult computeTreeMac(Key macKey, byte[] salt, File sourceFile, int chunkSize, long prefixLength, MacCheckpoint expectedCheckpoint) throws IOException {
+        TreeMacComputer currentTreeMacComputer = getTreeMacComputer();
+
+        try (FileChannel sourceChannel = currentTreeMacComputer.openChannel(sourceFile)) {
+            MacCheckpoint checkpoint = computeCheckpoint(macKey, sourceChannel, prefixLength);
+
+            if (expectedCheckpoint != null && !expectedCheckpoint.matchesPrefix(checkpoint)) {
+                return null;
+            }
+
+            return currentTreeMacComputer
+                    .computeMac(macKey, salt, sourceChannel, chunkSize)
+                    .withCheckpoint(checkpoint);
+        }
+    }
+
+    /**
+     * Each StreamingMac has its own Mac instance, as it can outlive any call to this service.
+     */
+    @Override
+    public StreamingMac createStreamingMac(Key macKey, byte[] salt) {
+        return createLinearStreamingMac(macKey, salt);
+    }
+
+    @Override
+    public StreamingMac createMatchingStreamingMac(Key macKey, MacResult referenceResult) throws IOException {
+        if (referenceResult instanceof TreeMacResult) {
+            TreeMacResult treeReferenceResult = checkFormatVersion((TreeMacResult) referenceResult);
+
+            return getTreeMacComputer().createStreamingMac(
+                    macKey,
+                    referenceResult.getSalt(),
+                    treeReferenceResult.getChunkSize()
+            );
+        }
+
+        return createLinearStreamingMac(macKey, referenceResult.getSalt());
+    }
+
+    private StreamingMac createLinearStreamingMac(Key macKey, byte[] salt) {
+        Mac streamingMac = createMac();
+        initMac(streamingMac, macKey);
+
+        return new LinearStreamingMac(streamingMac, salt);
+    }
+
+    private static TreeMacResult checkFormatVersion(TreeMacResult treeMacResult) throws IOException {
+        if (treeMacResult.getFormatVersion() != TreeMacResult.CURRENT_FORMAT_VERSION) {
+            throw new IOException(
+                    String.format("Unsupported tree MAC format version: %d", treeMacResult.getFormatVersion())
+            );
+        }
+
+        return treeMacResult;
+    }
+
+    /**
+     * @param prefixLength       the prefix length of the checkpoint to compute along with the MAC, or 0 for no checkpoint
+     * @param expectedCheckpoint if not null, the result is null as soon as the prefix does not match it
+     */
+    private MacResult computeLinearMac(Key macKey, byte[] salt, File sourceFile, long prefixLength, MacCheckpoint expectedCheckpoint) throws IOException {
+        ResourcePool<ComputationResources> currentResourcePool = resourcePool;
+        ComputationResources resources = currentResourcePool.borrow();
+
+        try {
+            final Mac mac = resources.getInitializedMac(macKey);
+            MacCheckpoint checkpoint = null;
+
+            try (FileChannel sourceChannel = openChannel(sourceFile)) {
+                long fileSize = sourceChannel.size();
+                long position = 0;
+
+                if (prefixLength > 0) {
+                    if (fileSize <= prefixLength) {
+                        checkpoint = new MacCheckpoint(fileSize);
+                    } else {
+                        Mac checkpointMac = resources.getInitializedCheckpointMac(macKey, prefixLength);
+
+                        updateWithPrefix(mac, checkpointMac, sourceChannel, prefixLength, resources.getDirectBuffer());
+                        checkpoint = new MacCheckpoint(fileSize, prefixLength, checkpointMac.doFinal());
+
+                        if (expectedCheckpoint != null && !expectedCheckpoint.matchesPrefix(checkpoint)) {
+                            return null;
+                        }
+
+                        position = prefixLength;
+                    }
+                }
+
+                //The channel is now at the given position
+                readChannel(sourceChannel, position, fileSize, resources, new Consumer<ByteBuffer>() {
+                    @Override
+                    public void accept(ByteBuffer buffer) {
+                        mac.update(buffer);
+                    }
+                });
+            }
+
+            MacResult macResult = new MacResult(salt, mac.doFinal());
+
+            return (checkpoint != null) ?
+                    macResult.withCheckpoint(checkpoint)
+                    :
+                    macResult;
+        } finally {
+            currentResourcePool.release(resources);
         }
+    }
+
+    private void initCheckpointMac(Mac checkpointMac, Key macKey, long prefixLength) {
+        initMac(checkpointMac, macKey);
+        Key checkpointKey = new SecretKeySpec(checkpointMac.doFinal(CHECKPOINT_KEY_LABEL), getMacAlgorithm());
+
+        initMac(checkpointMac, checkpointKey);
+        checkpointMac.update(ByteBuffer.allocate(8).putLong(0, prefixLength));
+    }
 
-        byte[] buffer = new byte[bufferSize];
+    /**
+     * Passes the prefix - from the current position of the channel - to the checkpoint Mac
+     * and, if not null, to the main Mac as well.
+     */
+    private static void updateWithPrefix(Mac mac, Mac checkpointMac, FileChannel sourceChannel, long prefixLength, ByteBuffer buffer) throws IOException {
+        long remainingLength = prefixLength;
 
-        while (true) {
-            int readBytesCount = sourceStream.read(buffer);
+        while (remainingLength > 0) {
+            buffer.limit((int) Math.min(buffer.capacity(), remainingLength));
 
-            if (readBytesCount == -1) {
-                break;
+            if (sourceChannel.read(buffer) == -1) {
+                throw new EOFException("The file has shrunk while computing its checkpoint");
             }
 
-            mac.update(buffer, 0, readBytesCount);
+            buffer.flip();
+            remainingLength -= buffer.remaining();
+
+            if (mac != null) {
+                buffer.mark();
+                mac.update(buffer);
+                buffer.reset();
+            }
+
+            checkpointMac.update(buffer);
+            buffer.clear();
         }
+    }
 
-        byte[] macValue = mac.doFinal();
+    /**
+     * Reads the file exactly as computeMac() does - through the read strategy of the ReadSettings,
+     * the throttle and the metrics - so that several computations can share a single read.
+     */
+    @Override
+    public void readSource(File sourceFile, Consumer<ByteBuffer> bufferConsumer) throws IOException {
+        ResourcePool<ComputationResources> currentResourcePool = resourcePool;
+        ComputationResources resources = currentResourcePool.borrow();
 
-        return new MacResult(salt, macValue);
+        try (FileChannel sourceChannel = openChannel(sourceFile)) {
+            readChannel(sourceChannel, 0, sourceChannel.size(), resources, bufferConsumer);
+        } finally {
+            currentResourcePool.release(resources);
+        }
+    }
+
+    /**
+     * Reads the channel from its current position - equal to startPosition - up to its end,
+     * via the read strategy of the resources.
+     * <p>
+     * Files are not mapped while the read rate is limited, as a mapped region would be charged in full
+     * - up to the mapping size - before being hashed: the direct buffer is employed instead.
+     */
+    private void readChannel(FileChannel sourceChannel, long startPosition, long fileSize, ComputationResources resources, Consumer<ByteBuffer> bufferConsumer) throws IOException {
+        ReadSettings readSettings = resources.readSettings;
+        ReadThrottle currentReadThrottle = readThrottle;
+        boolean rateLimited = currentReadThrottle != null && currentReadThrottle.getBytesPerSecond() > 0;
+
+        if (readSettings.isMappingEnabled(fileSize) && !rateLimited) {
+            readMappedRegions(sourceChannel, startPosition, fileSize, readSettings.getMappingSize(), bufferConsumer);
+        } else if (readSettings.isPipeliningEnabled(fileSize)) {
+            resources.getPipelinedChannelReader().read(sourceChannel, bufferConsumer);
+        } else {
+            readWithDirectBuffer(sourceChannel, resources.getDirectBuffer(), bufferConsumer);
+        }
+    }
+
+    private static void readMappedRegions(FileChannel sourceChannel, long startPosition, long fileSize, int mappingSize, Consumer<ByteBuffer> bufferConsumer) throws IOException {
+        long position = startPosition;
+
+        while (position < fileSize) {
+            long regionSize = Math.min(mappingSize, fileSize - position);
+
+            ByteBuffer region = sourceChannel.map(FileChannel.MapMode.READ_ONLY, position, regionSize);
+            bufferConsumer.accept(region);
+
+            position += regionSize;
+        }
+    }
+
+    private static void readWithDirectBuffer(FileChannel sourceChannel, ByteBuffer buffer, Consumer<ByteBuffer> bufferConsumer) throws IOException {
+        while (sourceChannel.read(buffer) != -1) {
+            buffer.flip();
+            bufferConsumer.accept(buffer);
+            buffer.clear();
+        }
+    }
+
+
+    /**
+     * Resources of a single computation at a time, lazily created as required by the read strategy
+     * - according to the read settings in effect when the pool was created.
+     */
+    private class ComputationResources {
+        final ReadSettings readSettings;
+
+        private Mac mac;
+        private Mac checkpointMac;
+        private byte[] streamBuffer;
+        private ByteBuffer directBuffer;
+        private PipelinedChannelReader pipelinedChannelReader;
+
+        ComputationResources(ReadSettings readSettings) {
+            this.readSettings = readSettings;
+        }
+
+        Mac getInitializedMac(Key macKey) {
+            if (mac == null) {
+                mac = createMac();
+            }
+
+            initMac(mac, macKey);
+
+            return mac;
+        }
+
+        /**
+         * Returns a Mac ready to receive the prefix, under the checkpoint key.
+         */
+        Mac getInitializedCheckpointMac(Key macKey, long prefixLength) {
+            if (checkpointMac == null) {
+                checkpointMac = createMac();
+            }
+
+            initCheckpointMac(checkpointMac, macKey, prefixLength);
+
+            return checkpointMac;
+        }
+
+        byte[] getStreamBuffer() {
+            if (streamBuffer == null) {
+                streamBuffer = new byte[bufferSize];
+            }
+
+            return streamBuffer;
+        }
+
+        ByteBuffer getDirectBuffer() {
+            if (directBuffer == null) {
+                directBuffer = ByteBuffer.allocateDirect(readSettings.getDirectBufferSize());
+            }
+
+            directBuffer.clear();
+
+            return directBuffer;
+        }
+
+        PipelinedChannelReader getPipelinedChannelReader() {
+            if (pipelinedChannelReader == null) {
+                pipelinedChannelReader = new PipelinedChannelReader(
+                        readSettings.getPipelineDepth(),
+                        readSettings.getDirectBufferSize()
+                );
+            }
+
+            return pipelinedChannelReader;
+        }
+    }
+
+
+    /**
+     * Lazily creates the SecureRandom shared by all the services - its methods being thread-safe.
+     */
+    private static class SecureRandomHolder {
+        static final SecureRandom SECURE_RANDOM = createSecureRandom();
+
+        private static SecureRandom createSecureRandom() {
+            try {
+                return SecureRandom.getInstance("SHA1PRNG");
+            } catch (NoSuchAlgorithmException ex) {
+                throw new RuntimeException(ex);
+            }
+        }
     }
 }
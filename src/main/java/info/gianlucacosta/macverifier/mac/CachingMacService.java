@@ -0,0 +1,152 @@
+/*§
+  ===========================================================================
+  MacVerifier
+  ===========================================================================
+  Copyright (C) 2015 Gianluca Costa
+  ===========================================================================
+  Permission is hereby granted, free of charge, to any person obtaining a copy
+  of this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+  THE SOFTWARE.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.macverifier.mac;
+
+import info.gianlucacosta.macverifier.mac.tree.TreeMacComputer;
+
+import javax.crypto.Mac;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.security.Key;
+import java.util.function.Consumer;
+
+/**
+ * Decorator taking derived keys from a DerivedKeyCache - which can be shared by several decorators
+ * - so that key derivation runs just once per (password, salt) pair.
+ */
+public class CachingMacService implements KeyedMacService {
+
+    private final KeyedMacService keyedMacService;
+    private final DerivedKeyCache derivedKeyCache;
+
+    public CachingMacService(KeyedMacService keyedMacService, DerivedKeyCache derivedKeyCache) {
+        this.keyedMacService = keyedMacService;
+        this.derivedKeyCache = derivedKeyCache;
+    }
+
+    @Override
+    public String getAlgorithmId() {
+        return keyedMacService.getAlgorithmId();
+    }
+
+    @Override
+    public KdfParameters getKdfParameters() {
+        return keyedMacService.getKdfParameters();
+    }
+
+    @Override
+    public KdfParameters getDefaultKdfParameters() {
+        return keyedMacService.getDefaultKdfParameters();
+    }
+
+    @Override
+    public byte[] createSalt() {
+        return keyedMacService.createSalt();
+    }
+
+    @Override
+    public Key createMacKey(String password, byte[] salt, KdfParameters kdfParameters) {
+        return derivedKeyCache.getMacKey(keyedMacService, password, salt, kdfParameters);
+    }
+
+    @Override
+    public MacResult computeMac(String password, byte[] salt, InputStream mainStream) throws IOException {
+        return computeMac(createMacKey(password, salt), salt, mainStream);
+    }
+
+    @Override
+    public MacResult computeMac(Key macKey, byte[] salt, InputStream sourceStream) throws IOException {
+        return keyedMacService.computeMac(macKey, salt, sourceStream);
+    }
+
+    @Override
+    public MacResult computeMac(String password, byte[] salt, File mainFile) throws IOException {
+        return computeMac(createMacKey(password, salt), salt, mainFile);
+    }
+
+    @Override
+    public MacResult computeMac(Key macKey, byte[] salt, File sourceFile) throws IOException {
+        return keyedMacService.computeMac(macKey, salt, sourceFile);
+    }
+
+    @Override
+    public MacResult computeMatchingMac(String password, MacResult referenceResult, File mainFile) throws IOException {
+        return computeMatchingMac(createMatchingMacKey(password, referenceResult), referenceResult, mainFile);
+    }
+
+    @Override
+    public MacResult computeMatchingMac(Key macKey, MacResult referenceResult, File sourceFile) throws IOException {
+        return keyedMacService.computeMatchingMac(macKey, referenceResult, sourceFile);
+    }
+
+    @Override
+    public MacCheckpoint computeCheckpoint(Key macKey, File sourceFile, long prefixLength) throws IOException {
+        return keyedMacService.computeCheckpoint(macKey, sourceFile, prefixLength);
+    }
+
+    @Override
+    public Mac createCheckpointMac(Key macKey, long prefixLength) {
+        return keyedMacService.createCheckpointMac(macKey, prefixLength);
+    }
+
+    @Override
+    public MacResult computeMacWithCheckpoint(Key macKey, byte[] salt, File sourceFile, long prefixLength) throws IOException {
+        return keyedMacService.computeMacWithCheckpoint(macKey, salt, sourceFile, prefixLength);
+    }
+
+    @Override
+    public MacResult computeCheckedMatchingMac(Key macKey, MacResult referenceResult, File sourceFile) throws IOException {
+        return keyedMacService.computeCheckedMatchingMac(macKey, referenceResult, sourceFile);
+    }
+
+    @Override
+    public void readSource(File sourceFile, Consumer<ByteBuffer> bufferConsumer) throws IOException {
+        keyedMacService.readSource(sourceFile, bufferConsumer);
+    }
+
+    @Override
+    public StreamingMac createStreamingMac(Key macKey, byte[] salt) {
+        return keyedMacService.createStreamingMac(macKey, salt);
+    }
+
+    @Override
+    public StreamingMac createMatchingStreamingMac(Key macKey, MacResult referenceResult) throws IOException {
+        return keyedMacService.createMatchingStreamingMac(macKey, referenceResult);
+    }
+
+    @Override
+    public TreeMacComputer getTreeMacComputer() {
+        return keyedMacService.getTreeMacComputer();
+    }
+
+    @Override
+    public int getTreeChunkSize() {
+        return keyedMacService.getTreeChunkSize();
+    }
+}
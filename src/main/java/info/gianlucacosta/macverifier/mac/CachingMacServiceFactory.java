@@ -0,0 +1,60 @@
+/*§
+  ===========================================================================
+  MacVerifier
+  ===========================================================================
+  Copyright (C) 2015 Gianluca Costa
+  ===========================================================================
+  Permission is hereby granted, free of charge, to any person obtaining a copy
+  of this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+  THE SOFTWARE.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.macverifier.mac;
+
+/**
+ * MacServiceFactory wrapping the services of another factory into CachingMacService instances,
+ * all sharing the same DerivedKeyCache; services not implementing KeyedMacService are returned as they are.
+ */
+public class CachingMacServiceFactory implements MacServiceFactory {
+
+    private final MacServiceFactory macServiceFactory;
+    private final DerivedKeyCache derivedKeyCache;
+
+    public CachingMacServiceFactory(MacServiceFactory macServiceFactory, DerivedKeyCache derivedKeyCache) {
+        this.macServiceFactory = macServiceFactory;
+        this.derivedKeyCache = derivedKeyCache;
+    }
+
+    @Override
+    public MacService createMacService() {
+        return decorate(macServiceFactory.createMacService());
+    }
+
+    @Override
+    public MacService createMacService(String algorithmId) {
+        return decorate(macServiceFactory.createMacService(algorithmId));
+    }
+
+    private MacService decorate(MacService macService) {
+        if (macService instanceof KeyedMacService) {
+            return new CachingMacService((KeyedMacService) macService, derivedKeyCache);
+        }
+
+        return macService;
+    }
+}
@@ -0,0 +1,107 @@
+/*§
+  ===========================================================================
+  MacVerifier
+  ===========================================================================
+  Copyright (C) 2015 Gianluca Costa
+  ===========================================================================
+  Permission is hereby granted, free of charge, to any person obtaining a copy
+  of this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+  THE SOFTWARE.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.macverifier.mac;
+
+import info.gianlucacosta.macverifier.io.ReadThrottle;
+import info.gianlucacosta.macverifier.metrics.RunMetrics;
+
+/**
+ * MacServiceFactory applying the given settings to every AbstractMacService created by another factory:
+ * read settings, the metrics and, optionally, a ReadThrottle - shared by all the services - as well as
+ * the key derivation algorithm and iteration count of the new results.
+ */
+public class ConfiguringMacServiceFactory implements MacServiceFactory {
+
+    private final MacServiceFactory macServiceFactory;
+    private final ReadSettings readSettings;
+    private final String kdfAlgorithm;
+    private final int kdfIterationCount;
+    private final RunMetrics metrics;
+    private final ReadThrottle readThrottle;
+
+    public ConfiguringMacServiceFactory(MacServiceFactory macServiceFactory, ReadSettings readSettings) {
+        this(macServiceFactory, readSettings, null, 0);
+    }
+
+    /**
+     * @param kdfAlgorithm      the key derivation algorithm, or null to keep the default one of each service
+     * @param kdfIterationCount the key derivation iteration count, or 0 to keep the default one of each service
+     */
+    public ConfiguringMacServiceFactory(MacServiceFactory macServiceFactory, ReadSettings readSettings, String kdfAlgorithm, int kdfIterationCount) {
+        this(macServiceFactory, readSettings, kdfAlgorithm, kdfIterationCount, RunMetrics.DISABLED);
+    }
+
+    public ConfiguringMacServiceFactory(MacServiceFactory macServiceFactory, ReadSettings readSettings, String kdfAlgorithm, int kdfIterationCount, RunMetrics metrics) {
+        this(macServiceFactory, readSettings, kdfAlgorithm, kdfIterationCount, metrics, null);
+    }
+
+    /**
+     * @param readThrottle limits the reads of all the created services; can be null
+     */
+    public ConfiguringMacServiceFactory(MacServiceFactory macServiceFactory, ReadSettings readSettings, String kdfAlgorithm, int kdfIterationCount, RunMetrics metrics, ReadThrottle readThrottle) {
+        this.macServiceFactory = macServiceFactory;
+        this.readSettings = readSettings;
+        this.kdfAlgorithm = kdfAlgorithm;
+        this.kdfIterationCount = kdfIterationCount;
+        this.metrics = metrics;
+        this.readThrottle = readThrottle;
+    }
+
+    @Override
+    public MacService createMacService() {
+        return configure(macServiceFactory.createMacService());
+    }
+
+    @Override
+    public MacService createMacService(String algorithmId) {
+        return configure(macServiceFactory.createMacService(algorithmId));
+    }
+
+    private MacService configure(MacService macService) {
+        if (macService instanceof AbstractMacService) {
+            AbstractMacService abstractMacService = (AbstractMacService) macService;
+
+            abstractMacService.setReadSettings(readSettings);
+            abstractMacService.setMetrics(metrics);
+            abstractMacService.setReadThrottle(readThrottle);
+
+            KdfParameters kdfParameters = abstractMacService.getKdfParameters();
+
+            if (kdfAlgorithm != null) {
+                kdfParameters = kdfParameters.withAlgorithm(kdfAlgorithm);
+            }
+
+            if (kdfIterationCount > 0) {
+                kdfParameters = kdfParameters.withIterationCount(kdfIterationCount);
+            }
+
+            abstractMacService.setKdfParameters(kdfParameters);
+        }
+
+        return macService;
+    }
+}
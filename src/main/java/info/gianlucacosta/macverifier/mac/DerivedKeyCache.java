@@ -0,0 +1,206 @@
+/*§
+  ===========================================================================
+  MacVerifier
+  ===========================================================================
+  Copyright (C) 2015 Gianluca Costa
+  ===========================================================================
+  Permission is hereby granted, free of charge, to any person obtaining a copy
+  of this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+  THE SOFTWARE.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.macverifier.mac;
+
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.Key;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded, in-memory, least-recently-used cache of derived MAC keys, keyed by salt, password and key derivation parameters.
+ * <p>
+ * The cache is thread-safe: concurrent requests for the same entry trigger just one derivation,
+ * while different entries are derived in parallel. Raw key bytes are wiped when an entry is evicted
+ * or when the cache is cleared; nothing is ever persisted.
+ */
+public class DerivedKeyCache {
+
+    private final int capacity;
+
+    private final LinkedHashMap<CacheKey, CacheEntry> entries;
+
+    public DerivedKeyCache(final int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("The cache capacity must be at least 1");
+        }
+
+        this.capacity = capacity;
+
+        this.entries = new LinkedHashMap<CacheKey, CacheEntry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<CacheKey, CacheEntry> eldest) {
+                if (size() > capacity) {
+                    eldest.getValue().wipe();
+                    return true;
+                }
+
+                return false;
+            }
+        };
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Returns the cached key for the given password, salt and parameters, deriving it via the given service on cache miss.
+     */
+    public Key getMacKey(KeyedMacService keyedMacService, String password, byte[] salt, KdfParameters kdfParameters) {
+        CacheKey cacheKey = new CacheKey(keyedMacService, password, salt, kdfParameters);
+        CacheEntry cacheEntry;
+
+        synchronized (entries) {
+            cacheEntry = entries.get(cacheKey);
+
+            if (cacheEntry == null) {
+                cacheEntry = new CacheEntry();
+                entries.put(cacheKey, cacheEntry);
+            }
+        }
+
+        Key macKey = cacheEntry.getMacKey(keyedMacService, password, salt, kdfParameters);
+
+        if (macKey != null) {
+            return macKey;
+        }
+
+        //The entry was evicted in the meantime: just derive without caching
+        return keyedMacService.createMacKey(password, salt, kdfParameters);
+    }
+
+    public void clear() {
+        synchronized (entries) {
+            Iterator<CacheEntry> entryIterator = entries.values().iterator();
+
+            while (entryIterator.hasNext()) {
+                entryIterator.next().wipe();
+                entryIterator.remove();
+            }
+        }
+    }
+
+
+    private static class CacheEntry {
+        private byte[] keyBytes;
+        private String keyAlgorithm;
+        private boolean wiped;
+
+        synchronized Key getMacKey(KeyedMacService keyedMacService, String password, byte[] salt, KdfParameters kdfParameters) {
+            if (wiped) {
+                return null;
+            }
+
+            if (keyBytes == null) {
+                Key derivedKey = keyedMacService.createMacKey(password, salt, kdfParameters);
+
+                keyBytes = derivedKey.getEncoded();
+                keyAlgorithm = derivedKey.getAlgorithm();
+            }
+
+            return new SecretKeySpec(keyBytes, keyAlgorithm);
+        }
+
+        synchronized void wipe() {
+            if (keyBytes != null) {
+                Arrays.fill(keyBytes, (byte) 0);
+                keyBytes = null;
+            }
+
+            wiped = true;
+        }
+    }
+
+
+    /**
+     * Digest of the service class, the key derivation parameters, the password and the salt:
+     * the password itself is never stored.
+     */
+    private static class CacheKey {
+        private final byte[] digest;
+        private final int hashCode;
+
+        CacheKey(KeyedMacService keyedMacService, String password, byte[] salt, KdfParameters kdfParameters) {
+            try {
+                MessageDigest messageDigest = MessageDigest.getInstance("SHA-256");
+
+                updateWithLengthPrefix(messageDigest, keyedMacService.getClass().getName().getBytes(StandardCharsets.UTF_8));
+                updateWithLengthPrefix(messageDigest, kdfParameters.getAlgorithm().getBytes(StandardCharsets.UTF_8));
+                updateWithLengthPrefix(messageDigest, new byte[]{
+                        (byte) (kdfParameters.getIterationCount() >>> 24),
+                        (byte) (kdfParameters.getIterationCount() >>> 16),
+                        (byte) (kdfParameters.getIterationCount() >>> 8),
+                        (byte) kdfParameters.getIterationCount(),
+                        (byte) (kdfParameters.getKeySizeInBits() >>> 24),
+                        (byte) (kdfParameters.getKeySizeInBits() >>> 16),
+                        (byte) (kdfParameters.getKeySizeInBits() >>> 8),
+                        (byte) kdfParameters.getKeySizeInBits()
+                });
+                updateWithLengthPrefix(messageDigest, password.getBytes(StandardCharsets.UTF_8));
+                updateWithLengthPrefix(messageDigest, salt);
+
+                digest = messageDigest.digest();
+                hashCode = Arrays.hashCode(digest);
+            } catch (NoSuchAlgorithmException ex) {
+                throw new RuntimeException(ex);
+            }
+        }
+
+        private static void updateWithLengthPrefix(MessageDigest messageDigest, byte[] bytes) {
+            int length = bytes.length;
+
+            messageDigest.update(new byte[]{
+                    (byte) (length >>> 24),
+                    (byte) (length >>> 16),
+                    (byte) (length >>> 8),
+                    (byte) length
+            });
+
+            messageDigest.update(bytes);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof CacheKey)) {
+                return false;
+            }
+
+            return Arrays.equals(digest, ((CacheKey) obj).digest);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+}
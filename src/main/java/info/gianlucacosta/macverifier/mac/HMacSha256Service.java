@@ -34,6 +34,11 @@ public class HMacSha256Service extends AbstractMacService {
         super(4096);
     }
 
+    @Override
+    public String getAlgorithmId() {
+        return "hmac-sha256";
+    }
+
     @Override
     public byte[] createSalt() {
         return createSalt(16);
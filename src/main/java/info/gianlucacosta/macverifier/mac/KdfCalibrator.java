@@ -0,0 +1,108 @@
+/*§
+  ===========================================================================
+  MacVerifier
+  ===========================================================================
+  Copyright (C) 2015 Gianluca Costa
+  ===========================================================================
+  Permission is hereby granted, free of charge, to any person obtaining a copy
+  of this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+  THE SOFTWARE.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.macverifier.mac;
+
+import java.util.Arrays;
+
+/**
+ * Measures the key derivation speed of this host, to find the iteration count
+ * whose derivation time is closest to a target - trading security against latency on purpose.
+ */
+public class KdfCalibrator {
+
+    private static final String CALIBRATION_PASSWORD = "calibration";
+
+    private static final int PROBE_ITERATION_COUNT = 20000;
+    private static final int WARMUP_ROUNDS = 3;
+    private static final int MEASURED_ROUNDS = 5;
+
+    /**
+     * Calibrated iteration counts are rounded to this granularity
+     */
+    private static final int ITERATION_COUNT_STEP = 1000;
+
+    private final KeyedMacService keyedMacService;
+
+    public KdfCalibrator(KeyedMacService keyedMacService) {
+        this.keyedMacService = keyedMacService;
+    }
+
+    /**
+     * Returns the median time, in nanoseconds, of a key derivation using the given parameters.
+     */
+    public long measureDerivationNanos(KdfParameters kdfParameters) {
+        byte[] salt = keyedMacService.createSalt();
+
+        for (int round = 0; round < WARMUP_ROUNDS; round++) {
+            keyedMacService.createMacKey(CALIBRATION_PASSWORD, salt, kdfParameters);
+        }
+
+        long[] roundNanos = new long[MEASURED_ROUNDS];
+
+        for (int round = 0; round < MEASURED_ROUNDS; round++) {
+            long startNanos = System.nanoTime();
+            keyedMacService.createMacKey(CALIBRATION_PASSWORD, salt, kdfParameters);
+            roundNanos[round] = System.nanoTime() - startNanos;
+        }
+
+        Arrays.sort(roundNanos);
+
+        return roundNanos[MEASURED_ROUNDS / 2];
+    }
+
+    /**
+     * Returns the service's key derivation parameters, with the iteration count
+     * whose derivation time is closest to the given target.
+     */
+    public KdfParameters calibrate(long targetMillis) {
+        if (targetMillis < 1) {
+            throw new IllegalArgumentException("The target time must be at least 1 ms");
+        }
+
+        KdfParameters kdfParameters = keyedMacService.getKdfParameters().withIterationCount(PROBE_ITERATION_COUNT);
+
+        //The first estimate comes from a short probe; the second one, measured near the target, is more accurate
+        for (int pass = 0; pass < 2; pass++) {
+            double nanosPerIteration = (double) measureDerivationNanos(kdfParameters) / kdfParameters.getIterationCount();
+
+            kdfParameters = kdfParameters.withIterationCount(
+                    getIterationCount(targetMillis, nanosPerIteration)
+            );
+        }
+
+        return kdfParameters;
+    }
+
+    private static int getIterationCount(long targetMillis, double nanosPerIteration) {
+        long iterationCount = Math.round(targetMillis * 1000000.0 / nanosPerIteration / ITERATION_COUNT_STEP) * ITERATION_COUNT_STEP;
+
+        iterationCount = Math.max(iterationCount, ITERATION_COUNT_STEP);
+        iterationCount = Math.min(iterationCount, KdfParameters.MAX_ITERATION_COUNT);
+
+        return (int) iterationCount;
+    }
+}
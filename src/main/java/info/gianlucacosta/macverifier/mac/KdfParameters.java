@@ -0,0 +1,115 @@
+/*§
+  ===========================================================================
+  MacVerifier
+  ===========================================================================
+  Copyright (C) 2015 Gianluca Costa
+  ===========================================================================
+  Permission is hereby granted, free of charge, to any person obtaining a copy
+  of this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+  THE SOFTWARE.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.macverifier.mac;
+
+import java.io.Serializable;
+
+/**
+ * Parameters of the password-based key derivation: the JCA SecretKeyFactory algorithm,
+ * the iteration count and the size of the derived key.
+ * <p>
+ * They are recorded in every MacResult, so that they can change without breaking the verification
+ * of existing MAC files; the iteration count is bounded, so that a tampered MAC file can neither stall verification
+ * nor make the key cheap to guess - which also requires the key size to be checked, via KeyedMacService.
+ */
+public class KdfParameters implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final String DEFAULT_ALGORITHM = "PBKDF2WithHmacSHA1";
+    public static final int DEFAULT_ITERATION_COUNT = 65536;
+
+    public static final int MIN_ITERATION_COUNT = 1000;
+    public static final int MAX_ITERATION_COUNT = 10000000;
+
+    private final String algorithm;
+    private final int iterationCount;
+    private final int keySizeInBits;
+
+    public KdfParameters(String algorithm, int iterationCount, int keySizeInBits) {
+        if (algorithm == null || algorithm.isEmpty()) {
+            throw new IllegalArgumentException("The key derivation algorithm must be specified");
+        }
+
+        if (iterationCount < MIN_ITERATION_COUNT || iterationCount > MAX_ITERATION_COUNT) {
+            throw new IllegalArgumentException(
+                    String.format("The iteration count must be between %d and %d", MIN_ITERATION_COUNT, MAX_ITERATION_COUNT)
+            );
+        }
+
+        if (keySizeInBits < 8 || keySizeInBits % 8 != 0) {
+            throw new IllegalArgumentException("The key size must be a positive multiple of 8 bits");
+        }
+
+        this.algorithm = algorithm;
+        this.iterationCount = iterationCount;
+        this.keySizeInBits = keySizeInBits;
+    }
+
+    public String getAlgorithm() {
+        return algorithm;
+    }
+
+    public int getIterationCount() {
+        return iterationCount;
+    }
+
+    public int getKeySizeInBits() {
+        return keySizeInBits;
+    }
+
+    public KdfParameters withAlgorithm(String algorithm) {
+        return new KdfParameters(algorithm, iterationCount, keySizeInBits);
+    }
+
+    public KdfParameters withIterationCount(int iterationCount) {
+        return new KdfParameters(algorithm, iterationCount, keySizeInBits);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof KdfParameters)) {
+            return false;
+        }
+
+        KdfParameters other = (KdfParameters) obj;
+
+        return algorithm.equals(other.algorithm)
+                && iterationCount == other.iterationCount
+                && keySizeInBits == other.keySizeInBits;
+    }
+
+    @Override
+    public int hashCode() {
+        return (algorithm.hashCode() * 31 + iterationCount) * 31 + keySizeInBits;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s, %d iterations, %d-bit key", algorithm, iterationCount, keySizeInBits);
+    }
+}
@@ -0,0 +1,188 @@
+/*§
+  ===========================================================================
+  MacVerifier
+  ===========================================================================
+  Copyright (C) 2015 Gianluca Costa
+  ===========================================================================
+  Permission is hereby granted, free of charge, to any person obtaining a copy
+  of this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+  THE SOFTWARE.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.macverifier.mac;
+
+import info.gianlucacosta.macverifier.mac.tree.TreeMacComputer;
+
+import javax.crypto.Mac;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.security.Key;
+import java.util.function.Consumer;
+
+/**
+ * MacService exposing its two phases - key derivation and MAC computation - separately,
+ * so that derived keys can be reused.
+ */
+public interface KeyedMacService extends MacService {
+
+    /**
+     * Returns the key derivation parameters of the new results.
+     */
+    @Override
+    KdfParameters getKdfParameters();
+
+    /**
+     * Returns the key derivation parameters of legacy results, which do not record them.
+     */
+    KdfParameters getDefaultKdfParameters();
+
+    Key createMacKey(String password, byte[] salt, KdfParameters kdfParameters);
+
+    default Key createMacKey(String password, byte[] salt) {
+        return createMacKey(password, salt, getKdfParameters());
+    }
+
+    /**
+     * Derives the key for verifying the given result - using the parameters it records.
+     * <p>
+     * As the recorded parameters are not authenticated, keys shorter than the ones of the service are rejected:
+     * otherwise, a tampered result could request a key small enough to forge a matching MAC.
+     *
+     * @throws IOException if the recorded parameters are too weak
+     */
+    default Key createMatchingMacKey(String password, MacResult referenceResult) throws IOException {
+        KdfParameters kdfParameters = (referenceResult.getKdfParameters() != null) ?
+                referenceResult.getKdfParameters()
+                :
+                getDefaultKdfParameters();
+
+        int minKeySizeInBits = getDefaultKdfParameters().getKeySizeInBits();
+
+        if (kdfParameters.getKeySizeInBits() < minKeySizeInBits) {
+            throw new IOException(
+                    String.format("Invalid key derivation parameters: the key size must be at least %d bits", minKeySizeInBits)
+            );
+        }
+
+        return createMacKey(password, referenceResult.getSalt(), kdfParameters);
+    }
+
+    MacResult computeMac(Key macKey, byte[] salt, InputStream sourceStream) throws IOException;
+
+    default MacResult computeMac(Key macKey, byte[] salt, File sourceFile) throws IOException {
+        try (InputStream sourceStream = new BufferedInputStream(new FileInputStream(sourceFile))) {
+            return computeMac(macKey, salt, sourceStream);
+        }
+    }
+
+    default MacResult computeMatchingMac(Key macKey, MacResult referenceResult, File sourceFile) throws IOException {
+        return computeMac(macKey, referenceResult.getSalt(), sourceFile);
+    }
+
+    /**
+     * Computes the checkpoint of a source file - tagging its first prefixLength bytes, if the file is longer -
+     * or returns null, the default, if checkpoints are not supported.
+     */
+    default MacCheckpoint computeCheckpoint(Key macKey, File sourceFile, long prefixLength) throws IOException {
+        return null;
+    }
+
+    /**
+     * Returns a new Mac ready to receive the prefix of a source under the checkpoint key - so that the prefix tag
+     * can be computed while reading the source for other purposes - or null, the default, if checkpoints are not supported.
+     */
+    default Mac createCheckpointMac(Key macKey, long prefixLength) {
+        return null;
+    }
+
+    /**
+     * Computes the MAC of a source file along with its checkpoint - if supported - the default implementation
+     * reading the prefix of the source twice.
+     */
+    default MacResult computeMacWithCheckpoint(Key macKey, byte[] salt, File sourceFile, long prefixLength) throws IOException {
+        MacResult macResult = computeMac(macKey, salt, sourceFile);
+        MacCheckpoint checkpoint = computeCheckpoint(macKey, sourceFile, prefixLength);
+
+        return (checkpoint != null) ?
+                macResult.withCheckpoint(checkpoint)
+                :
+                macResult;
+    }
+
+    /**
+     * Computes the MAC matching the reference result, first checking the prefix tag of its checkpoint, if any:
+     * as soon as the prefix does not match, returns null without reading the rest of the source.
+     */
+    default MacResult computeCheckedMatchingMac(Key macKey, MacResult referenceResult, File sourceFile) throws IOException {
+        MacCheckpoint referenceCheckpoint = referenceResult.getCheckpoint();
+
+        if (referenceCheckpoint != null && referenceCheckpoint.hasPrefixTag()) {
+            MacCheckpoint sourceCheckpoint = computeCheckpoint(macKey, sourceFile, referenceCheckpoint.getPrefixLength());
+
+            if (sourceCheckpoint != null && !referenceCheckpoint.matchesPrefix(sourceCheckpoint)) {
+                return null;
+            }
+        }
+
+        return computeMatchingMac(macKey, referenceResult, sourceFile);
+    }
+
+    /**
+     * Reads a source file up to its end, passing each buffer to the consumer - so that several computations
+     * can share a single read; the default implementation reads the file as a stream.
+     */
+    default void readSource(File sourceFile, Consumer<ByteBuffer> bufferConsumer) throws IOException {
+        try (InputStream sourceStream = new FileInputStream(sourceFile)) {
+            byte[] buffer = new byte[64 * 1024];
+
+            while (true) {
+                int readBytesCount = sourceStream.read(buffer);
+
+                if (readBytesCount == -1) {
+                    break;
+                }
+
+                bufferConsumer.accept(ByteBuffer.wrap(buffer, 0, readBytesCount));
+            }
+        }
+    }
+
+    /**
+     * Returns a StreamingMac computing the same result as computeMac() with the given key and salt.
+     */
+    StreamingMac createStreamingMac(Key macKey, byte[] salt);
+
+    /**
+     * Returns a StreamingMac computing the same result as computeMatchingMac() with the given key and reference.
+     */
+    StreamingMac createMatchingStreamingMac(Key macKey, MacResult referenceResult) throws IOException;
+
+    /**
+     * Returns the TreeMacComputer based on the same Mac algorithm, or null if tree MACs are not supported.
+     */
+    default TreeMacComputer getTreeMacComputer() {
+        return null;
+    }
+
+    /**
+     * Returns the chunk size of the tree MACs created by this service, or 0 if it creates linear MACs.
+     */
+    default int getTreeChunkSize() {
+        return 0;
+    }
+}
@@ -0,0 +1,62 @@
+/*§
+  ===========================================================================
+  MacVerifier
+  ===========================================================================
+  Copyright (C) 2015 Gianluca Costa
+  ===========================================================================
+  Permission is hereby granted, free of charge, to any person obtaining a copy
+  of this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+  THE SOFTWARE.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.macverifier.mac;
+
+import javax.crypto.Mac;
+import java.nio.ByteBuffer;
+
+/**
+ * StreamingMac computing a plain MAC over all the data, via a dedicated Mac instance.
+ */
+public class LinearStreamingMac implements StreamingMac {
+
+    private final Mac mac;
+    private final byte[] salt;
+
+    /**
+     * @param mac a Mac instance, already initialized with the key, that must not be shared
+     */
+    public LinearStreamingMac(Mac mac, byte[] salt) {
+        this.mac = mac;
+        this.salt = salt;
+    }
+
+    @Override
+    public void update(byte[] bytes, int offset, int length) {
+        mac.update(bytes, offset, length);
+    }
+
+    @Override
+    public void update(ByteBuffer buffer) {
+        mac.update(buffer);
+    }
+
+    @Override
+    public MacResult finish() {
+        return new MacResult(salt, mac.doFinal());
+    }
+}
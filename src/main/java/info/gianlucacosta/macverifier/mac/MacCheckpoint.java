@@ -0,0 +1,105 @@
+/*§
+  ===========================================================================
+  MacVerifier
+  ===========================================================================
+  Copyright (C) 2015 Gianluca Costa
+  ===========================================================================
+  Permission is hereby granted, free of charge, to any person obtaining a copy
+  of this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+  THE SOFTWARE.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.macverifier.mac;
+
+import java.io.Serializable;
+import java.security.MessageDigest;
+
+/**
+ * Optional part of a MacResult allowing verification to fail fast, before reading the whole source:
+ * <ul>
+ * <li>the total length of the source, checked without reading it at all</li>
+ * <li>a tag over the first bytes of the source - absent if the source is not longer than the prefix</li>
+ * </ul>
+ * The prefix tag is computed with a key derived from the MAC key, so it is never a valid MAC for the prefix itself.
+ * <p>
+ * A checkpoint can only prove that a source is <i>not</i> authentic: passing it still requires the full MAC.
+ */
+public class MacCheckpoint implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * 1 MiB - enough to detect replaced files, while negligible compared to the files worth a checkpoint.
+     */
+    public static final long DEFAULT_PREFIX_LENGTH = 1024 * 1024;
+
+    private final long totalLength;
+    private final long prefixLength;
+    private final byte[] prefixTag;
+
+    /**
+     * Creates a checkpoint only recording the total length.
+     */
+    public MacCheckpoint(long totalLength) {
+        this(totalLength, 0, null);
+    }
+
+    public MacCheckpoint(long totalLength, long prefixLength, byte[] prefixTag) {
+        if (totalLength < 0 || prefixLength < 0 || prefixLength > totalLength) {
+            throw new IllegalArgumentException("Invalid checkpoint lengths");
+        }
+
+        if ((prefixTag == null) != (prefixLength == 0)) {
+            throw new IllegalArgumentException("The prefix tag is required if and only if the prefix length is positive");
+        }
+
+        this.totalLength = totalLength;
+        this.prefixLength = prefixLength;
+        this.prefixTag = prefixTag;
+    }
+
+    public long getTotalLength() {
+        return totalLength;
+    }
+
+    /**
+     * Returns the length of the tagged prefix, or 0 if there is no prefix tag.
+     */
+    public long getPrefixLength() {
+        return prefixLength;
+    }
+
+    public byte[] getPrefixTag() {
+        return prefixTag;
+    }
+
+    public boolean hasPrefixTag() {
+        return prefixTag != null;
+    }
+
+    /**
+     * Compares the prefix tags in constant time.
+     */
+    public boolean matchesPrefix(MacCheckpoint other) {
+        return other != null
+                && prefixLength == other.prefixLength
+                && hasPrefixTag()
+                && other.hasPrefixTag()
+                && MessageDigest.isEqual(prefixTag, other.prefixTag);
+    }
+}
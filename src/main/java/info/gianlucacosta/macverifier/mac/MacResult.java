@@ -27,6 +27,7 @@
 package info.gianlucacosta.macverifier.mac;
 
 import java.io.Serializable;
+import java.security.MessageDigest;
 import java.util.Arrays;
 
 /**
@@ -35,6 +36,14 @@ import java.util.Arrays;
  * <li>a random <i>salt</i></li>
  * <li>the MAC value itself</li>
  * </ul>
+ * and, optionally, the id of the MacService that computed it and its key derivation parameters,
+ * so that verification can reproduce them. They are descriptive only and do not take part in equality:
+ * different algorithms or parameters produce a different MAC value anyway.
+ * <p>
+ * Results can also carry a MacCheckpoint, which does not take part in equality either.
+ * <p>
+ * Equality compares the MAC values in constant time, so that verification reveals nothing
+ * about how many bytes of a forged value are correct.
  */
 public class MacResult implements Serializable {
 
@@ -42,10 +51,24 @@ public class MacResult implements Serializable {
 
     private final byte[] salt;
     private final byte[] macValue;
+    private final String algorithmId;
+    private final KdfParameters kdfParameters;
+    private final MacCheckpoint checkpoint;
 
     public MacResult(byte[] salt, byte[] macValue) {
+        this(salt, macValue, null, null);
+    }
+
+    public MacResult(byte[] salt, byte[] macValue, String algorithmId, KdfParameters kdfParameters) {
+        this(salt, macValue, algorithmId, kdfParameters, null);
+    }
+
+    public MacResult(byte[] salt, byte[] macValue, String algorithmId, KdfParameters kdfParameters, MacCheckpoint checkpoint) {
         this.salt = salt;
         this.macValue = macValue;
+        this.algorithmId = algorithmId;
+        this.kdfParameters = kdfParameters;
+        this.checkpoint = checkpoint;
     }
 
     public byte[] getSalt() {
@@ -56,21 +79,75 @@ public class MacResult implements Serializable {
         return macValue;
     }
 
+    /**
+     * Returns the id of the MacService that computed this result, or null if unknown - as in legacy MAC files.
+     */
+    public String getAlgorithmId() {
+        return algorithmId;
+    }
+
+    /**
+     * Returns the key derivation parameters, or null if unknown - as in legacy MAC files.
+     */
+    public KdfParameters getKdfParameters() {
+        return kdfParameters;
+    }
+
+    /**
+     * Returns the checkpoint for early-abort verification, or null if absent.
+     */
+    public MacCheckpoint getCheckpoint() {
+        return checkpoint;
+    }
+
+    /**
+     * Returns a copy of this result, recording the id of the MacService that computed it
+     * and the key derivation parameters.
+     */
+    public MacResult withAlgorithm(String algorithmId, KdfParameters kdfParameters) {
+        return new MacResult(salt, macValue, algorithmId, kdfParameters, checkpoint);
+    }
+
+    /**
+     * Returns a copy of this result, having the given checkpoint.
+     */
+    public MacResult withCheckpoint(MacCheckpoint checkpoint) {
+        return new MacResult(salt, macValue, algorithmId, kdfParameters, checkpoint);
+    }
+
+    /**
+     * Returns a result of the same format and algorithm as this one, having the given values.
+     */
+    public MacResult withValues(byte[] salt, byte[] macValue, MacCheckpoint checkpoint) {
+        return new MacResult(salt, macValue, algorithmId, kdfParameters, checkpoint);
+    }
+
+    /**
+     * Returns true if the other result has the same format - class and format-specific parameters -
+     * so that equality only depends on the salt and the MAC value.
+     */
+    public boolean hasSameFormat(MacResult other) {
+        return other != null && other.getClass() == getClass();
+    }
+
     @Override
     public boolean equals(Object obj) {
-        if (!(obj instanceof MacResult)) {
+        if (!(obj instanceof MacResult) || !hasSameFormat((MacResult) obj)) {
             return false;
         }
 
         MacResult other = (MacResult) obj;
 
         return Arrays.equals(salt, other.salt)
-                && Arrays.equals(macValue, other.macValue);
+                && MessageDigest.isEqual(macValue, other.macValue);
     }
 
+    /**
+     * Based on the salt only, so that hashing never touches the MAC value.
+     */
     @Override
     public int hashCode() {
-        return Arrays.hashCode(this.macValue);
+        return Arrays.hashCode(salt);
     }
 
 }
@@ -26,15 +26,52 @@
 
 package info.gianlucacosta.macverifier.mac;
 
-import java.io.IOException;
-import java.io.InputStream;
+import java.io.*;
 
 /**
  * Service dedicated to computing MAC values, as well as generating the related salts.
+ * <p>
+ * The services provided by the program are thread-safe; custom implementations need not be,
+ * as every worker thread obtains its own instance from a MacServiceFactory.
  */
 public interface MacService {
 
+    /**
+     * Returns the id recorded in the results of this service, so that verification can select it again:
+     * a short id - such as <i>hmac-sha256</i> - for the services registered in MacServiceRegistry,
+     * the fully-qualified class name by default.
+     */
+    default String getAlgorithmId() {
+        return getClass().getName();
+    }
+
+    /**
+     * Returns the key derivation parameters recorded in the results of this service,
+     * or null - the default - if they are not described.
+     */
+    default KdfParameters getKdfParameters() {
+        return null;
+    }
+
     byte[] createSalt();
 
     MacResult computeMac(String password, byte[] salt, InputStream mainStream) throws IOException;
+
+    /**
+     * Computes the MAC of a file; by default, it reads the file as a buffered stream,
+     * but implementations can provide faster, file-specific strategies.
+     */
+    default MacResult computeMac(String password, byte[] salt, File mainFile) throws IOException {
+        try (InputStream mainStream = new BufferedInputStream(new FileInputStream(mainFile))) {
+            return computeMac(password, salt, mainStream);
+        }
+    }
+
+    /**
+     * Computes the MAC of a file so that it can be compared with a reference result
+     * - by default, using the same salt.
+     */
+    default MacResult computeMatchingMac(String password, MacResult referenceResult, File mainFile) throws IOException {
+        return computeMac(password, referenceResult.getSalt(), mainFile);
+    }
 }
@@ -0,0 +1,53 @@
+/*§
+  ===========================================================================
+  MacVerifier
+  ===========================================================================
+  Copyright (C) 2015 Gianluca Costa
+  ===========================================================================
+  Permission is hereby granted, free of charge, to any person obtaining a copy
+  of this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+  THE SOFTWARE.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.macverifier.mac;
+
+/**
+ * Creates MacService instances - for example, one per worker thread.
+ */
+public interface MacServiceFactory {
+
+    MacService createMacService();
+
+    /**
+     * Creates a MacService having the given algorithm id - usually read from a MacResult;
+     * by default, only the id of the services returned by createMacService() is supported.
+     *
+     * @throws IllegalArgumentException if the algorithm is not supported
+     */
+    default MacService createMacService(String algorithmId) {
+        MacService macService = createMacService();
+
+        if (!macService.getAlgorithmId().equals(algorithmId)) {
+            throw new IllegalArgumentException(
+                    String.format("Unsupported MAC algorithm: '%s'", algorithmId)
+            );
+        }
+
+        return macService;
+    }
+}
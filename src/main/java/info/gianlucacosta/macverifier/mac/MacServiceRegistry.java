@@ -0,0 +1,126 @@
+/*§
+  ===========================================================================
+  MacVerifier
+  ===========================================================================
+  Copyright (C) 2015 Gianluca Costa
+  ===========================================================================
+  Permission is hereby granted, free of charge, to any person obtaining a copy
+  of this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+  THE SOFTWARE.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.macverifier.mac;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Registry of the MacService implementations declared via ServiceLoader
+ * - in <b>META-INF/services/info.gianlucacosta.macverifier.mac.MacService</b> - indexed by their algorithm id.
+ * <p>
+ * MacService classes not declared in the registry can still be referenced by their fully-qualified name,
+ * but only when chosen by the user.
+ * Instances are immutable, hence thread-safe.
+ */
+public class MacServiceRegistry {
+
+    private final ClassLoader classLoader;
+    private final Map<String, Class<? extends MacService>> macServiceClasses = new TreeMap<>();
+
+    public MacServiceRegistry() {
+        this(MacServiceRegistry.class.getClassLoader());
+    }
+
+    public MacServiceRegistry(ClassLoader classLoader) {
+        this.classLoader = classLoader;
+
+        for (MacService macService : ServiceLoader.load(MacService.class, classLoader)) {
+            String algorithmId = macService.getAlgorithmId();
+            Class<? extends MacService> previousClass = macServiceClasses.put(algorithmId, macService.getClass());
+
+            if (previousClass != null && previousClass != macService.getClass()) {
+                throw new IllegalStateException(
+                        String.format("Duplicate MAC algorithm id: '%s'", algorithmId)
+                );
+            }
+        }
+    }
+
+    /**
+     * Returns the ids of the registered services, in alphabetical order.
+     */
+    public Set<String> getAlgorithmIds() {
+        return Collections.unmodifiableSet(macServiceClasses.keySet());
+    }
+
+    /**
+     * Returns the MacService class having the given algorithm id - which can also be a fully-qualified class name.
+     * <p>
+     * Only ids chosen by the user should be resolved this way: ids read from MAC files and manifests
+     * must be resolved via getRegisteredMacServiceClass().
+     *
+     * @throws IllegalArgumentException if there is no such class
+     */
+    public Class<? extends MacService> getMacServiceClass(String algorithmId) {
+        Class<? extends MacService> macServiceClass = macServiceClasses.get(algorithmId);
+
+        if (macServiceClass != null) {
+            return macServiceClass;
+        }
+
+        Class<?> namedClass;
+        try {
+            //The class is initialized only once known to be a MacService
+            namedClass = Class.forName(algorithmId, false, classLoader);
+        } catch (ClassNotFoundException ex) {
+            throw new IllegalArgumentException(
+                    String.format("Unknown MAC algorithm: '%s'", algorithmId),
+                    ex
+            );
+        }
+
+        if (!MacService.class.isAssignableFrom(namedClass)) {
+            throw new IllegalArgumentException(
+                    String.format("Unknown MAC algorithm: '%s'", algorithmId)
+            );
+        }
+
+        return namedClass.asSubclass(MacService.class);
+    }
+
+    /**
+     * Returns the registered MacService class having the given algorithm id; class names are not resolved,
+     * so that untrusted files cannot load arbitrary classes.
+     *
+     * @throws IllegalArgumentException if there is no such class
+     */
+    public Class<? extends MacService> getRegisteredMacServiceClass(String algorithmId) {
+        Class<? extends MacService> macServiceClass = macServiceClasses.get(algorithmId);
+
+        if (macServiceClass == null) {
+            throw new IllegalArgumentException(
+                    String.format("Unregistered MAC algorithm: '%s'", algorithmId)
+            );
+        }
+
+        return macServiceClass;
+    }
+}
@@ -0,0 +1,79 @@
+/*§
+  ===========================================================================
+  MacVerifier
+  ===========================================================================
+  Copyright (C) 2015 Gianluca Costa
+  ===========================================================================
+  Permission is hereby granted, free of charge, to any person obtaining a copy
+  of this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+  THE SOFTWARE.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.macverifier.mac;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Results of a MultiMacService pass: one MacResult per service, in the order of the services,
+ * plus the optional plain digest of the data.
+ */
+public class MultiMacResult {
+
+    private final List<MacResult> macResults;
+    private final String digestAlgorithm;
+    private final byte[] digest;
+
+    public MultiMacResult(List<MacResult> macResults, String digestAlgorithm, byte[] digest) {
+        this.macResults = Collections.unmodifiableList(new ArrayList<>(macResults));
+        this.digestAlgorithm = digestAlgorithm;
+        this.digest = digest;
+    }
+
+    public List<MacResult> getMacResults() {
+        return macResults;
+    }
+
+    /**
+     * Returns the result having the given algorithm id, or null if no service produced it.
+     */
+    public MacResult getMacResult(String algorithmId) {
+        for (MacResult macResult : macResults) {
+            if (algorithmId.equals(macResult.getAlgorithmId())) {
+                return macResult;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Returns the JCA name of the digest algorithm, or null if no digest was requested.
+     */
+    public String getDigestAlgorithm() {
+        return digestAlgorithm;
+    }
+
+    /**
+     * Returns the plain digest of the data, or null if no digest was requested.
+     */
+    public byte[] getDigest() {
+        return (digest != null) ? digest.clone() : null;
+    }
+}
@@ -0,0 +1,271 @@
+/*§
+  ===========================================================================
+  MacVerifier
+  ===========================================================================
+  Copyright (C) 2015 Gianluca Costa
+  ===========================================================================
+  Permission is hereby granted, free of charge, to any person obtaining a copy
+  of this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+  THE SOFTWARE.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.macverifier.mac;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.security.Key;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Computes the MACs of several services - for example, the old and the new algorithm during a migration -
+ * and optionally a plain digest, such as SHA-256, in a single read pass: every buffer is passed to the
+ * StreamingMac of each service, so the data is read once however many results are requested.
+ * <p>
+ * Files are read by the first - <i>primary</i> - service, via its read strategy, throttle and metrics;
+ * as a MacService, this class behaves like the primary service, while computeMacs() returns all the results.
+ * <p>
+ * Each result records the algorithm and the key derivation parameters of its service, with its own salt;
+ * services creating tree MACs produce tree results. Checkpoints are not computed, so the results are
+ * verified without early abort.
+ * <p>
+ * Instances are thread-safe if the underlying services are.
+ */
+public class MultiMacService implements MacService {
+
+    private final List<KeyedMacService> macServices;
+    private final String digestAlgorithm;
+    private final int bufferSize;
+
+    /**
+     * @param digestAlgorithm the JCA name of the digest algorithm, or null to compute no digest
+     */
+    public MultiMacService(List<? extends KeyedMacService> macServices, String digestAlgorithm) {
+        this(macServices, digestAlgorithm, ReadSettings.DEFAULT.getDirectBufferSize());
+    }
+
+    /**
+     * @param bufferSize the size of the buffer reading streams - files being read by the primary service
+     */
+    public MultiMacService(List<? extends KeyedMacService> macServices, String digestAlgorithm, int bufferSize) {
+        if (macServices.isEmpty()) {
+            throw new IllegalArgumentException("At least one MAC service is required");
+        }
+
+        if (bufferSize < 1) {
+            throw new IllegalArgumentException("Invalid buffer size");
+        }
+
+        this.macServices = Collections.unmodifiableList(new ArrayList<KeyedMacService>(macServices));
+        this.digestAlgorithm = digestAlgorithm;
+        this.bufferSize = bufferSize;
+
+        //Fail early on unknown digests
+        createDigest();
+    }
+
+    public List<KeyedMacService> getMacServices() {
+        return macServices;
+    }
+
+    public KeyedMacService getPrimaryMacService() {
+        return macServices.get(0);
+    }
+
+    @Override
+    public String getAlgorithmId() {
+        return getPrimaryMacService().getAlgorithmId();
+    }
+
+    @Override
+    public KdfParameters getKdfParameters() {
+        return getPrimaryMacService().getKdfParameters();
+    }
+
+    @Override
+    public byte[] createSalt() {
+        return getPrimaryMacService().createSalt();
+    }
+
+    @Override
+    public MacResult computeMac(String password, byte[] salt, InputStream mainStream) throws IOException {
+        return getPrimaryMacService().computeMac(password, salt, mainStream);
+    }
+
+    @Override
+    public MacResult computeMac(String password, byte[] salt, File mainFile) throws IOException {
+        return getPrimaryMacService().computeMac(password, salt, mainFile);
+    }
+
+    @Override
+    public MacResult computeMatchingMac(String password, MacResult referenceResult, File mainFile) throws IOException {
+        return getPrimaryMacService().computeMatchingMac(password, referenceResult, mainFile);
+    }
+
+    /**
+     * Creates a new salt for each service.
+     */
+    public List<byte[]> createSalts() {
+        List<byte[]> salts = new ArrayList<>(macServices.size());
+
+        for (KeyedMacService macService : macServices) {
+            salts.add(macService.createSalt());
+        }
+
+        return salts;
+    }
+
+    /**
+     * Derives the key of each service from the password and the related salt.
+     */
+    public List<Key> createMacKeys(String password, List<byte[]> salts) {
+        checkSize(salts);
+
+        List<Key> macKeys = new ArrayList<>(macServices.size());
+
+        for (int i = 0; i < macServices.size(); i++) {
+            macKeys.add(macServices.get(i).createMacKey(password, salts.get(i)));
+        }
+
+        return macKeys;
+    }
+
+    /**
+     * Computes all the results of a file, with new salts.
+     */
+    public MultiMacResult computeMacs(String password, File sourceFile) throws IOException {
+        List<byte[]> salts = createSalts();
+
+        return computeMacs(createMacKeys(password, salts), salts, sourceFile);
+    }
+
+    public MultiMacResult computeMacs(List<Key> macKeys, List<byte[]> salts, File sourceFile) throws IOException {
+        MultiMacComputation computation = new MultiMacComputation(macKeys, salts);
+
+        getPrimaryMacService().readSource(sourceFile, computation);
+
+        return computation.finish();
+    }
+
+    public MultiMacResult computeMacs(List<Key> macKeys, List<byte[]> salts, InputStream sourceStream) throws IOException {
+        MultiMacComputation computation = new MultiMacComputation(macKeys, salts);
+        byte[] buffer = new byte[bufferSize];
+
+        while (true) {
+            int readBytesCount = sourceStream.read(buffer);
+
+            if (readBytesCount == -1) {
+                break;
+            }
+
+            computation.accept(ByteBuffer.wrap(buffer, 0, readBytesCount));
+        }
+
+        return computation.finish();
+    }
+
+    private MessageDigest createDigest() {
+        if (digestAlgorithm == null) {
+            return null;
+        }
+
+        try {
+            return MessageDigest.getInstance(digestAlgorithm);
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalArgumentException(String.format("Unsupported digest algorithm: %s", digestAlgorithm), ex);
+        }
+    }
+
+    private void checkSize(List<?> perServiceItems) {
+        if (perServiceItems.size() != macServices.size()) {
+            throw new IllegalArgumentException(
+                    String.format("Expected %d items - one per MAC service - found %d", macServices.size(), perServiceItems.size())
+            );
+        }
+    }
+
+    /**
+     * Returns a StreamingMac producing the same format as the files created by the service.
+     */
+    private static StreamingMac createStreamingMac(KeyedMacService macService, Key macKey, byte[] salt) {
+        int treeChunkSize = macService.getTreeChunkSize();
+
+        return (treeChunkSize > 0) ?
+                macService.getTreeMacComputer().createStreamingMac(macKey, salt, treeChunkSize)
+                :
+                macService.createStreamingMac(macKey, salt);
+    }
+
+
+    /**
+     * Passes every buffer to all the StreamingMac instances - rewinding it in between - and to the digest.
+     */
+    private class MultiMacComputation implements Consumer<ByteBuffer> {
+        private final List<StreamingMac> streamingMacs;
+        private final MessageDigest digest = createDigest();
+
+        MultiMacComputation(List<Key> macKeys, List<byte[]> salts) {
+            checkSize(macKeys);
+            checkSize(salts);
+
+            streamingMacs = new ArrayList<>(macServices.size());
+
+            for (int i = 0; i < macServices.size(); i++) {
+                streamingMacs.add(createStreamingMac(macServices.get(i), macKeys.get(i), salts.get(i)));
+            }
+        }
+
+        @Override
+        public void accept(ByteBuffer buffer) {
+            buffer.mark();
+
+            for (StreamingMac streamingMac : streamingMacs) {
+                streamingMac.update(buffer);
+                buffer.reset();
+            }
+
+            if (digest != null) {
+                digest.update(buffer);
+            }
+        }
+
+        MultiMacResult finish() {
+            List<MacResult> macResults = new ArrayList<>(macServices.size());
+
+            for (int i = 0; i < macServices.size(); i++) {
+                MacService macService = macServices.get(i);
+
+                macResults.add(
+                        streamingMacs.get(i).finish().withAlgorithm(macService.getAlgorithmId(), macService.getKdfParameters())
+                );
+            }
+
+            return new MultiMacResult(
+                    macResults,
+                    digestAlgorithm,
+                    (digest != null) ? digest.digest() : null
+            );
+        }
+    }
+}
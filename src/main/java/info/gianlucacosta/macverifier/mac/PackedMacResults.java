@@ -0,0 +1,257 @@
+/*§
+  ===========================================================================
+  MacVerifier
+  ===========================================================================
+  Copyright (C) 2015 Gianluca Costa
+  ===========================================================================
+  Permission is hereby granted, free of charge, to any person obtaining a copy
+  of this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+  THE SOFTWARE.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.macverifier.mac;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Append-only, indexed collection storing huge numbers of MacResult instances in compact form.
+ * <p>
+ * The first result added becomes the <i>prototype</i>: all the results sharing its format, algorithm,
+ * key derivation parameters and value sizes - in practice, almost always all of them - are stored as
+ * fixed-width slots in a single byte array (salt, MAC value and checkpoint prefix tag) plus
+ * primitive arrays for the checkpoint lengths, with no per-result objects; the others are kept as they are.
+ * <p>
+ * Instances are not thread-safe while being filled, but can be read concurrently afterwards.
+ */
+public class PackedMacResults {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private static final long NO_CHECKPOINT = -1;
+
+    /**
+     * Largest array size that the JVMs reliably allocate.
+     */
+    private static final int MAX_ARRAY_LENGTH = Integer.MAX_VALUE - 8;
+
+    private MacResult prototype;
+    private int saltSize;
+    private int macSize;
+    private int slotWidth;
+
+    private byte[] slots = new byte[0];
+    private long[] totalLengths = new long[0];
+    private long[] prefixLengths = new long[0];
+
+    private final Map<Integer, MacResult> irregularResults = new HashMap<>();
+
+    private int size;
+
+    public PackedMacResults() {
+        this(INITIAL_CAPACITY);
+    }
+
+    public PackedMacResults(int expectedSize) {
+        ensureCapacity(Math.max(expectedSize, 1));
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Adds the result, returning its index.
+     */
+    public int add(MacResult macResult) {
+        if (prototype == null) {
+            prototype = macResult.withValues(macResult.getSalt(), macResult.getMacValue(), null);
+            saltSize = macResult.getSalt().length;
+            macSize = macResult.getMacValue().length;
+            slotWidth = saltSize + 2 * macSize;
+            slots = new byte[getSlotsLength(totalLengths.length)];
+        }
+
+        int index = size;
+
+        if (size == totalLengths.length) {
+            ensureCapacity(getGrownCapacity());
+        }
+
+        if (isRegular(macResult)) {
+            int slotOffset = getSlotOffset(index);
+
+            System.arraycopy(macResult.getSalt(), 0, slots, slotOffset, saltSize);
+            System.arraycopy(macResult.getMacValue(), 0, slots, slotOffset + saltSize, macSize);
+
+            MacCheckpoint checkpoint = macResult.getCheckpoint();
+
+            if (checkpoint != null) {
+                totalLengths[index] = checkpoint.getTotalLength();
+                prefixLengths[index] = checkpoint.getPrefixLength();
+
+                if (checkpoint.hasPrefixTag()) {
+                    System.arraycopy(checkpoint.getPrefixTag(), 0, slots, slotOffset + saltSize + macSize, macSize);
+                }
+            } else {
+                totalLengths[index] = NO_CHECKPOINT;
+            }
+        } else {
+            irregularResults.put(index, macResult);
+        }
+
+        size++;
+
+        return index;
+    }
+
+    /**
+     * Rebuilds the result at the given index.
+     */
+    public MacResult get(int index) {
+        checkIndex(index);
+
+        MacResult irregularResult = irregularResults.get(index);
+        if (irregularResult != null) {
+            return irregularResult;
+        }
+
+        int slotOffset = getSlotOffset(index);
+
+        byte[] salt = Arrays.copyOfRange(slots, slotOffset, slotOffset + saltSize);
+        byte[] macValue = Arrays.copyOfRange(slots, slotOffset + saltSize, slotOffset + saltSize + macSize);
+
+        MacCheckpoint checkpoint = null;
+
+        if (totalLengths[index] != NO_CHECKPOINT) {
+            byte[] prefixTag = (prefixLengths[index] > 0) ?
+                    Arrays.copyOfRange(slots, slotOffset + saltSize + macSize, slotOffset + slotWidth)
+                    :
+                    null;
+
+            checkpoint = new MacCheckpoint(totalLengths[index], prefixLengths[index], prefixTag);
+        }
+
+        return prototype.withValues(salt, macValue, checkpoint);
+    }
+
+    /**
+     * Equivalent to get(index).equals(macResult) - comparing the MAC values in constant time -
+     * but without rebuilding the stored result.
+     */
+    public boolean matches(int index, MacResult macResult) {
+        checkIndex(index);
+
+        MacResult irregularResult = irregularResults.get(index);
+        if (irregularResult != null) {
+            return irregularResult.equals(macResult);
+        }
+
+        if (!prototype.hasSameFormat(macResult)
+                || macResult.getSalt().length != saltSize
+                || macResult.getMacValue().length != macSize) {
+            return false;
+        }
+
+        int slotOffset = getSlotOffset(index);
+
+        int saltDifference = compare(slotOffset, macResult.getSalt());
+        int macDifference = compare(slotOffset + saltSize, macResult.getMacValue());
+
+        return (saltDifference | macDifference) == 0;
+    }
+
+    /**
+     * Accumulates the differing bits, always scanning all the bytes.
+     */
+    private int compare(int slotOffset, byte[] bytes) {
+        int difference = 0;
+
+        for (int i = 0; i < bytes.length; i++) {
+            difference |= slots[slotOffset + i] ^ bytes[i];
+        }
+
+        return difference;
+    }
+
+    private boolean isRegular(MacResult macResult) {
+        MacCheckpoint checkpoint = macResult.getCheckpoint();
+
+        return prototype.hasSameFormat(macResult)
+                && Objects.equals(prototype.getAlgorithmId(), macResult.getAlgorithmId())
+                && Objects.equals(prototype.getKdfParameters(), macResult.getKdfParameters())
+                && macResult.getSalt().length == saltSize
+                && macResult.getMacValue().length == macSize
+                && (checkpoint == null || !checkpoint.hasPrefixTag() || checkpoint.getPrefixTag().length == macSize);
+    }
+
+    /**
+     * The offset is computed in long arithmetic; it always fits an int because
+     * the slots array was successfully allocated for a capacity greater than index.
+     */
+    private int getSlotOffset(int index) {
+        return (int) ((long) index * slotWidth);
+    }
+
+    private int getSlotsLength(int capacity) {
+        try {
+            int slotsLength = Math.multiplyExact(capacity, slotWidth);
+
+            if (slotsLength <= MAX_ARRAY_LENGTH) {
+                return slotsLength;
+            }
+        } catch (ArithmeticException ex) {
+            //Reported below
+        }
+
+        throw new IllegalStateException(
+                String.format(
+                        "Cannot store %d MAC results of %d bytes each: at most %d fit in memory",
+                        capacity,
+                        slotWidth,
+                        MAX_ARRAY_LENGTH / slotWidth
+                )
+        );
+    }
+
+    private int getGrownCapacity() {
+        long doubledCapacity = 2L * size;
+        int maxCapacity = (slotWidth > 0) ? MAX_ARRAY_LENGTH / slotWidth : MAX_ARRAY_LENGTH;
+
+        return (int) Math.max(
+                Math.min(doubledCapacity, maxCapacity),
+                size + 1L
+        );
+    }
+
+    private void ensureCapacity(int capacity) {
+        slots = Arrays.copyOf(slots, getSlotsLength(capacity));
+        totalLengths = Arrays.copyOf(totalLengths, capacity);
+        prefixLengths = Arrays.copyOf(prefixLengths, capacity);
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException(
+                    String.format("Invalid result index: %d", index)
+            );
+        }
+    }
+}
@@ -0,0 +1,103 @@
+/*§
+  ===========================================================================
+  MacVerifier
+  ===========================================================================
+  Copyright (C) 2015 Gianluca Costa
+  ===========================================================================
+  Permission is hereby granted, free of charge, to any person obtaining a copy
+  of this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+  THE SOFTWARE.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.macverifier.mac;
+
+/**
+ * Tuning parameters for reading files via FileChannel:
+ * <ul>
+ * <li><i>directBufferSize</i>: size of the direct ByteBuffer used for files read in chunks</li>
+ * <li><i>mappingThreshold</i>: files at least this large are memory-mapped instead; 0 disables mapping</li>
+ * <li><i>mappingSize</i>: maximum size of every mapped region</li>
+ * <li><i>pipelineDepth</i>: if positive, files beyond the mapping threshold are read by a background thread
+ * into a ring of pipelineDepth direct buffers, overlapping I/O and MAC computation, instead of being mapped</li>
+ * </ul>
+ */
+public class ReadSettings {
+
+    public static final ReadSettings DEFAULT = new ReadSettings(
+            64 * 1024,
+            64L * 1024 * 1024,
+            256 * 1024 * 1024,
+            0
+    );
+
+    private final int directBufferSize;
+    private final long mappingThreshold;
+    private final int mappingSize;
+    private final int pipelineDepth;
+
+    public ReadSettings(int directBufferSize, long mappingThreshold, int mappingSize, int pipelineDepth) {
+        if (directBufferSize < 1) {
+            throw new IllegalArgumentException("The direct buffer size must be positive");
+        }
+
+        if (mappingThreshold < 0) {
+            throw new IllegalArgumentException("The mapping threshold cannot be negative");
+        }
+
+        if (mappingSize < 1) {
+            throw new IllegalArgumentException("The mapping size must be positive");
+        }
+
+        if (pipelineDepth < 0 || pipelineDepth == 1) {
+            throw new IllegalArgumentException("The pipeline depth must be 0 - to disable pipelining - or at least 2");
+        }
+
+        this.directBufferSize = directBufferSize;
+        this.mappingThreshold = mappingThreshold;
+        this.mappingSize = mappingSize;
+        this.pipelineDepth = pipelineDepth;
+    }
+
+    public int getDirectBufferSize() {
+        return directBufferSize;
+    }
+
+    public long getMappingThreshold() {
+        return mappingThreshold;
+    }
+
+    public int getMappingSize() {
+        return mappingSize;
+    }
+
+    public int getPipelineDepth() {
+        return pipelineDepth;
+    }
+
+    private boolean isLargeFile(long fileSize) {
+        return mappingThreshold > 0 && fileSize >= mappingThreshold;
+    }
+
+    public boolean isMappingEnabled(long fileSize) {
+        return isLargeFile(fileSize) && pipelineDepth == 0;
+    }
+
+    public boolean isPipeliningEnabled(long fileSize) {
+        return isLargeFile(fileSize) && pipelineDepth > 0;
+    }
+}
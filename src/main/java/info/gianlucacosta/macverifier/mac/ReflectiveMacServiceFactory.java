@@ -0,0 +1,52 @@
+/*§
+  ===========================================================================
+  MacVerifier
+  ===========================================================================
+  Copyright (C) 2015 Gianluca Costa
+  ===========================================================================
+  Permission is hereby granted, free of charge, to any person obtaining a copy
+  of this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+  THE SOFTWARE.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.macverifier.mac;
+
+import java.lang.reflect.InvocationTargetException;
+
+/**
+ * MacServiceFactory instantiating a MacService class via its public no-argument constructor.
+ */
+public class ReflectiveMacServiceFactory implements MacServiceFactory {
+
+    private final Class<? extends MacService> macServiceClass;
+
+    public ReflectiveMacServiceFactory(Class<? extends MacService> macServiceClass) {
+        this.macServiceClass = macServiceClass;
+    }
+
+    @Override
+    public MacService createMacService() {
+        try {
+            return macServiceClass.getDeclaredConstructor().newInstance();
+        } catch (InvocationTargetException ex) {
+            throw new RuntimeException(ex.getCause());
+        } catch (NoSuchMethodException | InstantiationException | IllegalAccessException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+}
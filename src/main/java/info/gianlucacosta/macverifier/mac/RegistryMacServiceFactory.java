@@ -0,0 +1,66 @@
+/*§
+  ===========================================================================
+  MacVerifier
+  ===========================================================================
+  Copyright (C) 2015 Gianluca Costa
+  ===========================================================================
+  Permission is hereby granted, free of charge, to any person obtaining a copy
+  of this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+  THE SOFTWARE.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.macverifier.mac;
+
+/**
+ * MacServiceFactory creating the services of a MacServiceRegistry: the default one - which can also be
+ * referenced by class name - and any other registered one referenced by the algorithm id of a MacResult.
+ */
+public class RegistryMacServiceFactory implements MacServiceFactory {
+
+    private final MacServiceRegistry macServiceRegistry;
+    private final String defaultAlgorithmId;
+    private final MacServiceFactory defaultMacServiceFactory;
+
+    public RegistryMacServiceFactory(MacServiceRegistry macServiceRegistry, String defaultAlgorithmId) {
+        this.macServiceRegistry = macServiceRegistry;
+        this.defaultAlgorithmId = defaultAlgorithmId;
+
+        //Fails fast on unknown algorithms
+        this.defaultMacServiceFactory = new ReflectiveMacServiceFactory(
+                macServiceRegistry.getMacServiceClass(defaultAlgorithmId)
+        );
+    }
+
+    @Override
+    public MacService createMacService() {
+        return defaultMacServiceFactory.createMacService();
+    }
+
+    /**
+     * Algorithm ids read from files can only reference registered services - or the default one.
+     */
+    @Override
+    public MacService createMacService(String algorithmId) {
+        if (algorithmId.equals(defaultAlgorithmId)) {
+            return createMacService();
+        }
+
+        return new ReflectiveMacServiceFactory(macServiceRegistry.getRegisteredMacServiceClass(algorithmId))
+                .createMacService();
+    }
+}
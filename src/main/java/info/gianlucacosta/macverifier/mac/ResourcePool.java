@@ -0,0 +1,71 @@
+/*§
+  ===========================================================================
+  MacVerifier
+  ===========================================================================
+  Copyright (C) 2015 Gianluca Costa
+  ===========================================================================
+  Permission is hereby granted, free of charge, to any person obtaining a copy
+  of this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+  THE SOFTWARE.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.macverifier.mac;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Bounded pool of reusable resources - such as Mac objects and direct buffers - borrowed for the duration
+ * of a computation, so that they outlive the threads using them: virtual threads, in particular,
+ * run a single computation each.
+ * <p>
+ * Borrowing never blocks - a new resource is created when none is idle - while resources released
+ * to a full pool are just dropped. Instances are thread-safe.
+ */
+public abstract class ResourcePool<R> {
+
+    /**
+     * Enough idle resources for the threads usually hashing at once
+     */
+    public static final int DEFAULT_CAPACITY = 4 * Runtime.getRuntime().availableProcessors();
+
+    private final BlockingQueue<R> idleResources;
+
+    public ResourcePool() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public ResourcePool(int capacity) {
+        this.idleResources = new ArrayBlockingQueue<>(capacity);
+    }
+
+    protected abstract R createResource();
+
+    public R borrow() {
+        R resource = idleResources.poll();
+
+        return (resource != null) ? resource : createResource();
+    }
+
+    /**
+     * Must be called once the computation employing the resource is over - even if it failed.
+     */
+    public void release(R resource) {
+        idleResources.offer(resource);
+    }
+}
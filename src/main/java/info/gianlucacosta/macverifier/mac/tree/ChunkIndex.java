@@ -0,0 +1,245 @@
+/*§
+  ===========================================================================
+  MacVerifier
+  ===========================================================================
+  Copyright (C) 2015 Gianluca Costa
+  ===========================================================================
+  Permission is hereby granted, free of charge, to any person obtaining a copy
+  of this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+  THE SOFTWARE.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.macverifier.mac.tree;
+
+import info.gianlucacosta.macverifier.cache.FileIdentity;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Persistent index of the chunk MACs of a tree MAC, stored next to the MAC file.
+ * <p>
+ * Along with the chunk MACs, it records the FileIdentity of the main file when it was signed,
+ * as well as the chunk ranges actually rehashed by the operation that wrote it.
+ * The whole index is tagged with the MAC key, so that its identity cannot be forged
+ * to make a modified file look unchanged.
+ */
+public class ChunkIndex {
+
+    private static final int MAGIC_NUMBER = 0x4D564349;
+    private static final int FORMAT_VERSION = 1;
+
+    private static final int HEADER_SIZE = 4 + 2 + 4 + 8 + 5 * 8 + 4 + 4;
+    private static final int RANGE_SIZE = 4 + 4;
+
+    private final int chunkSize;
+    private final long totalLength;
+    private final FileIdentity identity;
+    private final byte[][] chunkTags;
+    private final List<ChunkRange> rehashedRanges;
+    private final byte[] tag;
+
+    public ChunkIndex(int chunkSize, long totalLength, FileIdentity identity, byte[][] chunkTags, List<ChunkRange> rehashedRanges, byte[] tag) {
+        this.chunkSize = chunkSize;
+        this.totalLength = totalLength;
+        this.identity = identity;
+        this.chunkTags = chunkTags;
+        this.rehashedRanges = Collections.unmodifiableList(new ArrayList<>(rehashedRanges));
+        this.tag = tag;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public long getTotalLength() {
+        return totalLength;
+    }
+
+    /**
+     * Returns the identity of the main file, read before it was hashed.
+     */
+    public FileIdentity getIdentity() {
+        return identity;
+    }
+
+    public byte[][] getChunkTags() {
+        return chunkTags;
+    }
+
+    public List<ChunkRange> getRehashedRanges() {
+        return rehashedRanges;
+    }
+
+    public byte[] getTag() {
+        return tag;
+    }
+
+    /**
+     * Returns a copy of this index, having the given tag.
+     */
+    public ChunkIndex withTag(byte[] tag) {
+        return new ChunkIndex(chunkSize, totalLength, identity, chunkTags, rehashedRanges, tag);
+    }
+
+    /**
+     * Returns true if the main file still has the identity recorded in the index.
+     */
+    public boolean matches(FileIdentity mainIdentity) {
+        return identity.equals(mainIdentity)
+                && mainIdentity.getSize() == totalLength;
+    }
+
+    /**
+     * Returns the encoding of the index, declaring the given tag length, without the tag itself
+     * - that is, the data covered by the tag.
+     */
+    public byte[] getTaggedContent(int tagLength) {
+        ByteArrayOutputStream contentBytes = new ByteArrayOutputStream();
+
+        try {
+            writeContent(new DataOutputStream(contentBytes), tagLength);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+
+        return contentBytes.toByteArray();
+    }
+
+    /**
+     * Reads the index of the given stored MAC: its chunk size and tag length must match the stored ones,
+     * and its chunk count must match its total length - which cannot exceed what the index file holds -
+     * before any chunk MAC is allocated.
+     *
+     * @throws IOException if the index is not usable for the stored MAC
+     */
+    public static ChunkIndex read(File indexFile, TreeMacResult storedResult) throws IOException {
+        try (DataInputStream indexInputStream = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+            int chunkSize = readHeader(indexInputStream);
+            long totalLength = indexInputStream.readLong();
+            FileIdentity identity = new FileIdentity(
+                    indexInputStream.readLong(),
+                    indexInputStream.readLong(),
+                    indexInputStream.readLong(),
+                    indexInputStream.readLong(),
+                    indexInputStream.readLong()
+            );
+
+            int tagLength = indexInputStream.readInt();
+            int chunkCount = indexInputStream.readInt();
+            long remainingLength = indexFile.length() - HEADER_SIZE;
+
+            if (chunkSize != storedResult.getChunkSize()
+                    || tagLength != storedResult.getMacValue().length
+                    || totalLength < 0
+                    || chunkCount != TreeMacComputer.getChunkCount(totalLength, chunkSize)
+                    || (long) chunkCount * tagLength > remainingLength) {
+                throw new IOException("Inconsistent chunk index file");
+            }
+
+            byte[][] chunkTags = new byte[chunkCount][];
+            for (int i = 0; i < chunkCount; i++) {
+                chunkTags[i] = new byte[tagLength];
+                indexInputStream.readFully(chunkTags[i]);
+            }
+
+            int rangeCount = indexInputStream.readInt();
+            if (rangeCount < 0 || (long) rangeCount * RANGE_SIZE > remainingLength) {
+                throw new IOException("Inconsistent chunk index file");
+            }
+
+            List<ChunkRange> rehashedRanges = new ArrayList<>();
+            for (int i = 0; i < rangeCount; i++) {
+                rehashedRanges.add(new ChunkRange(indexInputStream.readInt(), indexInputStream.readInt()));
+            }
+
+            byte[] tag = new byte[tagLength];
+            indexInputStream.readFully(tag);
+
+            return new ChunkIndex(chunkSize, totalLength, identity, chunkTags, rehashedRanges, tag);
+        } catch (EOFException | IllegalArgumentException ex) {
+            throw new IOException("Invalid chunk index file", ex);
+        }
+    }
+
+    /**
+     * Reads just the total length recorded in the index, without authenticating it.
+     */
+    public static long readTotalLength(File indexFile) throws IOException {
+        try (DataInputStream indexInputStream = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+            readHeader(indexInputStream);
+
+            return indexInputStream.readLong();
+        } catch (EOFException ex) {
+            throw new IOException("Invalid chunk index file", ex);
+        }
+    }
+
+    private static int readHeader(DataInputStream indexInputStream) throws IOException {
+        if (indexInputStream.readInt() != MAGIC_NUMBER) {
+            throw new IOException("Invalid chunk index file");
+        }
+
+        int formatVersion = indexInputStream.readUnsignedShort();
+        if (formatVersion != FORMAT_VERSION) {
+            throw new IOException(
+                    String.format("Unsupported chunk index version: %d", formatVersion)
+            );
+        }
+
+        return indexInputStream.readInt();
+    }
+
+    public void write(File indexFile) throws IOException {
+        try (DataOutputStream indexOutputStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile)))) {
+            writeContent(indexOutputStream, tag.length);
+            indexOutputStream.write(tag);
+        }
+    }
+
+    private void writeContent(DataOutputStream indexOutputStream, int tagLength) throws IOException {
+        indexOutputStream.writeInt(MAGIC_NUMBER);
+        indexOutputStream.writeShort(FORMAT_VERSION);
+
+        indexOutputStream.writeInt(chunkSize);
+        indexOutputStream.writeLong(totalLength);
+
+        indexOutputStream.writeLong(identity.getDevice());
+        indexOutputStream.writeLong(identity.getInode());
+        indexOutputStream.writeLong(identity.getSize());
+        indexOutputStream.writeLong(identity.getModifiedTime());
+        indexOutputStream.writeLong(identity.getChangeTime());
+
+        indexOutputStream.writeInt(tagLength);
+        indexOutputStream.writeInt(chunkTags.length);
+
+        for (byte[] chunkTag : chunkTags) {
+            indexOutputStream.write(chunkTag);
+        }
+
+        indexOutputStream.writeInt(rehashedRanges.size());
+        for (ChunkRange rehashedRange : rehashedRanges) {
+            indexOutputStream.writeInt(rehashedRange.getFromChunk());
+            indexOutputStream.writeInt(rehashedRange.getToChunk());
+        }
+
+        indexOutputStream.flush();
+    }
+}
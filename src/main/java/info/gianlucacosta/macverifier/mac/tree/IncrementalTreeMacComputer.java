@@ -0,0 +1,199 @@
+/*§
+  ===========================================================================
+  MacVerifier
+  ===========================================================================
+  Copyright (C) 2015 Gianluca Costa
+  ===========================================================================
+  Permission is hereby granted, free of charge, to any person obtaining a copy
+  of this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+  THE SOFTWARE.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.macverifier.mac.tree;
+
+import info.gianlucacosta.macverifier.cache.FileIdentity;
+import info.gianlucacosta.macverifier.mac.MacCheckpoint;
+
+import javax.crypto.Mac;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.security.Key;
+import java.security.MessageDigest;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Computes tree MACs along with their ChunkIndex, and employs the index to avoid rehashing data:
+ * <ul>
+ * <li>an unchanged file is verified by just combining the indexed chunk MACs</li>
+ * <li>a file that has only grown - such as a log or an append-only archive - has its MAC extended
+ * by rehashing only from its former last chunk onward</li>
+ * </ul>
+ * Both shortcuts trust the file system: an unchanged FileIdentity - including the change time, which ordinary users
+ * cannot set - is assumed to mean unchanged content, and growth is assumed to leave the previous content untouched.
+ * The index itself is authenticated: its tag binds the recorded identity to the MAC key.
+ */
+public class IncrementalTreeMacComputer {
+
+    private final TreeMacComputer treeMacComputer;
+
+    public IncrementalTreeMacComputer(TreeMacComputer treeMacComputer) {
+        this.treeMacComputer = treeMacComputer;
+    }
+
+    public Result computeMac(Key macKey, byte[] salt, File sourceFile, int chunkSize) throws IOException {
+        return computeMac(macKey, salt, sourceFile, chunkSize, null, 0);
+    }
+
+    /**
+     * Also computes the checkpoint of the file, in the same pass: the chunks covering the prefix
+     * are hashed first, sequentially, passing their bytes to the checkpoint Mac as well.
+     *
+     * @param checkpointMac the Mac returned by KeyedMacService.createCheckpointMac(), or null for no checkpoint
+     * @param prefixLength  the prefix length of the checkpoint
+     */
+    public Result computeMac(Key macKey, byte[] salt, File sourceFile, int chunkSize, Mac checkpointMac, long prefixLength) throws IOException {
+        FileIdentity identity = FileIdentity.read(sourceFile);
+
+        try (FileChannel sourceChannel = treeMacComputer.openChannel(sourceFile)) {
+            long totalLength = sourceChannel.size();
+            int chunkCount = TreeMacComputer.getChunkCount(totalLength, chunkSize);
+
+            //Sources not longer than the prefix are never read for the checkpoint
+            int prefixChunkCount = (checkpointMac != null && totalLength > prefixLength) ?
+                    TreeMacComputer.getChunkCount(prefixLength, chunkSize)
+                    :
+                    0;
+
+            byte[][] chunkTags = new byte[chunkCount][];
+
+            for (int chunkIndex = 0; chunkIndex < prefixChunkCount; chunkIndex++) {
+                chunkTags[chunkIndex] = treeMacComputer.computeChunkTag(macKey, sourceChannel, totalLength, chunkSize, chunkIndex, checkpointMac, prefixLength);
+            }
+
+            byte[][] otherChunkTags = treeMacComputer.computeChunkTags(macKey, sourceChannel, totalLength, chunkSize, prefixChunkCount, chunkCount);
+            System.arraycopy(otherChunkTags, 0, chunkTags, prefixChunkCount, otherChunkTags.length);
+
+            Result result = createResult(macKey, salt, chunkSize, totalLength, identity, chunkTags, new ChunkRange(0, chunkCount));
+
+            if (checkpointMac == null) {
+                return result;
+            }
+
+            MacCheckpoint checkpoint = (prefixChunkCount > 0) ?
+                    new MacCheckpoint(totalLength, prefixLength, checkpointMac.doFinal())
+                    :
+                    new MacCheckpoint(totalLength);
+
+            return new Result(result.getMacResult().withCheckpoint(checkpoint), result.getChunkIndex());
+        }
+    }
+
+    /**
+     * Returns true if the index has a valid tag and its chunk MACs actually produce the stored MAC;
+     * no file data is read.
+     */
+    public boolean isAuthentic(Key macKey, TreeMacResult storedResult, ChunkIndex chunkIndex) {
+        if (storedResult.getChunkSize() != chunkIndex.getChunkSize()
+                || !MessageDigest.isEqual(chunkIndex.getTag(), treeMacComputer.computeIndexTag(macKey, chunkIndex))) {
+            return false;
+        }
+
+        byte[] macValue = treeMacComputer.combineChunkTags(
+                macKey,
+                chunkIndex.getChunkSize(),
+                chunkIndex.getTotalLength(),
+                chunkIndex.getChunkTags()
+        );
+
+        return MessageDigest.isEqual(macValue, storedResult.getMacValue());
+    }
+
+    /**
+     * Extends the MAC of a file that has grown since it was indexed: the chunk MACs preceding
+     * the former last chunk are reused, and only the rest of the file is read.
+     *
+     * @throws IOException if the index is not authentic or the file has shrunk
+     */
+    public Result extendMac(Key macKey, TreeMacResult storedResult, ChunkIndex chunkIndex, File sourceFile) throws IOException {
+        if (!isAuthentic(macKey, storedResult, chunkIndex)) {
+            throw new IOException("The chunk index does not match the MAC file");
+        }
+
+        FileIdentity identity = FileIdentity.read(sourceFile);
+        int chunkSize = chunkIndex.getChunkSize();
+
+        try (FileChannel sourceChannel = treeMacComputer.openChannel(sourceFile)) {
+            long totalLength = sourceChannel.size();
+
+            if (totalLength < chunkIndex.getTotalLength()) {
+                throw new IOException("The file has shrunk since it was indexed");
+            }
+
+            int chunkCount = TreeMacComputer.getChunkCount(totalLength, chunkSize);
+            int firstChangedChunk = (int) (chunkIndex.getTotalLength() / chunkSize);
+
+            byte[][] newChunkTags = treeMacComputer.computeChunkTags(macKey, sourceChannel, totalLength, chunkSize, firstChangedChunk, chunkCount);
+
+            byte[][] chunkTags = new byte[chunkCount][];
+            System.arraycopy(chunkIndex.getChunkTags(), 0, chunkTags, 0, firstChangedChunk);
+            System.arraycopy(newChunkTags, 0, chunkTags, firstChangedChunk, newChunkTags.length);
+
+            return createResult(macKey, storedResult.getSalt(), chunkSize, totalLength, identity, chunkTags, new ChunkRange(firstChangedChunk, chunkCount));
+        }
+    }
+
+    private Result createResult(Key macKey, byte[] salt, int chunkSize, long totalLength, FileIdentity identity, byte[][] chunkTags, ChunkRange rehashedRange) {
+        byte[] macValue = treeMacComputer.combineChunkTags(macKey, chunkSize, totalLength, chunkTags);
+
+        List<ChunkRange> rehashedRanges = (rehashedRange.getChunkCount() > 0) ?
+                Collections.singletonList(rehashedRange)
+                :
+                Collections.<ChunkRange>emptyList();
+
+        ChunkIndex chunkIndex = new ChunkIndex(chunkSize, totalLength, identity, chunkTags, rehashedRanges, null);
+
+        return new Result(
+                new TreeMacResult(salt, macValue, chunkSize),
+                chunkIndex.withTag(treeMacComputer.computeIndexTag(macKey, chunkIndex))
+        );
+    }
+
+
+    /**
+     * A tree MAC result along with its chunk index.
+     */
+    public static class Result {
+        private final TreeMacResult macResult;
+        private final ChunkIndex chunkIndex;
+
+        public Result(TreeMacResult macResult, ChunkIndex chunkIndex) {
+            this.macResult = macResult;
+            this.chunkIndex = chunkIndex;
+        }
+
+        public TreeMacResult getMacResult() {
+            return macResult;
+        }
+
+        public ChunkIndex getChunkIndex() {
+            return chunkIndex;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/*§
+  ===========================================================================
+  MacVerifier
+  ===========================================================================
+  Copyright (C) 2015 Gianluca Costa
+  ===========================================================================
+  Permission is hereby granted, free of charge, to any person obtaining a copy
+  of this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+  THE SOFTWARE.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.macverifier.mac.tree;
+
+import info.gianlucacosta.macverifier.mac.HMacSha256Service;
+import info.gianlucacosta.macverifier.mac.MacResult;
+import info.gianlucacosta.macverifier.mac.StreamingMac;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.Key;
+
+/**
+ * MacService computing tree MACs based on HMAC with SHA-256, so that the chunks
+ * of a single huge file can be processed by all the available cores.
+ * <p>
+ * Key derivation and salts are the same as HMacSha256Service; the results are TreeMacResult instances.
+ */
+public class TreeHMacSha256Service extends HMacSha256Service {
+
+    public static final int DEFAULT_CHUNK_SIZE = 4 * 1024 * 1024;
+
+    private final int chunkSize;
+
+    public TreeHMacSha256Service() {
+        this(DEFAULT_CHUNK_SIZE);
+    }
+
+    public TreeHMacSha256Service(int chunkSize) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("The chunk size must be positive");
+        }
+
+        this.chunkSize = chunkSize;
+    }
+
+    @Override
+    public String getAlgorithmId() {
+        return "hmac-sha256-tree";
+    }
+
+    @Override
+    public int getTreeChunkSize() {
+        return chunkSize;
+    }
+
+    @Override
+    public MacResult computeMac(Key macKey, byte[] salt, InputStream sourceStream) throws IOException {
+        return getTreeMacComputer().computeMac(macKey, salt, sourceStream, chunkSize);
+    }
+
+    @Override
+    public MacResult computeMac(Key macKey, byte[] salt, File sourceFile) throws IOException {
+        return getTreeMacComputer().computeMac(macKey, salt, sourceFile, chunkSize);
+    }
+
+    @Override
+    public StreamingMac createStreamingMac(Key macKey, byte[] salt) {
+        return getTreeMacComputer().createStreamingMac(macKey, salt, chunkSize);
+    }
+}
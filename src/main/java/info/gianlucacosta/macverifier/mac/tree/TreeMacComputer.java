@@ -0,0 +1,480 @@
+/*§
+  ===========================================================================
+  MacVerifier
+  ===========================================================================
+  Copyright (C) 2015 Gianluca Costa
+  ===========================================================================
+  Permission is hereby granted, free of charge, to any person obtaining a copy
+  of this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+  THE SOFTWARE.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.macverifier.mac.tree;
+
+import info.gianlucacosta.macverifier.io.ReadThrottle;
+import info.gianlucacosta.macverifier.mac.MacResult;
+import info.gianlucacosta.macverifier.mac.ResourcePool;
+import info.gianlucacosta.macverifier.mac.StreamingMac;
+import info.gianlucacosta.macverifier.metrics.RunMetrics;
+
+import javax.crypto.Mac;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.InvalidKeyException;
+import java.security.Key;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Computes tree MACs, based on any Mac algorithm:
+ * <ol>
+ * <li>the source is split into chunks of a fixed size - the last one being possibly shorter</li>
+ * <li>every chunk is MAC-ed independently, along with its index</li>
+ * <li>the final MAC is computed over the chunk size, the total length and the ordered chunk MACs</li>
+ * </ol>
+ * Chunks of a file are processed in parallel, via fork/join, borrowing their Mac objects and read buffers
+ * from a ResourcePool; instances are thread-safe.
+ */
+public class TreeMacComputer {
+
+    private static final byte CHUNK_DOMAIN = 0;
+    private static final byte ROOT_DOMAIN = 1;
+    private static final byte INDEX_DOMAIN = 2;
+
+    private final String macAlgorithm;
+    private final int readBufferSize;
+    private final ForkJoinPool forkJoinPool;
+    private final RunMetrics metrics;
+    private final ReadThrottle readThrottle;
+
+    private final ResourcePool<ChunkResources> resourcePool = new ResourcePool<ChunkResources>() {
+        @Override
+        protected ChunkResources createResource() {
+            try {
+                return new ChunkResources(Mac.getInstance(macAlgorithm));
+            } catch (NoSuchAlgorithmException ex) {
+                throw new RuntimeException(ex);
+            }
+        }
+    };
+
+    public TreeMacComputer(String macAlgorithm, int readBufferSize) {
+        this(macAlgorithm, readBufferSize, ForkJoinPool.commonPool());
+    }
+
+    public TreeMacComputer(String macAlgorithm, int readBufferSize, ForkJoinPool forkJoinPool) {
+        this(macAlgorithm, readBufferSize, forkJoinPool, RunMetrics.DISABLED);
+    }
+
+    public TreeMacComputer(String macAlgorithm, int readBufferSize, ForkJoinPool forkJoinPool, RunMetrics metrics) {
+        this(macAlgorithm, readBufferSize, forkJoinPool, metrics, null);
+    }
+
+    /**
+     * @param readThrottle limits the reads of the source files; can be null
+     */
+    public TreeMacComputer(String macAlgorithm, int readBufferSize, ForkJoinPool forkJoinPool, RunMetrics metrics, ReadThrottle readThrottle) {
+        this.macAlgorithm = macAlgorithm;
+        this.readBufferSize = readBufferSize;
+        this.forkJoinPool = forkJoinPool;
+        this.metrics = metrics;
+        this.readThrottle = readThrottle;
+    }
+
+    /**
+     * Opens a source file for reading, recording the time in the metrics;
+     * the chunks of the file share a single slot of the ReadThrottle, if any.
+     */
+    public FileChannel openChannel(File sourceFile) throws IOException {
+        FileChannel sourceChannel = metrics.openChannel(sourceFile);
+
+        return (readThrottle != null) ? readThrottle.throttle(sourceChannel) : sourceChannel;
+    }
+
+    public static int getChunkCount(long totalLength, int chunkSize) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("The chunk size must be positive");
+        }
+
+        long chunkCount = totalLength / chunkSize + ((totalLength % chunkSize != 0) ? 1 : 0);
+
+        if (chunkCount > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Too many chunks - please, choose a larger chunk size");
+        }
+
+        return (int) chunkCount;
+    }
+
+    public TreeMacResult computeMac(Key macKey, byte[] salt, File sourceFile, int chunkSize) throws IOException {
+        try (FileChannel sourceChannel = openChannel(sourceFile)) {
+            return computeMac(macKey, salt, sourceChannel, chunkSize);
+        }
+    }
+
+    /**
+     * Chunks are read at their absolute positions, so the position of the channel is irrelevant.
+     */
+    public TreeMacResult computeMac(Key macKey, byte[] salt, FileChannel sourceChannel, int chunkSize) throws IOException {
+        long totalLength = sourceChannel.size();
+
+        byte[][] chunkTags = computeChunkTags(
+                macKey,
+                sourceChannel,
+                totalLength,
+                chunkSize,
+                0,
+                getChunkCount(totalLength, chunkSize)
+        );
+
+        byte[] macValue = combineChunkTags(macKey, chunkSize, totalLength, chunkTags);
+
+        return new TreeMacResult(salt, macValue, chunkSize);
+    }
+
+    /**
+     * Sequential variant, as streams cannot be read in parallel; the result is the same as for files.
+     */
+    public TreeMacResult computeMac(Key macKey, byte[] salt, InputStream sourceStream, int chunkSize) throws IOException {
+        StreamingMac streamingMac = createStreamingMac(macKey, salt, chunkSize);
+        byte[] buffer = new byte[readBufferSize];
+
+        while (true) {
+            int readBytesCount = sourceStream.read(buffer);
+
+            if (readBytesCount == -1) {
+                break;
+            }
+
+            streamingMac.update(buffer, 0, readBytesCount);
+        }
+
+        return (TreeMacResult) streamingMac.finish();
+    }
+
+    /**
+     * Returns a StreamingMac computing the same tree MAC as for files; it employs
+     * its own Mac instance, so it can be fed by any thread.
+     */
+    public StreamingMac createStreamingMac(Key macKey, byte[] salt, int chunkSize) {
+        try {
+            return new TreeStreamingMac(Mac.getInstance(macAlgorithm), macKey, salt, chunkSize);
+        } catch (NoSuchAlgorithmException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    /**
+     * Computes the MACs of the chunks in [fromChunk, toChunk), in parallel, in the pool of this computer.
+     * <p>
+     * While the ReadThrottle limits the number of hashed files, the chunks always run in its chunk pool,
+     * whose parallelism is that limit.
+     */
+    public byte[][] computeChunkTags(final Key macKey, final FileChannel sourceChannel, final long totalLength, final int chunkSize, final int fromChunk, final int toChunk) throws IOException {
+        final byte[][] chunkTags = new byte[toChunk - fromChunk][];
+
+        ChunkRangeAction chunkRangeAction = new ChunkRangeAction(macKey, sourceChannel, totalLength, chunkSize, fromChunk, toChunk, chunkTags, fromChunk);
+
+        ForkJoinPool chunkPool = (readThrottle != null) ? readThrottle.getChunkPool() : null;
+
+        try {
+            if (chunkPool != null) {
+                chunkPool.invoke(chunkRangeAction);
+            } else {
+                forkJoinPool.invoke(chunkRangeAction);
+            }
+        } catch (UncheckedIOException ex) {
+            throw ex.getCause();
+        }
+
+        return chunkTags;
+    }
+
+    public byte[] computeChunkTag(Key macKey, FileChannel sourceChannel, long totalLength, int chunkSize, int chunkIndex) throws IOException {
+        return computeChunkTag(macKey, sourceChannel, totalLength, chunkSize, chunkIndex, null, 0);
+    }
+
+    /**
+     * @param prefixMac    if not null, also receives the bytes of the chunk preceding prefixLength
+     * @param prefixLength the length of the prefix passed to prefixMac
+     */
+    public byte[] computeChunkTag(Key macKey, FileChannel sourceChannel, long totalLength, int chunkSize, int chunkIndex, Mac prefixMac, long prefixLength) throws IOException {
+        ChunkResources resources = resourcePool.borrow();
+
+        try {
+            Mac chunkMac = resources.mac;
+            initChunkMac(chunkMac, macKey, chunkIndex);
+
+            ByteBuffer buffer = resources.getReadBuffer();
+
+            long position = (long) chunkIndex * chunkSize;
+            long chunkEnd = Math.min(position + chunkSize, totalLength);
+
+            while (position < chunkEnd) {
+                buffer.clear();
+                buffer.limit((int) Math.min(buffer.capacity(), chunkEnd - position));
+
+                int readBytesCount = sourceChannel.read(buffer, position);
+
+                if (readBytesCount == -1) {
+                    throw new EOFException("The file was truncated while being read");
+                }
+
+                buffer.flip();
+
+                if (prefixMac != null && position < prefixLength) {
+                    int limit = buffer.limit();
+
+                    buffer.mark();
+                    buffer.limit((int) Math.min(limit, prefixLength - position));
+                    prefixMac.update(buffer);
+                    buffer.limit(limit);
+                    buffer.reset();
+                }
+
+                chunkMac.update(buffer);
+
+                position += readBytesCount;
+            }
+
+            return chunkMac.doFinal();
+        } finally {
+            resourcePool.release(resources);
+        }
+    }
+
+    private void initChunkMac(Mac chunkMac, Key macKey, long chunkIndex) {
+        try {
+            chunkMac.init(macKey);
+        } catch (InvalidKeyException ex) {
+            throw new RuntimeException(ex);
+        }
+
+        chunkMac.update(CHUNK_DOMAIN);
+        chunkMac.update(ByteBuffer.allocate(8).putLong(0, chunkIndex));
+    }
+
+    public byte[] combineChunkTags(Key macKey, int chunkSize, long totalLength, byte[][] chunkTags) {
+        ChunkResources resources = resourcePool.borrow();
+
+        try {
+            Mac rootMac = resources.mac;
+
+            try {
+                rootMac.init(macKey);
+            } catch (InvalidKeyException ex) {
+                throw new RuntimeException(ex);
+            }
+
+            rootMac.update(ROOT_DOMAIN);
+            rootMac.update(
+                    ByteBuffer.allocate(12)
+                            .putInt(0, chunkSize)
+                            .putLong(4, totalLength)
+            );
+
+            for (byte[] chunkTag : chunkTags) {
+                rootMac.update(chunkTag);
+            }
+
+            return rootMac.doFinal();
+        } finally {
+            resourcePool.release(resources);
+        }
+    }
+
+
+    /**
+     * Computes the tag of a ChunkIndex, binding its content - including the identity of the main file -
+     * to the MAC key.
+     */
+    public byte[] computeIndexTag(Key macKey, ChunkIndex chunkIndex) {
+        ChunkResources resources = resourcePool.borrow();
+
+        try {
+            Mac indexMac = resources.mac;
+
+            try {
+                indexMac.init(macKey);
+            } catch (InvalidKeyException ex) {
+                throw new RuntimeException(ex);
+            }
+
+            indexMac.update(INDEX_DOMAIN);
+            indexMac.update(chunkIndex.getTaggedContent(indexMac.getMacLength()));
+
+            return indexMac.doFinal();
+        } finally {
+            resourcePool.release(resources);
+        }
+    }
+
+    /**
+     * Every chunk is closed lazily - when the first byte of the next one arrives, or when the stream
+     * is finished - so that an input ending exactly on a chunk boundary produces no empty trailing chunk.
+     */
+    private class TreeStreamingMac implements StreamingMac {
+        private final Mac chunkMac;
+        private final Key macKey;
+        private final byte[] salt;
+        private final int chunkSize;
+
+        private final List<byte[]> chunkTags = new ArrayList<>();
+        private int chunkLength;
+        private long totalLength;
+
+        TreeStreamingMac(Mac chunkMac, Key macKey, byte[] salt, int chunkSize) {
+            this.chunkMac = chunkMac;
+            this.macKey = macKey;
+            this.salt = salt;
+            this.chunkSize = chunkSize;
+
+            initChunkMac(chunkMac, macKey, 0);
+        }
+
+        @Override
+        public void update(byte[] bytes, int offset, int length) {
+            while (length > 0) {
+                closeFullChunk();
+
+                int updateLength = Math.min(length, chunkSize - chunkLength);
+                chunkMac.update(bytes, offset, updateLength);
+
+                chunkLength += updateLength;
+                totalLength += updateLength;
+                offset += updateLength;
+                length -= updateLength;
+            }
+        }
+
+        @Override
+        public void update(ByteBuffer buffer) {
+            while (buffer.hasRemaining()) {
+                closeFullChunk();
+
+                int updateLength = Math.min(buffer.remaining(), chunkSize - chunkLength);
+                int limit = buffer.limit();
+
+                buffer.limit(buffer.position() + updateLength);
+                chunkMac.update(buffer);
+                buffer.limit(limit);
+
+                chunkLength += updateLength;
+                totalLength += updateLength;
+            }
+        }
+
+        private void closeFullChunk() {
+            if (chunkLength == chunkSize) {
+                chunkTags.add(chunkMac.doFinal());
+                initChunkMac(chunkMac, macKey, chunkTags.size());
+                chunkLength = 0;
+            }
+        }
+
+        @Override
+        public MacResult finish() {
+            if (chunkLength > 0) {
+                chunkTags.add(chunkMac.doFinal());
+            }
+
+            byte[] macValue = combineChunkTags(macKey, chunkSize, totalLength, chunkTags.toArray(new byte[0][]));
+
+            return new TreeMacResult(salt, macValue, chunkSize);
+        }
+    }
+
+
+    /**
+     * The read buffer is only allocated for chunks, as combining chunk tags does not read.
+     */
+    private class ChunkResources {
+        final Mac mac;
+        private ByteBuffer readBuffer;
+
+        ChunkResources(Mac mac) {
+            this.mac = mac;
+        }
+
+        ByteBuffer getReadBuffer() {
+            if (readBuffer == null) {
+                readBuffer = ByteBuffer.allocateDirect(readBufferSize);
+            }
+
+            return readBuffer;
+        }
+    }
+
+
+    private class ChunkRangeAction extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Key macKey;
+        private final FileChannel sourceChannel;
+        private final long totalLength;
+        private final int chunkSize;
+        private final int fromChunk;
+        private final int toChunk;
+        private final byte[][] chunkTags;
+        private final int tagsOffset;
+
+        ChunkRangeAction(Key macKey, FileChannel sourceChannel, long totalLength, int chunkSize, int fromChunk, int toChunk, byte[][] chunkTags, int tagsOffset) {
+            this.macKey = macKey;
+            this.sourceChannel = sourceChannel;
+            this.totalLength = totalLength;
+            this.chunkSize = chunkSize;
+            this.fromChunk = fromChunk;
+            this.toChunk = toChunk;
+            this.chunkTags = chunkTags;
+            this.tagsOffset = tagsOffset;
+        }
+
+        @Override
+        protected void compute() {
+            int rangeLength = toChunk - fromChunk;
+
+            if (rangeLength == 0) {
+                return;
+            }
+
+            if (rangeLength == 1) {
+                try {
+                    chunkTags[fromChunk - tagsOffset] = computeChunkTag(macKey, sourceChannel, totalLength, chunkSize, fromChunk);
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+
+                return;
+            }
+
+            int middleChunk = fromChunk + rangeLength / 2;
+
+            invokeAll(
+                    new ChunkRangeAction(macKey, sourceChannel, totalLength, chunkSize, fromChunk, middleChunk, chunkTags, tagsOffset),
+                    new ChunkRangeAction(macKey, sourceChannel, totalLength, chunkSize, middleChunk, toChunk, chunkTags, tagsOffset)
+            );
+        }
+    }
+}
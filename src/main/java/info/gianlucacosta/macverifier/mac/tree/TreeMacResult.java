@@ -0,0 +1,127 @@
+/*§
+  ===========================================================================
+  MacVerifier
+  ===========================================================================
+  Copyright (C) 2015 Gianluca Costa
+  ===========================================================================
+  Permission is hereby granted, free of charge, to any person obtaining a copy
+  of this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+  THE SOFTWARE.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.macverifier.mac.tree;
+
+import info.gianlucacosta.macverifier.mac.KdfParameters;
+import info.gianlucacosta.macverifier.mac.MacCheckpoint;
+import info.gianlucacosta.macverifier.mac.MacResult;
+
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+
+/**
+ * Result of a tree MAC computation: the MAC value is computed over the ordered list
+ * of the MACs of fixed-size chunks, whose size is stored as well.
+ * <p>
+ * The format version identifies the tree construction, so that it can evolve
+ * without breaking the verification of existing results; the chunk size is bounded,
+ * so that a tampered MAC file cannot make chunk counting divide by zero or overflow.
+ */
+public class TreeMacResult extends MacResult {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final int CURRENT_FORMAT_VERSION = 1;
+
+    public static final int MAX_CHUNK_SIZE = 1 << 30;
+
+    private final int formatVersion;
+    private final int chunkSize;
+
+    public TreeMacResult(byte[] salt, byte[] macValue, int chunkSize) {
+        this(salt, macValue, CURRENT_FORMAT_VERSION, chunkSize);
+    }
+
+    public TreeMacResult(byte[] salt, byte[] macValue, int formatVersion, int chunkSize) {
+        this(salt, macValue, formatVersion, chunkSize, null, null);
+    }
+
+    public TreeMacResult(byte[] salt, byte[] macValue, int formatVersion, int chunkSize, String algorithmId, KdfParameters kdfParameters) {
+        this(salt, macValue, formatVersion, chunkSize, algorithmId, kdfParameters, null);
+    }
+
+    public TreeMacResult(byte[] salt, byte[] macValue, int formatVersion, int chunkSize, String algorithmId, KdfParameters kdfParameters, MacCheckpoint checkpoint) {
+        super(salt, macValue, algorithmId, kdfParameters, checkpoint);
+
+        if (!isValidChunkSize(chunkSize)) {
+            throw new IllegalArgumentException(
+                    String.format("The chunk size must be between 1 and %d bytes", MAX_CHUNK_SIZE)
+            );
+        }
+
+        this.formatVersion = formatVersion;
+        this.chunkSize = chunkSize;
+    }
+
+    public static boolean isValidChunkSize(int chunkSize) {
+        return chunkSize >= 1 && chunkSize <= MAX_CHUNK_SIZE;
+    }
+
+    public int getFormatVersion() {
+        return formatVersion;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    @Override
+    public TreeMacResult withAlgorithm(String algorithmId, KdfParameters kdfParameters) {
+        return new TreeMacResult(getSalt(), getMacValue(), formatVersion, chunkSize, algorithmId, kdfParameters, getCheckpoint());
+    }
+
+    @Override
+    public TreeMacResult withCheckpoint(MacCheckpoint checkpoint) {
+        return new TreeMacResult(getSalt(), getMacValue(), formatVersion, chunkSize, getAlgorithmId(), getKdfParameters(), checkpoint);
+    }
+
+    @Override
+    public TreeMacResult withValues(byte[] salt, byte[] macValue, MacCheckpoint checkpoint) {
+        return new TreeMacResult(salt, macValue, formatVersion, chunkSize, getAlgorithmId(), getKdfParameters(), checkpoint);
+    }
+
+    @Override
+    public boolean hasSameFormat(MacResult other) {
+        if (!super.hasSameFormat(other)) {
+            return false;
+        }
+
+        TreeMacResult otherTreeResult = (TreeMacResult) other;
+
+        return formatVersion == otherTreeResult.formatVersion
+                && chunkSize == otherTreeResult.chunkSize;
+    }
+
+    private void readObject(ObjectInputStream input) throws IOException, ClassNotFoundException {
+        input.defaultReadObject();
+
+        if (!isValidChunkSize(chunkSize)) {
+            throw new InvalidObjectException("Invalid chunk size");
+        }
+    }
+}
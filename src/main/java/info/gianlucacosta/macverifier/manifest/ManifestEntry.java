@@ -0,0 +1,64 @@
+/*§
+  ===========================================================================
+  MacVerifier
+  ===========================================================================
+  Copyright (C) 2015 Gianluca Costa
+  ===========================================================================
+  Permission is hereby granted, free of charge, to any person obtaining a copy
+  of this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+  THE SOFTWARE.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.macverifier.manifest;
+
+import info.gianlucacosta.macverifier.mac.MacResult;
+
+/**
+ * Manifest entry: the MacResult of a main file, along with its path - relative to the manifest root,
+ * with '/' as separator - and the length and modification time it had when signed.
+ */
+public class ManifestEntry {
+
+    private final String relativePath;
+    private final long length;
+    private final long lastModified;
+    private final MacResult macResult;
+
+    public ManifestEntry(String relativePath, long length, long lastModified, MacResult macResult) {
+        this.relativePath = relativePath;
+        this.length = length;
+        this.lastModified = lastModified;
+        this.macResult = macResult;
+    }
+
+    public String getRelativePath() {
+        return relativePath;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    public MacResult getMacResult() {
+        return macResult;
+    }
+}
@@ -0,0 +1,113 @@
+/*§
+  ===========================================================================
+  MacVerifier
+  ===========================================================================
+  Copyright (C) 2015 Gianluca Costa
+  ===========================================================================
+  Permission is hereby granted, free of charge, to any person obtaining a copy
+  of this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+  THE SOFTWARE.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.macverifier.manifest;
+
+import info.gianlucacosta.macverifier.cache.TagKeyDeriver;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Constants and helpers shared by ManifestWriter and ManifestReader.
+ * <p>
+ * A manifest file consists of:
+ * <ol>
+ * <li>a header: magic number - 4 bytes, "MVMF" -, format version - 1 byte - and the salt of the tag key</li>
+ * <li>the entries, one after another: relative path - modified UTF-8 string -, length and modification time
+ * - 8 bytes each - and the MacResult, in BinaryMacResultFormat</li>
+ * <li>the index: slot count - 4 bytes, a power of 2 - then, for every slot, the 64-bit hash of a relative path
+ * and the offset of its entry plus 1 - 8 bytes each, both 0 for empty slots - with linear probing</li>
+ * <li>a footer: index offset - 8 bytes -, entry count - 4 bytes -, the tag of the entry table and the magic number
+ * - 4 bytes</li>
+ * </ol>
+ * Entries can therefore be streamed from the start, while any single entry can be found in O(1)
+ * by reading the footer and probing the index.
+ * <p>
+ * The tag is an HMAC-SHA256 of all the entry bytes followed by the entry count, keyed - as in VerificationCache -
+ * by the password, so that entries cannot be removed, added or altered without the password.
+ */
+final class ManifestFormat {
+
+    static final int MAGIC_NUMBER = 0x4D564D46;
+    static final int FORMAT_VERSION = 1;
+
+    static final int HEADER_SIZE = 5 + TagKeyDeriver.SALT_SIZE;
+    static final int SLOT_SIZE = 16;
+    static final int FOOTER_SIZE = 16 + TagKeyDeriver.TAG_SIZE;
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private ManifestFormat() {
+    }
+
+    /**
+     * 64-bit FNV-1a hash of the UTF-8 bytes of the path.
+     */
+    static long hashPath(String relativePath) {
+        return hashPath(relativePath.getBytes(StandardCharsets.UTF_8));
+    }
+
+    static long hashPath(byte[] pathBytes) {
+        long hash = FNV_OFFSET_BASIS;
+
+        for (byte pathByte : pathBytes) {
+            hash ^= (pathByte & 0xFF);
+            hash *= FNV_PRIME;
+        }
+
+        return hash;
+    }
+
+    /**
+     * Entry paths must be relative and stay within the tree: empty and absolute paths, as well as paths
+     * having a ".." element - with either separator, as they are resolved on the current platform - are rejected.
+     */
+    static boolean isValidRelativePath(String relativePath) {
+        if (relativePath.isEmpty() || relativePath.startsWith("/") || new File(relativePath).isAbsolute()) {
+            return false;
+        }
+
+        for (String pathElement : relativePath.replace(File.separatorChar, '/').split("/")) {
+            if (pathElement.equals("..")) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    static int getSlotCount(int entryCount) {
+        int slotCount = 2;
+
+        while (slotCount < entryCount * 2) {
+            slotCount <<= 1;
+        }
+
+        return slotCount;
+    }
+}
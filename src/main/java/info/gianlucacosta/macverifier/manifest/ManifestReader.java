@@ -0,0 +1,239 @@
+/*§
+  ===========================================================================
+  MacVerifier
+  ===========================================================================
+  Copyright (C) 2015 Gianluca Costa
+  ===========================================================================
+  Permission is hereby granted, free of charge, to any person obtaining a copy
+  of this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+  THE SOFTWARE.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.macverifier.manifest;
+
+import info.gianlucacosta.macverifier.cache.TagKeyDeriver;
+import info.gianlucacosta.macverifier.mac.MacResult;
+import info.gianlucacosta.macverifier.storage.BinaryMacResultFormat;
+
+import javax.crypto.Mac;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Reads a manifest file, supporting both O(1) lookup by relative path and streaming of all the entries.
+ * <p>
+ * Entries are trusted only once isAuthentic() has checked the tag of the entry table; entries having
+ * a path that is absolute or leaves the tree are rejected anyway.
+ * <p>
+ * Lookups are thread-safe; every entry iterator has its own stream.
+ */
+public class ManifestReader implements Closeable {
+
+    private final File manifestFile;
+    private final RandomAccessFile randomAccessFile;
+
+    private final byte[] salt = new byte[TagKeyDeriver.SALT_SIZE];
+    private final long indexOffset;
+    private final int entryCount;
+    private final byte[] tag = new byte[TagKeyDeriver.TAG_SIZE];
+    private final int slotCount;
+
+    public ManifestReader(File manifestFile) throws IOException {
+        this.manifestFile = manifestFile;
+        this.randomAccessFile = new RandomAccessFile(manifestFile, "r");
+
+        try {
+            if (randomAccessFile.length() < ManifestFormat.HEADER_SIZE + 4 + ManifestFormat.FOOTER_SIZE
+                    || randomAccessFile.readInt() != ManifestFormat.MAGIC_NUMBER) {
+                throw new IOException("Invalid manifest file");
+            }
+
+            int formatVersion = randomAccessFile.readUnsignedByte();
+            if (formatVersion != ManifestFormat.FORMAT_VERSION) {
+                throw new IOException(
+                        String.format("Unsupported manifest version: %d", formatVersion)
+                );
+            }
+
+            randomAccessFile.readFully(salt);
+
+            randomAccessFile.seek(randomAccessFile.length() - ManifestFormat.FOOTER_SIZE);
+            indexOffset = randomAccessFile.readLong();
+            entryCount = randomAccessFile.readInt();
+            randomAccessFile.readFully(tag);
+
+            if (randomAccessFile.readInt() != ManifestFormat.MAGIC_NUMBER) {
+                throw new IOException("Truncated manifest file");
+            }
+
+            if (indexOffset < ManifestFormat.HEADER_SIZE || indexOffset > randomAccessFile.length() - ManifestFormat.FOOTER_SIZE - 4) {
+                throw new IOException("Invalid manifest index");
+            }
+
+            randomAccessFile.seek(indexOffset);
+            slotCount = randomAccessFile.readInt();
+
+            if (Integer.bitCount(slotCount) != 1 || slotCount < entryCount) {
+                throw new IOException("Invalid manifest index");
+            }
+        } catch (IOException ex) {
+            randomAccessFile.close();
+            throw ex;
+        }
+    }
+
+    public int getEntryCount() {
+        return entryCount;
+    }
+
+    /**
+     * Returns true if the tag of the entry table matches the password - that is, if no entry
+     * was removed, added or altered since the manifest was written with the same password.
+     */
+    public boolean isAuthentic(String password) throws IOException {
+        Mac tagMac = TagKeyDeriver.createTagMac(new TagKeyDeriver(salt).getTagKey(password));
+
+        try (FileInputStream entryInputStream = new FileInputStream(manifestFile)) {
+            entryInputStream.getChannel().position(ManifestFormat.HEADER_SIZE);
+
+            byte[] buffer = new byte[64 * 1024];
+            long remainingLength = indexOffset - ManifestFormat.HEADER_SIZE;
+
+            while (remainingLength > 0) {
+                int readLength = entryInputStream.read(buffer, 0, (int) Math.min(buffer.length, remainingLength));
+
+                if (readLength == -1) {
+                    throw new EOFException();
+                }
+
+                tagMac.update(buffer, 0, readLength);
+                remainingLength -= readLength;
+            }
+        }
+
+        tagMac.update(ByteBuffer.allocate(4).putInt(0, entryCount));
+
+        return MessageDigest.isEqual(tag, tagMac.doFinal());
+    }
+
+    /**
+     * Returns the entry having the given relative path, or null if there is none.
+     */
+    public synchronized ManifestEntry lookup(String relativePath) throws IOException {
+        long pathHash = ManifestFormat.hashPath(relativePath);
+        int slot = (int) (pathHash & (slotCount - 1));
+
+        for (int probeCount = 0; probeCount < slotCount; probeCount++) {
+            randomAccessFile.seek(indexOffset + 4 + (long) slot * ManifestFormat.SLOT_SIZE);
+
+            long slotHash = randomAccessFile.readLong();
+            long slotOffset = randomAccessFile.readLong();
+
+            if (slotOffset == 0) {
+                return null;
+            }
+
+            if (slotHash == pathHash) {
+                if (slotOffset - 1 < ManifestFormat.HEADER_SIZE || slotOffset - 1 >= indexOffset) {
+                    throw new IOException("Invalid manifest index");
+                }
+
+                randomAccessFile.seek(slotOffset - 1);
+                ManifestEntry entry = readEntry(randomAccessFile);
+
+                if (entry.getRelativePath().equals(relativePath)) {
+                    return entry;
+                }
+            }
+
+            slot = (slot + 1) & (slotCount - 1);
+        }
+
+        return null;
+    }
+
+    /**
+     * Streams all the entries, in the order they were written; the iterator
+     * throws UncheckedIOException on read errors.
+     */
+    public Iterator<ManifestEntry> iterateEntries() throws IOException {
+        final DataInputStream entryInputStream = new DataInputStream(new BufferedInputStream(new FileInputStream(manifestFile)));
+
+        entryInputStream.skipBytes(ManifestFormat.HEADER_SIZE);
+
+        return new Iterator<ManifestEntry>() {
+            private int readEntryCount;
+
+            @Override
+            public boolean hasNext() {
+                if (readEntryCount < entryCount) {
+                    return true;
+                }
+
+                closeQuietly(entryInputStream);
+                return false;
+            }
+
+            @Override
+            public ManifestEntry next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+
+                try {
+                    ManifestEntry entry = readEntry(entryInputStream);
+                    readEntryCount++;
+                    return entry;
+                } catch (IOException ex) {
+                    closeQuietly(entryInputStream);
+                    throw new UncheckedIOException(ex);
+                }
+            }
+        };
+    }
+
+    private static ManifestEntry readEntry(DataInput input) throws IOException {
+        String relativePath = input.readUTF();
+
+        if (!ManifestFormat.isValidRelativePath(relativePath)) {
+            throw new IOException(String.format("Invalid manifest entry path: '%s'", relativePath));
+        }
+
+        long length = input.readLong();
+        long lastModified = input.readLong();
+        MacResult macResult = BinaryMacResultFormat.read(input);
+
+        return new ManifestEntry(relativePath, length, lastModified, macResult);
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException ex) {
+            //Just ignore
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        randomAccessFile.close();
+    }
+}
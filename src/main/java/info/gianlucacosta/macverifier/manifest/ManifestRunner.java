@@ -0,0 +1,354 @@
+/*§
+  ===========================================================================
+  MacVerifier
+  ===========================================================================
+  Copyright (C) 2015 Gianluca Costa
+  ===========================================================================
+  Permission is hereby granted, free of charge, to any person obtaining a copy
+  of this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+  THE SOFTWARE.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.macverifier.manifest;
+
+import info.gianlucacosta.macverifier.batch.BatchSummary;
+import info.gianlucacosta.macverifier.batch.MainFileCollector;
+import info.gianlucacosta.macverifier.batch.OrderedWorkerPool;
+import info.gianlucacosta.macverifier.batch.SummaryResultHandler;
+import info.gianlucacosta.macverifier.engine.FileOutcome;
+import info.gianlucacosta.macverifier.engine.MacFileEngine;
+import info.gianlucacosta.macverifier.engine.MacFileEngineFactory;
+import info.gianlucacosta.macverifier.mac.MacResult;
+import info.gianlucacosta.macverifier.ui.UserInterface;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Creates, verifies and updates the manifest of a directory tree - a single file containing the MacResult
+ * of every main file in the tree, instead of one MAC file per main file.
+ * <p>
+ * Main files are processed by an OrderedWorkerPool, while the manifest is written - or read - as a stream
+ * on the calling thread; new manifests are written to a temporary file, then atomically moved in place.
+ * When updating, the current manifest is first loaded into a compact ManifestTable; its entries are kept
+ * for the main files that cannot be processed, so that transient errors never drop them.
+ * <p>
+ * Before verifying or updating, the tag of the entry table is checked against the password.
+ */
+public class ManifestRunner {
+
+    private static final String TEMP_FILE_EXTENSION = ".tmp";
+
+    private final UserInterface userInterface;
+    private final MacFileEngineFactory macFileEngineFactory;
+    private final OrderedWorkerPool workerPool;
+
+    public ManifestRunner(UserInterface userInterface, MacFileEngineFactory macFileEngineFactory, int threadCount) {
+        this(userInterface, macFileEngineFactory, new OrderedWorkerPool(macFileEngineFactory, threadCount));
+    }
+
+    public ManifestRunner(UserInterface userInterface, MacFileEngineFactory macFileEngineFactory, OrderedWorkerPool workerPool) {
+        this.userInterface = userInterface;
+        this.macFileEngineFactory = macFileEngineFactory;
+        this.workerPool = workerPool;
+    }
+
+    /**
+     * Signs every main file in the tree, writing a new manifest.
+     */
+    public BatchSummary create(File rootDirectory, File manifestFile, final String password) throws IOException {
+        return update(rootDirectory, manifestFile, collectMainFiles(rootDirectory, manifestFile), null, password);
+    }
+
+    /**
+     * Writes a new manifest for the tree, reusing the entries of the current one for the main files
+     * whose length and modification time are unchanged: only new and modified files are signed,
+     * while the entries of deleted files are dropped.
+     * <p>
+     * The password is first checked against an unchanged main file, so that a mistyped password
+     * cannot produce a manifest mixing entries signed with different keys.
+     */
+    public BatchSummary update(final File rootDirectory, File manifestFile, final String password) throws IOException {
+        if (!manifestFile.isFile()) {
+            throw new IOException("Inexisting manifest file");
+        }
+
+        //Workers look up the current entries concurrently, without locking nor seeking
+        ManifestTable currentManifestTable;
+        try (ManifestReader currentManifestReader = new ManifestReader(manifestFile)) {
+            checkAuthentic(currentManifestReader, password);
+            currentManifestTable = ManifestTable.load(currentManifestReader);
+        }
+
+        List<File> mainFiles = collectMainFiles(rootDirectory, manifestFile);
+
+        checkPassword(rootDirectory, mainFiles, currentManifestTable, password);
+
+        BatchSummary summary = update(rootDirectory, manifestFile, mainFiles, currentManifestTable, password);
+
+        //Only the entries whose main file no longer exists are dropped
+        int existingEntryCount = 0;
+        for (File mainFile : mainFiles) {
+            if (currentManifestTable.lookup(getRelativePath(rootDirectory, mainFile)) != null) {
+                existingEntryCount++;
+            }
+        }
+
+        userInterface.println(
+                String.format("Entries of deleted files: %d", currentManifestTable.getEntryCount() - existingEntryCount)
+        );
+
+        return summary;
+    }
+
+    private static void checkAuthentic(ManifestReader manifestReader, String password) throws IOException {
+        if (!manifestReader.isAuthentic(password)) {
+            throw new IOException("The manifest entries have been tampered with! Or did you type the wrong password?");
+        }
+    }
+
+    /**
+     * Verifies the first main file whose entry would be reused as it is.
+     */
+    private void checkPassword(File rootDirectory, List<File> mainFiles, ManifestTable currentManifestTable, String password) throws IOException {
+        for (File mainFile : mainFiles) {
+            ManifestEntry currentEntry = currentManifestTable.lookup(getRelativePath(rootDirectory, mainFile));
+
+            if (currentEntry != null && isUnchanged(currentEntry, mainFile.length(), mainFile.lastModified())) {
+                FileOutcome outcome = macFileEngineFactory
+                        .createMacFileEngine()
+                        .verifyMacResult(mainFile, currentEntry.getMacResult(), password);
+
+                if (outcome != FileOutcome.PASSED) {
+                    throw new IOException(
+                            String.format("The password does not match the manifest - or '%s' was altered", mainFile)
+                    );
+                }
+
+                return;
+            }
+        }
+    }
+
+    private BatchSummary update(final File rootDirectory, File manifestFile, List<File> mainFiles, final ManifestTable currentManifestTable, final String password) throws IOException {
+        userInterface.println(String.format("%d files to process", mainFiles.size()));
+
+        File tempManifestFile = new File(manifestFile.getPath() + TEMP_FILE_EXTENSION);
+        BatchSummary summary = new BatchSummary();
+
+        try (final ManifestWriter manifestWriter = new ManifestWriter(tempManifestFile, password)) {
+            final SummaryResultHandler<File> summaryHandler = createSummaryHandler(summary);
+
+            workerPool.run(
+                    mainFiles.iterator(),
+                    new OrderedWorkerPool.ItemProcessor<File, SigningResult>() {
+                        @Override
+                        public SigningResult process(MacFileEngine macFileEngine, File mainFile) throws Exception {
+                            return sign(macFileEngine, rootDirectory, mainFile, currentManifestTable, password);
+                        }
+                    },
+                    new OrderedWorkerPool.ResultHandler<File, SigningResult>() {
+                        @Override
+                        public void handleResult(File mainFile, SigningResult result) {
+                            try {
+                                manifestWriter.add(result.entry);
+                            } catch (IOException ex) {
+                                throw new RuntimeException(ex);
+                            }
+
+                            summaryHandler.handleResult(mainFile, result.outcome);
+                        }
+
+                        @Override
+                        public void handleFailure(File mainFile, Throwable failure) {
+                            ManifestEntry currentEntry = (currentManifestTable != null) ?
+                                    currentManifestTable.lookup(getRelativePath(rootDirectory, mainFile))
+                                    :
+                                    null;
+
+                            if (currentEntry != null) {
+                                try {
+                                    manifestWriter.add(currentEntry);
+                                } catch (IOException ex) {
+                                    throw new RuntimeException(ex);
+                                }
+                            }
+
+                            summaryHandler.handleFailure(mainFile, failure);
+                        }
+                    }
+            );
+        } catch (IOException | RuntimeException ex) {
+            Files.deleteIfExists(tempManifestFile.toPath());
+            throw ex;
+        }
+
+        Files.move(
+                tempManifestFile.toPath(),
+                manifestFile.toPath(),
+                StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE
+        );
+
+        return summary;
+    }
+
+    private static SigningResult sign(MacFileEngine macFileEngine, File rootDirectory, File mainFile, ManifestTable currentManifestTable, String password) throws IOException {
+        String relativePath = getRelativePath(rootDirectory, mainFile);
+
+        //Read before the MAC, so that changes made in the meantime are detected by the next update
+        long length = mainFile.length();
+        long lastModified = mainFile.lastModified();
+
+        ManifestEntry currentEntry = (currentManifestTable != null) ?
+                currentManifestTable.lookup(relativePath)
+                :
+                null;
+
+        if (currentEntry != null && isUnchanged(currentEntry, length, lastModified)) {
+            return new SigningResult(FileOutcome.UNCHANGED, currentEntry);
+        }
+
+        MacResult macResult = macFileEngine.computeMacResult(mainFile, password);
+
+        return new SigningResult(
+                (currentEntry != null) ? FileOutcome.UPDATED : FileOutcome.CREATED,
+                new ManifestEntry(relativePath, length, lastModified, macResult)
+        );
+    }
+
+    private static boolean isUnchanged(ManifestEntry entry, long length, long lastModified) {
+        return entry.getLength() == length && entry.getLastModified() == lastModified;
+    }
+
+    /**
+     * Verifies every main file listed in the manifest, streaming its entries; then, main files
+     * of the tree not listed in the manifest are reported as MISSING.
+     */
+    public BatchSummary verify(final File rootDirectory, File manifestFile, final String password) throws IOException {
+        BatchSummary summary = new BatchSummary();
+
+        try (ManifestReader manifestReader = new ManifestReader(manifestFile)) {
+            checkAuthentic(manifestReader, password);
+
+            userInterface.println(String.format("%d files to process", manifestReader.getEntryCount()));
+
+            Iterator<ManifestEntry> entries = manifestReader.iterateEntries();
+
+            workerPool.run(
+                    entries,
+                    new OrderedWorkerPool.ItemProcessor<ManifestEntry, FileOutcome>() {
+                        @Override
+                        public FileOutcome process(MacFileEngine macFileEngine, ManifestEntry entry) throws Exception {
+                            File mainFile = getMainFile(rootDirectory, entry.getRelativePath());
+
+                            if (!mainFile.isFile()) {
+                                return FileOutcome.MISSING;
+                            }
+
+                            return macFileEngine.verifyMacResult(mainFile, entry.getMacResult(), password);
+                        }
+                    },
+                    new SummaryResultHandler<ManifestEntry>(userInterface, summary) {
+                        @Override
+                        protected String getPath(ManifestEntry entry) {
+                            return entry.getRelativePath();
+                        }
+                    }
+            );
+
+            reportUnlisted(rootDirectory, manifestFile, manifestReader, summary);
+        }
+
+        return summary;
+    }
+
+    private void reportUnlisted(File rootDirectory, File manifestFile, ManifestReader manifestReader, BatchSummary summary) throws IOException {
+        SummaryResultHandler<String> unlistedHandler = new SummaryResultHandler<String>(userInterface, summary) {
+            @Override
+            protected String getPath(String relativePath) {
+                return relativePath;
+            }
+        };
+
+        for (File mainFile : collectMainFiles(rootDirectory, manifestFile)) {
+            String relativePath = getRelativePath(rootDirectory, mainFile);
+
+            if (manifestReader.lookup(relativePath) == null) {
+                unlistedHandler.handleResult(relativePath, FileOutcome.MISSING);
+            }
+        }
+    }
+
+    private List<File> collectMainFiles(File rootDirectory, File manifestFile) throws IOException {
+        List<File> mainFiles = new MainFileCollector(macFileEngineFactory.getMacStorageService())
+                .collectFromDirectory(rootDirectory);
+
+        File canonicalManifestFile = manifestFile.getCanonicalFile();
+        File canonicalTempManifestFile = new File(canonicalManifestFile.getPath() + TEMP_FILE_EXTENSION);
+
+        Iterator<File> mainFileIterator = mainFiles.iterator();
+        while (mainFileIterator.hasNext()) {
+            File canonicalMainFile = mainFileIterator.next().getCanonicalFile();
+
+            if (canonicalMainFile.equals(canonicalManifestFile) || canonicalMainFile.equals(canonicalTempManifestFile)) {
+                mainFileIterator.remove();
+            }
+        }
+
+        return mainFiles;
+    }
+
+    private SummaryResultHandler<File> createSummaryHandler(BatchSummary summary) {
+        return new SummaryResultHandler<File>(userInterface, summary) {
+            @Override
+            protected String getPath(File mainFile) {
+                return mainFile.getPath();
+            }
+        };
+    }
+
+    /**
+     * Manifest paths always employ '/' as separator, to be portable across platforms.
+     */
+    private static String getRelativePath(File rootDirectory, File mainFile) {
+        return rootDirectory.toPath()
+                .relativize(mainFile.toPath())
+                .toString()
+                .replace(File.separatorChar, '/');
+    }
+
+    private static File getMainFile(File rootDirectory, String relativePath) {
+        return new File(rootDirectory, relativePath.replace('/', File.separatorChar));
+    }
+
+
+    private static class SigningResult {
+        final FileOutcome outcome;
+        final ManifestEntry entry;
+
+        SigningResult(FileOutcome outcome, ManifestEntry entry) {
+            this.outcome = outcome;
+            this.entry = entry;
+        }
+    }
+}
@@ -0,0 +1,172 @@
+/*§
+  ===========================================================================
+  MacVerifier
+  ===========================================================================
+  Copyright (C) 2015 Gianluca Costa
+  ===========================================================================
+  Permission is hereby granted, free of charge, to any person obtaining a copy
+  of this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+  THE SOFTWARE.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.macverifier.manifest;
+
+import info.gianlucacosta.macverifier.mac.MacResult;
+import info.gianlucacosta.macverifier.mac.PackedMacResults;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * In-memory, read-only copy of a manifest, supporting lock-free O(1) lookups by relative path.
+ * <p>
+ * Entries are stored in primitive arrays - relative paths as UTF-8 bytes in a shared pool,
+ * results in PackedMacResults - so that memory per entry stays close to the size of its data
+ * even for millions of entries.
+ */
+public class ManifestTable {
+
+    /**
+     * Reads all the entries of the manifest.
+     */
+    public static ManifestTable load(ManifestReader manifestReader) throws IOException {
+        int entryCount = manifestReader.getEntryCount();
+        ManifestTable table = new ManifestTable(entryCount);
+
+        try {
+            Iterator<ManifestEntry> entries = manifestReader.iterateEntries();
+
+            while (entries.hasNext()) {
+                table.add(entries.next());
+            }
+        } catch (UncheckedIOException ex) {
+            throw ex.getCause();
+        }
+
+        return table;
+    }
+
+    private final int[] pathOffsets;
+    private byte[] pathPool;
+    private int pathPoolSize;
+
+    private final long[] lengths;
+    private final long[] lastModifiedTimes;
+    private final PackedMacResults macResults;
+
+    /**
+     * Open-addressing index, with linear probing: every slot contains an entry index plus 1, or 0 if empty.
+     */
+    private final int[] slots;
+
+    private int entryCount;
+
+    private ManifestTable(int capacity) {
+        pathOffsets = new int[capacity + 1];
+        pathPool = new byte[Math.max(capacity * 32, 16)];
+
+        lengths = new long[capacity];
+        lastModifiedTimes = new long[capacity];
+        macResults = new PackedMacResults(capacity);
+
+        slots = new int[ManifestFormat.getSlotCount(capacity)];
+    }
+
+    private void add(ManifestEntry entry) throws IOException {
+        if (entryCount == lengths.length) {
+            throw new IOException("The manifest contains more entries than declared");
+        }
+
+        byte[] pathBytes = entry.getRelativePath().getBytes(StandardCharsets.UTF_8);
+
+        if (pathPoolSize + pathBytes.length > pathPool.length) {
+            pathPool = Arrays.copyOf(pathPool, Math.max(pathPool.length * 2, pathPoolSize + pathBytes.length));
+        }
+
+        System.arraycopy(pathBytes, 0, pathPool, pathPoolSize, pathBytes.length);
+        pathPoolSize += pathBytes.length;
+
+        int entryIndex = entryCount;
+
+        pathOffsets[entryIndex + 1] = pathPoolSize;
+        lengths[entryIndex] = entry.getLength();
+        lastModifiedTimes[entryIndex] = entry.getLastModified();
+        macResults.add(entry.getMacResult());
+
+        int slot = getFirstSlot(pathBytes);
+        while (slots[slot] != 0) {
+            slot = (slot + 1) & (slots.length - 1);
+        }
+        slots[slot] = entryIndex + 1;
+
+        entryCount++;
+    }
+
+    public int getEntryCount() {
+        return entryCount;
+    }
+
+    /**
+     * Returns the entry having the given relative path, or null if there is none.
+     */
+    public ManifestEntry lookup(String relativePath) {
+        byte[] pathBytes = relativePath.getBytes(StandardCharsets.UTF_8);
+        int slot = getFirstSlot(pathBytes);
+
+        while (slots[slot] != 0) {
+            int entryIndex = slots[slot] - 1;
+
+            if (hasPath(entryIndex, pathBytes)) {
+                return new ManifestEntry(
+                        relativePath,
+                        lengths[entryIndex],
+                        lastModifiedTimes[entryIndex],
+                        macResults.get(entryIndex)
+                );
+            }
+
+            slot = (slot + 1) & (slots.length - 1);
+        }
+
+        return null;
+    }
+
+    private int getFirstSlot(byte[] pathBytes) {
+        return (int) (ManifestFormat.hashPath(pathBytes) & (slots.length - 1));
+    }
+
+    private boolean hasPath(int entryIndex, byte[] pathBytes) {
+        int pathOffset = pathOffsets[entryIndex];
+        int pathLength = pathOffsets[entryIndex + 1] - pathOffset;
+
+        if (pathLength != pathBytes.length) {
+            return false;
+        }
+
+        for (int i = 0; i < pathLength; i++) {
+            if (pathPool[pathOffset + i] != pathBytes[i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+}
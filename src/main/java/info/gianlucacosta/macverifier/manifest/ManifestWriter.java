@@ -0,0 +1,161 @@
+/*§
+  ===========================================================================
+  MacVerifier
+  ===========================================================================
+  Copyright (C) 2015 Gianluca Costa
+  ===========================================================================
+  Permission is hereby granted, free of charge, to any person obtaining a copy
+  of this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+  THE SOFTWARE.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.macverifier.manifest;
+
+import info.gianlucacosta.macverifier.cache.TagKeyDeriver;
+import info.gianlucacosta.macverifier.storage.BinaryMacResultFormat;
+
+import javax.crypto.Mac;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Writes a manifest file as a stream: entries are appended one at a time,
+ * and the lookup index is written when the writer is closed.
+ * <p>
+ * Only the hash and the offset of every entry are kept in memory, while the tag of the entry table
+ * is computed along the way.
+ */
+public class ManifestWriter implements Closeable {
+
+    private final CountingOutputStream countingOutputStream;
+    private final DataOutputStream manifestOutputStream;
+    private final Mac tagMac;
+
+    private final ByteArrayOutputStream entryBytes = new ByteArrayOutputStream();
+    private final DataOutputStream entryOutputStream = new DataOutputStream(entryBytes);
+
+    private long[] pathHashes = new long[1024];
+    private long[] entryOffsets = new long[1024];
+    private int entryCount;
+
+    /**
+     * The entry table is tagged with a key derived from the password and a new salt.
+     */
+    public ManifestWriter(File manifestFile, String password) throws IOException {
+        TagKeyDeriver tagKeyDeriver = new TagKeyDeriver(TagKeyDeriver.createSalt());
+        tagMac = TagKeyDeriver.createTagMac(tagKeyDeriver.getTagKey(password));
+
+        countingOutputStream = new CountingOutputStream(new BufferedOutputStream(new FileOutputStream(manifestFile)));
+        manifestOutputStream = new DataOutputStream(countingOutputStream);
+
+        manifestOutputStream.writeInt(ManifestFormat.MAGIC_NUMBER);
+        manifestOutputStream.writeByte(ManifestFormat.FORMAT_VERSION);
+        manifestOutputStream.write(tagKeyDeriver.getSalt());
+    }
+
+    public int getEntryCount() {
+        return entryCount;
+    }
+
+    public void add(ManifestEntry entry) throws IOException {
+        if (entryCount == pathHashes.length) {
+            pathHashes = Arrays.copyOf(pathHashes, entryCount * 2);
+            entryOffsets = Arrays.copyOf(entryOffsets, entryCount * 2);
+        }
+
+        pathHashes[entryCount] = ManifestFormat.hashPath(entry.getRelativePath());
+        entryOffsets[entryCount] = countingOutputStream.getByteCount();
+        entryCount++;
+
+        entryBytes.reset();
+        entryOutputStream.writeUTF(entry.getRelativePath());
+        entryOutputStream.writeLong(entry.getLength());
+        entryOutputStream.writeLong(entry.getLastModified());
+        BinaryMacResultFormat.write(entryOutputStream, entry.getMacResult());
+
+        tagMac.update(entryBytes.toByteArray());
+        entryBytes.writeTo(manifestOutputStream);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            writeIndex();
+        } finally {
+            manifestOutputStream.close();
+        }
+    }
+
+    private void writeIndex() throws IOException {
+        long indexOffset = countingOutputStream.getByteCount();
+
+        int slotCount = ManifestFormat.getSlotCount(entryCount);
+        long[] slotHashes = new long[slotCount];
+        long[] slotOffsets = new long[slotCount];
+
+        for (int i = 0; i < entryCount; i++) {
+            int slot = (int) (pathHashes[i] & (slotCount - 1));
+
+            while (slotOffsets[slot] != 0) {
+                slot = (slot + 1) & (slotCount - 1);
+            }
+
+            slotHashes[slot] = pathHashes[i];
+            slotOffsets[slot] = entryOffsets[i] + 1;
+        }
+
+        manifestOutputStream.writeInt(slotCount);
+        for (int slot = 0; slot < slotCount; slot++) {
+            manifestOutputStream.writeLong(slotHashes[slot]);
+            manifestOutputStream.writeLong(slotOffsets[slot]);
+        }
+
+        tagMac.update(ByteBuffer.allocate(4).putInt(0, entryCount));
+
+        manifestOutputStream.writeLong(indexOffset);
+        manifestOutputStream.writeInt(entryCount);
+        manifestOutputStream.write(tagMac.doFinal());
+        manifestOutputStream.writeInt(ManifestFormat.MAGIC_NUMBER);
+    }
+
+
+    private static class CountingOutputStream extends FilterOutputStream {
+        private long byteCount;
+
+        CountingOutputStream(OutputStream outputStream) {
+            super(outputStream);
+        }
+
+        long getByteCount() {
+            return byteCount;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            byteCount++;
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            out.write(bytes, offset, length);
+            byteCount += length;
+        }
+    }
+}
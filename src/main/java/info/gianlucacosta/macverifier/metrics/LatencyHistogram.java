@@ -0,0 +1,106 @@
+/*§
+  ===========================================================================
+  MacVerifier
+  ===========================================================================
+  Copyright (C) 2015 Gianluca Costa
+  ===========================================================================
+  Permission is hereby granted, free of charge, to any person obtaining a copy
+  of this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+  THE SOFTWARE.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.macverifier.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free latency histogram having power-of-2 buckets: bucket <i>i</i> counts the latencies
+ * in [2<sup>i-1</sup>, 2<sup>i</sup>) nanoseconds, so percentiles are approximated within a factor of 2.
+ */
+public class LatencyHistogram {
+
+    private static final int BUCKET_COUNT = 64;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    public void record(long nanos) {
+        long latency = Math.max(nanos, 0);
+
+        buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(latency));
+        count.increment();
+        totalNanos.add(latency);
+
+        long currentMax;
+        do {
+            currentMax = maxNanos.get();
+        } while (latency > currentMax && !maxNanos.compareAndSet(currentMax, latency));
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getTotalNanos() {
+        return totalNanos.sum();
+    }
+
+    public long getMaxNanos() {
+        return maxNanos.get();
+    }
+
+    public long getMeanNanos() {
+        long currentCount = getCount();
+
+        return (currentCount > 0) ?
+                getTotalNanos() / currentCount
+                :
+                0;
+    }
+
+    /**
+     * Returns the upper bound of the bucket containing the given percentile - between 0 and 100 -
+     * capped by the maximum latency; 0 if nothing was recorded.
+     */
+    public long getPercentileNanos(double percentile) {
+        long currentCount = getCount();
+
+        if (currentCount == 0) {
+            return 0;
+        }
+
+        long targetRank = (long) Math.ceil(currentCount * percentile / 100);
+        long cumulativeCount = 0;
+
+        for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+            cumulativeCount += buckets.get(bucket);
+
+            if (cumulativeCount >= targetRank) {
+                long upperBound = (bucket >= 63) ? Long.MAX_VALUE : (1L << bucket);
+
+                return Math.min(upperBound, getMaxNanos());
+            }
+        }
+
+        return getMaxNanos();
+    }
+}
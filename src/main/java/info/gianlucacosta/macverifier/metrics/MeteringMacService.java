@@ -0,0 +1,256 @@
+/*§
+  ===========================================================================
+  MacVerifier
+  ===========================================================================
+  Copyright (C) 2015 Gianluca Costa
+  ===========================================================================
+  Permission is hereby granted, free of charge, to any person obtaining a copy
+  of this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+  THE SOFTWARE.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.macverifier.metrics;
+
+import info.gianlucacosta.macverifier.mac.*;
+import info.gianlucacosta.macverifier.mac.tree.TreeMacComputer;
+
+import javax.crypto.Mac;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.security.Key;
+import java.util.function.Consumer;
+
+/**
+ * Decorator recording into RunMetrics the key derivations and the MAC computations of another service,
+ * along with the hashed bytes; when wrapped by a CachingMacService, only actual derivations are recorded.
+ */
+public class MeteringMacService implements KeyedMacService {
+
+    private final KeyedMacService keyedMacService;
+    private final RunMetrics metrics;
+
+    public MeteringMacService(KeyedMacService keyedMacService, RunMetrics metrics) {
+        this.keyedMacService = keyedMacService;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public String getAlgorithmId() {
+        return keyedMacService.getAlgorithmId();
+    }
+
+    @Override
+    public KdfParameters getKdfParameters() {
+        return keyedMacService.getKdfParameters();
+    }
+
+    @Override
+    public KdfParameters getDefaultKdfParameters() {
+        return keyedMacService.getDefaultKdfParameters();
+    }
+
+    @Override
+    public byte[] createSalt() {
+        return keyedMacService.createSalt();
+    }
+
+    @Override
+    public Key createMacKey(String password, byte[] salt, KdfParameters kdfParameters) {
+        long startNanos = System.nanoTime();
+
+        Key result = keyedMacService.createMacKey(password, salt, kdfParameters);
+
+        metrics.recordSince(Stage.KEY_DERIVATION, startNanos);
+
+        return result;
+    }
+
+    @Override
+    public MacResult computeMac(String password, byte[] salt, InputStream mainStream) throws IOException {
+        return computeMac(createMacKey(password, salt), salt, mainStream);
+    }
+
+    @Override
+    public MacResult computeMac(Key macKey, byte[] salt, InputStream sourceStream) throws IOException {
+        long startNanos = System.nanoTime();
+        CountingInputStream countingStream = new CountingInputStream(sourceStream);
+
+        MacResult result = keyedMacService.computeMac(macKey, salt, countingStream);
+
+        recordHashing(startNanos, countingStream.byteCount);
+
+        return result;
+    }
+
+    @Override
+    public MacResult computeMac(String password, byte[] salt, File mainFile) throws IOException {
+        return computeMac(createMacKey(password, salt), salt, mainFile);
+    }
+
+    @Override
+    public MacResult computeMac(Key macKey, byte[] salt, File sourceFile) throws IOException {
+        long startNanos = System.nanoTime();
+
+        MacResult result = keyedMacService.computeMac(macKey, salt, sourceFile);
+
+        recordHashing(startNanos, sourceFile.length());
+
+        return result;
+    }
+
+    @Override
+    public MacResult computeMatchingMac(String password, MacResult referenceResult, File mainFile) throws IOException {
+        return computeMatchingMac(createMatchingMacKey(password, referenceResult), referenceResult, mainFile);
+    }
+
+    @Override
+    public MacResult computeMatchingMac(Key macKey, MacResult referenceResult, File sourceFile) throws IOException {
+        long startNanos = System.nanoTime();
+
+        MacResult result = keyedMacService.computeMatchingMac(macKey, referenceResult, sourceFile);
+
+        recordHashing(startNanos, sourceFile.length());
+
+        return result;
+    }
+
+    /**
+     * Checkpoints are timed as hashing, but not counted as hashed files.
+     */
+    @Override
+    public MacCheckpoint computeCheckpoint(Key macKey, File sourceFile, long prefixLength) throws IOException {
+        long startNanos = System.nanoTime();
+
+        MacCheckpoint result = keyedMacService.computeCheckpoint(macKey, sourceFile, prefixLength);
+
+        metrics.recordSince(Stage.HASHING, startNanos);
+
+        return result;
+    }
+
+    @Override
+    public Mac createCheckpointMac(Key macKey, long prefixLength) {
+        return keyedMacService.createCheckpointMac(macKey, prefixLength);
+    }
+
+    @Override
+    public MacResult computeMacWithCheckpoint(Key macKey, byte[] salt, File sourceFile, long prefixLength) throws IOException {
+        long startNanos = System.nanoTime();
+
+        MacResult result = keyedMacService.computeMacWithCheckpoint(macKey, salt, sourceFile, prefixLength);
+
+        recordHashing(startNanos, sourceFile.length());
+
+        return result;
+    }
+
+    /**
+     * Sources failing their checkpoint are timed as hashing, but not counted as hashed files.
+     */
+    @Override
+    public MacResult computeCheckedMatchingMac(Key macKey, MacResult referenceResult, File sourceFile) throws IOException {
+        long startNanos = System.nanoTime();
+
+        MacResult result = keyedMacService.computeCheckedMatchingMac(macKey, referenceResult, sourceFile);
+
+        if (result != null) {
+            recordHashing(startNanos, sourceFile.length());
+        } else {
+            metrics.recordSince(Stage.HASHING, startNanos);
+        }
+
+        return result;
+    }
+
+    /**
+     * Reading is timed as hashing, including the time spent by the consumer.
+     */
+    @Override
+    public void readSource(File sourceFile, Consumer<ByteBuffer> bufferConsumer) throws IOException {
+        long startNanos = System.nanoTime();
+
+        keyedMacService.readSource(sourceFile, bufferConsumer);
+
+        recordHashing(startNanos, sourceFile.length());
+    }
+
+    @Override
+    public StreamingMac createStreamingMac(Key macKey, byte[] salt) {
+        return keyedMacService.createStreamingMac(macKey, salt);
+    }
+
+    @Override
+    public StreamingMac createMatchingStreamingMac(Key macKey, MacResult referenceResult) throws IOException {
+        return keyedMacService.createMatchingStreamingMac(macKey, referenceResult);
+    }
+
+    @Override
+    public TreeMacComputer getTreeMacComputer() {
+        return keyedMacService.getTreeMacComputer();
+    }
+
+    @Override
+    public int getTreeChunkSize() {
+        return keyedMacService.getTreeChunkSize();
+    }
+
+    private void recordHashing(long startNanos, long byteCount) {
+        metrics.recordSince(Stage.HASHING, startNanos);
+        metrics.addHashedSource(byteCount);
+    }
+
+
+    private static class CountingInputStream extends FilterInputStream {
+        long byteCount;
+
+        CountingInputStream(InputStream inputStream) {
+            super(inputStream);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int result = super.read();
+
+            if (result != -1) {
+                byteCount++;
+            }
+
+            return result;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int result = super.read(buffer, offset, length);
+
+            if (result > 0) {
+                byteCount += result;
+            }
+
+            return result;
+        }
+
+        @Override
+        public long skip(long count) throws IOException {
+            long result = super.skip(count);
+
+            byteCount += result;
+
+            return result;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+/*§
+  ===========================================================================
+  MacVerifier
+  ===========================================================================
+  Copyright (C) 2015 Gianluca Costa
+  ===========================================================================
+  Permission is hereby granted, free of charge, to any person obtaining a copy
+  of this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+  THE SOFTWARE.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.macverifier.metrics;
+
+import info.gianlucacosta.macverifier.mac.MacResult;
+import info.gianlucacosta.macverifier.storage.MacStorageService;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Decorator recording into RunMetrics the MAC file reads and writes of another MacStorageService.
+ */
+public class MeteringMacStorageService implements MacStorageService {
+
+    private final MacStorageService macStorageService;
+    private final RunMetrics metrics;
+
+    public MeteringMacStorageService(MacStorageService macStorageService, RunMetrics metrics) {
+        this.macStorageService = macStorageService;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public File getMacFile(File mainFile) {
+        return macStorageService.getMacFile(mainFile);
+    }
+
+    @Override
+    public File getMacFile(File mainFile, String algorithmId) {
+        return macStorageService.getMacFile(mainFile, algorithmId);
+    }
+
+    @Override
+    public File getChunkIndexFile(File mainFile) {
+        return macStorageService.getChunkIndexFile(mainFile);
+    }
+
+    @Override
+    public boolean isMacFile(File file) {
+        return macStorageService.isMacFile(file);
+    }
+
+    @Override
+    public MacResult readMacResult(File macFile) throws IOException {
+        long startNanos = System.nanoTime();
+
+        MacResult result = macStorageService.readMacResult(macFile);
+
+        metrics.recordSince(Stage.MAC_FILE_READ, startNanos);
+
+        return result;
+    }
+
+    @Override
+    public void writeMacResult(File macFile, MacResult macResult) throws IOException {
+        long startNanos = System.nanoTime();
+
+        macStorageService.writeMacResult(macFile, macResult);
+
+        metrics.recordSince(Stage.MAC_FILE_WRITE, startNanos);
+    }
+}
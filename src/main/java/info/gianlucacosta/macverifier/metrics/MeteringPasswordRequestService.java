@@ -0,0 +1,54 @@
+/*§
+  ===========================================================================
+  MacVerifier
+  ===========================================================================
+  Copyright (C) 2015 Gianluca Costa
+  ===========================================================================
+  Permission is hereby granted, free of charge, to any person obtaining a copy
+  of this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+  THE SOFTWARE.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.macverifier.metrics;
+
+import info.gianlucacosta.macverifier.password.request.PasswordRequestService;
+
+/**
+ * Decorator recording into RunMetrics the time spent by the user at the password prompt.
+ */
+public class MeteringPasswordRequestService implements PasswordRequestService {
+
+    private final PasswordRequestService passwordRequestService;
+    private final RunMetrics metrics;
+
+    public MeteringPasswordRequestService(PasswordRequestService passwordRequestService, RunMetrics metrics) {
+        this.passwordRequestService = passwordRequestService;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public String requestPassword(String prompt) {
+        long startNanos = System.nanoTime();
+
+        String result = passwordRequestService.requestPassword(prompt);
+
+        metrics.recordSince(Stage.PASSWORD_PROMPT, startNanos);
+
+        return result;
+    }
+}
@@ -0,0 +1,217 @@
+/*§
+  ===========================================================================
+  MacVerifier
+  ===========================================================================
+  Copyright (C) 2015 Gianluca Costa
+  ===========================================================================
+  Permission is hereby granted, free of charge, to any person obtaining a copy
+  of this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+  THE SOFTWARE.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.macverifier.metrics;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Thread-safe counters and latency histograms of a run - one histogram per Stage -
+ * exportable as a JSON summary, as a progress line or via JMX.
+ * <p>
+ * DISABLED ignores every measurement, so that instrumented code never needs null checks.
+ */
+public class RunMetrics implements RunMetricsMXBean {
+
+    public static final RunMetrics DISABLED = new RunMetrics(false);
+
+    private final boolean enabled;
+    private final long startNanos = System.nanoTime();
+
+    private final Map<Stage, LatencyHistogram> stageHistograms = new EnumMap<>(Stage.class);
+    private final LongAdder filesHashed = new LongAdder();
+    private final LongAdder bytesHashed = new LongAdder();
+
+    public RunMetrics() {
+        this(true);
+    }
+
+    private RunMetrics(boolean enabled) {
+        this.enabled = enabled;
+
+        for (Stage stage : Stage.values()) {
+            stageHistograms.put(stage, new LatencyHistogram());
+        }
+    }
+
+    /**
+     * Records the time elapsed since startNanos - a System.nanoTime() value - for the given stage.
+     */
+    public void recordSince(Stage stage, long startNanos) {
+        if (enabled) {
+            stageHistograms.get(stage).record(System.nanoTime() - startNanos);
+        }
+    }
+
+    public void addHashedSource(long byteCount) {
+        if (enabled) {
+            filesHashed.increment();
+            bytesHashed.add(byteCount);
+        }
+    }
+
+    /**
+     * Opens a file for reading, recording the FILE_OPEN stage.
+     */
+    public FileChannel openChannel(File sourceFile) throws IOException {
+        long startNanos = System.nanoTime();
+
+        FileChannel result = FileChannel.open(sourceFile.toPath(), StandardOpenOption.READ);
+
+        recordSince(Stage.FILE_OPEN, startNanos);
+
+        return result;
+    }
+
+    public LatencyHistogram getHistogram(Stage stage) {
+        return stageHistograms.get(stage);
+    }
+
+    @Override
+    public long getUptimeMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+
+    @Override
+    public long getFilesHashed() {
+        return filesHashed.sum();
+    }
+
+    @Override
+    public long getBytesHashed() {
+        return bytesHashed.sum();
+    }
+
+    @Override
+    public Map<String, Long> getStageCounts() {
+        Map<String, Long> result = new LinkedHashMap<>();
+
+        for (Stage stage : Stage.values()) {
+            result.put(stage.getKey(), getHistogram(stage).getCount());
+        }
+
+        return result;
+    }
+
+    @Override
+    public Map<String, Long> getStageMeanMicros() {
+        Map<String, Long> result = new LinkedHashMap<>();
+
+        for (Stage stage : Stage.values()) {
+            result.put(stage.getKey(), toMicros(getHistogram(stage).getMeanNanos()));
+        }
+
+        return result;
+    }
+
+    @Override
+    public Map<String, Long> getStageP99Micros() {
+        Map<String, Long> result = new LinkedHashMap<>();
+
+        for (Stage stage : Stage.values()) {
+            result.put(stage.getKey(), toMicros(getHistogram(stage).getPercentileNanos(99)));
+        }
+
+        return result;
+    }
+
+    @Override
+    public Map<String, Long> getStageMaxMicros() {
+        Map<String, Long> result = new LinkedHashMap<>();
+
+        for (Stage stage : Stage.values()) {
+            result.put(stage.getKey(), toMicros(getHistogram(stage).getMaxNanos()));
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns a single line summarizing the throughput so far.
+     */
+    public String formatProgress() {
+        long uptimeMillis = Math.max(getUptimeMillis(), 1);
+        double hashedMebibytes = getBytesHashed() / (1024.0 * 1024);
+
+        return String.format(
+                "Progress: %d files, %.1f MiB hashed - %.1f MiB/s, %d key derivations",
+                getFilesHashed(),
+                hashedMebibytes,
+                hashedMebibytes * 1000 / uptimeMillis,
+                getHistogram(Stage.KEY_DERIVATION).getCount()
+        );
+    }
+
+    /**
+     * Latencies are expressed in microseconds; percentiles are bucket upper bounds.
+     */
+    @Override
+    public String getJsonSummary() {
+        StringBuilder result = new StringBuilder();
+
+        result.append("{\n");
+        result.append(String.format("  \"elapsedMillis\": %d,\n", getUptimeMillis()));
+        result.append(String.format("  \"filesHashed\": %d,\n", getFilesHashed()));
+        result.append(String.format("  \"bytesHashed\": %d,\n", getBytesHashed()));
+        result.append("  \"stages\": {\n");
+
+        Stage[] stages = Stage.values();
+
+        for (int i = 0; i < stages.length; i++) {
+            LatencyHistogram histogram = getHistogram(stages[i]);
+
+            result.append(String.format(
+                    "    \"%s\": {\"count\": %d, \"totalMicros\": %d, \"meanMicros\": %d, \"p50Micros\": %d, \"p90Micros\": %d, \"p99Micros\": %d, \"maxMicros\": %d}%s\n",
+                    stages[i].getKey(),
+                    histogram.getCount(),
+                    toMicros(histogram.getTotalNanos()),
+                    toMicros(histogram.getMeanNanos()),
+                    toMicros(histogram.getPercentileNanos(50)),
+                    toMicros(histogram.getPercentileNanos(90)),
+                    toMicros(histogram.getPercentileNanos(99)),
+                    toMicros(histogram.getMaxNanos()),
+                    (i < stages.length - 1) ? "," : ""
+            ));
+        }
+
+        result.append("  }\n");
+        result.append("}\n");
+
+        return result.toString();
+    }
+
+    private static long toMicros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+}
@@ -0,0 +1,75 @@
+/*§
+  ===========================================================================
+  MacVerifier
+  ===========================================================================
+  Copyright (C) 2015 Gianluca Costa
+  ===========================================================================
+  Permission is hereby granted, free of charge, to any person obtaining a copy
+  of this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+  THE SOFTWARE.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.macverifier.metrics;
+
+/**
+ * Timed stage of a run.
+ */
+public enum Stage {
+    /**
+     * Waiting for the user to type the password - including its confirmation
+     */
+    PASSWORD_PROMPT("passwordPrompt"),
+
+    /**
+     * Deriving a key from a password - only actual derivations, not key cache hits
+     */
+    KEY_DERIVATION("keyDerivation"),
+
+    /**
+     * Opening a source file
+     */
+    FILE_OPEN("fileOpen"),
+
+    /**
+     * Computing the MAC - or the checkpoint - of a source, including opening it
+     */
+    HASHING("hashing"),
+
+    /**
+     * Reading a MAC file
+     */
+    MAC_FILE_READ("macFileRead"),
+
+    /**
+     * Writing a MAC file
+     */
+    MAC_FILE_WRITE("macFileWrite");
+
+    private final String key;
+
+    Stage(String key) {
+        this.key = key;
+    }
+
+    /**
+     * Returns the key of the stage in exported metrics.
+     */
+    public String getKey() {
+        return key;
+    }
+}
@@ -0,0 +1,95 @@
+/*§
+  ===========================================================================
+  MacVerifier
+  ===========================================================================
+  Copyright (C) 2015 Gianluca Costa
+  ===========================================================================
+  Permission is hereby granted, free of charge, to any person obtaining a copy
+  of this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+  THE SOFTWARE.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.macverifier.password.request;
+
+import info.gianlucacosta.macverifier.password.source.PasswordSource;
+import info.gianlucacosta.macverifier.password.validation.InvalidPasswordException;
+import info.gianlucacosta.macverifier.password.validation.PasswordValidationService;
+import info.gianlucacosta.macverifier.ui.UserInterface;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * PasswordRequestService taking the password from a PasswordSource, without any prompt;
+ * when validation is requested - as for new MAC files - invalid passwords are rejected.
+ * <p>
+ * The characters read from the source are wiped as soon as the password has been created.
+ */
+public class SourcePasswordRequestService implements PasswordRequestService {
+
+    private final UserInterface userInterface;
+    private final PasswordSource passwordSource;
+    private final PasswordValidationService passwordValidationService;
+    private final boolean validatePassword;
+
+    public SourcePasswordRequestService(UserInterface userInterface, PasswordSource passwordSource, PasswordValidationService passwordValidationService, boolean validatePassword) {
+        this.userInterface = userInterface;
+        this.passwordSource = passwordSource;
+        this.passwordValidationService = passwordValidationService;
+        this.validatePassword = validatePassword;
+    }
+
+    @Override
+    public String requestPassword(String prompt) {
+        char[] passwordChars;
+
+        try {
+            passwordChars = passwordSource.readPassword();
+        } catch (IOException ex) {
+            userInterface.printlnErr(
+                    String.format("Cannot read the password from %s: %s", passwordSource.getDescription(), ex.getMessage())
+            );
+            return null;
+        }
+
+        if (passwordChars == null) {
+            userInterface.printlnErr(
+                    String.format("No password provided by %s", passwordSource.getDescription())
+            );
+            return null;
+        }
+
+        String password;
+        try {
+            password = new String(passwordChars);
+        } finally {
+            Arrays.fill(passwordChars, '\0');
+        }
+
+        if (validatePassword) {
+            try {
+                passwordValidationService.validatePassword(password);
+            } catch (InvalidPasswordException ex) {
+                userInterface.printlnErr(ex.getMessage());
+                return null;
+            }
+        }
+
+        return password;
+    }
+}
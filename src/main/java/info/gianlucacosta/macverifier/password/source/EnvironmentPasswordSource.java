@@ -0,0 +1,58 @@
+/*§
+  ===========================================================================
+  MacVerifier
+  ===========================================================================
+  Copyright (C) 2015 Gianluca Costa
+  ===========================================================================
+  Permission is hereby granted, free of charge, to any person obtaining a copy
+  of this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+  THE SOFTWARE.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.macverifier.password.source;
+
+/**
+ * Reads the password from an environment variable.
+ * <p>
+ * The JVM exposes the environment as String instances, which cannot be wiped: prefer a file descriptor
+ * or a key file when the process memory could be inspected.
+ */
+public class EnvironmentPasswordSource implements PasswordSource {
+
+    private final String variableName;
+
+    public EnvironmentPasswordSource(String variableName) {
+        this.variableName = variableName;
+    }
+
+    @Override
+    public char[] readPassword() {
+        String value = System.getenv(variableName);
+
+        if (value == null || value.isEmpty()) {
+            return null;
+        }
+
+        return value.toCharArray();
+    }
+
+    @Override
+    public String getDescription() {
+        return String.format("environment variable '%s'", variableName);
+    }
+}
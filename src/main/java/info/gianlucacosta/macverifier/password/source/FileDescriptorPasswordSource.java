@@ -0,0 +1,69 @@
+/*§
+  ===========================================================================
+  MacVerifier
+  ===========================================================================
+  Copyright (C) 2015 Gianluca Costa
+  ===========================================================================
+  Permission is hereby granted, free of charge, to any person obtaining a copy
+  of this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+  THE SOFTWARE.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.macverifier.password.source;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads the password from the first line of an inherited file descriptor - for example,
+ * <code>--password-fd 3 3&lt;secret.txt</code> - so that it never appears in the command line nor in the environment.
+ * <p>
+ * Relies on the <b>/dev/fd</b> directory, available on Linux, macOS and most Unix systems.
+ */
+public class FileDescriptorPasswordSource extends StreamPasswordSource {
+
+    private final int fileDescriptor;
+
+    public FileDescriptorPasswordSource(int fileDescriptor) {
+        if (fileDescriptor < 0) {
+            throw new IllegalArgumentException("Invalid file descriptor");
+        }
+
+        this.fileDescriptor = fileDescriptor;
+    }
+
+    @Override
+    protected InputStream openStream() throws IOException {
+        try {
+            return new FileInputStream(new File("/dev/fd", String.valueOf(fileDescriptor)));
+        } catch (FileNotFoundException ex) {
+            throw new IOException(
+                    String.format("File descriptor %d is not open, or not supported on this system", fileDescriptor),
+                    ex
+            );
+        }
+    }
+
+    @Override
+    public String getDescription() {
+        return String.format("file descriptor %d", fileDescriptor);
+    }
+}
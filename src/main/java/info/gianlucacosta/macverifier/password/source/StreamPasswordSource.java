@@ -0,0 +1,121 @@
+/*§
+  ===========================================================================
+  MacVerifier
+  ===========================================================================
+  Copyright (C) 2015 Gianluca Costa
+  ===========================================================================
+  Permission is hereby granted, free of charge, to any person obtaining a copy
+  of this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+  THE SOFTWARE.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.macverifier.password.source;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Base class of the sources reading the password as the first line of a stream - in UTF-8,
+ * without line terminator - never creating String instances and wiping all the intermediate buffers.
+ */
+public abstract class StreamPasswordSource implements PasswordSource {
+
+    private static final int MAX_PASSWORD_BYTES = 4096;
+
+    protected abstract InputStream openStream() throws IOException;
+
+    @Override
+    public char[] readPassword() throws IOException {
+        try (InputStream passwordStream = openStream()) {
+            return readFirstLine(passwordStream);
+        }
+    }
+
+    /**
+     * Reads byte by byte, so that nothing beyond the first line is consumed.
+     */
+    static char[] readFirstLine(InputStream inputStream) throws IOException {
+        byte[] lineBytes = new byte[MAX_PASSWORD_BYTES];
+        int lineLength = 0;
+
+        try {
+            while (true) {
+                int readByte = inputStream.read();
+
+                if (readByte == -1) {
+                    if (lineLength == 0) {
+                        return null;
+                    }
+
+                    break;
+                }
+
+                if (readByte == '\n') {
+                    break;
+                }
+
+                if (lineLength == lineBytes.length) {
+                    throw new IOException("The password is too long");
+                }
+
+                lineBytes[lineLength++] = (byte) readByte;
+            }
+
+            if (lineLength > 0 && lineBytes[lineLength - 1] == '\r') {
+                lineLength--;
+            }
+
+            return decode(lineBytes, lineLength);
+        } finally {
+            Arrays.fill(lineBytes, (byte) 0);
+        }
+    }
+
+    private static char[] decode(byte[] bytes, int length) throws IOException {
+        CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPORT)
+                .onUnmappableCharacter(CodingErrorAction.REPORT);
+
+        CharBuffer charBuffer = CharBuffer.allocate(length);
+
+        try {
+            CoderResult coderResult = decoder.decode(ByteBuffer.wrap(bytes, 0, length), charBuffer, true);
+
+            if (coderResult.isError()) {
+                throw new IOException("The password is not valid UTF-8");
+            }
+
+            decoder.flush(charBuffer);
+            charBuffer.flip();
+
+            char[] result = new char[charBuffer.remaining()];
+            charBuffer.get(result);
+
+            return result;
+        } finally {
+            Arrays.fill(charBuffer.array(), '\0');
+        }
+    }
+}
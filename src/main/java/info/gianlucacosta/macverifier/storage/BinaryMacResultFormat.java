@@ -0,0 +1,235 @@
+/*§
+  ===========================================================================
+  MacVerifier
+  ===========================================================================
+  Copyright (C) 2015 Gianluca Costa
+  ===========================================================================
+  Permission is hereby granted, free of charge, to any person obtaining a copy
+  of this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+  THE SOFTWARE.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.macverifier.storage;
+
+import info.gianlucacosta.macverifier.mac.KdfParameters;
+import info.gianlucacosta.macverifier.mac.MacCheckpoint;
+import info.gianlucacosta.macverifier.mac.MacResult;
+import info.gianlucacosta.macverifier.mac.tree.TreeMacResult;
+
+import java.io.*;
+
+/**
+ * Compact, versioned binary encoding of MacResult, independent of Java serialization.
+ * <p>
+ * Layout, in big-endian order:
+ * <ol>
+ * <li>magic number - 4 bytes, "MACV"</li>
+ * <li>format version - 1 byte</li>
+ * <li>result variant - 1 byte: 0 for linear MACs, 1 for tree MACs</li>
+ * <li>flags - 1 byte: bit 0 set if the result has a checkpoint</li>
+ * <li>MAC algorithm id - modified UTF-8 string, empty if unspecified</li>
+ * <li>key derivation algorithm - modified UTF-8 string, empty if unspecified</li>
+ * <li>key derivation iterations and key size in bits - 4 bytes each, 0 if unspecified</li>
+ * <li>salt - 2-byte length, then the bytes</li>
+ * <li>MAC value - 2-byte length, then the bytes</li>
+ * <li>for tree MACs only: tree format version and chunk size - 4 bytes each</li>
+ * <li>if flagged: the checkpoint - total length and prefix length, 8 bytes each,
+ * then the prefix tag, with a 2-byte length</li>
+ * </ol>
+ */
+public final class BinaryMacResultFormat {
+
+    public static final int MAGIC_NUMBER = 0x4D414356;
+    public static final int FORMAT_VERSION = 1;
+
+    private static final int LINEAR_VARIANT = 0;
+    private static final int TREE_VARIANT = 1;
+
+    private static final int CHECKPOINT_FLAG = 1;
+
+    private BinaryMacResultFormat() {
+    }
+
+    /**
+     * Returns true if the given bytes start with the magic number.
+     */
+    public static boolean hasMagicNumber(byte[] bytes) {
+        return bytes.length >= 4
+                && (((bytes[0] & 0xFF) << 24) | ((bytes[1] & 0xFF) << 16) | ((bytes[2] & 0xFF) << 8) | (bytes[3] & 0xFF)) == MAGIC_NUMBER;
+    }
+
+    public static byte[] encode(MacResult macResult) {
+        ByteArrayOutputStream byteOutputStream = new ByteArrayOutputStream(96);
+
+        try (DataOutputStream dataOutputStream = new DataOutputStream(byteOutputStream)) {
+            write(dataOutputStream, macResult);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+
+        return byteOutputStream.toByteArray();
+    }
+
+    public static MacResult decode(byte[] bytes) throws IOException {
+        try (DataInputStream dataInputStream = new DataInputStream(new ByteArrayInputStream(bytes))) {
+            return read(dataInputStream);
+        }
+    }
+
+    public static void write(DataOutput output, MacResult macResult) throws IOException {
+        MacCheckpoint checkpoint = macResult.getCheckpoint();
+
+        output.writeInt(MAGIC_NUMBER);
+        output.writeByte(FORMAT_VERSION);
+        output.writeByte((macResult instanceof TreeMacResult) ? TREE_VARIANT : LINEAR_VARIANT);
+        output.writeByte((checkpoint != null) ? CHECKPOINT_FLAG : 0);
+
+        output.writeUTF((macResult.getAlgorithmId() != null) ? macResult.getAlgorithmId() : "");
+
+        KdfParameters kdfParameters = macResult.getKdfParameters();
+        if (kdfParameters != null) {
+            output.writeUTF(kdfParameters.getAlgorithm());
+            output.writeInt(kdfParameters.getIterationCount());
+            output.writeInt(kdfParameters.getKeySizeInBits());
+        } else {
+            output.writeUTF("");
+            output.writeInt(0);
+            output.writeInt(0);
+        }
+
+        writeBytes(output, macResult.getSalt());
+        writeBytes(output, macResult.getMacValue());
+
+        if (macResult instanceof TreeMacResult) {
+            TreeMacResult treeMacResult = (TreeMacResult) macResult;
+
+            output.writeInt(treeMacResult.getFormatVersion());
+            output.writeInt(treeMacResult.getChunkSize());
+        }
+
+        if (checkpoint != null) {
+            output.writeLong(checkpoint.getTotalLength());
+            output.writeLong(checkpoint.getPrefixLength());
+            writeBytes(output, checkpoint.hasPrefixTag() ? checkpoint.getPrefixTag() : new byte[0]);
+        }
+    }
+
+    public static MacResult read(DataInput input) throws IOException {
+        try {
+            if (input.readInt() != MAGIC_NUMBER) {
+                throw new IOException("Invalid MAC file");
+            }
+
+            int formatVersion = input.readUnsignedByte();
+            if (formatVersion != FORMAT_VERSION) {
+                throw new IOException(
+                        String.format("Unsupported MAC file version: %d", formatVersion)
+                );
+            }
+
+            int variant = input.readUnsignedByte();
+
+            int flags = input.readUnsignedByte();
+            if ((flags & ~CHECKPOINT_FLAG) != 0) {
+                throw new IOException(
+                        String.format("Unsupported MAC file flags: %d", flags)
+                );
+            }
+
+            String algorithmId = input.readUTF();
+            if (algorithmId.isEmpty()) {
+                algorithmId = null;
+            }
+
+            KdfParameters kdfParameters = readKdfParameters(input);
+
+            byte[] salt = readBytes(input);
+            byte[] macValue = readBytes(input);
+
+            MacResult macResult;
+
+            switch (variant) {
+                case LINEAR_VARIANT:
+                    macResult = new MacResult(salt, macValue, algorithmId, kdfParameters);
+                    break;
+
+                case TREE_VARIANT:
+                    int treeFormatVersion = input.readInt();
+                    int chunkSize = input.readInt();
+
+                    if (!TreeMacResult.isValidChunkSize(chunkSize)) {
+                        throw new IOException("Invalid chunk size");
+                    }
+
+                    macResult = new TreeMacResult(salt, macValue, treeFormatVersion, chunkSize, algorithmId, kdfParameters);
+                    break;
+
+                default:
+                    throw new IOException(
+                            String.format("Unsupported MAC result variant: %d", variant)
+                    );
+            }
+
+            return ((flags & CHECKPOINT_FLAG) != 0) ?
+                    macResult.withCheckpoint(readCheckpoint(input))
+                    :
+                    macResult;
+        } catch (EOFException ex) {
+            throw new IOException("Invalid MAC file", ex);
+        }
+    }
+
+    private static KdfParameters readKdfParameters(DataInput input) throws IOException {
+        String kdfAlgorithm = input.readUTF();
+        int iterationCount = input.readInt();
+        int keySizeInBits = input.readInt();
+
+        if (kdfAlgorithm.isEmpty()) {
+            return null;
+        }
+
+        try {
+            return new KdfParameters(kdfAlgorithm, iterationCount, keySizeInBits);
+        } catch (IllegalArgumentException ex) {
+            throw new IOException("Invalid key derivation parameters", ex);
+        }
+    }
+
+    private static MacCheckpoint readCheckpoint(DataInput input) throws IOException {
+        long totalLength = input.readLong();
+        long prefixLength = input.readLong();
+        byte[] prefixTag = readBytes(input);
+
+        try {
+            return new MacCheckpoint(totalLength, prefixLength, (prefixTag.length > 0) ? prefixTag : null);
+        } catch (IllegalArgumentException ex) {
+            throw new IOException("Invalid MAC checkpoint", ex);
+        }
+    }
+
+    private static void writeBytes(DataOutput output, byte[] bytes) throws IOException {
+        output.writeShort(bytes.length);
+        output.write(bytes);
+    }
+
+    private static byte[] readBytes(DataInput input) throws IOException {
+        byte[] bytes = new byte[input.readUnsignedShort()];
+        input.readFully(bytes);
+        return bytes;
+    }
+}
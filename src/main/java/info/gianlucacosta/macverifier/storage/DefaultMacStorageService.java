@@ -0,0 +1,98 @@
+/*§
+  ===========================================================================
+  MacVerifier
+  ===========================================================================
+  Copyright (C) 2015 Gianluca Costa
+  ===========================================================================
+  Permission is hereby granted, free of charge, to any person obtaining a copy
+  of this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+  THE SOFTWARE.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.macverifier.storage;
+
+import info.gianlucacosta.macverifier.mac.MacResult;
+
+import java.io.*;
+import java.nio.file.Files;
+
+/**
+ * Default implementation of MacStorageService: each MAC file has the path of its main file
+ * plus the <b>.mac</b> extension, and contains a MacResult in BinaryMacResultFormat; chunk indexes have
+ * the additional <b>.idx</b> extension.
+ * <p>
+ * Legacy MAC files, containing a serialized MacResult, are still readable - resolving only the classes
+ * a MacResult can contain.
+ */
+public class DefaultMacStorageService implements MacStorageService {
+
+    private static final String MAC_FILE_EXTENSION = ".mac";
+    private static final String CHUNK_INDEX_FILE_EXTENSION = MAC_FILE_EXTENSION + ".idx";
+
+    private static final int MAX_MAC_FILE_SIZE = 64 * 1024;
+
+    @Override
+    public File getMacFile(File mainFile) {
+        return new File(mainFile.getPath() + MAC_FILE_EXTENSION);
+    }
+
+    @Override
+    public File getChunkIndexFile(File mainFile) {
+        return new File(mainFile.getPath() + CHUNK_INDEX_FILE_EXTENSION);
+    }
+
+    @Override
+    public boolean isMacFile(File file) {
+        String fileName = file.getName();
+
+        return fileName.endsWith(MAC_FILE_EXTENSION)
+                || fileName.endsWith(CHUNK_INDEX_FILE_EXTENSION);
+    }
+
+    @Override
+    public MacResult readMacResult(File macFile) throws IOException {
+        if (macFile.length() > MAX_MAC_FILE_SIZE) {
+            throw new IOException("Invalid MAC file");
+        }
+
+        byte[] macFileBytes = Files.readAllBytes(macFile.toPath());
+
+        if (BinaryMacResultFormat.hasMagicNumber(macFileBytes)) {
+            return BinaryMacResultFormat.decode(macFileBytes);
+        }
+
+        return readLegacyMacResult(macFileBytes);
+    }
+
+    private static MacResult readLegacyMacResult(byte[] macFileBytes) throws IOException {
+        try (ObjectInputStream macInputStream = new LegacyMacResultInputStream(new ByteArrayInputStream(macFileBytes))) {
+            try {
+                return (MacResult) macInputStream.readObject();
+            } catch (EOFException | ClassNotFoundException | ClassCastException ex) {
+                throw new IOException("Invalid MAC file", ex);
+            }
+        } catch (ObjectStreamException ex) {
+            throw new IOException("Invalid MAC file", ex);
+        }
+    }
+
+    @Override
+    public void writeMacResult(File macFile, MacResult macResult) throws IOException {
+        Files.write(macFile.toPath(), BinaryMacResultFormat.encode(macResult));
+    }
+}
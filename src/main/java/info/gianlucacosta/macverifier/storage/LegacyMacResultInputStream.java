@@ -0,0 +1,73 @@
+/*§
+  ===========================================================================
+  MacVerifier
+  ===========================================================================
+  Copyright (C) 2015 Gianluca Costa
+  ===========================================================================
+  Permission is hereby granted, free of charge, to any person obtaining a copy
+  of this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+  THE SOFTWARE.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.macverifier.storage;
+
+import info.gianlucacosta.macverifier.mac.KdfParameters;
+import info.gianlucacosta.macverifier.mac.MacCheckpoint;
+import info.gianlucacosta.macverifier.mac.MacResult;
+import info.gianlucacosta.macverifier.mac.tree.TreeMacResult;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * ObjectInputStream reading legacy MAC files: as their bytes are untrusted, only the classes
+ * a serialized MacResult can contain are resolved - any other class is rejected before being loaded.
+ */
+class LegacyMacResultInputStream extends ObjectInputStream {
+
+    private static final Set<String> ALLOWED_CLASS_NAMES = Collections.unmodifiableSet(
+            new HashSet<>(Arrays.asList(
+                    MacResult.class.getName(),
+                    TreeMacResult.class.getName(),
+                    KdfParameters.class.getName(),
+                    MacCheckpoint.class.getName(),
+                    byte[].class.getName()
+            ))
+    );
+
+    LegacyMacResultInputStream(InputStream inputStream) throws IOException {
+        super(inputStream);
+    }
+
+    @Override
+    protected Class<?> resolveClass(ObjectStreamClass classDescriptor) throws IOException, ClassNotFoundException {
+        if (!ALLOWED_CLASS_NAMES.contains(classDescriptor.getName())) {
+            throw new InvalidClassException(classDescriptor.getName(), "Class not allowed in a MAC file");
+        }
+
+        return super.resolveClass(classDescriptor);
+    }
+
+    @Override
+    protected Class<?> resolveProxyClass(String[] interfaceNames) throws IOException, ClassNotFoundException {
+        throw new InvalidClassException("Proxy classes are not allowed in a MAC file");
+    }
+}
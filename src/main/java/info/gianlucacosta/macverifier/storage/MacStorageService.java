@@ -0,0 +1,56 @@
+/*§
+  ===========================================================================
+  MacVerifier
+  ===========================================================================
+  Copyright (C) 2015 Gianluca Costa
+  ===========================================================================
+  Permission is hereby granted, free of charge, to any person obtaining a copy
+  of this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+  THE SOFTWARE.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.macverifier.storage;
+
+import info.gianlucacosta.macverifier.mac.MacResult;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Service locating, reading and writing the MAC files related to main files.
+ */
+public interface MacStorageService {
+
+    File getMacFile(File mainFile);
+
+    /**
+     * Returns the MAC file storing the result of the given algorithm besides the main MAC file
+     * - by default, the MAC file of a sibling named after the main file and the algorithm id.
+     */
+    default File getMacFile(File mainFile, String algorithmId) {
+        return getMacFile(new File(mainFile.getPath() + "." + algorithmId));
+    }
+
+    File getChunkIndexFile(File mainFile);
+
+    boolean isMacFile(File file);
+
+    MacResult readMacResult(File macFile) throws IOException;
+
+    void writeMacResult(File macFile, MacResult macResult) throws IOException;
+}
@@ -27,6 +27,7 @@
 package info.gianlucacosta.macverifier.ui;
 
 import java.io.Console;
+import java.util.Arrays;
 
 /**
  * Command-line user interface capable of requesting masked input via a Console instance.
@@ -51,6 +52,10 @@ public class ConsoleUserInterface extends BasicCommandLineInterface {
             return null;
         }
 
-        return new String(passwordChars);
+        try {
+            return new String(passwordChars);
+        } finally {
+            Arrays.fill(passwordChars, '\0');
+        }
     }
 }
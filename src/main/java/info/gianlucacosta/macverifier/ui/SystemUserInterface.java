@@ -35,9 +35,14 @@ import java.io.InputStreamReader;
  */
 public class SystemUserInterface extends BasicCommandLineInterface {
 
+    //Shared across requests, as each reader might buffer the lines following the one it returns
+    private BufferedReader lineReader;
+
     @Override
-    public String askForPassword() {
-        BufferedReader lineReader = new BufferedReader(new InputStreamReader(System.in));
+    public synchronized String askForPassword() {
+        if (lineReader == null) {
+            lineReader = new BufferedReader(new InputStreamReader(System.in));
+        }
 
         try {
             return lineReader.readLine();
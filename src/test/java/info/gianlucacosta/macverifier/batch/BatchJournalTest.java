@@ -0,0 +1,207 @@
+/*§
+  ===========================================================================
+  MacVerifier
+  ===========================================================================
+  Copyright (C) 2015 Gianluca Costa
+  ===========================================================================
+  Permission is hereby granted, free of charge, to any person obtaining a copy
+  of this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+  THE SOFTWARE.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.macverifier.batch;
+
+import info.gianlucacosta.macverifier.cache.FileIdentity;
+import info.gianlucacosta.macverifier.engine.FileOutcome;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.*;
+
+public class BatchJournalTest {
+
+    private static final String PASSWORD = "password1";
+
+    /**
+     * Magic number, format version and salt.
+     */
+    private static final int HEADER_SIZE = 4 + 4 + 16;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File journalFile;
+    private File firstFile;
+    private File secondFile;
+    private File thirdFile;
+
+    @Before
+    public void setUp() throws IOException {
+        journalFile = new File(temporaryFolder.getRoot(), "batch.journal");
+
+        firstFile = temporaryFolder.newFile("first.dat");
+        secondFile = temporaryFolder.newFile("second.dat");
+        thirdFile = temporaryFolder.newFile("third.dat");
+    }
+
+    private static FileIdentity createIdentity(File mainFile) {
+        return new FileIdentity(1, mainFile.getName().hashCode(), 100, 1000, 2000);
+    }
+
+    private void recordAll() throws IOException {
+        try (BatchJournal journal = BatchJournal.open(journalFile, false)) {
+            journal.record(firstFile, createIdentity(firstFile), FileOutcome.PASSED, PASSWORD);
+            journal.record(secondFile, createIdentity(secondFile), FileOutcome.CREATED, PASSWORD);
+            journal.record(thirdFile, createIdentity(thirdFile), FileOutcome.FAILED, PASSWORD);
+        }
+    }
+
+    private FileOutcome getResumedOutcome(BatchJournal journal, File mainFile) {
+        return journal.getResumedOutcome(mainFile, createIdentity(mainFile), PASSWORD);
+    }
+
+    @Test
+    public void recordedOutcomesShouldBeResumed() throws IOException {
+        recordAll();
+
+        try (BatchJournal journal = BatchJournal.open(journalFile, true)) {
+            assertEquals(2, journal.getResumedCount());
+
+            assertEquals(FileOutcome.PASSED, getResumedOutcome(journal, firstFile));
+            assertEquals(FileOutcome.CREATED, getResumedOutcome(journal, secondFile));
+            assertNull("Failures must be processed again", getResumedOutcome(journal, thirdFile));
+        }
+    }
+
+    @Test
+    public void newJournalShouldReplaceExistingOne() throws IOException {
+        recordAll();
+
+        BatchJournal.open(journalFile, false).close();
+
+        try (BatchJournal journal = BatchJournal.open(journalFile, true)) {
+            assertEquals(0, journal.getResumedCount());
+        }
+    }
+
+    @Test
+    public void truncatedTailShouldBeDiscarded() throws IOException {
+        recordAll();
+
+        try (RandomAccessFile journalAccess = new RandomAccessFile(journalFile, "rw")) {
+            journalAccess.setLength(journalAccess.length() - 10);
+        }
+
+        try (BatchJournal journal = BatchJournal.open(journalFile, true)) {
+            assertEquals(1, journal.getResumedCount());
+
+            assertEquals(FileOutcome.PASSED, getResumedOutcome(journal, firstFile));
+            assertNull(getResumedOutcome(journal, secondFile));
+
+            journal.record(secondFile, createIdentity(secondFile), FileOutcome.CREATED, PASSWORD);
+        }
+
+        //Records appended after the recovery must follow the last valid one
+        try (BatchJournal journal = BatchJournal.open(journalFile, true)) {
+            assertEquals(2, journal.getResumedCount());
+
+            assertEquals(FileOutcome.PASSED, getResumedOutcome(journal, firstFile));
+            assertEquals(FileOutcome.CREATED, getResumedOutcome(journal, secondFile));
+        }
+    }
+
+    @Test
+    public void zeroFilledTailShouldBeDiscarded() throws IOException {
+        recordAll();
+
+        try (FileOutputStream journalStream = new FileOutputStream(journalFile, true)) {
+            journalStream.write(new byte[4096]);
+        }
+
+        try (BatchJournal journal = BatchJournal.open(journalFile, true)) {
+            assertEquals(2, journal.getResumedCount());
+
+            journal.record(thirdFile, createIdentity(thirdFile), FileOutcome.PASSED, PASSWORD);
+        }
+
+        try (BatchJournal journal = BatchJournal.open(journalFile, true)) {
+            assertEquals(3, journal.getResumedCount());
+            assertEquals(FileOutcome.PASSED, getResumedOutcome(journal, thirdFile));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void truncatedHeaderShouldBeRejected() throws IOException {
+        recordAll();
+
+        try (RandomAccessFile journalAccess = new RandomAccessFile(journalFile, "rw")) {
+            journalAccess.setLength(HEADER_SIZE - 1);
+        }
+
+        BatchJournal.open(journalFile, true);
+    }
+
+    @Test
+    public void changedFileShouldNotBeResumed() throws IOException {
+        recordAll();
+
+        try (BatchJournal journal = BatchJournal.open(journalFile, true)) {
+            FileIdentity recordedIdentity = createIdentity(firstFile);
+            FileIdentity changedIdentity = new FileIdentity(
+                    recordedIdentity.getDevice(),
+                    recordedIdentity.getInode(),
+                    recordedIdentity.getSize(),
+                    recordedIdentity.getModifiedTime(),
+                    recordedIdentity.getChangeTime() + 1
+            );
+
+            assertNull(journal.getResumedOutcome(firstFile, changedIdentity, PASSWORD));
+        }
+    }
+
+    @Test
+    public void otherPasswordShouldNotResume() throws IOException {
+        recordAll();
+
+        try (BatchJournal journal = BatchJournal.open(journalFile, true)) {
+            assertNull(journal.getResumedOutcome(firstFile, createIdentity(firstFile), "password2"));
+        }
+    }
+
+    @Test
+    public void tamperedOutcomeShouldNotResume() throws IOException {
+        recordAll();
+
+        try (RandomAccessFile journalAccess = new RandomAccessFile(journalFile, "rw")) {
+            journalAccess.seek(HEADER_SIZE);
+            journalAccess.write(FileOutcome.UNCHANGED.getCode());
+        }
+
+        try (BatchJournal journal = BatchJournal.open(journalFile, true)) {
+            assertNull(getResumedOutcome(journal, firstFile));
+            assertEquals(FileOutcome.CREATED, getResumedOutcome(journal, secondFile));
+        }
+    }
+}
@@ -0,0 +1,176 @@
+/*§
+  ===========================================================================
+  MacVerifier
+  ===========================================================================
+  Copyright (C) 2015 Gianluca Costa
+  ===========================================================================
+  Permission is hereby granted, free of charge, to any person obtaining a copy
+  of this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+  THE SOFTWARE.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.macverifier.cache;
+
+import info.gianlucacosta.macverifier.mac.MacResult;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.*;
+
+public class VerificationCacheTest {
+
+    private static final String PASSWORD = "password1";
+
+    private static final long TRUST_WINDOW_MILLIS = 60 * 60 * 1000;
+
+    private static final FileIdentity IDENTITY = new FileIdentity(1, 2, 100, 1000, 2000);
+    private static final FileIdentity OTHER_IDENTITY = new FileIdentity(1, 3, 100, 1000, 2000);
+
+    private static final MacResult STORED_RESULT = new MacResult(new byte[16], new byte[32], "hmac-sha256", null);
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File cacheFile;
+
+    @Before
+    public void setUp() {
+        cacheFile = new File(temporaryFolder.getRoot(), "verification.cache");
+    }
+
+    private VerificationCache loadCache() throws IOException {
+        return VerificationCache.load(cacheFile, VerificationCache.DEFAULT_CAPACITY, TRUST_WINDOW_MILLIS);
+    }
+
+    @Test
+    public void recordedPassShouldBeTrusted() throws IOException {
+        VerificationCache cache = loadCache();
+
+        assertFalse(cache.isTrusted(IDENTITY, STORED_RESULT, PASSWORD));
+
+        cache.recordPassed(IDENTITY, STORED_RESULT, PASSWORD);
+
+        assertTrue(cache.isTrusted(IDENTITY, STORED_RESULT, PASSWORD));
+        assertFalse(cache.isTrusted(OTHER_IDENTITY, STORED_RESULT, PASSWORD));
+        assertEquals(1, cache.getHitCount());
+    }
+
+    @Test
+    public void otherPasswordShouldNotBeTrusted() throws IOException {
+        VerificationCache cache = loadCache();
+        cache.recordPassed(IDENTITY, STORED_RESULT, PASSWORD);
+
+        assertFalse(cache.isTrusted(IDENTITY, STORED_RESULT, "password2"));
+    }
+
+    @Test
+    public void changedFileShouldNotBeTrusted() throws IOException {
+        VerificationCache cache = loadCache();
+        cache.recordPassed(IDENTITY, STORED_RESULT, PASSWORD);
+
+        FileIdentity changedIdentity = new FileIdentity(
+                IDENTITY.getDevice(),
+                IDENTITY.getInode(),
+                IDENTITY.getSize(),
+                IDENTITY.getModifiedTime() + 1,
+                IDENTITY.getChangeTime()
+        );
+
+        assertFalse(cache.isTrusted(changedIdentity, STORED_RESULT, PASSWORD));
+    }
+
+    @Test
+    public void otherStoredResultShouldNotBeTrusted() throws IOException {
+        VerificationCache cache = loadCache();
+        cache.recordPassed(IDENTITY, STORED_RESULT, PASSWORD);
+
+        byte[] otherMacValue = new byte[32];
+        otherMacValue[0] = 1;
+
+        assertFalse(cache.isTrusted(IDENTITY, STORED_RESULT.withValues(STORED_RESULT.getSalt(), otherMacValue, null), PASSWORD));
+    }
+
+    @Test
+    public void savedEntriesShouldBeTrustedAfterLoading() throws IOException {
+        VerificationCache cache = loadCache();
+        cache.recordPassed(IDENTITY, STORED_RESULT, PASSWORD);
+        cache.save();
+
+        VerificationCache loadedCache = loadCache();
+
+        assertEquals(1, loadedCache.size());
+        assertTrue(loadedCache.isTrusted(IDENTITY, STORED_RESULT, PASSWORD));
+    }
+
+    @Test
+    public void tamperedTagShouldNotBeTrusted() throws IOException {
+        VerificationCache cache = loadCache();
+        cache.recordPassed(IDENTITY, STORED_RESULT, PASSWORD);
+        cache.save();
+
+        //The tag is at the end of the only entry
+        try (RandomAccessFile cacheAccess = new RandomAccessFile(cacheFile, "rw")) {
+            long tagBytePosition = cacheAccess.length() - 1;
+
+            cacheAccess.seek(tagBytePosition);
+            int tagByte = cacheAccess.read();
+
+            cacheAccess.seek(tagBytePosition);
+            cacheAccess.write(tagByte ^ 1);
+        }
+
+        assertFalse(loadCache().isTrusted(IDENTITY, STORED_RESULT, PASSWORD));
+    }
+
+    @Test
+    public void expiredEntryShouldNotBeTrusted() throws IOException, InterruptedException {
+        VerificationCache cache = VerificationCache.load(cacheFile, VerificationCache.DEFAULT_CAPACITY, 0);
+        cache.recordPassed(IDENTITY, STORED_RESULT, PASSWORD);
+
+        Thread.sleep(20);
+
+        assertFalse(cache.isTrusted(IDENTITY, STORED_RESULT, PASSWORD));
+    }
+
+    @Test
+    public void leastRecentlyUsedEntryShouldBeEvicted() throws IOException {
+        VerificationCache cache = VerificationCache.load(cacheFile, 1, TRUST_WINDOW_MILLIS);
+
+        cache.recordPassed(IDENTITY, STORED_RESULT, PASSWORD);
+        cache.recordPassed(OTHER_IDENTITY, STORED_RESULT, PASSWORD);
+
+        assertEquals(1, cache.size());
+        assertFalse(cache.isTrusted(IDENTITY, STORED_RESULT, PASSWORD));
+        assertTrue(cache.isTrusted(OTHER_IDENTITY, STORED_RESULT, PASSWORD));
+    }
+
+    @Test
+    public void invalidCacheFileShouldResultInEmptyCache() throws IOException {
+        try (RandomAccessFile cacheAccess = new RandomAccessFile(cacheFile, "rw")) {
+            cacheAccess.writeInt(0x12345678);
+        }
+
+        assertEquals(0, loadCache().size());
+    }
+}
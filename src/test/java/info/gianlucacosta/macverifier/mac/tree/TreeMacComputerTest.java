@@ -0,0 +1,171 @@
+/*§
+  ===========================================================================
+  MacVerifier
+  ===========================================================================
+  Copyright (C) 2015 Gianluca Costa
+  ===========================================================================
+  Permission is hereby granted, free of charge, to any person obtaining a copy
+  of this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+  THE SOFTWARE.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.macverifier.mac.tree;
+
+import info.gianlucacosta.macverifier.cache.FileIdentity;
+import info.gianlucacosta.macverifier.mac.MacCheckpoint;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.security.Key;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class TreeMacComputerTest {
+
+    private static final int CHUNK_SIZE = 4096;
+
+    private static final byte[] SALT = new byte[16];
+
+    private static final Key MAC_KEY = new SecretKeySpec(new byte[32], "HmacSHA256");
+    private static final Key OTHER_MAC_KEY = new SecretKeySpec(new byte[]{1, 2, 3, 4, 5, 6, 7, 8}, "HmacSHA256");
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final TreeMacComputer treeMacComputer = new TreeMacComputer("HmacSHA256", 1024);
+
+    private File createSourceFile(int length) throws IOException {
+        byte[] content = new byte[length];
+        new Random(length).nextBytes(content);
+
+        File sourceFile = temporaryFolder.newFile();
+        Files.write(sourceFile.toPath(), content);
+
+        return sourceFile;
+    }
+
+    @Test
+    public void fileAndStreamShouldGiveSameMac() throws IOException {
+        for (int length : new int[]{0, 1, CHUNK_SIZE - 1, CHUNK_SIZE, CHUNK_SIZE + 1, 3 * CHUNK_SIZE + 17}) {
+            File sourceFile = createSourceFile(length);
+
+            TreeMacResult fileResult = treeMacComputer.computeMac(MAC_KEY, SALT, sourceFile, CHUNK_SIZE);
+            TreeMacResult streamResult = treeMacComputer.computeMac(
+                    MAC_KEY,
+                    SALT,
+                    new ByteArrayInputStream(Files.readAllBytes(sourceFile.toPath())),
+                    CHUNK_SIZE
+            );
+
+            assertEquals(String.format("Length %d", length), fileResult, streamResult);
+        }
+    }
+
+    @Test
+    public void differentChunkSizesShouldGiveDifferentMacs() throws IOException {
+        File sourceFile = createSourceFile(3 * CHUNK_SIZE);
+
+        assertNotEquals(
+                treeMacComputer.computeMac(MAC_KEY, SALT, sourceFile, CHUNK_SIZE),
+                treeMacComputer.computeMac(MAC_KEY, SALT, sourceFile, 2 * CHUNK_SIZE)
+        );
+    }
+
+    @Test
+    public void chunkIndexShouldGiveSameMacAsFile() throws IOException {
+        File sourceFile = createSourceFile(3 * CHUNK_SIZE + 17);
+        IncrementalTreeMacComputer incrementalComputer = new IncrementalTreeMacComputer(treeMacComputer);
+
+        IncrementalTreeMacComputer.Result incrementalResult = incrementalComputer.computeMac(MAC_KEY, SALT, sourceFile, CHUNK_SIZE);
+        TreeMacResult fileResult = treeMacComputer.computeMac(MAC_KEY, SALT, sourceFile, CHUNK_SIZE);
+
+        assertEquals(fileResult, incrementalResult.getMacResult());
+
+        File indexFile = temporaryFolder.newFile();
+        incrementalResult.getChunkIndex().write(indexFile);
+
+        ChunkIndex chunkIndex = ChunkIndex.read(indexFile, fileResult);
+
+        assertTrue(chunkIndex.matches(FileIdentity.read(sourceFile)));
+        assertTrue(incrementalComputer.isAuthentic(MAC_KEY, fileResult, chunkIndex));
+        assertFalse(incrementalComputer.isAuthentic(OTHER_MAC_KEY, fileResult, chunkIndex));
+    }
+
+    @Test
+    public void extendedMacShouldEqualFullMac() throws IOException {
+        File sourceFile = createSourceFile(2 * CHUNK_SIZE + 100);
+        IncrementalTreeMacComputer incrementalComputer = new IncrementalTreeMacComputer(treeMacComputer);
+
+        IncrementalTreeMacComputer.Result initialResult = incrementalComputer.computeMac(MAC_KEY, SALT, sourceFile, CHUNK_SIZE);
+
+        try (FileOutputStream appendingStream = new FileOutputStream(sourceFile, true)) {
+            appendingStream.write(new byte[CHUNK_SIZE + 5]);
+        }
+
+        IncrementalTreeMacComputer.Result extendedResult = incrementalComputer.extendMac(
+                MAC_KEY,
+                initialResult.getMacResult(),
+                initialResult.getChunkIndex(),
+                sourceFile
+        );
+
+        assertEquals(treeMacComputer.computeMac(MAC_KEY, SALT, sourceFile, CHUNK_SIZE), extendedResult.getMacResult());
+        assertEquals(2, extendedResult.getChunkIndex().getRehashedRanges().get(0).getFromChunk());
+    }
+
+    @Test
+    public void indexedCheckpointShouldEqualSeparateCheckpoint() throws IOException {
+        TreeHMacSha256Service macService = new TreeHMacSha256Service(CHUNK_SIZE);
+        IncrementalTreeMacComputer incrementalComputer = new IncrementalTreeMacComputer(macService.getTreeMacComputer());
+
+        for (long prefixLength : new long[]{100, CHUNK_SIZE, 2 * CHUNK_SIZE + 1}) {
+            File sourceFile = createSourceFile(5 * CHUNK_SIZE);
+
+            MacCheckpoint indexedCheckpoint = incrementalComputer.computeMac(
+                    MAC_KEY,
+                    SALT,
+                    sourceFile,
+                    CHUNK_SIZE,
+                    macService.createCheckpointMac(MAC_KEY, prefixLength),
+                    prefixLength
+            ).getMacResult().getCheckpoint();
+
+            MacCheckpoint separateCheckpoint = macService.computeCheckpoint(MAC_KEY, sourceFile, prefixLength);
+
+            assertEquals(separateCheckpoint.getTotalLength(), indexedCheckpoint.getTotalLength());
+            assertArrayEquals(
+                    String.format("Prefix length %d", prefixLength),
+                    separateCheckpoint.getPrefixTag(),
+                    indexedCheckpoint.getPrefixTag()
+            );
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void nonPositiveChunkSizeShouldBeRejected() {
+        TreeMacComputer.getChunkCount(100, 0);
+    }
+}
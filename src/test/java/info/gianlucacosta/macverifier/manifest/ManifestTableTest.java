@@ -0,0 +1,210 @@
+/*§
+  ===========================================================================
+  MacVerifier
+  ===========================================================================
+  Copyright (C) 2015 Gianluca Costa
+  ===========================================================================
+  Permission is hereby granted, free of charge, to any person obtaining a copy
+  of this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+  THE SOFTWARE.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.macverifier.manifest;
+
+import info.gianlucacosta.macverifier.mac.MacCheckpoint;
+import info.gianlucacosta.macverifier.mac.MacResult;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+
+import static org.junit.Assert.*;
+
+public class ManifestTableTest {
+
+    private static final String PASSWORD = "password1";
+
+    private static final int ENTRY_COUNT = 1000;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private static ManifestEntry createEntry(String relativePath, int seed) {
+        byte[] salt = new byte[16];
+        byte[] macValue = new byte[32];
+
+        for (int i = 0; i < macValue.length; i++) {
+            macValue[i] = (byte) (seed * 31 + i);
+        }
+        salt[0] = (byte) seed;
+
+        return new ManifestEntry(
+                relativePath,
+                seed * 10L,
+                seed * 1000L,
+                new MacResult(salt, macValue, "hmac-sha256", null, new MacCheckpoint(seed * 10L))
+        );
+    }
+
+    private static String getRelativePath(int entryIndex) {
+        return String.format("dir%d/file%d.dat", entryIndex % 7, entryIndex);
+    }
+
+    private static void assertSameEntry(ManifestEntry expected, ManifestEntry actual) {
+        assertNotNull(actual);
+        assertEquals(expected.getRelativePath(), actual.getRelativePath());
+        assertEquals(expected.getLength(), actual.getLength());
+        assertEquals(expected.getLastModified(), actual.getLastModified());
+        assertEquals(expected.getMacResult(), actual.getMacResult());
+        assertEquals(expected.getMacResult().getCheckpoint().getTotalLength(), actual.getMacResult().getCheckpoint().getTotalLength());
+    }
+
+    private File writeManifest(Iterator<ManifestEntry> entries) throws IOException {
+        File manifestFile = temporaryFolder.newFile();
+
+        try (ManifestWriter manifestWriter = new ManifestWriter(manifestFile, PASSWORD)) {
+            while (entries.hasNext()) {
+                manifestWriter.add(entries.next());
+            }
+        }
+
+        return manifestFile;
+    }
+
+    private static ManifestTable loadTable(File manifestFile) throws IOException {
+        try (ManifestReader manifestReader = new ManifestReader(manifestFile)) {
+            assertTrue(manifestReader.isAuthentic(PASSWORD));
+
+            return ManifestTable.load(manifestReader);
+        }
+    }
+
+    private File writeInitialManifest() throws IOException {
+        return writeManifest(new Iterator<ManifestEntry>() {
+            private int entryIndex;
+
+            @Override
+            public boolean hasNext() {
+                return entryIndex < ENTRY_COUNT;
+            }
+
+            @Override
+            public ManifestEntry next() {
+                ManifestEntry entry = createEntry(getRelativePath(entryIndex), entryIndex);
+                entryIndex++;
+                return entry;
+            }
+        });
+    }
+
+    @Test
+    public void lookupShouldFindEveryEntry() throws IOException {
+        ManifestTable table = loadTable(writeInitialManifest());
+
+        assertEquals(ENTRY_COUNT, table.getEntryCount());
+
+        for (int entryIndex = 0; entryIndex < ENTRY_COUNT; entryIndex++) {
+            assertSameEntry(createEntry(getRelativePath(entryIndex), entryIndex), table.lookup(getRelativePath(entryIndex)));
+        }
+    }
+
+    @Test
+    public void lookupShouldReturnNullForUnlistedPaths() throws IOException {
+        ManifestTable table = loadTable(writeInitialManifest());
+
+        assertNull(table.lookup("missing.dat"));
+        assertNull(table.lookup(getRelativePath(ENTRY_COUNT)));
+        assertNull(table.lookup(getRelativePath(0) + "/"));
+        assertNull(table.lookup(""));
+    }
+
+    @Test
+    public void tableAndReaderLookupsShouldAgree() throws IOException {
+        File manifestFile = writeInitialManifest();
+        ManifestTable table = loadTable(manifestFile);
+
+        try (ManifestReader manifestReader = new ManifestReader(manifestFile)) {
+            for (int entryIndex = 0; entryIndex < ENTRY_COUNT; entryIndex += 37) {
+                String relativePath = getRelativePath(entryIndex);
+
+                assertSameEntry(table.lookup(relativePath), manifestReader.lookup(relativePath));
+            }
+
+            assertNull(manifestReader.lookup("missing.dat"));
+        }
+    }
+
+    /**
+     * Mirrors ManifestRunner.update(): unchanged entries are copied from the table of the current manifest,
+     * modified ones are replaced, deleted ones dropped and new ones appended.
+     */
+    @Test
+    public void updatedManifestShouldReflectChanges() throws IOException {
+        final ManifestTable currentTable = loadTable(writeInitialManifest());
+
+        final int modifiedIndex = 10;
+        final int deletedIndex = 20;
+        final String newPath = "new/file.dat";
+
+        File updatedManifestFile = writeManifest(new Iterator<ManifestEntry>() {
+            private int entryIndex;
+
+            @Override
+            public boolean hasNext() {
+                return entryIndex <= ENTRY_COUNT;
+            }
+
+            @Override
+            public ManifestEntry next() {
+                int currentIndex = entryIndex++;
+
+                if (currentIndex == ENTRY_COUNT) {
+                    return createEntry(newPath, ENTRY_COUNT);
+                }
+
+                if (currentIndex == deletedIndex) {
+                    return next();
+                }
+
+                if (currentIndex == modifiedIndex) {
+                    return createEntry(getRelativePath(modifiedIndex), ENTRY_COUNT + 1);
+                }
+
+                return currentTable.lookup(getRelativePath(currentIndex));
+            }
+        });
+
+        ManifestTable updatedTable = loadTable(updatedManifestFile);
+
+        assertEquals(ENTRY_COUNT, updatedTable.getEntryCount());
+        assertNull(updatedTable.lookup(getRelativePath(deletedIndex)));
+        assertSameEntry(createEntry(getRelativePath(modifiedIndex), ENTRY_COUNT + 1), updatedTable.lookup(getRelativePath(modifiedIndex)));
+        assertSameEntry(createEntry(newPath, ENTRY_COUNT), updatedTable.lookup(newPath));
+        assertSameEntry(createEntry(getRelativePath(0), 0), updatedTable.lookup(getRelativePath(0)));
+    }
+
+    @Test
+    public void manifestShouldNotBeAuthenticWithOtherPassword() throws IOException {
+        try (ManifestReader manifestReader = new ManifestReader(writeInitialManifest())) {
+            assertFalse(manifestReader.isAuthentic("password2"));
+        }
+    }
+}
@@ -0,0 +1,183 @@
+/*§
+  ===========================================================================
+  MacVerifier
+  ===========================================================================
+  Copyright (C) 2015 Gianluca Costa
+  ===========================================================================
+  Permission is hereby granted, free of charge, to any person obtaining a copy
+  of this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+  THE SOFTWARE.
+  ===========================================================================
+*/
+
+package info.gianlucacosta.macverifier.storage;
+
+import info.gianlucacosta.macverifier.mac.KdfParameters;
+import info.gianlucacosta.macverifier.mac.MacCheckpoint;
+import info.gianlucacosta.macverifier.mac.MacResult;
+import info.gianlucacosta.macverifier.mac.tree.TreeMacResult;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class BinaryMacResultFormatTest {
+
+    private static final byte[] SALT = createBytes(16, 1);
+    private static final byte[] MAC_VALUE = createBytes(32, 2);
+    private static final byte[] PREFIX_TAG = createBytes(32, 3);
+
+    private static final KdfParameters KDF_PARAMETERS = new KdfParameters(KdfParameters.DEFAULT_ALGORITHM, KdfParameters.DEFAULT_ITERATION_COUNT, 256);
+
+    private static byte[] createBytes(int length, int seed) {
+        byte[] bytes = new byte[length];
+
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte) (seed * 31 + i);
+        }
+
+        return bytes;
+    }
+
+    private static void assertSameContent(MacResult expected, MacResult actual) {
+        assertEquals(expected, actual);
+        assertEquals(expected.getAlgorithmId(), actual.getAlgorithmId());
+        assertEquals(expected.getKdfParameters(), actual.getKdfParameters());
+
+        MacCheckpoint expectedCheckpoint = expected.getCheckpoint();
+        MacCheckpoint actualCheckpoint = actual.getCheckpoint();
+
+        if (expectedCheckpoint == null) {
+            assertNull(actualCheckpoint);
+            return;
+        }
+
+        assertNotNull(actualCheckpoint);
+        assertEquals(expectedCheckpoint.getTotalLength(), actualCheckpoint.getTotalLength());
+        assertEquals(expectedCheckpoint.getPrefixLength(), actualCheckpoint.getPrefixLength());
+        assertArrayEquals(expectedCheckpoint.getPrefixTag(), actualCheckpoint.getPrefixTag());
+    }
+
+    @Test
+    public void linearResultShouldRoundTrip() throws IOException {
+        MacResult macResult = new MacResult(SALT, MAC_VALUE, "hmac-sha256", KDF_PARAMETERS);
+
+        assertSameContent(macResult, BinaryMacResultFormat.decode(BinaryMacResultFormat.encode(macResult)));
+    }
+
+    @Test
+    public void resultWithoutAlgorithmShouldRoundTrip() throws IOException {
+        MacResult macResult = new MacResult(SALT, MAC_VALUE);
+
+        assertSameContent(macResult, BinaryMacResultFormat.decode(BinaryMacResultFormat.encode(macResult)));
+    }
+
+    @Test
+    public void treeResultWithCheckpointShouldRoundTrip() throws IOException {
+        TreeMacResult macResult = new TreeMacResult(
+                SALT,
+                MAC_VALUE,
+                TreeMacResult.CURRENT_FORMAT_VERSION,
+                65536,
+                "hmac-sha256-tree",
+                KDF_PARAMETERS,
+                new MacCheckpoint(5000000, MacCheckpoint.DEFAULT_PREFIX_LENGTH, PREFIX_TAG)
+        );
+
+        MacResult decodedResult = BinaryMacResultFormat.decode(BinaryMacResultFormat.encode(macResult));
+
+        assertSameContent(macResult, decodedResult);
+        assertEquals(65536, ((TreeMacResult) decodedResult).getChunkSize());
+    }
+
+    @Test
+    public void checkpointWithoutPrefixTagShouldRoundTrip() throws IOException {
+        MacResult macResult = new MacResult(SALT, MAC_VALUE, "hmac-sha256", KDF_PARAMETERS, new MacCheckpoint(500));
+
+        assertSameContent(macResult, BinaryMacResultFormat.decode(BinaryMacResultFormat.encode(macResult)));
+    }
+
+    @Test
+    public void encodingShouldStartWithMagicNumber() {
+        assertTrue(BinaryMacResultFormat.hasMagicNumber(BinaryMacResultFormat.encode(new MacResult(SALT, MAC_VALUE))));
+        assertFalse(BinaryMacResultFormat.hasMagicNumber(new byte[]{1, 2, 3, 4, 5}));
+    }
+
+    @Test(expected = IOException.class)
+    public void invalidMagicNumberShouldBeRejected() throws IOException {
+        byte[] bytes = BinaryMacResultFormat.encode(new MacResult(SALT, MAC_VALUE));
+        bytes[0] ^= 1;
+
+        BinaryMacResultFormat.decode(bytes);
+    }
+
+    @Test(expected = IOException.class)
+    public void unsupportedVersionShouldBeRejected() throws IOException {
+        byte[] bytes = BinaryMacResultFormat.encode(new MacResult(SALT, MAC_VALUE));
+        bytes[4] = (byte) (BinaryMacResultFormat.FORMAT_VERSION + 1);
+
+        BinaryMacResultFormat.decode(bytes);
+    }
+
+    @Test(expected = IOException.class)
+    public void unknownFlagsShouldBeRejected() throws IOException {
+        byte[] bytes = BinaryMacResultFormat.encode(new MacResult(SALT, MAC_VALUE));
+        bytes[6] |= 0x80;
+
+        BinaryMacResultFormat.decode(bytes);
+    }
+
+    @Test
+    public void everyTruncationShouldBeRejected() {
+        byte[] bytes = BinaryMacResultFormat.encode(
+                new TreeMacResult(SALT, MAC_VALUE, TreeMacResult.CURRENT_FORMAT_VERSION, 65536, "hmac-sha256-tree", KDF_PARAMETERS, new MacCheckpoint(500))
+        );
+
+        for (int length = 0; length < bytes.length; length++) {
+            try {
+                BinaryMacResultFormat.decode(Arrays.copyOf(bytes, length));
+                fail(String.format("Truncation to %d bytes was accepted", length));
+            } catch (IOException ex) {
+                //Expected
+            }
+        }
+    }
+
+    @Test
+    public void invalidChunkSizesShouldBeRejected() throws IOException {
+        byte[] bytes = BinaryMacResultFormat.encode(new TreeMacResult(SALT, MAC_VALUE, 65536));
+
+        for (int chunkSize : new int[]{0, -1, TreeMacResult.MAX_CHUNK_SIZE + 1}) {
+            byte[] corruptBytes = bytes.clone();
+            int chunkSizeOffset = corruptBytes.length - 4;
+
+            corruptBytes[chunkSizeOffset] = (byte) (chunkSize >>> 24);
+            corruptBytes[chunkSizeOffset + 1] = (byte) (chunkSize >>> 16);
+            corruptBytes[chunkSizeOffset + 2] = (byte) (chunkSize >>> 8);
+            corruptBytes[chunkSizeOffset + 3] = (byte) chunkSize;
+
+            try {
+                BinaryMacResultFormat.decode(corruptBytes);
+                fail(String.format("Chunk size %d was accepted", chunkSize));
+            } catch (IOException ex) {
+                //Expected
+            }
+        }
+    }
+}